@@ -0,0 +1,94 @@
+package es.ujaen.ssccdd2026.banco.rendimiento;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import es.ujaen.ssccdd2026.banco.datos.CuentaBancaria;
+import es.ujaen.ssccdd2026.banco.datos.Movimiento;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark de CuentaBancaria.registrarMovimiento sobre una única cuenta
+ * compartida por todos los hilos (el caso de una cuenta muy caliente).
+ *
+ * El histórico se llena al preparar la cuenta, así que la medida incluye
+ * el coste de descartar el movimiento más antiguo.
+ *
+ * Incluye también la lectura de los últimos 10 movimientos con la vista sin
+ * copia frente a copiar el histórico entero (conviene ejecutarlas con -prof gc
+ * para comparar los bytes reservados por operación).
+ *
+ * @author Diego Gómez Sánchez
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CuentaBancariaBenchmark {
+
+    @Param({"1", "5"})
+    int numDivisas;
+
+    CuentaBancaria cuenta;
+
+    Movimiento[] movimientos;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        cuenta = new CuentaBancaria(EstadoBanco.ibanDeIndice(0), "Titular", TipoCuenta.EMPRESA);
+
+        // Movimientos precreados (ingreso y retirada por divisa) para medir solo el registro
+        Divisa[] todas = Divisa.values();
+        int divisas = Math.min(numDivisas, todas.length);
+        movimientos = new Movimiento[divisas * 2];
+        for (int i = 0; i < divisas; i++) {
+            movimientos[2 * i] = new Movimiento(Instant.now(), TipoMovimiento.INGRESO,
+                    1000L, todas[i], "Ingreso", 0L);
+            movimientos[2 * i + 1] = new Movimiento(Instant.now(), TipoMovimiento.RETIRADA,
+                    1000L, todas[i], "Retirada", 10L);
+        }
+
+        for (int i = 0; i < MAX_MOVIMIENTOS_HISTORICO; i++) {
+            cuenta.registrarMovimiento(movimientos[i % movimientos.length]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Contador {
+        int siguiente;
+    }
+
+    @Benchmark
+    public void registrarMovimiento(Contador contador) {
+        Movimiento mov = movimientos[contador.siguiente++ % movimientos.length];
+        cuenta.registrarMovimiento(mov);
+    }
+
+    @Benchmark
+    public List<Movimiento> ultimosMovimientosVista() {
+        List<Movimiento> vista = cuenta.getVistaMovimientos();
+        return List.copyOf(vista.subList(Math.max(0, vista.size() - 10), vista.size()));
+    }
+
+    @Benchmark
+    public List<Movimiento> ultimosMovimientosCopia() {
+        List<Movimiento> copia = cuenta.getMovimientos();
+        return copia.subList(Math.max(0, copia.size() - 10), copia.size());
+    }
+}
@@ -0,0 +1,84 @@
+package es.ujaen.ssccdd2026.banco.rendimiento;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import es.ujaen.ssccdd2026.banco.datos.GestorCuentas;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Estado compartido por todos los hilos de un benchmark: un banco con
+ * numCuentas cuentas activas y saldo inicial en las divisas del ensayo.
+ *
+ * PARÁMETROS (se cambian con -p nombre=valor):
+ * - numCuentas: número de cuentas del banco (de 1000 a 10 millones).
+ *   Con 10 millones hace falta ampliar el heap (-jvmArgs -Xmx8g).
+ * - numDivisas: cuántas divisas distintas se usan (1 = solo EUR, 5 = todas).
+ * - sesgo: fracción de operaciones que van a las NUM_CUENTAS_CALIENTES
+ *   primeras cuentas (0 = reparto uniforme, 0.9 = cuentas muy calientes).
+ *
+ * El número de hilos se elige con la opción -t de JMH.
+ *
+ * @author Diego Gómez Sánchez
+ */
+@State(Scope.Benchmark)
+public class EstadoBanco {
+
+    // Cuentas que reciben la fracción "sesgo" de las operaciones
+    static final int NUM_CUENTAS_CALIENTES = 16;
+
+    // Saldo inicial por divisa, suficiente para que las retiradas no se agoten
+    static final long SALDO_INICIAL = 1_000_000_000_000L;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int numCuentas;
+
+    @Param({"1", "5"})
+    int numDivisas;
+
+    @Param({"0", "0.9"})
+    double sesgo;
+
+    GestorCuentas gestor;
+
+    /**
+     * IBANs precalculados para no medir la construcción de cadenas.
+     */
+    String[] ibans;
+
+    Divisa[] divisas;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        gestor = new GestorCuentas();
+        ibans = new String[numCuentas];
+
+        Divisa[] todas = Divisa.values();
+        divisas = new Divisa[Math.min(numDivisas, todas.length)];
+        System.arraycopy(todas, 0, divisas, 0, divisas.length);
+
+        for (int i = 0; i < numCuentas; i++) {
+            ibans[i] = ibanDeIndice(i);
+            gestor.crearCuenta(ibans[i], "Titular " + i, TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(ibans[i]);
+            for (Divisa divisa : divisas) {
+                gestor.realizarIngreso(ibans[i], SALDO_INICIAL, divisa, "Saldo inicial");
+            }
+        }
+    }
+
+    /**
+     * IBAN determinista para la cuenta número i: "ES" + 22 dígitos.
+     */
+    static String ibanDeIndice(int i) {
+        String digitos = Integer.toString(i);
+        StringBuilder iban = new StringBuilder("ES");
+        for (int k = digitos.length(); k < 22; k++) {
+            iban.append('0');
+        }
+        return iban.append(digitos).toString();
+    }
+}
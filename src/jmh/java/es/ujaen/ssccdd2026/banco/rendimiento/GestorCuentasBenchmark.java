@@ -0,0 +1,111 @@
+package es.ujaen.ssccdd2026.banco.rendimiento;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import es.ujaen.ssccdd2026.banco.datos.CuentaBancaria;
+import es.ujaen.ssccdd2026.banco.datos.OperacionLote;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks de las operaciones de GestorCuentas.
+ *
+ * Mide el rendimiento (operaciones por microsegundo) de cada operación sobre
+ * un banco preparado por EstadoBanco. Para comparar un cambio con la versión
+ * anterior, ejecutar el mismo comando en ambas versiones y comparar los JSON
+ * generados en target/jmh-resultado.json.
+ *
+ * @author Diego Gómez Sánchez
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GestorCuentasBenchmark {
+
+    // Operaciones por lote en los benchmarks de realizarLote
+    private static final int TAMANO_LOTE = 1000;
+
+    @Benchmark
+    public boolean realizarIngreso(EstadoBanco banco, SelectorCuentas selector) {
+        return banco.gestor.realizarIngreso(banco.ibans[selector.cuenta(banco)],
+                selector.importe(), selector.divisa(banco), "Ingreso");
+    }
+
+    @Benchmark
+    public boolean realizarRetirada(EstadoBanco banco, SelectorCuentas selector) {
+        return banco.gestor.realizarRetirada(banco.ibans[selector.cuenta(banco)],
+                selector.importe(), selector.divisa(banco), "Retirada",
+                TipoComision.RETIRADA_CAJERO_EXTERNO);
+    }
+
+    /**
+     * Retirada con resultado detallado. Con -prof gc se comprueba que informar
+     * del motivo y del saldo no asigna memoria respecto a realizarRetirada.
+     */
+    @Benchmark
+    public long realizarRetiradaConResultado(EstadoBanco banco, SelectorCuentas selector) {
+        banco.gestor.realizarRetirada(banco.ibans[selector.cuenta(banco)],
+                selector.importe(), selector.divisa(banco), "Retirada",
+                TipoComision.RETIRADA_CAJERO_EXTERNO, selector.resultado);
+        return selector.resultado.getSaldo();
+    }
+
+    @Benchmark
+    public boolean realizarTransferencia(EstadoBanco banco, SelectorCuentas selector) {
+        int origen = selector.cuenta(banco);
+        int destino = selector.otraCuenta(banco, origen);
+        return banco.gestor.realizarTransferencia(banco.ibans[origen], banco.ibans[destino],
+                selector.importe(), selector.divisa(banco), "Transferencia",
+                TipoComision.TRANSFERENCIA_MISMA_ENTIDAD);
+    }
+
+    /**
+     * Lote de ingresos y transferencias. Se informa por operación (no por lote)
+     * para compararlo directamente con realizarIngreso y realizarTransferencia.
+     */
+    @Benchmark
+    @OperationsPerInvocation(TAMANO_LOTE)
+    public boolean[] realizarLote(EstadoBanco banco, SelectorCuentas selector) {
+        List<OperacionLote> lote = new ArrayList<>(TAMANO_LOTE);
+        for (int i = 0; i < TAMANO_LOTE; i++) {
+            int origen = selector.cuenta(banco);
+            if (i % 2 == 0) {
+                lote.add(OperacionLote.ingreso(banco.ibans[origen], selector.importe(),
+                        selector.divisa(banco), "Ingreso"));
+            } else {
+                int destino = selector.otraCuenta(banco, origen);
+                lote.add(OperacionLote.transferencia(banco.ibans[origen], banco.ibans[destino],
+                        selector.importe(), selector.divisa(banco), "Transferencia",
+                        TipoComision.TRANSFERENCIA_MISMA_ENTIDAD));
+            }
+        }
+        return banco.gestor.realizarLote(lote);
+    }
+
+    @Benchmark
+    public Optional<CuentaBancaria> buscarCuenta(EstadoBanco banco, SelectorCuentas selector) {
+        return banco.gestor.buscarCuenta(banco.ibans[selector.cuenta(banco)]);
+    }
+
+    /**
+     * Consulta por el índice de titulares (EstadoBanco da a cada cuenta un
+     * titular distinto: "Titular " + i).
+     */
+    @Benchmark
+    public List<CuentaBancaria> buscarPorTitular(EstadoBanco banco, SelectorCuentas selector) {
+        return banco.gestor.buscarPorTitular("Titular " + selector.cuenta(banco));
+    }
+}
@@ -0,0 +1,76 @@
+package es.ujaen.ssccdd2026.banco.rendimiento;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import es.ujaen.ssccdd2026.banco.datos.MotorParticiones;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencia de las transferencias con MotorParticiones frente a los cerrojos
+ * de GestorCuentas, sobre el banco de EstadoBanco.
+ *
+ * Se mide en modo SampleTime para obtener los percentiles (p99, p99.9...):
+ * lo interesante es la latencia de cola con cuentas calientes (-p sesgo=0.9)
+ * y varios hilos (-t). Cada llamada al motor espera a su resultado.
+ *
+ * @author Diego Gómez Sánchez
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MotorParticionesBenchmark {
+
+    @Param({"2", "4", "8"})
+    int numParticiones;
+
+    MotorParticiones motor;
+
+    @Setup(Level.Trial)
+    public void preparar(EstadoBanco banco) {
+        motor = new MotorParticiones(banco.gestor, numParticiones);
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() {
+        motor.close();
+    }
+
+    @Benchmark
+    public boolean transferenciaMotor(EstadoBanco banco, SelectorCuentas selector) {
+        int origen = selector.cuenta(banco);
+        int destino = selector.otraCuenta(banco, origen);
+        return motor.realizarTransferencia(banco.ibans[origen], banco.ibans[destino],
+                selector.importe(), selector.divisa(banco), "Transferencia",
+                TipoComision.TRANSFERENCIA_MISMA_ENTIDAD).join();
+    }
+
+    /**
+     * Misma operación con los cerrojos de GestorCuentas, para comparar
+     * percentiles (el motor está en marcha pero sin órdenes).
+     */
+    @Benchmark
+    public boolean transferenciaCerrojos(EstadoBanco banco, SelectorCuentas selector) {
+        int origen = selector.cuenta(banco);
+        int destino = selector.otraCuenta(banco, origen);
+        return banco.gestor.realizarTransferencia(banco.ibans[origen], banco.ibans[destino],
+                selector.importe(), selector.divisa(banco), "Transferencia",
+                TipoComision.TRANSFERENCIA_MISMA_ENTIDAD);
+    }
+}
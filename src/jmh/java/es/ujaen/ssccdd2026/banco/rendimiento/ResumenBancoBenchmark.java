@@ -0,0 +1,34 @@
+package es.ujaen.ssccdd2026.banco.rendimiento;
+
+import es.ujaen.ssccdd2026.banco.datos.ResumenBanco;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tiempo de GestorCuentas.calcularResumen sobre el banco de EstadoBanco.
+ *
+ * Para ver la ganancia del cálculo en paralelo, comparar con una ejecución
+ * limitada a un hilo:
+ * -jvmArgsAppend -Djava.util.concurrent.ForkJoinPool.common.parallelism=1
+ *
+ * @author Diego Gómez Sánchez
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResumenBancoBenchmark {
+
+    @Benchmark
+    public ResumenBanco calcularResumen(EstadoBanco banco) {
+        return banco.gestor.calcularResumen();
+    }
+}
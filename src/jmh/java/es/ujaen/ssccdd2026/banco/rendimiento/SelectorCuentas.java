@@ -0,0 +1,62 @@
+package es.ujaen.ssccdd2026.banco.rendimiento;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import es.ujaen.ssccdd2026.banco.datos.ResultadoOperacion;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+
+/**
+ * Estado propio de cada hilo: elige cuentas y divisas al azar respetando el
+ * sesgo del ensayo. Cada hilo tiene su generador para no compartir estado.
+ *
+ * @author Diego Gómez Sánchez
+ */
+@State(Scope.Thread)
+public class SelectorCuentas {
+
+    private final SplittableRandom aleatorio = new SplittableRandom();
+
+    // Resultado detallado reutilizado por todas las operaciones del hilo
+    final ResultadoOperacion resultado = new ResultadoOperacion();
+
+    /**
+     * Elige el índice de una cuenta. Con probabilidad "sesgo" es una de las
+     * cuentas calientes; en otro caso cualquiera con distribución uniforme.
+     */
+    int cuenta(EstadoBanco banco) {
+        int calientes = Math.min(EstadoBanco.NUM_CUENTAS_CALIENTES, banco.numCuentas);
+        if (banco.sesgo > 0 && aleatorio.nextDouble() < banco.sesgo) {
+            return aleatorio.nextInt(calientes);
+        }
+        return aleatorio.nextInt(banco.numCuentas);
+    }
+
+    /**
+     * Elige una cuenta distinta de la indicada (para transferencias).
+     */
+    int otraCuenta(EstadoBanco banco, int distintaDe) {
+        if (banco.numCuentas < 2) {
+            return distintaDe;
+        }
+
+        int otra;
+        do {
+            otra = cuenta(banco);
+        } while (otra == distintaDe);
+        return otra;
+    }
+
+    Divisa divisa(EstadoBanco banco) {
+        return banco.divisas[aleatorio.nextInt(banco.divisas.length)];
+    }
+
+    /**
+     * Importe entre 1 y 100 unidades (en céntimos).
+     */
+    long importe() {
+        return 100L + aleatorio.nextInt(9_901);
+    }
+}
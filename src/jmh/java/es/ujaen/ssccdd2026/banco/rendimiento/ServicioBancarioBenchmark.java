@@ -0,0 +1,83 @@
+package es.ujaen.ssccdd2026.banco.rendimiento;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import es.ujaen.ssccdd2026.banco.datos.ServicioBancario;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark de ServicioBancario: cuánto tarda en completarse una oleada de
+ * "sesiones" órdenes simultáneas, cada una en su hilo virtual, sobre el banco
+ * de EstadoBanco.
+ *
+ * Dividiendo el tiempo medio por el número de sesiones se obtiene el coste
+ * por orden; comparándolo con GestorCuentasBenchmark se ve cuánto añaden los
+ * hilos virtuales y los permisos por cuenta.
+ *
+ * @author Diego Gómez Sánchez
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServicioBancarioBenchmark {
+
+    /**
+     * Órdenes lanzadas a la vez en cada invocación.
+     */
+    @Param({"10000", "100000", "1000000"})
+    int sesiones;
+
+    @Param({"1", "4"})
+    int maxEnCursoPorCuenta;
+
+    ServicioBancario servicio;
+
+    @Setup(Level.Trial)
+    public void preparar(EstadoBanco banco) {
+        servicio = new ServicioBancario(banco.gestor, maxEnCursoPorCuenta);
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() {
+        servicio.close();
+    }
+
+    /**
+     * Mitad ingresos, mitad transferencias, esperando a que terminen todas.
+     */
+    @Benchmark
+    public Void oleada(EstadoBanco banco, SelectorCuentas selector) {
+        CompletableFuture<?>[] resultados = new CompletableFuture<?>[sesiones];
+        for (int i = 0; i < sesiones; i++) {
+            int origen = selector.cuenta(banco);
+            if (i % 2 == 0) {
+                resultados[i] = servicio.realizarIngreso(banco.ibans[origen], selector.importe(),
+                        selector.divisa(banco), "Ingreso");
+            } else {
+                int destino = selector.otraCuenta(banco, origen);
+                resultados[i] = servicio.realizarTransferencia(banco.ibans[origen],
+                        banco.ibans[destino], selector.importe(), selector.divisa(banco),
+                        "Transferencia", TipoComision.TRANSFERENCIA_MISMA_ENTIDAD);
+            }
+        }
+        return CompletableFuture.allOf(resultados).join();
+    }
+}
@@ -26,6 +26,27 @@ public interface Constantes {
     // Número máximo de movimientos en histórico
     int MAX_MOVIMIENTOS_HISTORICO = 1000;
 
+    // Número máximo de peticiones cuyo resultado se recuerda para reconocer reintentos
+    int MAX_PETICIONES_RECORDADAS = 100_000;
+
+    // Segundos durante los que se recuerda el resultado de una petición
+    long SEGUNDOS_IDEMPOTENCIA = 600;
+
+    // Movimientos que conserva el flujo de movimientos del gestor (potencia de 2)
+    int CAPACIDAD_FLUJO_MOVIMIENTOS = 1 << 16;
+
+    // Ventana deslizante (en segundos) de las reglas del detector de fraude
+    long SEGUNDOS_VENTANA_FRAUDE = 600;
+
+    // Salidas de dinero (retiradas y transferencias enviadas) permitidas en la ventana
+    int MAX_SALIDAS_VENTANA_FRAUDE = 10;
+
+    // Importe que puede salir de una cuenta en la ventana (en céntimos de cada divisa)
+    long MAX_IMPORTE_VENTANA_FRAUDE = 5000_00L;
+
+    // Destinos distintos de transferencias permitidos en la ventana
+    int MAX_DESTINOS_VENTANA_FRAUDE = 5;
+
     /**
      * Genera un IBAN español aleatorio con formato válido.
      *
@@ -300,4 +321,21 @@ public interface Constantes {
             return valores[aleatorio.nextInt(valores.length)];
         }
     }
+
+    /**
+     * Motivos por los que se rechaza una operación bancaria.
+     * <p>
+     * Las operaciones de GestorCuentas devuelven false en todos estos casos;
+     * el motivo concreto se contabiliza en las métricas del gestor para poder
+     * distinguir, por ejemplo, un IBAN desconocido de una falta de saldo.
+     * </p>
+     */
+    enum MotivoRechazo {
+        IMPORTE_NO_VALIDO,
+        CUENTA_INEXISTENTE,
+        CUENTA_NO_ACTIVA,
+        SALDO_INSUFICIENTE,
+        LIMITE_DIARIO_SUPERADO,
+        CAMBIO_NO_DISPONIBLE
+    }
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import java.time.Instant;
+
+/**
+ * Cuenta señalada por un DetectorFraude.
+ *
+ * @param iban IBAN de la cuenta
+ * @param motivo regla que ha superado
+ * @param divisa divisa de las salidas (null en DESTINOS, que cuenta todas)
+ * @param instante instante del movimiento que la ha disparado
+ * @param secuencia secuencia de ese movimiento en el flujo del gestor
+ * @param bloqueada true si el detector ha bloqueado la cuenta
+ *
+ * @author Diego Gómez Sánchez
+ */
+public record AlertaFraude(String iban, Motivo motivo, Divisa divisa, Instant instante,
+                           long secuencia, boolean bloqueada) {
+
+    /**
+     * Reglas del detector.
+     */
+    public enum Motivo {
+        /** Demasiadas salidas de dinero (retiradas y transferencias enviadas) */
+        SALIDAS,
+        /** Demasiado importe en salidas de dinero en una divisa */
+        IMPORTE,
+        /** Transferencias a demasiados destinos distintos */
+        DESTINOS
+    }
+}
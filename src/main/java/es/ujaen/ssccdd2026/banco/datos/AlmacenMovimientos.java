@@ -0,0 +1,569 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Almacén de movimientos de TODAS las cuentas del banco, guardado fuera del
+ * heap en segmentos por columnas.
+ *
+ * Con millones de cuentas y hasta 1000 movimientos por cuenta, los históricos
+ * son la mayor parte de la memoria y, al ser objetos de larga vida, el
+ * recolector tiene que recorrerlos una y otra vez. Aquí los movimientos se
+ * guardan en ByteBuffer directos (memoria nativa) que el recolector no recorre.
+ *
+ * ORGANIZACIÓN:
+ * - Franjas: las cuentas se reparten entre varias franjas independientes, cada
+ *   una con su cerrojo, para que las altas de movimientos de cuentas distintas
+ *   no compitan por un único cerrojo.
+ * - Segmentos: cada franja añade filas al final de segmentos de tamaño fijo
+ *   (solo se añade, nunca se modifica una fila). Dentro de un segmento cada
+ *   campo ocupa una zona contigua (columna): instantes, importes, comisiones,
+ *   fila anterior de la misma cuenta, descripción, tipo, divisa y tipo de
+ *   comisión. Un recorrido de todo el banco que solo mira dos columnas
+ *   (p. ej. totalComisiones) lee memoria consecutiva.
+ * - Cada fila guarda la fila anterior de su cuenta, así que el histórico de una
+ *   cuenta es una lista enlazada hacia atrás desde su última fila.
+ * - Las filas de una cuenta quedan en orden de llegada y no se reordenan, así
+ *   que una consulta por intervalo de tiempo (copiarEntre) recorre la lista
+ *   hacia atrás desde la última fila y se detiene en cuanto el resto queda
+ *   antes del intervalo (ver HistoricoMovimientos). Solo se reconstruyen los
+ *   movimientos que caen dentro.
+ * - Capacidad: cuando una franja llega a su número máximo de segmentos, el más
+ *   antiguo se descarta entero (sus filas dejan de verse en los históricos).
+ *   El almacén conserva, por tanto, los movimientos más recientes del banco:
+ *   hay que dimensionarlo para el volumen de movimientos que se quiere retener.
+ *
+ * CONCURRENCIA:
+ * - Las filas se escriben con el cerrojo de la franja y se publican después con
+ *   una escritura volatile (filasPublicadas). Una fila publicada no vuelve a
+ *   modificarse.
+ * - Un segmento descartado no se reutiliza: simplemente se deja de referenciar.
+ *   Quien lo estuviera leyendo conserva su referencia y lee datos válidos; la
+ *   memoria se libera cuando el recolector elimina el ByteBuffer.
+ *
+ * IMPORTANTE: la memoria directa está limitada por -XX:MaxDirectMemorySize
+ * (por defecto, el tamaño máximo del heap).
+ *
+ * @author Diego Gómez Sánchez
+ */
+public final class AlmacenMovimientos {
+
+    // Filas por segmento por defecto (cada segmento ocupa unos 2,5 MB)
+    private static final int FILAS_POR_SEGMENTO = 1 << 16;
+
+    // Bytes de cada fila: 4 long + 1 int + 3 byte
+    private static final int BYTES_POR_FILA = 4 * 8 + 4 + 3;
+
+    // Valor de "fila anterior" en la primera fila de una cuenta
+    private static final long SIN_FILA = -1;
+
+    // ============================================================================
+    // ATRIBUTOS
+    // ============================================================================
+
+    private final Franja[] franjas;
+
+    /**
+     * Reparto de las cuentas nuevas entre franjas (turno rotatorio).
+     */
+    private final AtomicInteger siguienteFranja;
+
+    private final int filasPorSegmento;
+
+    // Posición de cada columna dentro de un segmento
+    private final int columnaInstante;
+    private final int columnaImporte;
+    private final int columnaComision;
+    private final int columnaAnterior;
+    private final int columnaDescripcion;
+    private final int columnaTipo;
+    private final int columnaDivisa;
+    private final int columnaTipoComision;
+
+    /**
+     * Movimientos como máximo en el histórico de cada cuenta.
+     */
+    private final int capacidadPorCuenta;
+
+    private final DiccionarioDescripciones diccionario;
+
+
+    // ============================================================================
+    // CONSTRUCTORES
+    // ============================================================================
+
+    /**
+     * Crea un almacén que conserva aproximadamente los últimos capacidadFilas
+     * movimientos del banco.
+     *
+     * @param capacidadFilas número de movimientos a conservar (> 0)
+     * @throws IllegalArgumentException si la capacidad no es positiva
+     */
+    public AlmacenMovimientos(long capacidadFilas) {
+        this(capacidadFilas, Runtime.getRuntime().availableProcessors(), FILAS_POR_SEGMENTO,
+             MAX_MOVIMIENTOS_HISTORICO, DiccionarioDescripciones.COMPARTIDO);
+    }
+
+    /**
+     * Constructor completo (permite segmentos pequeños en los tests).
+     */
+    AlmacenMovimientos(long capacidadFilas, int numFranjas, int filasPorSegmento,
+                       int capacidadPorCuenta, DiccionarioDescripciones diccionario) {
+        if (capacidadFilas <= 0 || numFranjas <= 0 || filasPorSegmento <= 0
+                || capacidadPorCuenta <= 0) {
+            throw new IllegalArgumentException("Las capacidades deben ser mayores que 0");
+        }
+        if ((long) filasPorSegmento * BYTES_POR_FILA > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segmento demasiado grande");
+        }
+
+        this.filasPorSegmento = filasPorSegmento;
+        this.columnaInstante = 0;
+        this.columnaImporte = columnaInstante + 8 * filasPorSegmento;
+        this.columnaComision = columnaImporte + 8 * filasPorSegmento;
+        this.columnaAnterior = columnaComision + 8 * filasPorSegmento;
+        this.columnaDescripcion = columnaAnterior + 8 * filasPorSegmento;
+        this.columnaTipo = columnaDescripcion + 4 * filasPorSegmento;
+        this.columnaDivisa = columnaTipo + filasPorSegmento;
+        this.columnaTipoComision = columnaDivisa + filasPorSegmento;
+
+        this.capacidadPorCuenta = capacidadPorCuenta;
+        this.diccionario = diccionario;
+
+        // Al menos dos segmentos por franja, para no descartar el que se está llenando
+        long filasPorFranja = (capacidadFilas + numFranjas - 1) / numFranjas;
+        int segmentosPorFranja = (int) Math.max(2,
+                (filasPorFranja + filasPorSegmento - 1) / filasPorSegmento);
+
+        this.franjas = new Franja[numFranjas];
+        for (int i = 0; i < numFranjas; i++) {
+            franjas[i] = new Franja(segmentosPorFranja);
+        }
+        this.siguienteFranja = new AtomicInteger();
+    }
+
+
+    // ============================================================================
+    // HISTÓRICOS DE CUENTA
+    // ============================================================================
+
+    /**
+     * Crea el histórico de una cuenta nueva como vista sobre este almacén.
+     *
+     * @return histórico vacío
+     */
+    HistoricoMovimientos crearHistorico() {
+        int indice = Math.floorMod(siguienteFranja.getAndIncrement(), franjas.length);
+        return new VistaCuenta(franjas[indice]);
+    }
+
+
+    // ============================================================================
+    // RECORRIDOS DE TODO EL BANCO
+    // ============================================================================
+
+    /**
+     * Suma las comisiones cobradas en una divisa, por tipo de comisión, entre
+     * todos los movimientos que conserva el almacén.
+     *
+     * Solo lee las columnas de divisa, tipo de comisión y comisión. Los
+     * movimientos sin tipo de comisión conocido no se cuentan. Con operaciones
+     * en curso, incluye las filas publicadas al empezar cada franja.
+     *
+     * @param divisa divisa de las comisiones
+     * @return total de comisiones en céntimos para cada tipo de comisión
+     */
+    public Map<TipoComision, Long> totalComisiones(Divisa divisa) {
+        TipoComision[] tipos = TipoComision.values();
+        long[] totales = new long[tipos.length];
+        byte codigoDivisa = (byte) divisa.ordinal();
+
+        for (Franja franja : franjas) {
+            long fin = franja.filasPublicadas;
+            long fila = franja.primeraFilaViva;
+
+            while (fila < fin) {
+                long numero = fila / filasPorSegmento;
+                Segmento segmento = franja.segmento(numero);
+                long finSegmento = Math.min(fin, (numero + 1) * filasPorSegmento);
+                if (segmento != null) {
+                    ByteBuffer datos = segmento.datos;
+                    for (int i = (int) (fila % filasPorSegmento),
+                             n = (int) (finSegmento - numero * filasPorSegmento); i < n; i++) {
+                        int codigo = CodecMovimiento.sinSentido(datos.get(columnaTipoComision + i));
+                        if (codigo != 0 && datos.get(columnaDivisa + i) == codigoDivisa) {
+                            totales[codigo - 1] += datos.getLong(columnaComision + 8 * i);
+                        }
+                    }
+                }
+                fila = finSegmento;
+            }
+        }
+
+        Map<TipoComision, Long> resultado = new EnumMap<>(TipoComision.class);
+        for (TipoComision tipo : tipos) {
+            resultado.put(tipo, totales[tipo.ordinal()]);
+        }
+        return resultado;
+    }
+
+    /**
+     * @return número de movimientos que conserva ahora mismo el almacén
+     */
+    public long getNumMovimientos() {
+        long total = 0;
+        for (Franja franja : franjas) {
+            total += franja.filasPublicadas - franja.primeraFilaViva;
+        }
+        return total;
+    }
+
+
+    // ============================================================================
+    // SEGMENTOS Y FRANJAS
+    // ============================================================================
+
+    /**
+     * Bloque de filasPorSegmento filas en memoria directa.
+     */
+    private static final class Segmento {
+
+        final long numero;
+        final ByteBuffer datos;
+
+        /**
+         * Descripciones que no caben en el diccionario (se crea solo si hace falta).
+         */
+        String[] descripcionesSueltas;
+
+        Segmento(long numero, int bytes) {
+            this.numero = numero;
+            this.datos = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * Secuencia de segmentos donde se añaden las filas de un grupo de cuentas.
+     */
+    private final class Franja {
+
+        private final ReentrantLock cerrojo = new ReentrantLock();
+
+        /**
+         * Segmentos vivos; el segmento n ocupa la posición n % longitud.
+         */
+        private final AtomicReferenceArray<Segmento> segmentos;
+
+        /**
+         * Número de filas escritas y visibles para los recorridos.
+         */
+        volatile long filasPublicadas;
+
+        /**
+         * Primera fila que no se ha descartado.
+         */
+        volatile long primeraFilaViva;
+
+        Franja(int maxSegmentos) {
+            this.segmentos = new AtomicReferenceArray<>(maxSegmentos);
+        }
+
+        /**
+         * @return el segmento con ese número, o null si ya se descartó
+         */
+        Segmento segmento(long numero) {
+            Segmento segmento = segmentos.get((int) (numero % segmentos.length()));
+            return segmento != null && segmento.numero == numero ? segmento : null;
+        }
+
+        /**
+         * Añade una fila al final de la franja.
+         *
+         * @return número de la fila añadida
+         */
+        long anadir(Movimiento mov, int descripcion, long anterior) {
+            cerrojo.lock();
+            try {
+                long fila = filasPublicadas;
+                long numero = fila / filasPorSegmento;
+                int i = (int) (fila % filasPorSegmento);
+
+                Segmento segmento;
+                if (i == 0) {
+                    // Segmento nuevo: sustituye (descarta) al más antiguo si no hay sitio
+                    segmento = new Segmento(numero, filasPorSegmento * BYTES_POR_FILA);
+                    long descartado = numero - segmentos.length();
+                    if (descartado >= 0) {
+                        primeraFilaViva = (descartado + 1) * filasPorSegmento;
+                    }
+                    segmentos.set((int) (numero % segmentos.length()), segmento);
+                } else {
+                    segmento = segmentos.get((int) (numero % segmentos.length()));
+                }
+
+                ByteBuffer datos = segmento.datos;
+                datos.putLong(columnaInstante + 8 * i, CodecMovimiento.aNanos(mov.getInstante()));
+                datos.putLong(columnaImporte + 8 * i, mov.getImporte());
+                datos.putLong(columnaComision + 8 * i, mov.getComision());
+                datos.putLong(columnaAnterior + 8 * i, anterior);
+                datos.putInt(columnaDescripcion + 4 * i, descripcion);
+                datos.put(columnaTipo + i, (byte) mov.getTipo().ordinal());
+                datos.put(columnaDivisa + i, (byte) mov.getDivisa().ordinal());
+                datos.put(columnaTipoComision + i, (byte) CodecMovimiento.codigoComision(mov));
+
+                if (descripcion == DiccionarioDescripciones.SIN_ID) {
+                    if (segmento.descripcionesSueltas == null) {
+                        segmento.descripcionesSueltas = new String[filasPorSegmento];
+                    }
+                    segmento.descripcionesSueltas[i] = mov.getDescripcion();
+                }
+
+                // Publicar la fila (escritura volatile después de los datos)
+                filasPublicadas = fila + 1;
+                return fila;
+            } finally {
+                cerrojo.unlock();
+            }
+        }
+
+        /**
+         * @return fila anterior de la misma cuenta, o SIN_FILA si no la hay o
+         *         ya se descartó
+         */
+        long anterior(long fila) {
+            Segmento segmento = segmento(fila / filasPorSegmento);
+            if (segmento == null) {
+                return SIN_FILA;
+            }
+            long anterior = segmento.datos.getLong(
+                    columnaAnterior + 8 * (int) (fila % filasPorSegmento));
+            return anterior >= primeraFilaViva ? anterior : SIN_FILA;
+        }
+
+        /**
+         * @return instante de la fila en epoch-nanos, o Long.MIN_VALUE si ya se descartó
+         */
+        long instante(long fila) {
+            Segmento segmento = segmento(fila / filasPorSegmento);
+            if (segmento == null) {
+                return Long.MIN_VALUE;
+            }
+            return segmento.datos.getLong(columnaInstante + 8 * (int) (fila % filasPorSegmento));
+        }
+
+        /**
+         * @param codigoTipo ordinal del tipo de movimiento, o -1 para cualquiera
+         * @param codigoDivisa ordinal de la divisa, o -1 para cualquiera
+         * @return true si la fila sigue viva y es de ese tipo y esa divisa
+         */
+        boolean esDeTipoYDivisa(long fila, int codigoTipo, int codigoDivisa) {
+            Segmento segmento = segmento(fila / filasPorSegmento);
+            if (segmento == null) {
+                return false;
+            }
+            int i = (int) (fila % filasPorSegmento);
+            return (codigoTipo < 0 || segmento.datos.get(columnaTipo + i) == codigoTipo)
+                    && (codigoDivisa < 0 || segmento.datos.get(columnaDivisa + i) == codigoDivisa);
+        }
+
+        /**
+         * Reconstruye el movimiento de una fila, o null si ya se descartó.
+         */
+        Movimiento leer(long fila) {
+            Segmento segmento = segmento(fila / filasPorSegmento);
+            if (segmento == null) {
+                return null;
+            }
+
+            ByteBuffer datos = segmento.datos;
+            int i = (int) (fila % filasPorSegmento);
+            int id = datos.getInt(columnaDescripcion + 4 * i);
+            String descripcion = id == DiccionarioDescripciones.SIN_ID
+                    ? segmento.descripcionesSueltas[i]
+                    : diccionario.texto(id);
+
+            return CodecMovimiento.movimiento(datos.getLong(columnaInstante + 8 * i),
+                                              CodecMovimiento.tipo(datos.get(columnaTipo + i)),
+                                              datos.getLong(columnaImporte + 8 * i),
+                                              CodecMovimiento.divisa(datos.get(columnaDivisa + i)),
+                                              descripcion,
+                                              datos.getLong(columnaComision + 8 * i),
+                                              datos.get(columnaTipoComision + i));
+        }
+    }
+
+
+    // ============================================================================
+    // VISTA DEL HISTÓRICO DE UNA CUENTA
+    // ============================================================================
+
+    /**
+     * Histórico de una cuenta: solo guarda en el heap la última fila de la
+     * cuenta y cuántas tiene. Se sincroniza sobre sí misma, como HistoricoEnMemoria.
+     */
+    private final class VistaCuenta implements HistoricoMovimientos {
+
+        private final Franja franja;
+
+        /**
+         * Primera y última fila de la cuenta en la franja (SIN_FILA si no hay).
+         */
+        private long primeraFila = SIN_FILA;
+        private long ultimaFila = SIN_FILA;
+
+        /**
+         * Movimientos añadidos desde la creación.
+         */
+        private long total;
+
+        /**
+         * Mayor instante añadido y mayor retraso observado, en nanosegundos
+         * (ver HistoricoMovimientos).
+         */
+        private long instanteMaximo = Long.MIN_VALUE;
+        private long retrasoMaximo;
+
+        VistaCuenta(Franja franja) {
+            this.franja = franja;
+        }
+
+        @Override
+        public void anadir(Movimiento mov) {
+            int descripcion = diccionario.id(mov.getDescripcion());
+
+            long nanos = CodecMovimiento.aNanos(mov.getInstante());
+
+            synchronized (this) {
+                if (nanos >= instanteMaximo) {
+                    instanteMaximo = nanos;
+                } else {
+                    long retraso = instanteMaximo - nanos;
+                    retrasoMaximo = Math.max(retrasoMaximo, retraso < 0 ? Long.MAX_VALUE : retraso);
+                }
+
+                ultimaFila = franja.anadir(mov, descripcion, ultimaFila);
+                if (primeraFila == SIN_FILA) {
+                    primeraFila = ultimaFila;
+                }
+                total++;
+            }
+        }
+
+        @Override
+        public synchronized int tamano() {
+            int maximo = (int) Math.min(total, capacidadPorCuenta);
+
+            // Caso habitual: no se ha descartado ninguna fila de la cuenta
+            if (primeraFila == SIN_FILA || primeraFila >= franja.primeraFilaViva) {
+                return maximo;
+            }
+            return filasConservadas(new long[maximo]);
+        }
+
+        @Override
+        public synchronized List<Movimiento> copiar() {
+            long[] filas = new long[(int) Math.min(total, capacidadPorCuenta)];
+            int numFilas = filasConservadas(filas);
+
+            // Las filas se recorren de la más reciente a la más antigua
+            List<Movimiento> copia = new ArrayList<>(numFilas);
+            for (int i = numFilas - 1; i >= 0; i--) {
+                Movimiento mov = franja.leer(filas[i]);
+                if (mov != null) {
+                    copia.add(mov);
+                }
+            }
+            return copia;
+        }
+
+        @Override
+        public synchronized List<Movimiento> copiarEntre(long desde, long hasta,
+                                                         TipoMovimiento tipo, Divisa divisa) {
+            List<Movimiento> copia = new ArrayList<>();
+            if (desde >= hasta) {
+                return copia;
+            }
+
+            long cotaInferior = CodecMovimiento.sumarAcotado(desde, -retrasoMaximo);
+            int codigoTipo = tipo == null ? -1 : tipo.ordinal();
+            int codigoDivisa = divisa == null ? -1 : divisa.ordinal();
+
+            // Filas del intervalo, de la más reciente a la más antigua
+            long[] filas = new long[16];
+            int numFilas = 0;
+            int maximo = (int) Math.min(total, capacidadPorCuenta);
+            long fila = ultimaFila >= franja.primeraFilaViva ? ultimaFila : SIN_FILA;
+            for (int vistas = 0; fila != SIN_FILA && vistas < maximo; vistas++) {
+                long instante = franja.instante(fila);
+                if (instante < cotaInferior) {
+                    // Todas las anteriores quedan antes de desde
+                    break;
+                }
+                if (instante >= desde && instante < hasta
+                        && franja.esDeTipoYDivisa(fila, codigoTipo, codigoDivisa)) {
+                    if (numFilas == filas.length) {
+                        filas = Arrays.copyOf(filas, numFilas * 2);
+                    }
+                    filas[numFilas++] = fila;
+                }
+                fila = franja.anterior(fila);
+            }
+
+            for (int i = numFilas - 1; i >= 0; i--) {
+                Movimiento mov = franja.leer(filas[i]);
+                if (mov != null) {
+                    copia.add(mov);
+                }
+            }
+            return copia;
+        }
+
+        @Override
+        public synchronized Movimiento leer(long numero) {
+            if (numero < total - capacidadPorCuenta || numero < 0 || numero >= total) {
+                return null;
+            }
+
+            // Se llega a la fila retrocediendo desde la última
+            long fila = ultimaFila >= franja.primeraFilaViva ? ultimaFila : SIN_FILA;
+            for (long n = total - 1; n > numero && fila != SIN_FILA; n--) {
+                fila = franja.anterior(fila);
+            }
+            return fila == SIN_FILA ? null : franja.leer(fila);
+        }
+
+        @Override
+        public synchronized VistaMovimientos vista() {
+            int tamano = tamano();
+            return new VistaMovimientos(this, total - tamano, tamano);
+        }
+
+        /**
+         * Recorre la lista enlazada hacia atrás desde la última fila.
+         *
+         * @param filas array donde dejar las filas vivas de la cuenta, de la
+         *              más reciente a la más antigua (su longitud es el máximo)
+         * @return número de filas encontradas
+         */
+        private int filasConservadas(long[] filas) {
+            int numFilas = 0;
+            long fila = ultimaFila >= franja.primeraFilaViva ? ultimaFila : SIN_FILA;
+            while (fila != SIN_FILA && numFilas < filas.length) {
+                filas[numFilas++] = fila;
+                fila = franja.anterior(fila);
+            }
+            return numFilas;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Resultados recientes de las operaciones de GestorCuentas que llevan un
+ * identificador de petición del cliente. Si el cliente reintenta (p. ej. tras
+ * un timeout) con el mismo identificador, recibe el resultado original y la
+ * operación no se vuelve a ejecutar: una transferencia reintentada no mueve
+ * el dinero dos veces.
+ *
+ * FUNCIONAMIENTO:
+ * - Cada identificador tiene una entrada con el resultado (un CompletableFuture)
+ *   y su caducidad. La primera petición la inserta con putIfAbsent y ejecuta la
+ *   operación; un reintento que llegue mientras tanto espera a ese mismo
+ *   resultado en lugar de ejecutarla otra vez.
+ * - Si la operación lanza una excepción, la entrada se retira (un reintento
+ *   puede volver a ejecutarla) y la excepción llega también a quien esperaba.
+ * - La entrada recuerda qué operación era: reutilizar un identificador para
+ *   otra operación es un error del cliente (IllegalArgumentException).
+ *
+ * LÍMITES (tamaño y tiempo):
+ * Las entradas se encolan en orden de llegada. Al terminar una operación, y en
+ * cada consulta que encuentra una entrada caducada, se descartan desde la
+ * cabeza las que ya han caducado y, si se supera la capacidad, las más
+ * antiguas. Como los reintentos llegan poco después de la petición original,
+ * descartar por antigüedad equivale en la práctica a LRU, sin mover las
+ * entradas en cada consulta. Una entrada cuya operación sigue en curso no se
+ * descarta nunca: se pasa al final de la cola y se sigue con las demás, así que
+ * una operación lenta no impide respetar la capacidad.
+ *
+ * COSTE: una consulta es un get del ConcurrentHashMap; una petición nueva
+ * añade un putIfAbsent y un offer en una cola sin cerrojos. Las operaciones
+ * sin identificador no pasan por aquí.
+ *
+ * Las entradas solo viven en memoria: tras reiniciar el gestor se olvidan.
+ *
+ * @author Diego Gómez Sánchez
+ */
+final class CacheIdempotencia {
+
+    private final ConcurrentHashMap<String, Entrada> entradas;
+
+    /**
+     * Entradas en orden de llegada (para descartar las más antiguas).
+     */
+    private final ConcurrentLinkedQueue<Entrada> orden;
+
+    /**
+     * Número de entradas en la cola.
+     */
+    private final AtomicInteger enCola;
+
+    private final int capacidad;
+    private final long duracionNanos;
+
+
+    // ============================================================================
+    // CONSTRUCTOR
+    // ============================================================================
+
+    /**
+     * @param capacidad número máximo de peticiones recordadas (> 0)
+     * @param segundos tiempo durante el que se recuerda cada resultado (> 0)
+     * @throws IllegalArgumentException si algún límite no es positivo
+     */
+    CacheIdempotencia(int capacidad, long segundos) {
+        if (capacidad <= 0 || segundos <= 0) {
+            throw new IllegalArgumentException("Los límites deben ser mayores que 0");
+        }
+
+        this.entradas = new ConcurrentHashMap<>();
+        this.orden = new ConcurrentLinkedQueue<>();
+        this.enCola = new AtomicInteger();
+        this.capacidad = capacidad;
+        this.duracionNanos = TimeUnit.SECONDS.toNanos(segundos);
+    }
+
+
+    // ============================================================================
+    // EJECUCIÓN
+    // ============================================================================
+
+    /**
+     * Ejecuta la operación una sola vez por identificador de petición.
+     *
+     * @param idPeticion identificador del cliente (no null)
+     * @param operacion nombre de la operación (para detectar identificadores reutilizados)
+     * @param accion operación a ejecutar si la petición es nueva
+     * @return resultado de la primera ejecución con ese identificador
+     * @throws IllegalArgumentException si el identificador se usó para otra operación
+     */
+    @SuppressWarnings("unchecked")
+    <R> R ejecutar(String idPeticion, String operacion, Supplier<R> accion) {
+        long ahora = System.nanoTime();
+        Entrada nueva = null;
+
+        while (true) {
+            Entrada existente = entradas.get(idPeticion);
+            if (existente != null && !existente.caducada(ahora)) {
+                if (!existente.operacion.equals(operacion)) {
+                    throw new IllegalArgumentException("El identificador de petición "
+                            + idPeticion + " ya se usó para " + existente.operacion);
+                }
+                return (R) existente.esperar();
+            }
+            if (existente != null) {
+                // Hay entradas caducadas: se aprovecha para descartarlas
+                descartar(ahora);
+            }
+
+            if (nueva == null) {
+                nueva = new Entrada(idPeticion, operacion, ahora + duracionNanos);
+            }
+            boolean insertada = existente == null
+                    ? entradas.putIfAbsent(idPeticion, nueva) == null
+                    : entradas.replace(idPeticion, existente, nueva);
+            if (insertada) {
+                break;
+            }
+            // Otro hilo ha insertado o sustituido la entrada a la vez: volver a mirar
+        }
+
+        orden.offer(nueva);
+        enCola.incrementAndGet();
+
+        R resultado;
+        try {
+            resultado = accion.get();
+        } catch (RuntimeException | Error e) {
+            entradas.remove(idPeticion, nueva);
+            nueva.resultado.completeExceptionally(e);
+            descartar(ahora);
+            throw e;
+        }
+        nueva.resultado.complete(resultado);
+
+        descartar(ahora);
+        return resultado;
+    }
+
+    /**
+     * @return número de peticiones recordadas (aproximado con operaciones en curso)
+     */
+    int tamano() {
+        return entradas.size();
+    }
+
+    /**
+     * Descarta desde la cabeza de la cola las entradas caducadas y las que
+     * sobran por capacidad. Las que siguen en curso se pasan al final de la
+     * cola, cada una como mucho una vez por llamada.
+     */
+    private void descartar(long ahora) {
+        int enCursoPorSaltar = enCola.get();
+        Entrada cabeza;
+        while ((cabeza = orden.peek()) != null
+                && (enCola.get() > capacidad || cabeza.caducada(ahora)
+                    || !cabeza.resultado.isDone())) {
+            if (!orden.remove(cabeza)) {
+                // Otro hilo la ha retirado antes
+                continue;
+            }
+            if (!cabeza.resultado.isDone()) {
+                orden.offer(cabeza);
+                if (--enCursoPorSaltar <= 0) {
+                    // Todas las que quedan están en curso
+                    return;
+                }
+                continue;
+            }
+            enCola.decrementAndGet();
+            // Solo si no se ha sustituido ya por una entrada más reciente
+            entradas.remove(cabeza.idPeticion, cabeza);
+        }
+    }
+
+
+    // ============================================================================
+    // ENTRADAS
+    // ============================================================================
+
+    private static final class Entrada {
+
+        final String idPeticion;
+        final String operacion;
+
+        /**
+         * Instante (System.nanoTime) a partir del cual se olvida el resultado.
+         */
+        final long caducidad;
+
+        final CompletableFuture<Object> resultado = new CompletableFuture<>();
+
+        Entrada(String idPeticion, String operacion, long caducidad) {
+            this.idPeticion = idPeticion;
+            this.operacion = operacion;
+            this.caducidad = caducidad;
+        }
+
+        /**
+         * Una entrada en curso no caduca: su reintento tiene que esperarla.
+         */
+        boolean caducada(long ahora) {
+            return resultado.isDone() && ahora - caducidad > 0;
+        }
+
+        /**
+         * Espera al resultado de la primera ejecución y lo devuelve (o relanza
+         * su excepción).
+         */
+        Object esperar() {
+            try {
+                return resultado.join();
+            } catch (CompletionException e) {
+                Throwable causa = e.getCause();
+                if (causa instanceof RuntimeException) {
+                    throw (RuntimeException) causa;
+                }
+                if (causa instanceof Error) {
+                    throw (Error) causa;
+                }
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * Codificación binaria compacta de un Movimiento.
+ *
+ * FORMATO (en este orden):
+ * - long   instante en nanosegundos desde 1970 (epoch-nanos)
+ * - byte   ordinal del TipoMovimiento
+ * - byte   ordinal de la Divisa
+ * - byte   ordinal del TipoComision + 1 (0 si no se conoce), más el sentido:
+ *          SALIDA (débito) o ENTRADA (crédito)
+ * - varint importe en céntimos
+ * - varint comisión en céntimos
+ * - UTF    descripción
+ *
+ * Los importes se escriben como varint (7 bits por byte, el bit alto indica
+ * que siguen más bytes): un importe de hasta 163,83 € ocupa 2 bytes en lugar
+ * de 8, y una comisión 0 ocupa 1. Un movimiento típico queda en unos 30-40
+ * bytes, frente a más de 100 del objeto Movimiento con su Instant y su String.
+ *
+ * Se usa en el diario, en las instantáneas y para exportar movimientos. Cada
+ * registro es autocontenido (la descripción va escrita completa). El histórico
+ * en memoria usa las mismas columnas, pero con la descripción codificada en un
+ * diccionario (ver HistoricoMovimientos y DiccionarioDescripciones).
+ *
+ * SENTIDO: el tipo no basta para saber si un CAMBIO_DIVISA es la salida o la
+ * entrada del cambio, así que se guarda siempre en dos bits libres del byte
+ * del tipo de comisión. Un registro sin ninguno de los dos bits (escrito antes
+ * de guardarse el sentido) toma el sentido del tipo, como los constructores de
+ * Movimiento que no lo indican: un CAMBIO_DIVISA así es un crédito.
+ *
+ * @author Diego Gómez Sánchez
+ */
+public final class CodecMovimiento {
+
+    // Límites de un instante expresado en nanosegundos en un long
+    private static final Instant MINIMO = Instant.ofEpochSecond(0, Long.MIN_VALUE);
+    private static final Instant MAXIMO = Instant.ofEpochSecond(0, Long.MAX_VALUE);
+
+    private static final long NANOS_POR_SEGUNDO = 1_000_000_000L;
+
+    private static final TipoMovimiento[] TIPOS = TipoMovimiento.values();
+    private static final Divisa[] DIVISAS = Divisa.values();
+    private static final TipoComision[] TIPOS_COMISION = TipoComision.values();
+
+    // Bits del sentido en el byte del tipo de comisión (el código ocupa los 5 bajos)
+    private static final int SALIDA = 0x40;
+    private static final int ENTRADA = 0x20;
+    private static final int MASCARA_COMISION = 0x1F;
+
+    private CodecMovimiento() {
+    }
+
+
+    // ============================================================================
+    // CODIFICACIÓN Y DECODIFICACIÓN
+    // ============================================================================
+
+    /**
+     * Escribe un movimiento.
+     *
+     * @param salida flujo de salida
+     * @param mov movimiento a escribir
+     * @throws IOException si falla la escritura
+     */
+    public static void escribir(DataOutput salida, Movimiento mov) throws IOException {
+        salida.writeLong(aNanos(mov.getInstante()));
+        salida.writeByte(mov.getTipo().ordinal());
+        salida.writeByte(mov.getDivisa().ordinal());
+        salida.writeByte(codigoComision(mov));
+        escribirVarLong(salida, mov.getImporte());
+        escribirVarLong(salida, mov.getComision());
+        salida.writeUTF(mov.getDescripcion());
+    }
+
+    /**
+     * Lee un movimiento escrito con {@link #escribir}.
+     *
+     * @param entrada flujo de entrada
+     * @return movimiento leído
+     * @throws IOException si falla la lectura o los datos no son válidos
+     */
+    public static Movimiento leer(DataInput entrada) throws IOException {
+        long nanos = entrada.readLong();
+        int tipo = entrada.readUnsignedByte();
+        int divisa = entrada.readUnsignedByte();
+        int tipoComision = entrada.readUnsignedByte();
+        long importe = leerVarLong(entrada);
+        long comision = leerVarLong(entrada);
+        String descripcion = entrada.readUTF();
+
+        if (tipo >= TIPOS.length || divisa >= DIVISAS.length
+                || sinSentido(tipoComision) > TIPOS_COMISION.length) {
+            throw new IOException("Movimiento codificado no válido");
+        }
+
+        try {
+            return movimiento(nanos, TIPOS[tipo], importe, DIVISAS[divisa], descripcion,
+                              comision, tipoComision);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Movimiento codificado no válido", e);
+        }
+    }
+
+    /**
+     * Reconstruye un movimiento a partir de sus columnas.
+     *
+     * @param codigo tipo de comisión y sentido, como los da codigoComision(Movimiento)
+     * @throws IllegalArgumentException si los datos no forman un movimiento válido
+     */
+    static Movimiento movimiento(long nanos, TipoMovimiento tipo, long importe, Divisa divisa,
+                                 String descripcion, long comision, int codigo) {
+        boolean debito;
+        if ((codigo & SALIDA) != 0) {
+            debito = true;
+        } else if ((codigo & ENTRADA) != 0) {
+            debito = false;
+        } else {
+            debito = Movimiento.debitoPorTipo(tipo);
+        }
+
+        return new Movimiento(deNanos(nanos), tipo, importe, divisa, descripcion, comision,
+                              tipoComision(codigo), debito);
+    }
+
+
+    // ============================================================================
+    // INSTANTES
+    // ============================================================================
+
+    /**
+     * @param instante instante a comprobar
+     * @return true si el instante cabe en nanosegundos desde 1970 (años 1677 a 2262)
+     */
+    public static boolean esRepresentable(Instant instante) {
+        return !instante.isBefore(MINIMO) && !instante.isAfter(MAXIMO);
+    }
+
+    /**
+     * Convierte un instante a nanosegundos desde 1970.
+     * El instante debe ser representable (lo garantiza el constructor de Movimiento).
+     */
+    static long aNanos(Instant instante) {
+        return instante.getEpochSecond() * NANOS_POR_SEGUNDO + instante.getNano();
+    }
+
+    /**
+     * Convierte nanosegundos desde 1970 a Instant.
+     */
+    static Instant deNanos(long nanos) {
+        return Instant.ofEpochSecond(Math.floorDiv(nanos, NANOS_POR_SEGUNDO),
+                                     Math.floorMod(nanos, NANOS_POR_SEGUNDO));
+    }
+
+    /**
+     * Como aNanos, pero admite cualquier instante: los que no son representables
+     * se llevan al extremo más cercano (útil para los límites de una consulta).
+     */
+    static long aNanosAcotado(Instant instante) {
+        if (instante.isBefore(MINIMO)) {
+            return Long.MIN_VALUE;
+        }
+        if (instante.isAfter(MAXIMO)) {
+            return Long.MAX_VALUE;
+        }
+        return aNanos(instante);
+    }
+
+    /**
+     * Suma de dos valores en nanosegundos que se queda en Long.MIN_VALUE o
+     * Long.MAX_VALUE en lugar de desbordarse.
+     */
+    static long sumarAcotado(long a, long b) {
+        long suma = a + b;
+        if (((a ^ suma) & (b ^ suma)) < 0) {
+            return b > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+        }
+        return suma;
+    }
+
+    static TipoMovimiento tipo(int ordinal) {
+        return TIPOS[ordinal];
+    }
+
+    static Divisa divisa(int ordinal) {
+        return DIVISAS[ordinal];
+    }
+
+    /**
+     * @return ordinal del tipo de comisión + 1, o 0 si es null
+     */
+    static int codigoComision(TipoComision tipoComision) {
+        return tipoComision == null ? 0 : tipoComision.ordinal() + 1;
+    }
+
+    /**
+     * @return codigoComision del tipo de comisión del movimiento, más el bit de
+     *         su sentido
+     */
+    static int codigoComision(Movimiento mov) {
+        return codigoComision(mov.getTipoComision()) | (mov.esDebito() ? SALIDA : ENTRADA);
+    }
+
+    /**
+     * @return el código del tipo de comisión sin el bit del sentido
+     */
+    static int sinSentido(int codigo) {
+        return codigo & MASCARA_COMISION;
+    }
+
+    static TipoComision tipoComision(int codigo) {
+        codigo = sinSentido(codigo);
+        return codigo == 0 ? null : TIPOS_COMISION[codigo - 1];
+    }
+
+
+    // ============================================================================
+    // VARINT
+    // ============================================================================
+
+    /**
+     * Escribe un valor no negativo en 1 a 9 bytes, 7 bits por byte empezando por
+     * los menos significativos. El bit alto de cada byte indica si sigue otro.
+     */
+    static void escribirVarLong(DataOutput salida, long valor) throws IOException {
+        while ((valor & ~0x7FL) != 0) {
+            salida.writeByte((int) ((valor & 0x7F) | 0x80));
+            valor >>>= 7;
+        }
+        salida.writeByte((int) valor);
+    }
+
+    static long leerVarLong(DataInput entrada) throws IOException {
+        long valor = 0;
+        for (int desplazamiento = 0; desplazamiento < 64; desplazamiento += 7) {
+            int b = entrada.readUnsignedByte();
+            valor |= (long) (b & 0x7F) << desplazamiento;
+            if ((b & 0x80) == 0) {
+                return valor;
+            }
+        }
+        throw new IOException("Varint demasiado largo");
+    }
+}
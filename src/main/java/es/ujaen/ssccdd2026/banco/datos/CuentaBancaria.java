@@ -5,10 +5,13 @@ package es.ujaen.ssccdd2026.banco.datos;
 
 import static es.ujaen.ssccdd2026.banco.Constantes.*;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.time.Instant;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Representa una cuenta bancaria que puede mantener saldos en múltiples divisas
@@ -23,6 +26,19 @@ import java.util.Map;
  * Los getters de colecciones devuelven copias defensivas para evitar modificaciones
  * externas no controladas. Esto será crucial cuando trabajemos con múltiples hilos.
  *
+ * CONCURRENCIA:
+ * - Los saldos se guardan en un AtomicLongArray y se actualizan sin cerrojos:
+ *   los créditos con una suma atómica y los débitos condicionales con CAS
+ *   (ver registrarMovimientoSiSaldoSuficiente). Es imposible quedar en descubierto.
+ * - El histórico está protegido por su propio monitor (secciones muy cortas).
+ * - Cada cuenta tiene además un cerrojo (ReentrantLock) que GestorCuentas usa
+ *   para los cambios de estado y para hacer atómicas las operaciones sobre dos
+ *   cuentas (transferencias, adquiriendo los cerrojos en orden de IBAN).
+ * - Los ingresos y retiradas sin diario no toman el cerrojo: se anotan como
+ *   operaciones en curso (entrarSinCerrojo/salirSinCerrojo) y un cambio de
+ *   estado espera a que terminen (esperarOperacionesSinCerrojo), así que
+ *   ninguna se aplica después de él.
+ *
  * @author Diego Gómez Sánchez
  */
 public class CuentaBancaria {
@@ -31,6 +47,9 @@ public class CuentaBancaria {
     // ATRIBUTOS
     // ============================================================================
 
+    // Copia cacheada de Divisa.values() (values() crea un array nuevo en cada llamada)
+    private static final Divisa[] DIVISAS = Divisa.values();
+
     /**
      * Código IBAN único de la cuenta.
      * Formato estándar: "ES1234567890123456789012" (varía según país)
@@ -55,29 +74,85 @@ public class CuentaBancaria {
      * Estado actual de la cuenta (ACTIVA, BLOQUEADA, CANCELADA, PENDIENTE_ACTIVACION).
      * Ver enumerado EstadoCuenta en Constantes.java
      * NOTA: Este atributo SÍ puede cambiar (tiene setter)
+     * Es volatile para que cualquier hilo vea el último estado asignado.
      */
-    private EstadoCuenta estado;
+    private volatile EstadoCuenta estado;
 
     /**
-     * Mapa de saldos por divisa.
-     * Clave: Divisa (EUR, USD, GBP, JPY, CHF)
-     * Valor: Saldo en CÉNTIMOS (long)
+     * Saldos por divisa en CÉNTIMOS, indexados por Divisa.ordinal().
      *
-     * EJEMPLO: {EUR=500000, USD=100000} significa 5000.00€ y 1000.00$
+     * EJEMPLO: saldos.get(EUR.ordinal()) = 500000 significa 5000.00€
      *
-     * Si una divisa no está en el mapa, su saldo se considera 0.
+     * Se usa un array de long en lugar de un Map<Divisa, Long> porque Divisa
+     * tiene un número fijo y pequeño de constantes: actualizar un saldo no crea
+     * objetos Long ni calcula hashes. Al ser un AtomicLongArray, cada saldo se
+     * puede modificar con CAS sin bloquear la cuenta.
      */
-    private Map<Divisa, Long> saldos;
+    private final AtomicLongArray saldos;
 
     /**
-     * Lista de movimientos realizados en la cuenta.
+     * Máscara de bits con las divisas que han tenido algún movimiento
+     * (bit i = divisa con ordinal i). getSaldos() solo incluye estas divisas,
+     * igual que el antiguo mapa solo tenía entradas para ellas.
+     */
+    private final AtomicInteger divisasConMovimientos;
+
+    /**
+     * Histórico de movimientos realizados en la cuenta.
      * LÍMITE: máximo Constantes.MAX_MOVIMIENTOS_HISTORICO elementos
-     * Cuando se alcanza el límite, se elimina el movimiento más antiguo (FIFO)
+     * Cuando se alcanza el límite, se sobrescribe el movimiento más antiguo (FIFO)
+     * en tiempo constante (ver HistoricoEnMemoria y AlmacenMovimientos).
      */
-    private List<Movimiento> movimientos;
+    private final HistoricoMovimientos movimientos;
 
     //Lista de movimientos realizados en la cuenta bancaria this.
 
+    /**
+     * Cerrojo de la cuenta. Protege los cambios de estado y las operaciones
+     * compuestas de GestorCuentas (p. ej. transferencias); los saldos y el
+     * histórico no lo necesitan para mantenerse consistentes.
+     */
+    private final ReentrantLock cerrojo;
+
+    /**
+     * Ingresos y retiradas en curso que comprueban el estado y modifican los
+     * saldos sin el cerrojo (ver entrarSinCerrojo).
+     */
+    private final AtomicInteger operacionesSinCerrojo;
+
+    /**
+     * Secuencia del último registro del diario que modificó la cuenta
+     * (0 si no hay diario). Protegida por el cerrojo de la cuenta: se asigna
+     * al anotar, con el cerrojo adquirido. Al reproducir el diario sobre una
+     * instantánea permite saltar los registros que la instantánea ya incluye.
+     */
+    private long secuenciaDiario;
+
+    /**
+     * Importes de las últimas 24 horas sujetos a límite diario
+     * (ver LimitesDiarios y TipoMovimiento.getLimiteDiario).
+     */
+    private final LimitesDiarios limitesDiarios;
+
+    /**
+     * Índices secundarios del gestor al que pertenece la cuenta (null si no
+     * pertenece a ninguno). setEstado los mantiene al día.
+     */
+    private volatile IndicesCuentas indices;
+
+    /**
+     * Totales del gestor al que pertenece la cuenta (null si no pertenece a
+     * ninguno). Se asigna antes de publicar la cuenta en el gestor (la
+     * publicación en su ConcurrentHashMap la hace visible a los demás hilos).
+     */
+    private LibroMayor libroMayor;
+
+    /**
+     * Flujo de movimientos del gestor al que pertenece la cuenta (null si no
+     * pertenece a ninguno). Se asigna igual que libroMayor.
+     */
+    private FlujoMovimientos flujo;
+
 
     // ============================================================================
     // CONSTRUCTOR
@@ -90,11 +165,8 @@ public class CuentaBancaria {
      * 1. Validar que ningún parámetro sea null (lanzar IllegalArgumentException)
      * 2. Asignar iban, titular y tipo a los atributos
      * 3. Inicializar estado como EstadoCuenta.PENDIENTE_ACTIVACION
-     * 4. Inicializar saldos como un HashMap vacío (new HashMap<>())
-     * 5. Inicializar movimientos como un ArrayList vacío (new ArrayList<>())
-     *
-     * PISTA: Para crear un HashMap: this.saldos = new HashMap<>();
-     * PISTA: Para crear un ArrayList: this.movimientos = new ArrayList<>();
+     * 4. Inicializar saldos a 0 en todas las divisas (AtomicLongArray)
+     * 5. Inicializar movimientos como un histórico circular vacío
      *
      * @param iban código IBAN de la cuenta
      * @param titular nombre del titular
@@ -102,6 +174,21 @@ public class CuentaBancaria {
      * @throws IllegalArgumentException si algún parámetro es null
      */
     public CuentaBancaria(String iban, String titular, TipoCuenta tipo) {
+        this(iban, titular, tipo, new HistoricoEnMemoria(MAX_MOVIMIENTOS_HISTORICO));
+    }
+
+    /**
+     * Constructor de una cuenta con un histórico concreto (p. ej. una vista
+     * sobre AlmacenMovimientos, fuera del heap).
+     *
+     * @param iban código IBAN de la cuenta
+     * @param titular nombre del titular
+     * @param tipo tipo de cuenta
+     * @param movimientos histórico vacío donde registrar los movimientos
+     * @throws IllegalArgumentException si algún parámetro es null
+     */
+    CuentaBancaria(String iban, String titular, TipoCuenta tipo,
+                   HistoricoMovimientos movimientos) {
 
         if (iban == null) {
             throw new IllegalArgumentException("El IBAN no puede ser null");
@@ -121,9 +208,15 @@ public class CuentaBancaria {
 
         this.estado = EstadoCuenta.PENDIENTE_ACTIVACION;
 
-        this.saldos = new HashMap<>();
+        this.saldos = new AtomicLongArray(DIVISAS.length);
+        this.divisasConMovimientos = new AtomicInteger();
+
+        this.movimientos = movimientos;
 
-        this.movimientos = new ArrayList<>();
+        this.cerrojo = new ReentrantLock();
+        this.operacionesSinCerrojo = new AtomicInteger();
+
+        this.limitesDiarios = new LimitesDiarios();
     }
 
 
@@ -159,16 +252,207 @@ public class CuentaBancaria {
         return estado;
     }
 
+    /**
+     * Cambia el estado y, si la cuenta pertenece a un gestor, actualiza su
+     * índice por estado (ver IndicesCuentas).
+     */
     public void setEstado(EstadoCuenta estado) {
         this.estado = estado;
+
+        IndicesCuentas actuales = indices;
+        if (actuales != null) {
+            actuales.reindexarEstado(this);
+        }
     }
 
+    /**
+     * Devuelve una copia de los saldos de las divisas que han tenido movimientos.
+     *
+     * La copia es un EnumMap: internamente es un array indexado por ordinal,
+     * mucho más barato de construir que un HashMap. Cada saldo se lee de forma
+     * atómica, pero con operaciones en curso dos divisas pueden corresponder a
+     * instantes ligeramente distintos.
+     *
+     * @return copia defensiva de los saldos por divisa
+     */
     public Map<Divisa, Long> getSaldos() {
-        return new HashMap<>(this.saldos);
+        int mascara = divisasConMovimientos.get();
+        Map<Divisa, Long> copia = new EnumMap<>(Divisa.class);
+        for (Divisa divisa : DIVISAS) {
+            if ((mascara & (1 << divisa.ordinal())) != 0) {
+                copia.put(divisa, saldos.get(divisa.ordinal()));
+            }
+        }
+        return copia;
+    }
+
+    /**
+     * Copia los saldos en un array del llamante, sin crear ningún objeto.
+     * Pensado para quien lee los saldos de muchas cuentas seguidas (p. ej. un
+     * panel que se refresca): puede reutilizar el mismo array en cada cuenta.
+     * Como en getSaldos(), cada saldo es atómico pero no todos del mismo instante.
+     *
+     * @param destino array donde dejar el saldo de cada divisa, indexado por
+     *                Divisa.ordinal() (al menos Divisa.values().length posiciones)
+     * @return máscara de las divisas que han tenido movimientos (bit i = ordinal i)
+     * @throws IllegalArgumentException si el array es null o demasiado corto
+     */
+    public int copiarSaldos(long[] destino) {
+        if (destino == null || destino.length < DIVISAS.length) {
+            throw new IllegalArgumentException("El array debe tener una posición por divisa");
+        }
+
+        int mascara = divisasConMovimientos.get();
+        for (int i = 0; i < DIVISAS.length; i++) {
+            destino[i] = saldos.get(i);
+        }
+        return mascara;
     }
 
     public List<Movimiento> getMovimientos() {
-        return new ArrayList<>(this.movimientos);
+        return this.movimientos.copiar();
+    }
+
+    /**
+     * Vista de solo lectura del histórico actual, sin copiarlo (ver
+     * VistaMovimientos). Para los últimos n movimientos:
+     * vista.subList(vista.size() - n, vista.size()).
+     *
+     * @return vista del histórico tal como está ahora
+     */
+    public VistaMovimientos getVistaMovimientos() {
+        return movimientos.vista();
+    }
+
+    /**
+     * Movimientos del histórico con instante en [desde, hasta), p. ej. para un
+     * extracto o una reclamación.
+     *
+     * A diferencia de getMovimientos(), no copia el histórico entero para
+     * filtrarlo después: localiza el intervalo sobre los instantes guardados
+     * (ver HistoricoMovimientos.copiarEntre) y solo reconstruye los movimientos
+     * que devuelve.
+     *
+     * @param desde inicio del intervalo (incluido)
+     * @param hasta fin del intervalo (excluido)
+     * @return nueva lista con los movimientos del intervalo, en el orden del histórico
+     * @throws IllegalArgumentException si desde o hasta son null
+     */
+    public List<Movimiento> getMovimientos(Instant desde, Instant hasta) {
+        return getMovimientos(desde, hasta, null, null);
+    }
+
+    /**
+     * Como getMovimientos(desde, hasta), pero solo con los movimientos del tipo
+     * y la divisa indicados.
+     *
+     * @param desde inicio del intervalo (incluido)
+     * @param hasta fin del intervalo (excluido)
+     * @param tipoMovimiento tipo buscado, o null para cualquiera
+     * @param divisa divisa buscada, o null para cualquiera
+     * @return nueva lista con los movimientos del intervalo, en el orden del histórico
+     * @throws IllegalArgumentException si desde o hasta son null
+     */
+    public List<Movimiento> getMovimientos(Instant desde, Instant hasta,
+                                           TipoMovimiento tipoMovimiento, Divisa divisa) {
+        if (desde == null || hasta == null) {
+            throw new IllegalArgumentException("Los límites del intervalo no pueden ser null");
+        }
+        return movimientos.copiarEntre(CodecMovimiento.aNanosAcotado(desde),
+                                       CodecMovimiento.aNanosAcotado(hasta),
+                                       tipoMovimiento, divisa);
+    }
+
+    /**
+     * Cerrojo de la cuenta, para que GestorCuentas pueda hacer atómicas
+     * las operaciones que comprueban y modifican el estado o varias cuentas.
+     *
+     * @return cerrojo de la cuenta
+     */
+    ReentrantLock getCerrojo() {
+        return cerrojo;
+    }
+
+    /**
+     * Empieza una operación que comprueba el estado y modifica los saldos sin
+     * el cerrojo. Hay que llamar a salirSinCerrojo al terminar, también si se
+     * rechaza.
+     *
+     * Se anota ANTES de leer el estado, y esperarOperacionesSinCerrojo la busca
+     * DESPUÉS de cambiarlo (las dos cosas sobre variables volatile): o la
+     * operación ve el estado nuevo, o el cambio de estado la ve en curso y
+     * espera a que termine.
+     */
+    void entrarSinCerrojo() {
+        operacionesSinCerrojo.incrementAndGet();
+    }
+
+    /**
+     * Termina una operación empezada con entrarSinCerrojo.
+     */
+    void salirSinCerrojo() {
+        operacionesSinCerrojo.decrementAndGet();
+    }
+
+    /**
+     * Espera a que terminen las operaciones sin cerrojo en curso. Tras un
+     * setEstado, garantiza que ninguna operación que vio el estado anterior se
+     * aplica ya. Las operaciones son cortas (no esperan a disco ni a otros
+     * cerrojos), así que basta una espera activa.
+     */
+    void esperarOperacionesSinCerrojo() {
+        while (operacionesSinCerrojo.get() > 0) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * @return máscara de las divisas que han tenido movimientos (bit i = ordinal i)
+     */
+    int getDivisasConMovimientos() {
+        return divisasConMovimientos.get();
+    }
+
+    /**
+     * Asigna los índices del gestor antes de publicar la cuenta en él.
+     */
+    void setIndices(IndicesCuentas indices) {
+        this.indices = indices;
+    }
+
+    /**
+     * Asigna los totales del gestor antes de publicar la cuenta en él.
+     */
+    void setLibroMayor(LibroMayor libroMayor) {
+        this.libroMayor = libroMayor;
+    }
+
+    /**
+     * Asigna el flujo de movimientos del gestor antes de publicar la cuenta en él.
+     */
+    void setFlujoMovimientos(FlujoMovimientos flujo) {
+        this.flujo = flujo;
+    }
+
+    long getSecuenciaDiario() {
+        return secuenciaDiario;
+    }
+
+    void setSecuenciaDiario(long secuenciaDiario) {
+        this.secuenciaDiario = secuenciaDiario;
+    }
+
+    /**
+     * Importe acumulado en las últimas 24 horas para un tipo de movimiento con
+     * límite diario (p. ej. RETIRADA o TRANSFERENCIA_ENVIADA), sin comisiones.
+     * Suma las operaciones de todas las divisas convertidas a euros, como el
+     * propio límite (ver LimitesDiarios).
+     *
+     * @param tipoMovimiento tipo de movimiento
+     * @return importe acumulado en céntimos de euro (0 si el tipo no tiene límite)
+     */
+    public long getAcumuladoDiario(TipoMovimiento tipoMovimiento) {
+        return limitesDiarios.getAcumulado(tipoMovimiento, Instant.now());
     }
 
 
@@ -179,28 +463,22 @@ public class CuentaBancaria {
     /**
      * Obtiene el saldo en una divisa específica.
      *
-     * Si la divisa no existe en el mapa de saldos, se considera que el saldo es 0.
-     *
-     * TODO: Implementar usando el método getOrDefault del mapa
-     *
-     * PISTA: Map tiene un método getOrDefault(clave, valorPorDefecto)
-     *        que devuelve el valor asociado a la clave, o valorPorDefecto si no existe
-     *
-     * EJEMPLO: this.saldos.getOrDefault(divisa, 0L)
+     * Si la divisa no ha tenido movimientos, su saldo es 0.
+     * No crea ningún objeto: lee directamente la posición divisa.ordinal().
      *
      * @param divisa divisa a consultar
      * @return saldo en céntimos (0 si no hay movimientos en esa divisa)
      */
     public long getSaldo(Divisa divisa) {
-        return this.saldos.getOrDefault(divisa, 0L);
+        return this.saldos.get(divisa.ordinal());
     }
 
     /**
      * Verifica si hay saldo suficiente en una divisa para realizar una operación.
      *
-     * TODO: Comparar el saldo actual en la divisa con la cantidad requerida
-     *
-     * PISTA: Usa el método getSaldo(divisa) que ya implementaste
+     * CUIDADO: con varios hilos el resultado puede quedar obsoleto antes de usarlo.
+     * Para retirar dinero de forma segura usar registrarMovimientoSiSaldoSuficiente,
+     * que comprueba y descuenta en un único paso atómico.
      *
      * @param cantidad cantidad requerida en céntimos
      * @param divisa divisa a verificar
@@ -218,7 +496,7 @@ public class CuentaBancaria {
      * @return número de movimientos en el histórico
      */
     public int getNumeroMovimientos() {
-        return movimientos.size();
+        return movimientos.tamano();
     }
 
 
@@ -230,48 +508,213 @@ public class CuentaBancaria {
      * Registra un nuevo movimiento en la cuenta y actualiza el saldo correspondiente.
      *
      * PASOS A SEGUIR:
-     * 1. Verificar si la lista de movimientos ha alcanzado el límite (MAX_MOVIMIENTOS_HISTORICO)
-     *    - Si es así, eliminar el movimiento más antiguo (índice 0)
-     * 2. Añadir el nuevo movimiento a la lista
-     * 3. Actualizar el saldo en la divisa del movimiento:
+     * 1. Añadir el nuevo movimiento al histórico circular
+     *    - Si ha alcanzado el límite (MAX_MOVIMIENTOS_HISTORICO), sobrescribe el más antiguo
+     * 2. Actualizar el saldo en la divisa del movimiento:
      *    - Si es débito (mov.esDebito() == true): restar mov.getImporteTotal()
      *    - Si es crédito (mov.esDebito() == false): sumar mov.getImporte() (SIN comisión)
      *
-     * TODO: Implementar la lógica completa
-     *
      * PISTAS:
-     * - Para verificar el tamaño: movimientos.size() >= Constantes.MAX_MOVIMIENTOS_HISTORICO
-     * - Para eliminar el primer elemento: movimientos.remove(0)
-     * - Para añadir: movimientos.add(mov)
-     * - Para actualizar el mapa: saldos.put(divisa, nuevoSaldo)
+     * - Para añadir: movimientos.anadir(mov) (coste O(1), sin desplazar elementos)
+     * - Para actualizar el saldo: saldos.addAndGet(divisa.ordinal(), variacion)
      *
-     * IMPORTANTE: No valides si hay saldo suficiente aquí. Esa validación se hace
-     * antes de llamar a este método (en GestorCuentas o donde sea necesario).
+     * IMPORTANTE: No valides si hay saldo suficiente aquí. Para débitos que no
+     * deben dejar la cuenta en descubierto usar registrarMovimientoSiSaldoSuficiente.
      *
      * @param mov movimiento a registrar
      */
     public void registrarMovimiento(Movimiento mov) {
-        // Si la lista está llena, eliminar el movimiento más antiguo
-        if (movimientos.size() >= MAX_MOVIMIENTOS_HISTORICO) {
-            movimientos.remove(0);
+        aplicarMovimiento(mov);
+    }
+
+    /**
+     * registrarMovimiento devolviendo el saldo resultante.
+     *
+     * @param mov movimiento a registrar
+     * @return saldo en la divisa del movimiento justo después de aplicarlo
+     */
+    long aplicarMovimiento(Movimiento mov) {
+        return aplicarMovimiento(mov, null);
+    }
+
+    /**
+     * aplicarMovimiento indicando la otra cuenta de una transferencia, que se
+     * publica con el movimiento en el flujo del gestor.
+     *
+     * @param mov movimiento a registrar
+     * @param contrapartida IBAN de la otra cuenta, o null
+     * @return saldo en la divisa del movimiento justo después de aplicarlo
+     */
+    long aplicarMovimiento(Movimiento mov, String contrapartida) {
+        int indice = mov.getDivisa().ordinal();
+
+        // Si es débito, restar el importe total (importe + comisión);
+        // si es crédito sumar solo el importe (sin comisión)
+        long variacion = mov.esDebito() ? -mov.getImporteTotal() : mov.getImporte();
+        long saldo = saldos.addAndGet(indice, variacion);
+        marcarDivisa(indice);
+        anotarEnLibroMayor(mov);
+
+        // Si el histórico está lleno, sobrescribe el movimiento más antiguo
+        movimientos.anadir(mov);
+        publicarEnFlujo(mov, contrapartida);
+        EventosBanco.movimiento(iban, mov);
+        return saldo;
+    }
+
+    /**
+     * Registra un movimiento de débito solo si hay saldo suficiente para su
+     * importe total (importe + comisión), comprobando y descontando en un único
+     * paso atómico.
+     *
+     * Sustituye a la pareja tieneSaldoSuficiente + registrarMovimiento, que con
+     * varios hilos permite que dos retiradas vean el mismo saldo y ambas pasen.
+     * Aquí el descuento se hace con compareAndSet: si otro hilo ha cambiado el
+     * saldo entre la lectura y la escritura, se vuelve a intentar con el nuevo
+     * saldo en lugar de bloquear la cuenta.
+     *
+     * Los movimientos que no son débito se registran siempre (devuelve true).
+     *
+     * @param mov movimiento a registrar
+     * @return true si se registró, false si no había saldo suficiente
+     */
+    public boolean registrarMovimientoSiSaldoSuficiente(Movimiento mov) {
+        return aplicarMovimientoSiSaldoSuficiente(mov) != SIN_SALDO_SUFICIENTE;
+    }
+
+    /**
+     * Valor devuelto por aplicarMovimientoSiSaldoSuficiente si no hay saldo.
+     */
+    static final long SIN_SALDO_SUFICIENTE = Long.MIN_VALUE;
+
+    /**
+     * registrarMovimientoSiSaldoSuficiente devolviendo el saldo resultante.
+     *
+     * @param mov movimiento a registrar
+     * @return saldo en la divisa del movimiento justo después de aplicarlo, o
+     *         SIN_SALDO_SUFICIENTE si no se ha registrado
+     */
+    long aplicarMovimientoSiSaldoSuficiente(Movimiento mov) {
+        return aplicarMovimientoSiSaldoSuficiente(mov, null);
+    }
+
+    /**
+     * aplicarMovimientoSiSaldoSuficiente indicando la otra cuenta de una
+     * transferencia, que se publica con el movimiento en el flujo del gestor.
+     *
+     * @param mov movimiento a registrar
+     * @param contrapartida IBAN de la otra cuenta, o null
+     * @return saldo resultante, o SIN_SALDO_SUFICIENTE si no se ha registrado
+     */
+    long aplicarMovimientoSiSaldoSuficiente(Movimiento mov, String contrapartida) {
+        if (!mov.esDebito()) {
+            return aplicarMovimiento(mov, contrapartida);
         }
 
+        int indice = mov.getDivisa().ordinal();
+        long importeTotal = mov.getImporteTotal();
+
+        long saldoActual;
+        do {
+            saldoActual = saldos.get(indice);
+            if (saldoActual < importeTotal) {
+                return SIN_SALDO_SUFICIENTE;
+            }
+        } while (!saldos.compareAndSet(indice, saldoActual, saldoActual - importeTotal));
+
+        marcarDivisa(indice);
+        anotarEnLibroMayor(mov);
+        movimientos.anadir(mov);
+        publicarEnFlujo(mov, contrapartida);
+        EventosBanco.movimiento(iban, mov);
+        return saldoActual - importeTotal;
+    }
+
+    /**
+     * Restaura el contenido de la cuenta desde una instantánea (ver
+     * InstantaneaBanco). Los movimientos se añaden al histórico tal cual, sin
+     * volver a aplicarse a los saldos. Solo debe llamarse sobre una cuenta
+     * recién creada que todavía no es visible para otros hilos. Los límites
+     * diarios se anotan después con GestorCuentas.acumularLimiteDiario, que
+     * convierte los importes a euros.
+     *
+     * @param estado estado de la cuenta
+     * @param saldosGuardados saldo de cada divisa, indexado por ordinal
+     * @param mascara divisas que han tenido movimientos (bit i = ordinal i)
+     * @param historico movimientos conservados, del más antiguo al más reciente
+     * @param secuencia secuencia del último registro del diario incluido
+     */
+    void restaurar(EstadoCuenta estado, long[] saldosGuardados, int mascara,
+                   List<Movimiento> historico, long secuencia) {
+        this.estado = estado;
+        for (int i = 0; i < saldosGuardados.length; i++) {
+            saldos.set(i, saldosGuardados[i]);
+        }
+        divisasConMovimientos.set(mascara);
+        for (Movimiento mov : historico) {
+            movimientos.anadir(mov);
+        }
+        this.secuenciaDiario = secuencia;
+    }
+
+    /**
+     * Reserva el importe de una operación contra el límite diario de su tipo.
+     * Si la operación no llega a hacerse hay que llamar a liberarLimiteDiario.
+     *
+     * @param importe importe de la operación en céntimos de euro
+     * @return true si el importe cabe en el límite de las últimas 24 horas
+     */
+    boolean reservarLimiteDiario(TipoMovimiento tipoMovimiento, long importe, Instant instante) {
+        return limitesDiarios.reservar(tipoMovimiento, importe, instante);
+    }
+
+    /**
+     * Deshace una reserva de reservarLimiteDiario (con el mismo importe en euros).
+     */
+    void liberarLimiteDiario(TipoMovimiento tipoMovimiento, long importe, Instant instante) {
+        limitesDiarios.liberar(tipoMovimiento, importe, instante);
+    }
+
+    /**
+     * Anota en el límite diario un movimiento restaurado o reproducido desde
+     * el diario.
+     *
+     * @param importe importe del movimiento en céntimos de euro
+     */
+    void acumularLimiteDiario(TipoMovimiento tipoMovimiento, long importe, Instant instante) {
+        limitesDiarios.acumular(tipoMovimiento, importe, instante);
+    }
 
-        movimientos.add(mov);
-        long saldoActual = getSaldo(mov.getDivisa());
+    /**
+     * Anota que la divisa con el ordinal indicado ya ha tenido movimientos.
+     *
+     * @param indice ordinal de la divisa
+     */
+    private void marcarDivisa(int indice) {
+        int bit = 1 << indice;
+        if ((divisasConMovimientos.get() & bit) == 0) {
+            divisasConMovimientos.accumulateAndGet(bit, (mascara, b) -> mascara | b);
+        }
+    }
 
-        // Calcular el nuevo saldo según si es débito o crédito
-        long nuevoSaldo;
-        if (mov.esDebito()) {
-            // Si es débito, restar el importe total (importe + comisión)
-            nuevoSaldo = saldoActual - mov.getImporteTotal();
-        } else {
-            // Si es crédito sumar solo el importe (sin comisión)
-            nuevoSaldo = saldoActual + mov.getImporte();
+    /**
+     * Anota en los totales del gestor un movimiento ya aplicado al saldo.
+     */
+    private void anotarEnLibroMayor(Movimiento mov) {
+        LibroMayor libro = libroMayor;
+        if (libro != null) {
+            libro.anotar(mov);
         }
+    }
 
-        // Actualizar el saldo
-        saldos.put(mov.getDivisa(), nuevoSaldo);
+    /**
+     * Publica para los suscriptores del gestor un movimiento ya registrado.
+     */
+    private void publicarEnFlujo(Movimiento mov, String contrapartida) {
+        FlujoMovimientos f = flujo;
+        if (f != null) {
+            f.publicar(iban, mov, contrapartida);
+        }
     }
 
     @Override
@@ -286,10 +729,11 @@ public class CuentaBancaria {
           .append(tipo).append(", ")
           .append(estado);
 
-        if (!saldos.isEmpty()) {
+        Map<Divisa, Long> copiaSaldos = getSaldos();
+        if (!copiaSaldos.isEmpty()) {
             sb.append(", Saldos: ");
             boolean primero = true;
-            for (Map.Entry<Divisa, Long> entry : saldos.entrySet()) {
+            for (Map.Entry<Divisa, Long> entry : copiaSaldos.entrySet()) {
                 if (!primero) {
                     sb.append(", ");
                 }
@@ -0,0 +1,529 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Detector de fraude por velocidad: lee los movimientos del flujo de un
+ * GestorCuentas según se registran (ver FlujoMovimientos) y señala las cuentas
+ * que, dentro de una ventana deslizante de tiempo, superan alguna regla:
+ * - SALIDAS: más de maxSalidas retiradas y transferencias enviadas en una
+ *   misma divisa.
+ * - IMPORTE: más de maxImporte céntimos en esas salidas en una misma divisa
+ *   (mismo valor nominal en cada divisa, sin comisiones).
+ * - DESTINOS: transferencias enviadas a más de maxDestinos cuentas distintas
+ *   (en cualquier divisa).
+ * Con bloquear = true, además, llama a GestorCuentas.bloquearCuenta en cuanto
+ * la cuenta supera una regla, en lugar de esperar a un proceso nocturno. El
+ * bloqueo es inmediato para las operaciones de GestorCuentas: en cuanto
+ * bloquearCuenta devuelve true no se aplica ninguna más sobre la cuenta. Lo
+ * que se registró entre el movimiento que dispara la alerta y el bloqueo (el
+ * retraso del detector, ver getRetraso) ya no se deshace.
+ *
+ * VENTANA DESLIZANTE:
+ * Como en LimitesDiarios, la ventana se divide en CUBETAS cubetas de tiempo y
+ * cada cuenta guarda un contador por cubeta, que se vacía al salir de la
+ * ventana. Un movimiento deja de contar entre ventana - ventana/CUBETAS y
+ * ventana después de registrarse. El tiempo es el instante de los movimientos,
+ * no el reloj del detector: un detector con retraso decide lo mismo que uno
+ * al día.
+ *
+ * MEMORIA (pensado para millones de cuentas):
+ * - Solo tienen estado las cuentas con salidas de dinero dentro de la ventana:
+ *   el estado de las cuentas sin actividad reciente se descarta una vez por
+ *   ventana. Los ingresos no crean estado.
+ * - El estado es de tipos primitivos y se crea por partes: contadores (8 int y
+ *   8 long) solo de las divisas en que la cuenta tiene salidas, y un anillo de
+ *   maxDestinos + 1 destinos solo si hace transferencias.
+ * - Los destinos se guardan por el hash de su IBAN; dos IBAN con el mismo hash
+ *   cuentan como uno (puede faltar una alerta, nunca sobrar).
+ *
+ * Tras una alerta se ponen a cero los contadores de esa regla, para no repetir
+ * la alerta en cada movimiento siguiente de la cuenta.
+ *
+ * USO:
+ * - iniciar() arranca un hilo propio que lee el flujo por lotes, y close() lo
+ *   para tras procesar lo ya leído.
+ * - O bien se llama a procesar() periódicamente desde un único hilo (p. ej.
+ *   una etapa de un proceso propio), sin llamar a iniciar().
+ * El oyente (setOyente) recibe cada alerta en el hilo del detector y no debe
+ * bloquearse. Los movimientos que el flujo sobrescribe antes de leerlos (ver
+ * getPerdidos) no se analizan.
+ *
+ * CONCURRENCIA:
+ * El estado de las cuentas solo lo toca el hilo que procesa, así que no usa
+ * cerrojos. Los contadores de alertas y de cuentas vigiladas se pueden
+ * consultar desde cualquier hilo.
+ *
+ * @author Diego Gómez Sánchez
+ */
+public final class DetectorFraude implements AutoCloseable {
+
+    // Cubetas en que se divide la ventana
+    private static final int CUBETAS = 8;
+
+    // Movimientos leídos del flujo en cada lote
+    private static final int TAMANO_LOTE = 1024;
+
+    // Espera máxima del hilo del detector cuando no hay movimientos nuevos
+    private static final long ESPERA_MS = 100;
+
+    private static final int NUM_DIVISAS = Divisa.values().length;
+
+    private final GestorCuentas gestor;
+    private final FlujoMovimientos.Suscripcion suscripcion;
+
+    // Reglas
+    private final long segundosCubeta;
+    private final int maxSalidas;
+    private final long maxImporte;
+    private final int maxDestinos;
+    private final boolean bloquear;
+
+    private volatile Consumer<AlertaFraude> oyente;
+
+    /**
+     * Estado de las cuentas con actividad en la ventana. Solo lo usa el hilo
+     * que procesa.
+     */
+    private final Map<String, Actividad> actividad;
+
+    // Lote reutilizado entre lecturas
+    private final List<MovimientoPublicado> lote;
+
+    // Cubeta más reciente vista y la de la última limpieza de cuentas inactivas
+    private long cubetaActual;
+    private long cubetaLimpieza;
+
+    private final AtomicLong alertas;
+    private final AtomicLong bloqueadas;
+    private volatile int cuentasVigiladas;
+
+    private Thread hilo;
+    private volatile boolean cerrado;
+
+    /**
+     * Crea el detector con las reglas por defecto de Constantes
+     * (SEGUNDOS_VENTANA_FRAUDE, MAX_SALIDAS_VENTANA_FRAUDE,
+     * MAX_IMPORTE_VENTANA_FRAUDE, MAX_DESTINOS_VENTANA_FRAUDE).
+     *
+     * @param gestor gestor cuyos movimientos se vigilan
+     * @param bloquear true para bloquear automáticamente las cuentas señaladas
+     * @throws IllegalArgumentException si el gestor es null
+     */
+    public DetectorFraude(GestorCuentas gestor, boolean bloquear) {
+        this(gestor, Duration.ofSeconds(SEGUNDOS_VENTANA_FRAUDE), MAX_SALIDAS_VENTANA_FRAUDE,
+             MAX_IMPORTE_VENTANA_FRAUDE, MAX_DESTINOS_VENTANA_FRAUDE, bloquear);
+    }
+
+    /**
+     * Crea el detector. Analiza los movimientos registrados a partir de este
+     * momento.
+     *
+     * @param gestor gestor cuyos movimientos se vigilan
+     * @param ventana duración de la ventana deslizante (al menos CUBETAS segundos)
+     * @param maxSalidas salidas de dinero permitidas en la ventana por divisa (> 0)
+     * @param maxImporte céntimos que pueden salir en la ventana por divisa (> 0)
+     * @param maxDestinos destinos distintos de transferencias permitidos (> 0)
+     * @param bloquear true para bloquear automáticamente las cuentas señaladas
+     * @throws IllegalArgumentException si algún parámetro no es válido
+     */
+    public DetectorFraude(GestorCuentas gestor, Duration ventana, int maxSalidas,
+                          long maxImporte, int maxDestinos, boolean bloquear) {
+        if (gestor == null) {
+            throw new IllegalArgumentException("El gestor no puede ser null");
+        }
+
+        if (ventana == null || ventana.getSeconds() < CUBETAS) {
+            throw new IllegalArgumentException("La ventana debe ser de al menos " + CUBETAS + " segundos");
+        }
+
+        if (maxSalidas <= 0 || maxImporte <= 0 || maxDestinos <= 0) {
+            throw new IllegalArgumentException("Los máximos de las reglas deben ser mayores que 0");
+        }
+
+        this.gestor = gestor;
+        this.suscripcion = gestor.getFlujoMovimientos().suscribir();
+        this.segundosCubeta = ventana.getSeconds() / CUBETAS;
+        this.maxSalidas = maxSalidas;
+        this.maxImporte = maxImporte;
+        this.maxDestinos = maxDestinos;
+        this.bloquear = bloquear;
+        this.actividad = new HashMap<>();
+        this.lote = new ArrayList<>(TAMANO_LOTE);
+        this.cubetaActual = Long.MIN_VALUE;
+        this.cubetaLimpieza = Long.MIN_VALUE;
+        this.alertas = new AtomicLong();
+        this.bloqueadas = new AtomicLong();
+    }
+
+
+    // ============================================================================
+    // CONFIGURACIÓN Y CICLO DE VIDA
+    // ============================================================================
+
+    /**
+     * Indica a quién avisar de cada alerta (p. ej. la cola de revisión
+     * manual). Se llama en el hilo del detector.
+     *
+     * @param oyente receptor de las alertas, o null para no avisar a nadie
+     */
+    public void setOyente(Consumer<AlertaFraude> oyente) {
+        this.oyente = oyente;
+    }
+
+    /**
+     * Arranca el hilo del detector.
+     *
+     * @throws IllegalStateException si ya se había arrancado o cerrado
+     */
+    public synchronized void iniciar() {
+        if (hilo != null || cerrado) {
+            throw new IllegalStateException("El detector ya se ha iniciado");
+        }
+
+        hilo = new Thread(this::ejecutar, "detector-fraude");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Para el hilo del detector (si se inició) y espera a que termine el lote
+     * que esté procesando.
+     */
+    @Override
+    public void close() {
+        Thread h;
+        synchronized (this) {
+            cerrado = true;
+            h = hilo;
+        }
+        if (h == null) {
+            return;
+        }
+
+        boolean interrumpido = false;
+        while (h.isAlive()) {
+            try {
+                h.join();
+            } catch (InterruptedException e) {
+                interrumpido = true;
+            }
+        }
+
+        if (interrumpido) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void ejecutar() {
+        try {
+            while (!cerrado) {
+                lote.clear();
+                if (suscripcion.leer(lote, TAMANO_LOTE, ESPERA_MS, TimeUnit.MILLISECONDS) > 0) {
+                    analizarLote();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    // ============================================================================
+    // PROCESO
+    // ============================================================================
+
+    /**
+     * Analiza, sin esperar, los movimientos publicados desde la última
+     * llamada (como mucho un lote). Para usar el detector sin su propio hilo:
+     * siempre desde el mismo hilo y sin haber llamado a iniciar().
+     *
+     * @return número de movimientos analizados (0 si no había nuevos)
+     */
+    public int procesar() {
+        lote.clear();
+        int leidos = suscripcion.leer(lote, TAMANO_LOTE);
+        if (leidos > 0) {
+            analizarLote();
+        }
+        return leidos;
+    }
+
+    private void analizarLote() {
+        for (MovimientoPublicado publicado : lote) {
+            analizar(publicado);
+        }
+        lote.clear();
+        cuentasVigiladas = actividad.size();
+    }
+
+    /**
+     * Aplica las reglas a un movimiento. Solo las salidas de dinero cuentan.
+     */
+    private void analizar(MovimientoPublicado publicado) {
+        Movimiento mov = publicado.movimiento();
+        TipoMovimiento tipo = mov.getTipo();
+        if (tipo != TipoMovimiento.RETIRADA && tipo != TipoMovimiento.TRANSFERENCIA_ENVIADA) {
+            return;
+        }
+
+        long cubeta = Math.floorDiv(mov.getInstante().getEpochSecond(), segundosCubeta);
+        if (cubeta > cubetaActual) {
+            cubetaActual = cubeta;
+            limpiarInactivas();
+        }
+
+        Actividad a = actividad.get(publicado.iban());
+        if (a == null) {
+            a = new Actividad();
+            actividad.put(publicado.iban(), a);
+        }
+        a.ultimaCubeta = Math.max(a.ultimaCubeta, cubeta);
+
+        // SALIDAS e IMPORTE, por divisa
+        Divisa divisa = mov.getDivisa();
+        Contadores c = a.contadores(divisa);
+        c.sumar(cubeta, mov.getImporte());
+        if (c.salidas > maxSalidas) {
+            c.reiniciar();
+            alertar(publicado, AlertaFraude.Motivo.SALIDAS, divisa);
+        } else if (c.importe > maxImporte) {
+            c.reiniciar();
+            alertar(publicado, AlertaFraude.Motivo.IMPORTE, divisa);
+        }
+
+        // DESTINOS, en todas las divisas
+        if (tipo == TipoMovimiento.TRANSFERENCIA_ENVIADA && publicado.contrapartida() != null) {
+            if (a.destinos == null) {
+                a.destinos = new Destinos(maxDestinos + 1);
+            }
+            if (a.destinos.anotar(publicado.contrapartida().hashCode(), cubeta) > maxDestinos) {
+                a.destinos.reiniciar();
+                alertar(publicado, AlertaFraude.Motivo.DESTINOS, null);
+            }
+        }
+    }
+
+    private void alertar(MovimientoPublicado publicado, AlertaFraude.Motivo motivo,
+                         Divisa divisa) {
+        boolean bloqueada = bloquear && gestor.bloquearCuenta(publicado.iban());
+        alertas.incrementAndGet();
+        if (bloqueada) {
+            bloqueadas.incrementAndGet();
+        }
+
+        Consumer<AlertaFraude> o = oyente;
+        if (o != null) {
+            o.accept(new AlertaFraude(publicado.iban(), motivo, divisa,
+                    publicado.movimiento().getInstante(), publicado.secuencia(), bloqueada));
+        }
+    }
+
+    /**
+     * Una vez por ventana, descarta el estado de las cuentas sin salidas
+     * dentro de ella.
+     */
+    private void limpiarInactivas() {
+        if (cubetaLimpieza != Long.MIN_VALUE && cubetaActual - cubetaLimpieza < CUBETAS) {
+            return;
+        }
+
+        cubetaLimpieza = cubetaActual;
+        Iterator<Actividad> it = actividad.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().ultimaCubeta <= cubetaActual - CUBETAS) {
+                it.remove();
+            }
+        }
+    }
+
+
+    // ============================================================================
+    // CONSULTAS
+    // ============================================================================
+
+    /**
+     * @return número de alertas emitidas
+     */
+    public long getNumAlertas() {
+        return alertas.get();
+    }
+
+    /**
+     * @return número de cuentas bloqueadas por el detector
+     */
+    public long getNumBloqueadas() {
+        return bloqueadas.get();
+    }
+
+    /**
+     * @return cuentas con estado en el detector tras el último lote analizado
+     */
+    public int getNumCuentasVigiladas() {
+        return cuentasVigiladas;
+    }
+
+    /**
+     * @return movimientos publicados que el detector aún no ha analizado
+     */
+    public long getRetraso() {
+        return suscripcion.getRetraso();
+    }
+
+    /**
+     * @return movimientos que se sobrescribieron en el flujo antes de que el
+     *         detector los leyera (y que, por tanto, no ha analizado)
+     */
+    public long getPerdidos() {
+        return suscripcion.getPerdidos();
+    }
+
+
+    // ============================================================================
+    // ESTADO POR CUENTA
+    // ============================================================================
+
+    /**
+     * Estado de una cuenta: contadores de las divisas con salidas y destinos
+     * de sus transferencias, creados la primera vez que se usan.
+     */
+    private static final class Actividad {
+
+        private Contadores[] porDivisa;
+        private Destinos destinos;
+        private long ultimaCubeta = Long.MIN_VALUE;
+
+        Contadores contadores(Divisa divisa) {
+            if (porDivisa == null) {
+                porDivisa = new Contadores[NUM_DIVISAS];
+            }
+            Contadores c = porDivisa[divisa.ordinal()];
+            if (c == null) {
+                c = new Contadores();
+                porDivisa[divisa.ordinal()] = c;
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Número de salidas e importe en cada cubeta de la ventana (anillo de
+     * CUBETAS: la cubeta t ocupa la posición t % CUBETAS), con sus totales.
+     */
+    private static final class Contadores {
+
+        private final int[] salidasCubeta = new int[CUBETAS];
+        private final long[] importeCubeta = new long[CUBETAS];
+        private long ultimaCubeta = Long.MIN_VALUE;
+        private int salidas;
+        private long importe;
+
+        /**
+         * Anota una salida en su cubeta, desplazando antes la ventana si es
+         * posterior. Las que ya han salido de la ventana no se anotan.
+         */
+        void sumar(long cubeta, long cantidad) {
+            avanzar(cubeta);
+            if (cubeta <= ultimaCubeta - CUBETAS) {
+                return;
+            }
+
+            int i = (int) Math.floorMod(cubeta, (long) CUBETAS);
+            salidasCubeta[i]++;
+            importeCubeta[i] += cantidad;
+            salidas++;
+            importe += cantidad;
+        }
+
+        private void avanzar(long cubeta) {
+            if (cubeta <= ultimaCubeta) {
+                return;
+            }
+
+            if (ultimaCubeta == Long.MIN_VALUE || cubeta - ultimaCubeta >= CUBETAS) {
+                reiniciar();
+            } else {
+                for (long t = ultimaCubeta + 1; t <= cubeta; t++) {
+                    int i = (int) Math.floorMod(t, (long) CUBETAS);
+                    salidas -= salidasCubeta[i];
+                    importe -= importeCubeta[i];
+                    salidasCubeta[i] = 0;
+                    importeCubeta[i] = 0;
+                }
+            }
+            ultimaCubeta = cubeta;
+        }
+
+        void reiniciar() {
+            Arrays.fill(salidasCubeta, 0);
+            Arrays.fill(importeCubeta, 0);
+            salidas = 0;
+            importe = 0;
+        }
+    }
+
+    /**
+     * Destinos distintos de las transferencias recientes: hash del IBAN y
+     * última cubeta en que se le envió dinero. Con maxDestinos + 1 huecos
+     * basta, porque al llenarse se emite la alerta y se vacía.
+     */
+    private static final class Destinos {
+
+        private final int[] hashes;
+        private final long[] cubetas;
+
+        Destinos(int huecos) {
+            this.hashes = new int[huecos];
+            this.cubetas = new long[huecos];
+            reiniciar();
+        }
+
+        /**
+         * Anota una transferencia al destino indicado.
+         *
+         * @return destinos distintos dentro de la ventana que termina en la cubeta
+         */
+        int anotar(int hash, long cubeta) {
+            long limite = cubeta - CUBETAS;
+            int libre = -1;
+            int hueco = -1;
+            for (int i = 0; i < hashes.length; i++) {
+                if (cubetas[i] <= limite) {
+                    libre = libre < 0 ? i : libre;
+                } else if (hashes[i] == hash) {
+                    hueco = i;
+                }
+            }
+
+            if (hueco >= 0) {
+                cubetas[hueco] = Math.max(cubetas[hueco], cubeta);
+            } else if (libre >= 0) {
+                hashes[libre] = hash;
+                cubetas[libre] = cubeta;
+            }
+
+            int distintos = 0;
+            for (long c : cubetas) {
+                if (c > limite) {
+                    distintos++;
+                }
+            }
+            return distintos;
+        }
+
+        void reiniciar() {
+            Arrays.fill(cubetas, Long.MIN_VALUE);
+        }
+    }
+}
@@ -0,0 +1,734 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Diario de escritura anticipada (write-ahead log) de las operaciones del banco.
+ *
+ * Cada operación aceptada por GestorCuentas (alta de cuenta, cambio de estado,
+ * movimiento, transferencia o cambio de divisa) se anota en el diario y no se da por terminada
+ * hasta que su registro está en disco (fsync). Al arrancar, reproducir el
+ * diario reconstruye exactamente el mapa de cuentas.
+ *
+ * COMMIT EN GRUPO:
+ * Hacer un fsync por operación limitaría el banco a unos cientos de operaciones
+ * por segundo. En su lugar:
+ * 1. anotar...() copia el registro a un buffer en memoria y le asigna un número
+ *    de secuencia (muy rápido, bajo un cerrojo).
+ * 2. hacerDurable(secuencia) espera a que ese registro esté en disco. El primer
+ *    hilo que llega escribe TODO lo acumulado en el buffer y hace un único fsync
+ *    (hilo líder); los que llegan mientras tanto esperan y, normalmente, su
+ *    registro ya va en ese lote o en el siguiente.
+ * Así, con muchos hilos, un solo fsync hace durables decenas o cientos de operaciones.
+ *
+ * ORGANIZACIÓN EN DISCO (un directorio):
+ * - diario-NNN.log: segmentos del diario. NNN es la primera secuencia que puede
+ *   contener. Solo se escribe en el último.
+ * - instantanea-NNN.bin: instantánea de todas las cuentas tomada al rotar el
+ *   diario en la secuencia NNN (ver InstantaneaBanco). Al arrancar se carga la
+ *   más reciente y solo se reproducen los segmentos posteriores.
+ *
+ * SECUENCIA POR CUENTA:
+ * Cada cuenta recuerda la secuencia de la última anotación que la modificó.
+ * Como la instantánea se toma con el tráfico en marcha, una cuenta puede
+ * guardarse con cambios posteriores a la rotación; al reproducir se ignoran los
+ * registros con secuencia menor o igual a la guardada para esa cuenta.
+ *
+ * FORMATO DE CADA REGISTRO:
+ *   int longitud | long secuencia | int crc32 | carga (longitud bytes)
+ * El CRC cubre secuencia y carga. Si el último registro quedó a medias por una
+ * caída, se detecta al reproducir y se descarta (y se trunca el fichero).
+ * Los movimientos de la carga se codifican con CodecMovimiento.
+ *
+ * @author Diego Gómez Sánchez
+ */
+public class DiarioMovimientos implements Closeable {
+
+    // Tipos de registro
+    private static final byte ALTA = 1;
+    private static final byte ESTADO = 2;
+    private static final byte MOVIMIENTO = 3;
+    private static final byte TRANSFERENCIA = 4;
+    private static final byte CAMBIO = 5;
+
+    // int longitud + long secuencia + int crc
+    private static final int TAMANO_CABECERA = 4 + 8 + 4;
+
+    // Nombres de fichero
+    private static final String PREFIJO_SEGMENTO = "diario-";
+    private static final String EXTENSION_SEGMENTO = ".log";
+    private static final String PREFIJO_INSTANTANEA = "instantanea-";
+    private static final String EXTENSION_INSTANTANEA = ".bin";
+
+    private static final TipoCuenta[] TIPOS_CUENTA = TipoCuenta.values();
+    private static final EstadoCuenta[] ESTADOS = EstadoCuenta.values();
+
+    // ============================================================================
+    // ATRIBUTOS
+    // ============================================================================
+
+    /**
+     * Directorio con los segmentos del diario y las instantáneas.
+     */
+    private final Path directorio;
+
+    /**
+     * Segmento actual, donde se añaden los registros. Solo cambia al rotar;
+     * se lee con el cerrojo adquirido o siendo el hilo que está escribiendo.
+     */
+    private FileChannel canal;
+
+    /**
+     * Protege el buffer pendiente, los contadores de secuencia y el canal.
+     */
+    private final ReentrantLock cerrojo;
+
+    /**
+     * Avisa a los hilos en hacerDurable() de que ha terminado un fsync.
+     */
+    private final Condition loteEscrito;
+
+    /**
+     * Registros anotados que todavía no se han escrito en el fichero.
+     */
+    private ByteArrayOutputStream pendiente;
+
+    /**
+     * Secuencia del último registro anotado y del último que ya está en disco.
+     */
+    private long ultimaAnotada;
+    private long ultimaDurable;
+
+    /**
+     * true mientras un hilo líder está escribiendo un lote (o rotando el diario).
+     */
+    private boolean escribiendo;
+
+    /**
+     * Primer error de E/S al escribir. Después de él el diario ya no es fiable
+     * y todas las operaciones que esperen durabilidad fallan. Se escribe con el
+     * cerrojo adquirido; es volatile para que GestorCuentas lo consulte sin él.
+     */
+    private volatile IOException fallo;
+
+
+    // ============================================================================
+    // CONSTRUCTOR
+    // ============================================================================
+
+    /**
+     * Abre (o crea) el diario en el directorio indicado. Las nuevas anotaciones
+     * se añaden al final del último segmento existente.
+     *
+     * @param directorio directorio del diario (se crea si no existe)
+     * @throws IOException si no se puede abrir el directorio o el segmento
+     */
+    public DiarioMovimientos(Path directorio) throws IOException {
+        if (directorio == null) {
+            throw new IllegalArgumentException("El directorio no puede ser null");
+        }
+
+        this.directorio = Files.createDirectories(directorio);
+
+        List<Path> segmentos = listar(PREFIJO_SEGMENTO, EXTENSION_SEGMENTO);
+        Path ultimo = segmentos.isEmpty()
+                ? nombreSegmento(1)
+                : segmentos.get(segmentos.size() - 1);
+
+        this.canal = FileChannel.open(ultimo, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.canal.position(canal.size());
+        this.cerrojo = new ReentrantLock();
+        this.loteEscrito = cerrojo.newCondition();
+        this.pendiente = new ByteArrayOutputStream();
+        this.ultimaAnotada = 0;
+        this.ultimaDurable = 0;
+        this.escribiendo = false;
+    }
+
+
+    // ============================================================================
+    // ANOTACIÓN DE OPERACIONES
+    // ============================================================================
+    // Todos se llaman con el cerrojo de las cuentas afectadas adquirido, de modo
+    // que la secuencia anotada en cada cuenta es coherente con su estado.
+
+    /**
+     * Anota el alta de una cuenta.
+     *
+     * @return secuencia asignada al registro (para hacerDurable)
+     */
+    long anotarAlta(CuentaBancaria cuenta) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream salida = new DataOutputStream(bytes)) {
+            salida.writeByte(ALTA);
+            salida.writeUTF(cuenta.getIban());
+            salida.writeUTF(cuenta.getTitular());
+            salida.writeByte(cuenta.getTipo().ordinal());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        long secuencia = anotar(bytes.toByteArray());
+        cuenta.setSecuenciaDiario(secuencia);
+        return secuencia;
+    }
+
+    /**
+     * Anota un cambio de estado de una cuenta.
+     *
+     * @return secuencia asignada al registro (para hacerDurable)
+     */
+    long anotarEstado(CuentaBancaria cuenta, EstadoCuenta estado) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try (DataOutputStream salida = new DataOutputStream(bytes)) {
+            salida.writeByte(ESTADO);
+            salida.writeUTF(cuenta.getIban());
+            salida.writeByte(estado.ordinal());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        long secuencia = anotar(bytes.toByteArray());
+        cuenta.setSecuenciaDiario(secuencia);
+        return secuencia;
+    }
+
+    /**
+     * Anota un movimiento registrado en una cuenta.
+     *
+     * @return secuencia asignada al registro (para hacerDurable)
+     */
+    long anotarMovimiento(CuentaBancaria cuenta, Movimiento mov) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        try (DataOutputStream salida = new DataOutputStream(bytes)) {
+            salida.writeByte(MOVIMIENTO);
+            salida.writeUTF(cuenta.getIban());
+            CodecMovimiento.escribir(salida, mov);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        long secuencia = anotar(bytes.toByteArray());
+        cuenta.setSecuenciaDiario(secuencia);
+        return secuencia;
+    }
+
+    /**
+     * Anota una transferencia como un único registro, para que al reproducir
+     * nunca aparezca solo una de sus dos mitades.
+     *
+     * @return secuencia asignada al registro (para hacerDurable)
+     */
+    long anotarTransferencia(CuentaBancaria origen, Movimiento movOrigen,
+                             CuentaBancaria destino, Movimiento movDestino) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(192);
+        try (DataOutputStream salida = new DataOutputStream(bytes)) {
+            salida.writeByte(TRANSFERENCIA);
+            salida.writeUTF(origen.getIban());
+            CodecMovimiento.escribir(salida, movOrigen);
+            salida.writeUTF(destino.getIban());
+            CodecMovimiento.escribir(salida, movDestino);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        long secuencia = anotar(bytes.toByteArray());
+        origen.setSecuenciaDiario(secuencia);
+        destino.setSecuenciaDiario(secuencia);
+        return secuencia;
+    }
+
+    /**
+     * Anota un cambio de divisa (sus dos movimientos sobre la misma cuenta)
+     * como un único registro. Se guardan los importes ya convertidos, así que
+     * reproducir no depende de la tabla de cambios.
+     *
+     * @return secuencia asignada al registro (para hacerDurable)
+     */
+    long anotarCambio(CuentaBancaria cuenta, Movimiento movSalida, Movimiento movEntrada) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(160);
+        try (DataOutputStream salida = new DataOutputStream(bytes)) {
+            salida.writeByte(CAMBIO);
+            salida.writeUTF(cuenta.getIban());
+            CodecMovimiento.escribir(salida, movSalida);
+            CodecMovimiento.escribir(salida, movEntrada);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        long secuencia = anotar(bytes.toByteArray());
+        cuenta.setSecuenciaDiario(secuencia);
+        return secuencia;
+    }
+
+    /**
+     * Añade la carga al buffer pendiente con su cabecera y le asigna secuencia.
+     *
+     * @param carga contenido del registro
+     * @return secuencia asignada
+     */
+    private long anotar(byte[] carga) {
+        cerrojo.lock();
+        try {
+            long secuencia = ++ultimaAnotada;
+
+            CRC32 crc = new CRC32();
+            crc.update(ByteBuffer.allocate(8).putLong(0, secuencia));
+            crc.update(carga);
+
+            ByteBuffer cabecera = ByteBuffer.allocate(TAMANO_CABECERA);
+            cabecera.putInt(carga.length).putLong(secuencia).putInt((int) crc.getValue());
+            pendiente.write(cabecera.array(), 0, TAMANO_CABECERA);
+            pendiente.write(carga, 0, carga.length);
+
+            return secuencia;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+
+    // ============================================================================
+    // DURABILIDAD (COMMIT EN GRUPO)
+    // ============================================================================
+
+    /**
+     * Espera a que el registro con la secuencia indicada (y todos los anteriores)
+     * esté escrito en disco.
+     *
+     * Si ningún otro hilo está escribiendo, este hilo se convierte en líder:
+     * escribe todo lo pendiente y hace un único fsync por todo el lote.
+     *
+     * @param secuencia secuencia devuelta por anotar...()
+     * @throws UncheckedIOException si falla la escritura en disco
+     */
+    void hacerDurable(long secuencia) {
+        cerrojo.lock();
+        try {
+            while (ultimaDurable < secuencia) {
+                if (fallo != null) {
+                    throw new UncheckedIOException("El diario no se pudo escribir", fallo);
+                }
+
+                if (escribiendo) {
+                    // Ya hay un líder: esperar a que termine su lote
+                    loteEscrito.awaitUninterruptibly();
+                    continue;
+                }
+
+                // Este hilo es el líder: se lleva todo lo acumulado hasta ahora
+                escribiendo = true;
+                byte[] lote = pendiente.toByteArray();
+                pendiente = new ByteArrayOutputStream(Math.max(32, lote.length));
+                long hasta = ultimaAnotada;
+                FileChannel destino = canal;
+
+                // La escritura y el fsync se hacen sin el cerrojo, para que los
+                // demás hilos puedan seguir anotando el siguiente lote
+                cerrojo.unlock();
+                IOException error = null;
+                try {
+                    escribirCompleto(destino, ByteBuffer.wrap(lote));
+                    destino.force(false);
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    cerrojo.lock();
+                }
+
+                escribiendo = false;
+                if (error != null) {
+                    fallo = error;
+                } else {
+                    ultimaDurable = hasta;
+                }
+                loteEscrito.signalAll();
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * @return primer error de escritura del diario, o null si no ha fallado
+     */
+    IOException getFallo() {
+        return fallo;
+    }
+
+    private static void escribirCompleto(FileChannel destino, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            destino.write(buffer);
+        }
+    }
+
+    /**
+     * Escribe en disco todo lo anotado y cierra el fichero.
+     */
+    @Override
+    public void close() throws IOException {
+        long ultima;
+        cerrojo.lock();
+        try {
+            ultima = ultimaAnotada;
+        } finally {
+            cerrojo.unlock();
+        }
+
+        try {
+            hacerDurable(ultima);
+        } finally {
+            cerrojo.lock();
+            try {
+                canal.close();
+            } finally {
+                cerrojo.unlock();
+            }
+        }
+    }
+
+
+    // ============================================================================
+    // INSTANTÁNEAS
+    // ============================================================================
+
+    /**
+     * Toma una instantánea de las cuentas sin detener el tráfico y descarta los
+     * segmentos del diario que ya no hacen falta.
+     *
+     * PASOS:
+     * 1. Rotar: escribir lo pendiente en el segmento actual y empezar uno nuevo.
+     *    Sea S la última secuencia del segmento cerrado.
+     * 2. Guardar cada cuenta (bajo su cerrojo) en instantanea-S.bin.tmp, hacer
+     *    fsync y renombrarlo de forma atómica a instantanea-S.bin.
+     * 3. Borrar los segmentos anteriores y las instantáneas antiguas: todo lo que
+     *    contenían ya está en la nueva instantánea.
+     *
+     * @param cuentas cuentas del gestor
+     * @return secuencia S de la instantánea
+     * @throws IOException si falla alguna escritura
+     */
+    long tomarInstantanea(Collection<CuentaBancaria> cuentas) throws IOException {
+        long secuencia = rotar();
+
+        Path definitivo = nombreInstantanea(secuencia);
+        Path temporal = definitivo.resolveSibling(definitivo.getFileName() + ".tmp");
+        InstantaneaBanco.escribir(temporal, secuencia, cuentas);
+        Files.move(temporal, definitivo, java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+
+        // Lo anterior a S ya está en la instantánea
+        Path segmentoActual = nombreSegmento(secuencia + 1);
+        for (Path segmento : listar(PREFIJO_SEGMENTO, EXTENSION_SEGMENTO)) {
+            if (segmento.compareTo(segmentoActual) < 0) {
+                Files.deleteIfExists(segmento);
+            }
+        }
+        for (Path instantanea : listar(PREFIJO_INSTANTANEA, EXTENSION_INSTANTANEA)) {
+            if (instantanea.compareTo(definitivo) < 0) {
+                Files.deleteIfExists(instantanea);
+            }
+        }
+
+        return secuencia;
+    }
+
+    /**
+     * Escribe todo lo pendiente en el segmento actual y abre uno nuevo.
+     * Mientras tanto ocupa el papel de líder (escribiendo = true), así que
+     * ningún otro hilo escribe en el canal; sí pueden seguir anotando, y lo
+     * que anoten irá al segmento nuevo.
+     *
+     * @return última secuencia del segmento cerrado
+     */
+    private long rotar() throws IOException {
+        byte[] lote;
+        long hasta;
+        FileChannel anterior;
+
+        cerrojo.lock();
+        try {
+            while (escribiendo) {
+                loteEscrito.awaitUninterruptibly();
+            }
+            if (fallo != null) {
+                throw new IOException("El diario no se pudo escribir", fallo);
+            }
+
+            escribiendo = true;
+            lote = pendiente.toByteArray();
+            pendiente = new ByteArrayOutputStream(Math.max(32, lote.length));
+            hasta = ultimaAnotada;
+            anterior = canal;
+        } finally {
+            cerrojo.unlock();
+        }
+
+        IOException error = null;
+        FileChannel nuevo = null;
+        try {
+            escribirCompleto(anterior, ByteBuffer.wrap(lote));
+            anterior.force(false);
+            nuevo = FileChannel.open(nombreSegmento(hasta + 1), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            nuevo.position(nuevo.size());
+            anterior.close();
+        } catch (IOException e) {
+            error = e;
+        }
+
+        cerrojo.lock();
+        try {
+            escribiendo = false;
+            if (error != null) {
+                fallo = error;
+            } else {
+                canal = nuevo;
+                ultimaDurable = hasta;
+            }
+            loteEscrito.signalAll();
+        } finally {
+            cerrojo.unlock();
+        }
+
+        if (error != null) {
+            throw error;
+        }
+        return hasta;
+    }
+
+
+    // ============================================================================
+    // REPRODUCCIÓN
+    // ============================================================================
+
+    /**
+     * Reconstruye las cuentas sobre un gestor vacío: carga la instantánea más
+     * reciente (si la hay) y reproduce los segmentos del diario.
+     *
+     * Se llama desde GestorCuentas.abrir() sobre un gestor sin diario, para que
+     * la reproducción no vuelva a anotarse.
+     * Si el último registro está incompleto o corrupto (caída durante la escritura)
+     * se descarta y se trunca el fichero en ese punto.
+     *
+     * @param gestor gestor sobre el que aplicar los registros
+     * @throws IOException si no se puede leer el diario o está dañado
+     */
+    void reproducir(GestorCuentas gestor) throws IOException {
+        long ultimaSecuencia = 0;
+
+        List<Path> instantaneas = listar(PREFIJO_INSTANTANEA, EXTENSION_INSTANTANEA);
+        if (!instantaneas.isEmpty()) {
+            ultimaSecuencia = InstantaneaBanco.leer(
+                    instantaneas.get(instantaneas.size() - 1), gestor);
+        }
+
+        List<Path> segmentos = listar(PREFIJO_SEGMENTO, EXTENSION_SEGMENTO);
+        for (int i = 0; i < segmentos.size(); i++) {
+            boolean esUltimo = i == segmentos.size() - 1;
+            ultimaSecuencia = Math.max(ultimaSecuencia,
+                    reproducirSegmento(segmentos.get(i), esUltimo, gestor));
+        }
+
+        cerrojo.lock();
+        try {
+            ultimaAnotada = ultimaSecuencia;
+            ultimaDurable = ultimaSecuencia;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Reproduce un segmento. Solo el último puede tener una cola incompleta.
+     *
+     * @return última secuencia leída (0 si el segmento está vacío)
+     */
+    private long reproducirSegmento(Path segmento, boolean esUltimo, GestorCuentas gestor)
+            throws IOException {
+        long posicionValida = 0;
+        long ultimaSecuencia = 0;
+
+        try (FileChannel lectura = FileChannel.open(segmento, StandardOpenOption.READ)) {
+            long tamano = lectura.size();
+            InputStream entrada = new BufferedInputStream(Channels.newInputStream(lectura), 1 << 16);
+            DataInputStream datos = new DataInputStream(entrada);
+
+            while (true) {
+                byte[] carga;
+                long secuencia;
+                try {
+                    int longitud = datos.readInt();
+                    secuencia = datos.readLong();
+                    int crcLeido = datos.readInt();
+                    if (longitud < 0 || longitud > tamano) {
+                        break;
+                    }
+
+                    carga = new byte[longitud];
+                    datos.readFully(carga);
+
+                    CRC32 crc = new CRC32();
+                    crc.update(ByteBuffer.allocate(8).putLong(0, secuencia));
+                    crc.update(carga);
+                    if ((int) crc.getValue() != crcLeido) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+
+                aplicar(gestor, secuencia, carga);
+                posicionValida += TAMANO_CABECERA + carga.length;
+                ultimaSecuencia = secuencia;
+            }
+
+            if (posicionValida < tamano && !esUltimo) {
+                throw new IOException("Segmento del diario dañado: " + segmento);
+            }
+        }
+
+        if (esUltimo) {
+            // Descartar una posible cola incompleta; se seguirá escribiendo al final
+            cerrojo.lock();
+            try {
+                canal.truncate(posicionValida);
+                canal.position(posicionValida);
+            } finally {
+                cerrojo.unlock();
+            }
+        }
+
+        return ultimaSecuencia;
+    }
+
+    /**
+     * Aplica un registro al gestor, salvo en las cuentas cuya instantánea ya
+     * incluye ese registro (secuencia menor o igual que la guardada).
+     */
+    private static void aplicar(GestorCuentas gestor, long secuencia, byte[] carga)
+            throws IOException {
+        DataInputStream entrada = new DataInputStream(new ByteArrayInputStream(carga));
+        byte tipo = entrada.readByte();
+
+        switch (tipo) {
+            case ALTA -> {
+                String iban = entrada.readUTF();
+                String titular = entrada.readUTF();
+                TipoCuenta tipoCuenta = TIPOS_CUENTA[entrada.readByte()];
+                gestor.crearCuenta(iban, titular, tipoCuenta)
+                      .ifPresent(cuenta -> cuenta.setSecuenciaDiario(secuencia));
+            }
+            case ESTADO -> {
+                CuentaBancaria cuenta = cuentaExistente(gestor, entrada.readUTF());
+                EstadoCuenta estado = ESTADOS[entrada.readByte()];
+                if (secuencia > cuenta.getSecuenciaDiario()) {
+                    cuenta.setEstado(estado);
+                    cuenta.setSecuenciaDiario(secuencia);
+                }
+            }
+            case MOVIMIENTO -> {
+                CuentaBancaria cuenta = cuentaExistente(gestor, entrada.readUTF());
+                Movimiento mov = CodecMovimiento.leer(entrada);
+                if (secuencia > cuenta.getSecuenciaDiario()) {
+                    cuenta.registrarMovimiento(mov);
+                    gestor.acumularLimiteDiario(cuenta, mov);
+                    cuenta.setSecuenciaDiario(secuencia);
+                }
+            }
+            case TRANSFERENCIA -> {
+                CuentaBancaria origen = cuentaExistente(gestor, entrada.readUTF());
+                Movimiento movOrigen = CodecMovimiento.leer(entrada);
+                CuentaBancaria destino = cuentaExistente(gestor, entrada.readUTF());
+                Movimiento movDestino = CodecMovimiento.leer(entrada);
+                if (secuencia > origen.getSecuenciaDiario()) {
+                    origen.aplicarMovimiento(movOrigen, destino.getIban());
+                    gestor.acumularLimiteDiario(origen, movOrigen);
+                    origen.setSecuenciaDiario(secuencia);
+                }
+                if (secuencia > destino.getSecuenciaDiario()) {
+                    destino.aplicarMovimiento(movDestino, origen.getIban());
+                    destino.setSecuenciaDiario(secuencia);
+                }
+            }
+            case CAMBIO -> {
+                CuentaBancaria cuenta = cuentaExistente(gestor, entrada.readUTF());
+                Movimiento movSalida = CodecMovimiento.leer(entrada);
+                Movimiento movEntrada = CodecMovimiento.leer(entrada);
+                if (secuencia > cuenta.getSecuenciaDiario()) {
+                    cuenta.registrarMovimiento(movSalida);
+                    cuenta.registrarMovimiento(movEntrada);
+                    cuenta.setSecuenciaDiario(secuencia);
+                }
+            }
+            default -> throw new IOException("Tipo de registro desconocido en el diario: " + tipo);
+        }
+    }
+
+    private static CuentaBancaria cuentaExistente(GestorCuentas gestor, String iban)
+            throws IOException {
+        CuentaBancaria cuenta = gestor.obtenerCuenta(iban);
+        if (cuenta == null) {
+            throw new IOException("El diario hace referencia a una cuenta sin alta: " + iban);
+        }
+        return cuenta;
+    }
+
+
+    // ============================================================================
+    // FICHEROS
+    // ============================================================================
+
+    private Path nombreSegmento(long primeraSecuencia) {
+        return directorio.resolve(String.format("%s%020d%s",
+                PREFIJO_SEGMENTO, primeraSecuencia, EXTENSION_SEGMENTO));
+    }
+
+    private Path nombreInstantanea(long secuencia) {
+        return directorio.resolve(String.format("%s%020d%s",
+                PREFIJO_INSTANTANEA, secuencia, EXTENSION_INSTANTANEA));
+    }
+
+    /**
+     * Lista los ficheros del directorio con ese prefijo y extensión, ordenados.
+     * Como la secuencia se escribe con ceros a la izquierda, el orden
+     * alfabético coincide con el numérico.
+     */
+    private List<Path> listar(String prefijo, String extension) throws IOException {
+        List<Path> resultado = new ArrayList<>();
+        try (Stream<Path> ficheros = Files.list(directorio)) {
+            ficheros.filter(f -> {
+                        String nombre = f.getFileName().toString();
+                        return nombre.startsWith(prefijo) && nombre.endsWith(extension);
+                    })
+                    .sorted()
+                    .forEach(resultado::add);
+        }
+        return resultado;
+    }
+}
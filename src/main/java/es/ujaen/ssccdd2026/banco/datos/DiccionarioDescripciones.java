@@ -0,0 +1,133 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Diccionario de descripciones de movimientos: asigna a cada texto distinto un
+ * número entero, de modo que el histórico guarda un int por movimiento en lugar
+ * de una referencia a un String propio.
+ *
+ * La mayoría de descripciones se repiten muchísimo ("Nómina", "Cajero",
+ * "Transferencia a " + titular...), así que millones de movimientos comparten
+ * unos pocos miles de textos.
+ *
+ * LÍMITE: para que textos siempre distintos (conceptos libres) no hagan crecer
+ * el diccionario sin fin, a partir de capacidadMaxima entradas ya no se añaden
+ * más y id() devuelve SIN_ID; el histórico guarda entonces el texto aparte.
+ *
+ * CONCURRENCIA: la búsqueda (el caso habitual) es una lectura de un
+ * ConcurrentHashMap, sin cerrojos. Solo el alta de un texto nuevo se sincroniza.
+ *
+ * @author Diego Gómez Sánchez
+ */
+final class DiccionarioDescripciones {
+
+    /**
+     * Valor devuelto por id() cuando el diccionario está lleno.
+     */
+    static final int SIN_ID = -1;
+
+    // Número máximo de textos distintos del diccionario compartido
+    private static final int CAPACIDAD_COMPARTIDO = 1 << 20;
+
+    /**
+     * Diccionario compartido por los históricos de todas las cuentas.
+     */
+    static final DiccionarioDescripciones COMPARTIDO =
+            new DiccionarioDescripciones(CAPACIDAD_COMPARTIDO);
+
+    private final int capacidadMaxima;
+
+    /**
+     * Texto → número.
+     */
+    private final Map<String, Integer> ids;
+
+    /**
+     * Número → texto. Se sustituye por uno mayor al crecer; las posiciones
+     * ya asignadas no cambian nunca.
+     */
+    private volatile String[] textos;
+
+    /**
+     * Número de textos registrados (protegido por el monitor del diccionario).
+     */
+    private int numTextos;
+
+
+    // ============================================================================
+    // CONSTRUCTOR
+    // ============================================================================
+
+    DiccionarioDescripciones(int capacidadMaxima) {
+        if (capacidadMaxima <= 0) {
+            throw new IllegalArgumentException("La capacidad debe ser mayor que 0");
+        }
+
+        this.capacidadMaxima = capacidadMaxima;
+        this.ids = new ConcurrentHashMap<>();
+        this.textos = new String[Math.min(256, capacidadMaxima)];
+        this.numTextos = 0;
+    }
+
+
+    // ============================================================================
+    // OPERACIONES
+    // ============================================================================
+
+    /**
+     * Devuelve el número asignado al texto, dándolo de alta si es nuevo.
+     *
+     * @param texto descripción
+     * @return número del texto, o SIN_ID si es nuevo y el diccionario está lleno
+     */
+    int id(String texto) {
+        Integer id = ids.get(texto);
+        if (id != null) {
+            return id;
+        }
+        return registrar(texto);
+    }
+
+    /**
+     * Devuelve el texto con ese número.
+     *
+     * El número debe haberse obtenido con id() en este hilo o haberse publicado
+     * con una relación happens-before (p. ej. a través del monitor del histórico).
+     *
+     * @param id número devuelto por id()
+     * @return texto correspondiente
+     */
+    String texto(int id) {
+        return textos[id];
+    }
+
+    /**
+     * @return número de textos distintos registrados
+     */
+    synchronized int tamano() {
+        return numTextos;
+    }
+
+    private synchronized int registrar(String texto) {
+        // Otro hilo puede haberlo registrado mientras se esperaba el monitor
+        Integer existente = ids.get(texto);
+        if (existente != null) {
+            return existente;
+        }
+        if (numTextos == capacidadMaxima) {
+            return SIN_ID;
+        }
+
+        if (numTextos == textos.length) {
+            textos = Arrays.copyOf(textos, (int) Math.min((long) textos.length * 2, capacidadMaxima));
+        }
+
+        int id = numTextos++;
+        textos[id] = texto;
+        ids.put(texto, id);
+        return id;
+    }
+}
@@ -0,0 +1,220 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Eventos de Java Flight Recorder (JFR) del banco, para analizar incidencias
+ * en producción con una grabación normal, sin una versión especial:
+ *
+ *   jcmd <pid> JFR.start +es.ujaen.banco.Operacion#enabled=true
+ *                        +es.ujaen.banco.EsperaCerrojo#enabled=true
+ *
+ * (o activándolos en un fichero .jfc propio con settings=...).
+ *
+ * EVENTOS:
+ * - es.ujaen.banco.Operacion: cada operación de GestorCuentas (ingreso,
+ *   retirada, transferencia, cambio de divisa), con su duración, resultado y
+ *   el tiempo que ha esperado por cerrojos de cuentas.
+ * - es.ujaen.banco.Movimiento: cada movimiento registrado en una cuenta
+ *   (CuentaBancaria.registrarMovimiento), incluidos lotes y MotorParticiones.
+ * - es.ujaen.banco.EsperaCerrojo: cada vez que un hilo tiene que esperar por
+ *   el cerrojo de una cuenta que tenía otro.
+ *
+ * Para no volcar datos personales en la grabación, las cuentas se identifican
+ * por el hash de su IBAN y los importes por su orden de magnitud (tramo).
+ *
+ * COSTE: todos están desactivados por defecto (@Enabled(false)) y sin pila
+ * (@StackTrace(false)). Desactivados, shouldCommit() devuelve false y el JIT
+ * elimina la creación del evento; lo único que queda es, al esperar por un
+ * cerrojo (que ya es el camino lento), sumar la espera a un contador del hilo.
+ *
+ * @author Diego Gómez Sánchez
+ */
+final class EventosBanco {
+
+    /**
+     * Nanosegundos que el hilo ha esperado por cerrojos de cuentas (se ponen a
+     * cero al empezar cada operación grabada).
+     */
+    private static final ThreadLocal<long[]> ESPERA_CERROJOS =
+            ThreadLocal.withInitial(() -> new long[1]);
+
+    private EventosBanco() {
+    }
+
+
+    // ============================================================================
+    // EVENTOS
+    // ============================================================================
+
+    @Name("es.ujaen.banco.Operacion")
+    @Label("Operación bancaria")
+    @Category("Banco")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class EventoOperacion extends Event {
+
+        @Label("Operación")
+        String operacion;
+
+        @Label("Hash del IBAN")
+        @Description("Hash del IBAN de la cuenta (de la cuenta origen en transferencias)")
+        int ibanHash;
+
+        @Label("Divisa")
+        String divisa;
+
+        @Label("Tramo de importe")
+        @Description("Menor potencia de 10 mayor o igual que el importe, en céntimos")
+        long tramoImporte;
+
+        @Label("Resultado")
+        @Description("ACEPTADA o el motivo del rechazo")
+        String resultado;
+
+        @Label("Espera de cerrojos")
+        @Timespan(Timespan.NANOSECONDS)
+        long esperaCerrojos;
+    }
+
+    @Name("es.ujaen.banco.Movimiento")
+    @Label("Movimiento registrado")
+    @Category("Banco")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class EventoMovimiento extends Event {
+
+        @Label("Hash del IBAN")
+        int ibanHash;
+
+        @Label("Tipo de movimiento")
+        String tipo;
+
+        @Label("Divisa")
+        String divisa;
+
+        @Label("Tramo de importe")
+        @Description("Menor potencia de 10 mayor o igual que el importe, en céntimos")
+        long tramoImporte;
+    }
+
+    @Name("es.ujaen.banco.EsperaCerrojo")
+    @Label("Espera por el cerrojo de una cuenta")
+    @Category("Banco")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class EventoEsperaCerrojo extends Event {
+
+        @Label("Hash del IBAN")
+        int ibanHash;
+    }
+
+
+    // ============================================================================
+    // EMISIÓN
+    // ============================================================================
+
+    /**
+     * Crea el evento de una operación que empieza. Si está activado, toma el
+     * instante de inicio y pone a cero la espera de cerrojos del hilo.
+     *
+     * @return evento a pasar a terminarOperacion
+     */
+    static EventoOperacion iniciarOperacion() {
+        EventoOperacion evento = new EventoOperacion();
+        if (evento.isEnabled()) {
+            ESPERA_CERROJOS.get()[0] = 0;
+            evento.begin();
+        }
+        return evento;
+    }
+
+    /**
+     * Completa y graba el evento de una operación si supera el umbral de la
+     * grabación.
+     *
+     * @param motivo motivo del rechazo, o null si se realizó
+     */
+    static void terminarOperacion(EventoOperacion evento, String operacion, String iban,
+                                  Divisa divisa, long cantidad, MotivoRechazo motivo) {
+        evento.end();
+        if (!evento.shouldCommit()) {
+            return;
+        }
+
+        evento.operacion = operacion;
+        evento.ibanHash = iban != null ? iban.hashCode() : 0;
+        evento.divisa = divisa != null ? divisa.name() : null;
+        evento.tramoImporte = tramoImporte(cantidad);
+        evento.resultado = motivo != null ? motivo.name() : "ACEPTADA";
+        evento.esperaCerrojos = ESPERA_CERROJOS.get()[0];
+        evento.commit();
+    }
+
+    /**
+     * Graba un movimiento registrado en una cuenta.
+     */
+    static void movimiento(String iban, Movimiento mov) {
+        EventoMovimiento evento = new EventoMovimiento();
+        if (!evento.shouldCommit()) {
+            return;
+        }
+
+        evento.ibanHash = iban.hashCode();
+        evento.tipo = mov.getTipo().name();
+        evento.divisa = mov.getDivisa().name();
+        evento.tramoImporte = tramoImporte(mov.getImporte());
+        evento.commit();
+    }
+
+    /**
+     * Crea el evento de una espera por un cerrojo que empieza.
+     *
+     * @return evento a pasar a terminarEspera
+     */
+    static EventoEsperaCerrojo iniciarEspera() {
+        EventoEsperaCerrojo evento = new EventoEsperaCerrojo();
+        evento.begin();
+        return evento;
+    }
+
+    /**
+     * Suma la espera a la de la operación en curso del hilo y graba el evento
+     * si supera el umbral de la grabación.
+     *
+     * @param espera nanosegundos esperados
+     */
+    static void terminarEspera(EventoEsperaCerrojo evento, String iban, long espera) {
+        ESPERA_CERROJOS.get()[0] += espera;
+
+        evento.end();
+        if (evento.shouldCommit()) {
+            evento.ibanHash = iban.hashCode();
+            evento.commit();
+        }
+    }
+
+    /**
+     * @return menor potencia de 10 mayor o igual que la cantidad (0 si no es positiva)
+     */
+    static long tramoImporte(long cantidad) {
+        if (cantidad <= 0) {
+            return 0;
+        }
+
+        long tramo = 1;
+        while (tramo < cantidad && tramo <= Long.MAX_VALUE / 10) {
+            tramo *= 10;
+        }
+        return tramo;
+    }
+}
@@ -0,0 +1,284 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import java.lang.invoke.VarHandle;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Registro en memoria, de solo añadir y de tamaño acotado, con todos los
+ * movimientos registrados en las cuentas de un GestorCuentas (con su IBAN y,
+ * en las transferencias, el de la otra cuenta).
+ * Los sistemas interesados (fraude, notificaciones, almacén de datos) se
+ * suscriben y leen cada uno a su ritmo, en lugar de consultar
+ * getMovimientos() de todas las cuentas.
+ *
+ * FUNCIONAMIENTO:
+ * - Cada movimiento recibe una secuencia (0, 1, 2...) y se guarda en el hueco
+ *   secuencia % capacidad de un buffer circular. Se conservan los últimos
+ *   "capacidad" movimientos.
+ * - Cada Suscripcion guarda su propia posición (la siguiente secuencia que le
+ *   toca leer) y lee por lotes: una llamada a leer() devuelve todos los
+ *   movimientos disponibles hasta el máximo indicado.
+ * - Las suscripciones reciben los movimientos en orden de secuencia. Los de
+ *   una misma cuenta que se aplican uno tras otro (mismo hilo o con su
+ *   cerrojo) aparecen en ese orden.
+ *
+ * CONSUMIDORES LENTOS (contrapresión sin bloquear):
+ * Publicar nunca espera a los suscriptores: un consumidor lento no puede
+ * frenar las operaciones bancarias. Si se queda más de "capacidad" movimientos
+ * atrás, los que no ha leído se sobrescriben; al leer salta al más antiguo que
+ * se conserva y lo contabiliza en getPerdidos(). getRetraso() indica cuánto va
+ * por detrás, para que el propio consumidor reaccione (más hilos, lotes más
+ * grandes...) antes de perder movimientos.
+ *
+ * CONCURRENCIA:
+ * - Publicar (muchos hilos a la vez): un getAndIncrement para obtener la
+ *   secuencia y cuatro escrituras en el hueco, sin cerrojos ni asignar memoria.
+ *   El hueco se marca como "en escritura" mientras tanto, y el lector
+ *   comprueba la secuencia antes y después de leerlo (como un seqlock): si ha
+ *   cambiado, el movimiento se ha sobrescrito mientras lo leía y se cuenta
+ *   como perdido.
+ * - Un publicador solo espera (spin) si el hueco que le toca todavía se está
+ *   escribiendo en la vuelta anterior, lo que exigiría "capacidad"
+ *   publicaciones simultáneas.
+ * - Cada Suscripcion debe usarla un único hilo; hilos distintos deben crear
+ *   suscripciones distintas.
+ *
+ * @author Diego Gómez Sánchez
+ */
+public final class FlujoMovimientos {
+
+    // Marca de un hueco que se está escribiendo
+    private static final long ESCRIBIENDO = Long.MIN_VALUE;
+
+    private final int capacidad;
+    private final int mascara;
+
+    // Contenido de cada hueco
+    private final String[] ibans;
+    private final String[] contrapartidas;
+    private final Movimiento[] movimientos;
+
+    /**
+     * Secuencia del movimiento guardado en cada hueco (ESCRIBIENDO mientras se
+     * escribe). Inicialmente hueco - capacidad, es decir, "la vuelta anterior".
+     */
+    private final AtomicLongArray secuencias;
+
+    /**
+     * Siguiente secuencia a asignar (= número de movimientos publicados o en
+     * curso de publicación).
+     */
+    private final AtomicLong siguiente;
+
+    /**
+     * @param capacidad movimientos que se conservan (potencia de 2)
+     * @throws IllegalArgumentException si la capacidad no es una potencia de 2 positiva
+     */
+    FlujoMovimientos(int capacidad) {
+        if (capacidad <= 0 || Integer.bitCount(capacidad) != 1) {
+            throw new IllegalArgumentException("La capacidad debe ser una potencia de 2");
+        }
+
+        this.capacidad = capacidad;
+        this.mascara = capacidad - 1;
+        this.ibans = new String[capacidad];
+        this.contrapartidas = new String[capacidad];
+        this.movimientos = new Movimiento[capacidad];
+        this.secuencias = new AtomicLongArray(capacidad);
+        for (int i = 0; i < capacidad; i++) {
+            secuencias.set(i, i - (long) capacidad);
+        }
+        this.siguiente = new AtomicLong();
+    }
+
+
+    // ============================================================================
+    // PUBLICACIÓN
+    // ============================================================================
+
+    /**
+     * Añade un movimiento ya registrado en una cuenta.
+     *
+     * @param iban IBAN de la cuenta
+     * @param mov movimiento registrado
+     * @param contrapartida IBAN de la otra cuenta de una transferencia, o null
+     */
+    void publicar(String iban, Movimiento mov, String contrapartida) {
+        long secuencia = siguiente.getAndIncrement();
+        int hueco = (int) secuencia & mascara;
+
+        // Solo espera si la vuelta anterior de este hueco sigue escribiéndose
+        long anterior = secuencia - capacidad;
+        while (secuencias.get(hueco) != anterior) {
+            Thread.onSpinWait();
+        }
+
+        secuencias.set(hueco, ESCRIBIENDO);
+        VarHandle.storeStoreFence();
+        ibans[hueco] = iban;
+        contrapartidas[hueco] = contrapartida;
+        movimientos[hueco] = mov;
+        secuencias.setRelease(hueco, secuencia);
+    }
+
+
+    // ============================================================================
+    // SUSCRIPCIÓN
+    // ============================================================================
+
+    /**
+     * Suscripción que empieza en el siguiente movimiento que se publique.
+     *
+     * @return nueva suscripción
+     */
+    public Suscripcion suscribir() {
+        return new Suscripcion(siguiente.get());
+    }
+
+    /**
+     * Suscripción que empieza en la secuencia indicada (p. ej. la última leída
+     * + 1 por un consumidor que se reinicia, o 0 para empezar por el
+     * movimiento más antiguo que se conserve; los anteriores que ya no se
+     * conservan cuentan como perdidos).
+     *
+     * @param secuencia primera secuencia a leer (>= 0)
+     * @return nueva suscripción
+     * @throws IllegalArgumentException si la secuencia es negativa
+     */
+    public Suscripcion suscribirDesde(long secuencia) {
+        if (secuencia < 0) {
+            throw new IllegalArgumentException("La secuencia no puede ser negativa");
+        }
+        return new Suscripcion(secuencia);
+    }
+
+    /**
+     * @return número de movimientos publicados (secuencia del siguiente)
+     */
+    public long getNumPublicados() {
+        return siguiente.get();
+    }
+
+    /**
+     * @return número de movimientos que se conservan
+     */
+    public int getCapacidad() {
+        return capacidad;
+    }
+
+    /**
+     * Lector con su propia posición en el flujo. No es thread-safe: la usa un
+     * único hilo consumidor.
+     */
+    public final class Suscripcion {
+
+        // Siguiente secuencia a leer
+        private long posicion;
+
+        // Movimientos sobrescritos antes de leerlos
+        private long perdidos;
+
+        private Suscripcion(long posicion) {
+            this.posicion = posicion;
+        }
+
+        /**
+         * Lee sin esperar los movimientos disponibles a partir de la posición
+         * de la suscripción.
+         *
+         * @param destino colección a la que se añaden los movimientos leídos
+         * @param maximo número máximo de movimientos a leer (> 0)
+         * @return número de movimientos leídos (0 si no hay nuevos)
+         * @throws IllegalArgumentException si el máximo no es positivo
+         */
+        public int leer(Collection<? super MovimientoPublicado> destino, int maximo) {
+            if (maximo <= 0) {
+                throw new IllegalArgumentException("El máximo debe ser mayor que 0");
+            }
+
+            int leidos = 0;
+            while (leidos < maximo) {
+                long esperada = posicion;
+                int hueco = (int) esperada & mascara;
+
+                long antes = secuencias.getAcquire(hueco);
+                if (antes == esperada) {
+                    String iban = ibans[hueco];
+                    String contrapartida = contrapartidas[hueco];
+                    Movimiento mov = movimientos[hueco];
+                    VarHandle.loadLoadFence();
+                    if (secuencias.get(hueco) == esperada) {
+                        destino.add(new MovimientoPublicado(esperada, iban, mov, contrapartida));
+                        posicion = esperada + 1;
+                        leidos++;
+                        continue;
+                    }
+                    // Sobrescrito mientras se leía
+                } else if (siguiente.get() - capacidad <= esperada) {
+                    // Todavía no publicado (o escribiéndose): no hay más por ahora
+                    break;
+                }
+
+                // Sobrescrito antes de leerlo: saltar al más antiguo que se conserva
+                posicion = Math.max(esperada + 1, siguiente.get() - capacidad);
+                perdidos += posicion - esperada;
+            }
+            return leidos;
+        }
+
+        /**
+         * Como leer(destino, maximo), pero si no hay movimientos disponibles
+         * espera a que los haya como mucho el tiempo indicado. La espera la
+         * hace el consumidor (consultando periódicamente): publicar sigue sin
+         * tener que avisar a nadie.
+         *
+         * @return número de movimientos leídos (0 si se agota la espera)
+         * @throws InterruptedException si se interrumpe el hilo mientras espera
+         */
+        public int leer(Collection<? super MovimientoPublicado> destino, int maximo,
+                        long espera, TimeUnit unidad) throws InterruptedException {
+            long limite = System.nanoTime() + unidad.toNanos(espera);
+            long pausa = TimeUnit.MICROSECONDS.toNanos(10);
+
+            while (true) {
+                int leidos = leer(destino, maximo);
+                long restante = limite - System.nanoTime();
+                if (leidos > 0 || restante <= 0) {
+                    return leidos;
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                LockSupport.parkNanos(Math.min(pausa, restante));
+                pausa = Math.min(pausa * 2, TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+
+        /**
+         * @return siguiente secuencia que leerá esta suscripción
+         */
+        public long getPosicion() {
+            return posicion;
+        }
+
+        /**
+         * @return movimientos publicados que esta suscripción aún no ha leído
+         */
+        public long getRetraso() {
+            return Math.max(0, siguiente.get() - posicion);
+        }
+
+        /**
+         * @return movimientos que se sobrescribieron antes de que esta
+         *         suscripción los leyera
+         */
+        public long getPerdidos() {
+            return perdidos;
+        }
+    }
+}
@@ -4,14 +4,103 @@ package es.ujaen.ssccdd2026.banco.datos;
 //3
 import static es.ujaen.ssccdd2026.banco.Constantes.*;
 
+import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 
 /**
+ * Gestor centralizado de las cuentas del banco.
+ *
+ * CONCURRENCIA:
+ * - Las cuentas se guardan en un ConcurrentHashMap, de modo que crear y buscar
+ *   cuentas no necesita ningún cerrojo global.
+ * - Ingresos y retiradas no bloquean la cuenta (sin diario): los saldos se
+ *   actualizan con operaciones atómicas y las retiradas usan un débito
+ *   condicional (CAS) que hace imposible el descubierto. Varios cajeros sobre
+ *   la misma cuenta reintentan el CAS en lugar de esperar un cerrojo.
+ * - Los cambios de estado, las transferencias y los cambios de divisa bloquean
+ *   solo las cuentas que tocan (cerrojo de CuentaBancaria). Operaciones sobre
+ *   cuentas distintas avanzan en paralelo.
+ * - Aun así, cuando bloquearCuenta devuelve true ningún ingreso, retirada,
+ *   transferencia ni cambio de divisa se aplica ya a esa cuenta: los que no
+ *   toman el cerrojo se anotan en la cuenta como operaciones en curso y el
+ *   cambio de estado espera a que terminen (ver
+ *   CuentaBancaria.entrarSinCerrojo).
+ * - Las transferencias adquieren los dos cerrojos siempre en el mismo orden
+ *   (orden lexicográfico de IBAN), por lo que dos transferencias en sentidos
+ *   opuestos entre las mismas cuentas nunca provocan un interbloqueo.
+ * - Como alternativa a los cerrojos, MotorParticiones reparte las cuentas entre
+ *   varios hilos y cada cuenta la modifica siempre el mismo.
+ *
+ * PERSISTENCIA (opcional):
+ * Si se abre con un DiarioMovimientos (abrir()), cada operación aceptada se
+ * anota en el diario y no devuelve true hasta que su registro está en disco. En
+ * ese modo las operaciones sobre una cuenta se anotan con su cerrojo adquirido,
+ * para que el orden del diario coincida con el orden en que se aplicaron; la
+ * espera del fsync se hace ya sin cerrojos (commit en grupo, ver
+ * DiarioMovimientos).
+ * Si falla una escritura del diario, las operaciones que esperaban ese fsync
+ * lanzan UncheckedIOException: están aplicadas en memoria, pero no se sabe si
+ * han llegado a disco. Desde ese momento el gestor rechaza cualquier otra
+ * modificación con IllegalStateException (las consultas siguen funcionando);
+ * el estado fiable es el que se reconstruya del diario al reiniciar.
+ * guardarInstantanea() vuelca todas las cuentas a disco sin detener el tráfico,
+ * para que el siguiente arranque no tenga que reproducir el diario completo.
+ *
+ * CAMBIO DE DIVISA:
+ * cambiarDivisa() convierte saldo entre dos divisas de la misma cuenta con las
+ * cotizaciones de getTablaCambios(), que pueden actualizarse en cualquier momento.
+ *
+ * ÍNDICES SECUNDARIOS:
+ * buscarPorEstado(), buscarPorTipo() y buscarPorTitular() consultan índices que
+ * se mantienen al crear cuentas y en cada cambio de estado (ver IndicesCuentas).
+ *
+ * TOTALES DEL BANCO:
+ * calcularResumen() recorre todas las cuentas en paralelo (fork/join) para
+ * obtener los totales del cierre del día (ver ResumenBanco). getLibroMayor()
+ * da en O(1) los saldos, ingresos, retiradas y comisiones por divisa, que se
+ * mantienen al día con cada movimiento sin contención (ver LibroMayor).
+ *
+ * RESULTADOS DETALLADOS:
+ * Las operaciones devuelven true/false; sus versiones con un ResultadoOperacion
+ * dejan además en él el motivo del rechazo, el saldo resultante y el
+ * movimiento generado, sin asignar memoria (el objeto se reutiliza).
+ *
+ * REINTENTOS (idempotencia):
+ * Las operaciones que modifican el banco admiten un identificador de petición
+ * del cliente; un reintento con el mismo identificador devuelve el resultado
+ * original sin repetir la operación (ver CacheIdempotencia).
+ *
+ * FLUJO DE MOVIMIENTOS:
+ * Cada movimiento registrado se publica en getFlujoMovimientos(), un registro
+ * acotado en el que cada suscriptor lee por lotes a su ritmo; un suscriptor
+ * lento pierde los movimientos más antiguos pero nunca frena las operaciones.
+ * DetectorFraude es uno de esos suscriptores: vigila la velocidad de las
+ * salidas de dinero de cada cuenta y puede bloquearla en el momento.
+ *
+ * MÉTRICAS:
+ * getMetricas() da el histograma de latencias de cada operación (p50, p99,
+ * p99.9), los rechazos por motivo y las esperas de cerrojos y del diario;
+ * getMetricas().volcar() las resume en un informe de texto. Para analizar una
+ * incidencia concreta hay además eventos JFR, desactivados por defecto, que se
+ * activan con jcmd JFR.start (ver EventosBanco).
+ *
+ * HISTÓRICOS FUERA DEL HEAP (opcional):
+ * Si se construye con un AlmacenMovimientos, los históricos de todas las
+ * cuentas se guardan en ese almacén (memoria nativa) en lugar de en el heap.
+ *
  * @author Diego Gómez Sánchez
  */
 
@@ -29,8 +118,57 @@ public class GestorCuentas {
      *
      * IMPORTANTE: El IBAN es único para cada cuenta, lo que garantiza
      * que no hay duplicados en el sistema.
+     *
+     * Es un ConcurrentHashMap: admite lecturas y altas concurrentes sin bloquear
+     * todo el mapa.
+     */
+    private final Map<String, CuentaBancaria> cuentas;
+
+    /**
+     * Diario donde se anotan las operaciones, o null si el gestor solo
+     * trabaja en memoria.
+     */
+    private final DiarioMovimientos diario;
+
+    /**
+     * Almacén fuera del heap donde se guardan los históricos de las cuentas,
+     * o null si cada cuenta guarda su histórico en memoria.
+     */
+    private final AlmacenMovimientos almacen;
+
+    /**
+     * Cotizaciones usadas por cambiarDivisa. Se actualizan sin detener las
+     * conversiones en curso (ver TablaCambios).
+     */
+    private final TablaCambios tablaCambios;
+
+    /**
+     * Índices por estado, tipo y titular (ver buscarPorEstado, buscarPorTipo
+     * y buscarPorTitular).
+     */
+    private final IndicesCuentas indices;
+
+    /**
+     * Totales del banco por divisa, al día con cada movimiento (ver LibroMayor).
      */
-    private Map<String, CuentaBancaria> cuentas;
+    private final LibroMayor libroMayor;
+
+    /**
+     * Resultados recientes de las operaciones con identificador de petición,
+     * para que los reintentos no se ejecuten dos veces (ver CacheIdempotencia).
+     */
+    private final CacheIdempotencia idempotencia;
+
+    /**
+     * Latencias y rechazos por motivo de cada operación (ver MetricasOperaciones).
+     */
+    private final MetricasOperaciones metricas;
+
+    /**
+     * Movimientos registrados en todas las cuentas, para los suscriptores
+     * (ver FlujoMovimientos).
+     */
+    private final FlujoMovimientos flujo;
 
 
     // ============================================================================
@@ -38,14 +176,105 @@ public class GestorCuentas {
     // ============================================================================
 
     /**
-     * Constructor del gestor de cuentas.
-     *
-     * TODO: Inicializar el mapa de cuentas como un HashMap vacío
+     * Constructor del gestor de cuentas, sin diario y con los históricos en
+     * memoria.
      *
-     * PISTA: this.cuentas = new HashMap<>();
+     * El mapa de cuentas se inicializa como un ConcurrentHashMap vacío (ver el
+     * atributo cuentas).
      */
     public GestorCuentas() {
-        this.cuentas = new HashMap<>();
+        this.cuentas = new ConcurrentHashMap<>();
+        this.diario = null;
+        this.almacen = null;
+        this.tablaCambios = new TablaCambios();
+        this.indices = new IndicesCuentas();
+        this.libroMayor = new LibroMayor();
+        this.idempotencia = new CacheIdempotencia(MAX_PETICIONES_RECORDADAS,
+                                                  SEGUNDOS_IDEMPOTENCIA);
+        this.metricas = new MetricasOperaciones();
+        this.flujo = new FlujoMovimientos(CAPACIDAD_FLUJO_MOVIMIENTOS);
+    }
+
+    /**
+     * Constructor de un gestor que guarda los históricos de todas las cuentas
+     * en un almacén fuera del heap.
+     *
+     * @param almacen almacén de movimientos
+     */
+    public GestorCuentas(AlmacenMovimientos almacen) {
+        if (almacen == null) {
+            throw new IllegalArgumentException("El almacén no puede ser null");
+        }
+
+        this.cuentas = new ConcurrentHashMap<>();
+        this.diario = null;
+        this.almacen = almacen;
+        this.tablaCambios = new TablaCambios();
+        this.indices = new IndicesCuentas();
+        this.libroMayor = new LibroMayor();
+        this.idempotencia = new CacheIdempotencia(MAX_PETICIONES_RECORDADAS,
+                                                  SEGUNDOS_IDEMPOTENCIA);
+        this.metricas = new MetricasOperaciones();
+        this.flujo = new FlujoMovimientos(CAPACIDAD_FLUJO_MOVIMIENTOS);
+    }
+
+    /**
+     * Constructor de un gestor persistente a partir de otro ya reconstruido:
+     * adopta su estado y enlaza el diario. Solo lo usa abrir().
+     *
+     * @param diario diario de operaciones ya reproducido
+     * @param reproducido gestor sin diario sobre el que se ha reproducido
+     */
+    private GestorCuentas(DiarioMovimientos diario, GestorCuentas reproducido) {
+        this.cuentas = reproducido.cuentas;
+        this.diario = diario;
+        this.almacen = reproducido.almacen;
+        this.tablaCambios = reproducido.tablaCambios;
+        this.indices = reproducido.indices;
+        this.libroMayor = reproducido.libroMayor;
+        this.idempotencia = reproducido.idempotencia;
+        this.metricas = reproducido.metricas;
+        this.flujo = reproducido.flujo;
+    }
+
+    /**
+     * Abre un gestor persistente.
+     *
+     * Reproduce el contenido actual del diario (reconstruyendo las cuentas tal
+     * y como estaban) y a partir de ahí anota en él cada operación aceptada.
+     *
+     * @param diario diario de operaciones ya abierto
+     * @return gestor con las cuentas del diario
+     * @throws IOException si no se puede leer el diario
+     */
+    public static GestorCuentas abrir(DiarioMovimientos diario) throws IOException {
+        return abrir(diario, null);
+    }
+
+    /**
+     * Abre un gestor persistente que además guarda los históricos en un
+     * almacén fuera del heap.
+     *
+     * La reproducción se hace sobre un gestor sin diario, para que no vuelva a
+     * anotarse; el gestor devuelto adopta su estado una vez terminada. Por eso
+     * es un método de factoría y no un constructor: el gestor no sale del
+     * constructor antes de estar completo.
+     *
+     * @param diario diario de operaciones ya abierto
+     * @param almacen almacén de movimientos, o null para históricos en memoria
+     * @return gestor con las cuentas del diario
+     * @throws IOException si no se puede leer el diario
+     */
+    public static GestorCuentas abrir(DiarioMovimientos diario, AlmacenMovimientos almacen)
+            throws IOException {
+        if (diario == null) {
+            throw new IllegalArgumentException("El diario no puede ser null");
+        }
+
+        GestorCuentas reproducido = (almacen == null) ? new GestorCuentas()
+                                                      : new GestorCuentas(almacen);
+        diario.reproducir(reproducido);
+        return new GestorCuentas(diario, reproducido);
     }
 
 
@@ -75,16 +304,52 @@ public class GestorCuentas {
      */
     public Optional<CuentaBancaria> crearCuenta(String iban, String titular,
                                                 TipoCuenta tipo) {
-        if (cuentas.containsKey(iban)) {
+        comprobarDiario();
+        if (iban != null && cuentas.containsKey(iban)) {
             return Optional.empty();
         }
 
-        CuentaBancaria nueva = new CuentaBancaria(iban, titular, tipo);
-        cuentas.put(iban, nueva);
+        // El constructor valida los parámetros (incluido el IBAN null)
+        CuentaBancaria nueva = nuevaCuenta(iban, titular, tipo);
+
+        // Con diario, la cuenta se publica ya bloqueada: ninguna operación sobre
+        // ella puede anotarse antes que su alta
+        boolean bloqueada = bloquearSiHayDiario(nueva);
+        long secuencia = 0;
+        try {
+            // putIfAbsent es atómico: si otro hilo ha creado la cuenta a la vez, gana él
+            nueva.setIndices(indices);
+            nueva.setLibroMayor(libroMayor);
+            nueva.setFlujoMovimientos(flujo);
+            if (cuentas.putIfAbsent(iban, nueva) != null) {
+                return Optional.empty();
+            }
+            indices.anadir(nueva);
+
+            if (diario != null) {
+                secuencia = diario.anotarAlta(nueva);
+            }
+        } finally {
+            if (bloqueada) {
+                nueva.getCerrojo().unlock();
+            }
+        }
 
+        hacerDurable(secuencia);
         return Optional.of(nueva);
     }
 
+    /**
+     * Construye una cuenta (sin añadirla) con el histórico que corresponda:
+     * en memoria o como vista sobre el almacén fuera del heap.
+     */
+    CuentaBancaria nuevaCuenta(String iban, String titular, TipoCuenta tipo) {
+        if (almacen == null) {
+            return new CuentaBancaria(iban, titular, tipo);
+        }
+        return new CuentaBancaria(iban, titular, tipo, almacen.crearHistorico());
+    }
+
     /**
      * Busca una cuenta por su IBAN.
      *
@@ -94,11 +359,30 @@ public class GestorCuentas {
      *        Este método crea un Optional.empty() si el valor es null,
      *        o Optional.of(valor) si no lo es.
      *
+     * Es la búsqueda de los clientes y la única que se mide (BUSQUEDA en
+     * getMetricas()); las operaciones del gestor usan obtenerCuenta.
+     *
      * @param iban código IBAN a buscar
      * @return Optional con la cuenta, o empty si no existe
      */
     public Optional<CuentaBancaria> buscarCuenta(String iban) {
-        return Optional.ofNullable(cuentas.get(iban));
+        long inicio = System.nanoTime();
+        CuentaBancaria cuenta = obtenerCuenta(iban);
+        metricas.registrar(MetricasOperaciones.Operacion.BUSQUEDA, inicio,
+                           cuenta == null ? MotivoRechazo.CUENTA_INEXISTENTE : null);
+        return Optional.ofNullable(cuenta);
+    }
+
+    /**
+     * Búsqueda interna, sin métricas ni Optional, para las operaciones del
+     * gestor y las clases que trabajan sobre él (diario, motor, servicio).
+     *
+     * @param iban código IBAN a buscar
+     * @return la cuenta, o null si no existe
+     */
+    CuentaBancaria obtenerCuenta(String iban) {
+        // ConcurrentHashMap no admite claves null
+        return iban != null ? cuentas.get(iban) : null;
     }
 
     /**
@@ -125,6 +409,88 @@ public class GestorCuentas {
         return cuentas.values();
     }
 
+    /**
+     * Cuentas con un estado dado, sin recorrer todas las cuentas (índice
+     * secundario, tiempo proporcional al número de resultados).
+     *
+     * @param estado estado buscado
+     * @return nueva lista con las cuentas que tienen ese estado (sin orden)
+     */
+    public List<CuentaBancaria> buscarPorEstado(EstadoCuenta estado) {
+        if (estado == null) {
+            return new ArrayList<>();
+        }
+        return indices.buscarPorEstado(estado);
+    }
+
+    /**
+     * Cuentas de un tipo dado (índice secundario).
+     *
+     * @param tipo tipo buscado
+     * @return nueva lista con las cuentas de ese tipo (sin orden)
+     */
+    public List<CuentaBancaria> buscarPorTipo(TipoCuenta tipo) {
+        if (tipo == null) {
+            return new ArrayList<>();
+        }
+        return indices.buscarPorTipo(tipo);
+    }
+
+    /**
+     * Cuentas de un titular (índice secundario, comparación exacta del nombre).
+     *
+     * @param titular titular buscado
+     * @return nueva lista con sus cuentas (vacía si no tiene ninguna)
+     */
+    public List<CuentaBancaria> buscarPorTitular(String titular) {
+        if (titular == null) {
+            return new ArrayList<>();
+        }
+        return indices.buscarPorTitular(titular);
+    }
+
+    /**
+     * Totales de todo el banco (saldos por divisa, comisiones, movimientos por
+     * tipo y cuentas por estado y tipo), calculados en paralelo en un único
+     * recorrido de las cuentas y sin detener las operaciones (ver ResumenBanco).
+     *
+     * @return resumen con los totales
+     */
+    public ResumenBanco calcularResumen() {
+        return ResumenBanco.calcular(cuentas.values(), libroMayor);
+    }
+
+    /**
+     * Totales del banco por divisa (saldos, ingresos, retiradas y comisiones)
+     * mantenidos con cada movimiento: se leen en O(1), sin recorrer las cuentas.
+     *
+     * @return libro mayor del gestor
+     */
+    public LibroMayor getLibroMayor() {
+        return libroMayor;
+    }
+
+    /**
+     * Latencias de cada operación y número de rechazos por motivo, para
+     * diagnosticar picos de latencia o rechazos inesperados.
+     *
+     * @return métricas del gestor
+     */
+    public MetricasOperaciones getMetricas() {
+        return metricas;
+    }
+
+    /**
+     * Flujo con cada movimiento registrado en las cuentas del gestor (y su
+     * IBAN), al que se suscriben los sistemas que necesitan enterarse de los
+     * movimientos nuevos. Publicar nunca espera a los suscriptores.
+     *
+     * @return flujo de movimientos del gestor
+     */
+    public FlujoMovimientos getFlujoMovimientos() {
+        return flujo;
+    }
+
 
     // ============================================================================
     // MÉTODOS DE CAMBIO DE ESTADO
@@ -143,32 +509,23 @@ public class GestorCuentas {
      *
      * TODO: Implementar la lógica completa
      *
-     * PISTA: Usa buscarCuenta(iban) y verifica con isPresent()
-     * PISTA: Para obtener la cuenta del Optional: buscarCuenta(iban).get()
-     *        (pero solo después de verificar isPresent())
+     * PISTA: Usa obtenerCuenta(iban) y comprueba que no sea null
+     *        (buscarCuenta es la búsqueda medida de los clientes)
      *
      * @param iban IBAN de la cuenta a activar
      * @return true si se activó correctamente, false en caso contrario
      */
     public boolean activarCuenta(String iban) {
         // Buscar la cuenta
-        Optional<CuentaBancaria> optCuenta = buscarCuenta(iban);
+        CuentaBancaria cuenta = obtenerCuenta(iban);
 
         // Verificar si existe
-        if (!optCuenta.isPresent()) {
+        if (cuenta == null) {
             return false;
         }
 
-        // Obtener la cuenta del Optional
-        CuentaBancaria cuenta = optCuenta.get();
-
-        // Verificar el estado y cambiar a ACTIVA si hace falta
-        if (cuenta.getEstado() == EstadoCuenta.PENDIENTE_ACTIVACION) {
-            cuenta.setEstado(EstadoCuenta.ACTIVA);
-            return true;
-        }
-
-        return false;
+        // Verificar el estado y cambiar a ACTIVA si hace falta (de forma atómica)
+        return cambiarEstado(cuenta, EstadoCuenta.PENDIENTE_ACTIVACION, EstadoCuenta.ACTIVA);
     }
 
     /**
@@ -184,20 +541,47 @@ public class GestorCuentas {
      * @return true si se bloqueó correctamente, false en caso contrario
      */
     public boolean bloquearCuenta(String iban) {
-        Optional<CuentaBancaria> optCuenta = buscarCuenta(iban);
+        CuentaBancaria c = obtenerCuenta(iban);
 
-        if (!optCuenta.isPresent()) {
+        if (c == null) {
             return false;
         }
 
-        CuentaBancaria c = optCuenta.get(); //El opt sin objeto no te devuelve como es obvio.
+        return cambiarEstado(c, EstadoCuenta.ACTIVA, EstadoCuenta.BLOQUEADA);
+    }
 
-        if (c.getEstado() == EstadoCuenta.ACTIVA) {
-            c.setEstado(EstadoCuenta.BLOQUEADA);
-            return true;
+    /**
+     * Cambia el estado de la cuenta de esperado a nuevo de forma atómica.
+     *
+     * @param cuenta cuenta a modificar
+     * @param esperado estado que debe tener la cuenta
+     * @param nuevo estado a asignar
+     * @return true si la cuenta estaba en el estado esperado y se cambió
+     */
+    private boolean cambiarEstado(CuentaBancaria cuenta, EstadoCuenta esperado,
+                                  EstadoCuenta nuevo) {
+        comprobarDiario();
+        long secuencia = 0;
+        ReentrantLock cerrojo = cuenta.getCerrojo();
+        bloquear(cuenta);
+        try {
+            if (cuenta.getEstado() != esperado) {
+                return false;
+            }
+
+            cuenta.setEstado(nuevo);
+            // Los ingresos y retiradas sin cerrojo que vieron el estado
+            // anterior terminan antes de devolver true
+            cuenta.esperarOperacionesSinCerrojo();
+            if (diario != null) {
+                secuencia = diario.anotarEstado(cuenta, nuevo);
+            }
+        } finally {
+            cerrojo.unlock();
         }
 
-        return false;
+        hacerDurable(secuencia);
+        return true;
     }
 
 
@@ -238,28 +622,63 @@ public class GestorCuentas {
      * @return true si se realizó correctamente, false en caso contrario
      */
     public boolean realizarIngreso(String iban, long cantidad, Divisa divisa, String descripcion) {
+        return realizarIngreso(iban, cantidad, divisa, descripcion, null);
+    }
+
+    /**
+     * realizarIngreso dejando el detalle del resultado (motivo del rechazo, saldo
+     * resultante y movimiento generado) en un objeto que se puede reutilizar.
+     *
+     * @param resultado objeto donde se deja el resultado, o null
+     * @return true si se realizó correctamente, false en caso contrario
+     */
+    public boolean realizarIngreso(String iban, long cantidad, Divisa divisa, String descripcion,
+                                   ResultadoOperacion resultado) {
+        EventosBanco.EventoOperacion evento = EventosBanco.iniciarOperacion();
+        long inicio = System.nanoTime();
+        iniciarResultado(resultado);
+        MotivoRechazo motivo = ingreso(iban, cantidad, divisa, descripcion, resultado);
+        terminarResultado(resultado, motivo);
+        metricas.registrar(MetricasOperaciones.Operacion.INGRESO, inicio, motivo);
+        EventosBanco.terminarOperacion(evento, "INGRESO", iban, divisa, cantidad, motivo);
+        return motivo == null;
+    }
+
+    /**
+     * Cuerpo de realizarIngreso.
+     *
+     * @return motivo del rechazo, o null si se realizó
+     */
+    private MotivoRechazo ingreso(String iban, long cantidad, Divisa divisa, String descripcion,
+                                  ResultadoOperacion resultado) {
+        comprobarDiario();
         if (cantidad <= 0) {
-            return false;
+            return MotivoRechazo.IMPORTE_NO_VALIDO;
         }
 
 
-        Optional<CuentaBancaria> optCuenta = buscarCuenta(iban);
-        if (!optCuenta.isPresent()) {
-            return false;
+        CuentaBancaria cuenta = obtenerCuenta(iban);
+        if (cuenta == null) {
+            return MotivoRechazo.CUENTA_INEXISTENTE;
         }
+        // Sin diario no se bloquea la cuenta, pero un bloqueo tampoco puede
+        // colarse entre la comprobación del estado y el ingreso (ver entrar)
+        long secuencia;
+        boolean bloqueada = entrar(cuenta);
+        try {
+            if (cuenta.getEstado() != EstadoCuenta.ACTIVA) {
+                anotarSaldo(resultado, cuenta, divisa);
+                return MotivoRechazo.CUENTA_NO_ACTIVA;
+            }
 
-        CuentaBancaria cuenta = optCuenta.get();
-        if (cuenta.getEstado() != EstadoCuenta.ACTIVA) {
-            return false;
+            //Ultimo paso... (la suma sobre el saldo es atómica, no hace falta cerrojo)
+            secuencia = ingresar(cuenta, cantidad, divisa, descripcion, Instant.now(), resultado);
+        } finally {
+            salir(cuenta, bloqueada);
         }
 
-        Movimiento m = new Movimiento(Instant.now(), TipoMovimiento.INGRESO,
-                                      cantidad, divisa, descripcion, 0L);
-
-        //Ultimo paso...
-        cuenta.registrarMovimiento(m);
-
-        return true;
+        hacerDurable(secuencia);
+        return null;
     }
 
     /**
@@ -271,13 +690,20 @@ public class GestorCuentas {
      * 3. La cuenta debe estar ACTIVA
      * 4. Calcular la comisión: tipoComision.calcularComision(cantidad)
      * 5. Verificar que hay saldo suficiente para (cantidad + comision)
-     *    - Usar cuenta.tieneSaldoSuficiente(cantidad + comision, divisa)
+     * 6. Con la cantidad, las retiradas de las últimas 24 horas no deben superar
+     *    TipoMovimiento.RETIRADA.getLimiteDiario(). El límite está en euros: los
+     *    importes se convierten con la tabla de cambios y, si la divisa no tiene
+     *    cotización, cuentan por su valor nominal (ver LimitesDiarios)
      *
      * PASOS SI TODO ES VÁLIDO:
      * 1. Crear movimiento tipo RETIRADA con la comisión calculada
      * 2. Registrar el movimiento
      * 3. Devolver true
      *
+     * Los pasos 5 y 2 se hacen a la vez con cuenta.registrarMovimientoSiSaldoSuficiente:
+     * comprobar y descontar por separado permitiría que dos retiradas simultáneas
+     * vieran el mismo saldo y dejaran la cuenta en negativo.
+     *
      * Si alguna validación falla, devolver false.
      *
      * TODO: Implementar la lógica completa
@@ -293,36 +719,73 @@ public class GestorCuentas {
      */
     public boolean realizarRetirada(String iban, long cantidad, Divisa divisa,
                                     String descripcion, TipoComision tipoComision) {
+        return realizarRetirada(iban, cantidad, divisa, descripcion, tipoComision, null);
+    }
+
+    /**
+     * realizarRetirada dejando el detalle del resultado (motivo del rechazo, saldo
+     * resultante y movimiento generado) en un objeto que se puede reutilizar.
+     *
+     * @param resultado objeto donde se deja el resultado, o null
+     * @return true si se realizó correctamente, false en caso contrario
+     */
+    public boolean realizarRetirada(String iban, long cantidad, Divisa divisa,
+                                    String descripcion, TipoComision tipoComision,
+                                    ResultadoOperacion resultado) {
+        EventosBanco.EventoOperacion evento = EventosBanco.iniciarOperacion();
+        long inicio = System.nanoTime();
+        iniciarResultado(resultado);
+        MotivoRechazo motivo = retirada(iban, cantidad, divisa, descripcion, tipoComision,
+                                        resultado);
+        terminarResultado(resultado, motivo);
+        metricas.registrar(MetricasOperaciones.Operacion.RETIRADA, inicio, motivo);
+        EventosBanco.terminarOperacion(evento, "RETIRADA", iban, divisa, cantidad, motivo);
+        return motivo == null;
+    }
+
+    /**
+     * Cuerpo de realizarRetirada.
+     *
+     * @return motivo del rechazo, o null si se realizó
+     */
+    private MotivoRechazo retirada(String iban, long cantidad, Divisa divisa,
+                                   String descripcion, TipoComision tipoComision,
+                                   ResultadoOperacion resultado) {
+        comprobarDiario();
 
 
         //Cuidado hay que ponerlo en todos, sino no pasa....
 
         if (cantidad <= 0) {
-            return false;
+            return MotivoRechazo.IMPORTE_NO_VALIDO;
         }
 
-        Optional<CuentaBancaria> optCuenta = buscarCuenta(iban);
-        if (!optCuenta.isPresent()) {
-            return false;
+        CuentaBancaria cuenta = obtenerCuenta(iban);
+        if (cuenta == null) {
+            return MotivoRechazo.CUENTA_INEXISTENTE;
         }
+        long secuencia;
+        boolean bloqueada = entrar(cuenta);
+        try {
+            if (cuenta.getEstado() != EstadoCuenta.ACTIVA) {
+                anotarSaldo(resultado, cuenta, divisa);
+                return MotivoRechazo.CUENTA_NO_ACTIVA;
 
-        CuentaBancaria cuenta = optCuenta.get();
-        if (cuenta.getEstado() != EstadoCuenta.ACTIVA) {
-
-            return false;
-
-        }
+            }
 
-        long comision = tipoComision.calcularComision(cantidad);
-        if (!cuenta.tieneSaldoSuficiente(cantidad + comision, divisa)) {
-            return false;
+            // Débito condicional atómico: rechazada si no hay saldo para cantidad + comision
+            secuencia = retirar(cuenta, cantidad, divisa, descripcion, tipoComision,
+                                Instant.now(), resultado);
+            if (secuencia < 0) {
+                anotarSaldo(resultado, cuenta, divisa);
+                return motivoRechazo(secuencia);
+            }
+        } finally {
+            salir(cuenta, bloqueada);
         }
 
-        Movimiento m = new Movimiento(Instant.now(), TipoMovimiento.RETIRADA,
-                                      cantidad, divisa, descripcion, comision);
-        cuenta.registrarMovimiento(m);
-
-        return true;
+        hacerDurable(secuencia);
+        return null;
     }
 
     /**
@@ -336,6 +799,9 @@ public class GestorCuentas {
      * 3. Ambas cuentas deben estar ACTIVAS
      * 4. Calcular comisión para el origen
      * 5. Validar saldo suficiente en origen (cantidad + comision)
+     * 6. Con la cantidad, las transferencias enviadas por el origen en las
+     *    últimas 24 horas no deben superar su límite diario (en euros, como en
+     *    realizarRetirada)
      *
      * PASOS SI TODO ES VÁLIDO:
      * 1. Crear movimiento TRANSFERENCIA_ENVIADA para la cuenta origen:
@@ -370,55 +836,1012 @@ public class GestorCuentas {
                                          long cantidad, Divisa divisa,
                                          String descripcion,
                                          TipoComision tipoComision) {
+        return realizarTransferencia(ibanOrigen, ibanDestino, cantidad, divisa, descripcion,
+                                     tipoComision, null);
+    }
+
+    /**
+     * realizarTransferencia dejando el detalle del resultado (motivo del rechazo, saldo
+     * resultante y movimiento generado) en un objeto que se puede reutilizar.
+     *
+     * @param resultado objeto donde se deja el resultado, o null
+     * @return true si se realizó correctamente, false en caso contrario
+     */
+    public boolean realizarTransferencia(String ibanOrigen, String ibanDestino,
+                                         long cantidad, Divisa divisa,
+                                         String descripcion,
+                                         TipoComision tipoComision,
+                                         ResultadoOperacion resultado) {
+        EventosBanco.EventoOperacion evento = EventosBanco.iniciarOperacion();
+        long inicio = System.nanoTime();
+        iniciarResultado(resultado);
+        MotivoRechazo motivo = transferencia(ibanOrigen, ibanDestino, cantidad, divisa,
+                                             tipoComision, resultado);
+        terminarResultado(resultado, motivo);
+        metricas.registrar(MetricasOperaciones.Operacion.TRANSFERENCIA, inicio, motivo);
+        EventosBanco.terminarOperacion(evento, "TRANSFERENCIA", ibanOrigen, divisa, cantidad,
+                                       motivo);
+        return motivo == null;
+    }
+
+    /**
+     * Cuerpo de realizarTransferencia.
+     *
+     * @return motivo del rechazo, o null si se realizó
+     */
+    private MotivoRechazo transferencia(String ibanOrigen, String ibanDestino, long cantidad,
+                                        Divisa divisa, TipoComision tipoComision,
+                                        ResultadoOperacion resultado) {
+        comprobarDiario();
 
         // Validar cantidad > 0
         if (cantidad <= 0) {
-            return false;
+            return MotivoRechazo.IMPORTE_NO_VALIDO;
         }
 
         // Buscar ambas cuentas
-        Optional<CuentaBancaria> optOrigen = buscarCuenta(ibanOrigen);
-        Optional<CuentaBancaria> optDestino = buscarCuenta(ibanDestino);
+        CuentaBancaria origen = obtenerCuenta(ibanOrigen);
+        CuentaBancaria destino = obtenerCuenta(ibanDestino);
 
         //Existen
-        if (!optOrigen.isPresent() || !optDestino.isPresent()) {
-            return false;
+        if (origen == null || destino == null) {
+            return MotivoRechazo.CUENTA_INEXISTENTE;
         }
 
-        CuentaBancaria origen = optOrigen.get();
-        CuentaBancaria destino = optDestino.get();
+        // Adquirir ambos cerrojos en orden global de IBAN (evita interbloqueos)
+        long secuencia = 0;
+        bloquearEnOrden(origen, destino);
+        try {
+            // Validar que ambas están ACTIVAS
+            if (origen.getEstado() != EstadoCuenta.ACTIVA ||
+                destino.getEstado() != EstadoCuenta.ACTIVA) {
+                anotarSaldo(resultado, origen, divisa);
+                return MotivoRechazo.CUENTA_NO_ACTIVA;
+            }
 
-        // Validar que ambas están ACTIVAS
-        if (origen.getEstado() != EstadoCuenta.ACTIVA ||
-            destino.getEstado() != EstadoCuenta.ACTIVA) {
-            return false;
+            // Crear y registrar ambos movimientos (rechazada si no hay saldo en origen)
+            secuencia = transferir(origen, destino, cantidad, divisa, tipoComision,
+                                   Instant.now(), resultado);
+            if (secuencia < 0) {
+                anotarSaldo(resultado, origen, divisa);
+                return motivoRechazo(secuencia);
+            }
+        } finally {
+            desbloquear(origen, destino);
         }
-        long comision = tipoComision.calcularComision(cantidad);
 
-        // Validar saldo suficiente en origen
-        if (!origen.tieneSaldoSuficiente(cantidad + comision, divisa)) {
-            return false;
+        hacerDurable(secuencia);
+        return null;
+    }
+
+    /**
+     * Cambia saldo de una divisa a otra dentro de la misma cuenta.
+     *
+     * VALIDACIONES:
+     * 1. Cantidad > 0 y divisas distintas
+     * 2. La cuenta debe existir y estar ACTIVA
+     * 3. Las dos divisas deben tener cotización en la tabla de cambios y el
+     *    importe convertido no puede quedar en 0 céntimos
+     * 4. Saldo suficiente en la divisa origen para cantidad + comisión
+     *    (TipoComision.CAMBIO_DIVISA, cobrada en la divisa origen)
+     *
+     * PASOS SI TODO ES VÁLIDO:
+     * Se registran dos movimientos CAMBIO_DIVISA: la salida en la divisa origen
+     * (débito, con la comisión) y la entrada en la divisa destino (crédito, con
+     * el importe convertido y redondeado al céntimo, ver TablaCambios).
+     *
+     * CONCURRENCIA: se hace con el cerrojo de la cuenta, como las
+     * transferencias; el débito sigue siendo condicional (CAS), así que una
+     * retirada simultánea sin cerrojo tampoco puede dejar la cuenta en negativo.
+     *
+     * @param iban IBAN de la cuenta
+     * @param cantidad cantidad a cambiar en céntimos de la divisa origen
+     * @param divisaOrigen divisa de la que sale el dinero
+     * @param divisaDestino divisa a la que se convierte
+     * @return true si se realizó correctamente, false en caso contrario
+     */
+    public boolean cambiarDivisa(String iban, long cantidad, Divisa divisaOrigen,
+                                 Divisa divisaDestino) {
+        return cambiarDivisa(iban, cantidad, divisaOrigen, divisaDestino, null);
+    }
+
+    /**
+     * cambiarDivisa dejando el detalle del resultado (motivo del rechazo, saldo
+     * resultante y movimiento generado) en un objeto que se puede reutilizar.
+     *
+     * @param resultado objeto donde se deja el resultado, o null
+     * @return true si se realizó correctamente, false en caso contrario
+     */
+    public boolean cambiarDivisa(String iban, long cantidad, Divisa divisaOrigen,
+                                 Divisa divisaDestino, ResultadoOperacion resultado) {
+        EventosBanco.EventoOperacion evento = EventosBanco.iniciarOperacion();
+        long inicio = System.nanoTime();
+        iniciarResultado(resultado);
+        MotivoRechazo motivo = cambioDivisa(iban, cantidad, divisaOrigen, divisaDestino,
+                                            resultado);
+        terminarResultado(resultado, motivo);
+        metricas.registrar(MetricasOperaciones.Operacion.CAMBIO_DIVISA, inicio, motivo);
+        EventosBanco.terminarOperacion(evento, "CAMBIO_DIVISA", iban, divisaOrigen, cantidad, motivo);
+        return motivo == null;
+    }
+
+    /**
+     * Cuerpo de cambiarDivisa.
+     *
+     * @return motivo del rechazo, o null si se realizó
+     */
+    private MotivoRechazo cambioDivisa(String iban, long cantidad, Divisa divisaOrigen,
+                                       Divisa divisaDestino, ResultadoOperacion resultado) {
+        comprobarDiario();
+        if (cantidad <= 0) {
+            return MotivoRechazo.IMPORTE_NO_VALIDO;
+        }
+        if (divisaOrigen == null || divisaDestino == null || divisaOrigen == divisaDestino) {
+            return MotivoRechazo.CAMBIO_NO_DISPONIBLE;
         }
 
-        // Crear movimiento TRANSFERENCIA_ENVIADA para origen (con comisión)
-        Movimiento movOrigen = new Movimiento(Instant.now(),
-                                              TipoMovimiento.TRANSFERENCIA_ENVIADA,
-                                              cantidad, divisa,
-                                              "Transferencia a " + destino.getTitular(),
-                                              comision);
+        CuentaBancaria cuenta = obtenerCuenta(iban);
+        if (cuenta == null) {
+            return MotivoRechazo.CUENTA_INEXISTENTE;
+        }
+        long secuencia;
+        bloquear(cuenta);
+        try {
+            if (cuenta.getEstado() != EstadoCuenta.ACTIVA) {
+                anotarSaldo(resultado, cuenta, divisaOrigen);
+                return MotivoRechazo.CUENTA_NO_ACTIVA;
+            }
 
-        // Crear movimiento TRANSFERENCIA_RECIBIDA para destino (sin comisión)
-        Movimiento movDestino = new Movimiento(Instant.now(),
-                                               TipoMovimiento.TRANSFERENCIA_RECIBIDA,
-                                               cantidad, divisa,
-                                               "Transferencia de " + origen.getTitular(),
-                                               0L);
+            secuencia = cambiar(cuenta, cantidad, divisaOrigen, divisaDestino, Instant.now(),
+                                resultado);
+            if (secuencia < 0) {
+                anotarSaldo(resultado, cuenta, divisaOrigen);
+                return motivoRechazo(secuencia);
+            }
+        } finally {
+            cuenta.getCerrojo().unlock();
+        }
 
-        //Fin
-        origen.registrarMovimiento(movOrigen);
-        destino.registrarMovimiento(movDestino);
+        hacerDurable(secuencia);
+        return null;
+    }
 
-        return true;
+    /**
+     * @return tabla de cotizaciones usada por cambiarDivisa
+     */
+    public TablaCambios getTablaCambios() {
+        return tablaCambios;
+    }
+
+
+    // ============================================================================
+    // OPERACIONES POR LOTES
+    // ============================================================================
+
+    /**
+     * Realiza un lote de operaciones (ingresos, retiradas y transferencias),
+     * pensado para cargas masivas de decenas o cientos de miles de operaciones.
+     *
+     * Frente a llamar una a una a realizarIngreso/realizarRetirada/
+     * realizarTransferencia, se ahorra el trabajo que se repite en cada llamada:
+     * - Cada IBAN distinto se busca una sola vez.
+     * - Las operaciones se agrupan por cuenta (las transferencias, por pareja de
+     *   cuentas) y cada grupo se aplica con una única adquisición del cerrojo,
+     *   una única comprobación del estado y un único Instant.now(), tomado ya
+     *   con el cerrojo (así los instantes del histórico siguen en orden).
+     * - Con diario, se espera una sola vez a que todo el lote esté en disco.
+     *
+     * ORDEN: cada cuenta ve sus operaciones en el orden del lote. Los grupos se
+     * van formando recorriendo el lote; cuando una operación toca una cuenta que
+     * ya está en otro grupo pendiente (p. ej. una retirada de A tras una
+     * transferencia de B a A), se aplica primero todo lo acumulado y se empieza
+     * de nuevo. Un lote de ingresos y transferencias entre cuentas distintas se
+     * aplica en un solo paso; uno que mezcla mucho las mismas cuentas, en más
+     * grupos y más pequeños.
+     *
+     * Cada operación se valida igual que en los métodos individuales; una
+     * operación rechazada no afecta a las demás.
+     *
+     * @param operaciones operaciones a realizar
+     * @return para cada operación (misma posición), true si se realizó
+     */
+    public boolean[] realizarLote(List<OperacionLote> operaciones) {
+        comprobarDiario();
+        long inicio = System.nanoTime();
+        boolean[] resultados = new boolean[operaciones.size()];
+
+        // Agrupar por cuenta o pareja, buscando cada IBAN una sola vez
+        Map<String, CuentaBancaria> encontradas = new HashMap<>();
+        Map<Object, GrupoLote> grupos = new LinkedHashMap<>();
+        // Cuentas de los grupos pendientes (cada una está en uno solo)
+        Map<CuentaBancaria, GrupoLote> grupoDeCuenta = new HashMap<>();
+        long secuencia = 0;
+
+        for (int i = 0; i < resultados.length; i++) {
+            OperacionLote op = operaciones.get(i);
+            if (op.getCantidad() <= 0) {
+                continue;
+            }
+
+            CuentaBancaria cuenta = buscarEnLote(encontradas, op.getIban());
+            if (cuenta == null) {
+                continue;
+            }
+
+            Object clave;
+            CuentaBancaria primera = cuenta;
+            CuentaBancaria segunda = null;
+            if (op.getTipo() == OperacionLote.Tipo.TRANSFERENCIA) {
+                CuentaBancaria destino = buscarEnLote(encontradas, op.getIbanDestino());
+                if (destino == null) {
+                    continue;
+                }
+                boolean enOrden = cuenta.getIban().compareTo(destino.getIban()) <= 0;
+                primera = enOrden ? cuenta : destino;
+                segunda = enOrden ? destino : cuenta;
+                clave = new ParejaCuentas(primera, segunda);
+            } else {
+                clave = cuenta;
+            }
+
+            GrupoLote grupo = grupos.get(clave);
+            if (grupo == null) {
+                // La cuenta ya tiene operaciones anteriores en otro grupo: se
+                // aplican antes para respetar el orden del lote
+                if (grupoDeCuenta.containsKey(primera)
+                        || (segunda != null && grupoDeCuenta.containsKey(segunda))) {
+                    secuencia = Math.max(secuencia,
+                            aplicarGrupos(grupos.values(), operaciones, encontradas, resultados));
+                    grupos.clear();
+                    grupoDeCuenta.clear();
+                }
+
+                grupo = new GrupoLote(primera, segunda);
+                grupos.put(clave, grupo);
+                grupoDeCuenta.put(primera, grupo);
+                if (segunda != null) {
+                    grupoDeCuenta.put(segunda, grupo);
+                }
+            }
+            grupo.anadir(i);
+        }
+
+        secuencia = Math.max(secuencia,
+                aplicarGrupos(grupos.values(), operaciones, encontradas, resultados));
+
+        // Un único commit en grupo para todo el lote
+        hacerDurable(secuencia);
+        metricas.registrar(MetricasOperaciones.Operacion.LOTE, inicio, null);
+        return resultados;
+    }
+
+    /**
+     * Aplica unos grupos sin cuentas en común (en cualquier orden).
+     *
+     * @return secuencia de la última anotación en el diario (0 si ninguna)
+     */
+    private long aplicarGrupos(Collection<GrupoLote> grupos, List<OperacionLote> operaciones,
+                               Map<String, CuentaBancaria> encontradas, boolean[] resultados) {
+        long ultima = 0;
+        for (GrupoLote grupo : grupos) {
+            long secuencia = grupo.segunda == null
+                    ? aplicarGrupoCuenta(grupo, operaciones, resultados)
+                    : aplicarGrupoTransferencias(grupo, operaciones, encontradas, resultados);
+            ultima = Math.max(ultima, secuencia);
+        }
+        return ultima;
+    }
+
+    /**
+     * Aplica los ingresos y retiradas de una cuenta con su cerrojo adquirido.
+     *
+     * @return secuencia de la última anotación en el diario (0 si ninguna)
+     */
+    private long aplicarGrupoCuenta(GrupoLote grupo, List<OperacionLote> operaciones,
+                                    boolean[] resultados) {
+        CuentaBancaria cuenta = grupo.primera;
+        long ultima = 0;
+
+        bloquear(cuenta);
+        try {
+            // Con el cerrojo adquirido el estado no puede cambiar
+            if (cuenta.getEstado() != EstadoCuenta.ACTIVA) {
+                return 0;
+            }
+
+            Instant instante = Instant.now();
+            for (int k = 0; k < grupo.numIndices; k++) {
+                int i = grupo.indices[k];
+                OperacionLote op = operaciones.get(i);
+
+                long secuencia = op.getTipo() == OperacionLote.Tipo.INGRESO
+                        ? ingresar(cuenta, op.getCantidad(), op.getDivisa(),
+                                   op.getDescripcion(), instante, null)
+                        : retirar(cuenta, op.getCantidad(), op.getDivisa(),
+                                  op.getDescripcion(), op.getTipoComision(), instante, null);
+
+                if (secuencia >= 0) {
+                    resultados[i] = true;
+                    ultima = Math.max(ultima, secuencia);
+                }
+            }
+        } finally {
+            cuenta.getCerrojo().unlock();
+        }
+
+        return ultima;
+    }
+
+    /**
+     * Aplica las transferencias entre una pareja de cuentas (en cualquiera de
+     * los dos sentidos) con ambos cerrojos adquiridos.
+     *
+     * @return secuencia de la última anotación en el diario (0 si ninguna)
+     */
+    private long aplicarGrupoTransferencias(GrupoLote grupo, List<OperacionLote> operaciones,
+                                            Map<String, CuentaBancaria> encontradas,
+                                            boolean[] resultados) {
+        long ultima = 0;
+
+        bloquearEnOrden(grupo.primera, grupo.segunda);
+        try {
+            if (grupo.primera.getEstado() != EstadoCuenta.ACTIVA ||
+                grupo.segunda.getEstado() != EstadoCuenta.ACTIVA) {
+                return 0;
+            }
+
+            Instant instante = Instant.now();
+            for (int k = 0; k < grupo.numIndices; k++) {
+                int i = grupo.indices[k];
+                OperacionLote op = operaciones.get(i);
+
+                long secuencia = transferir(encontradas.get(op.getIban()),
+                                            encontradas.get(op.getIbanDestino()),
+                                            op.getCantidad(), op.getDivisa(),
+                                            op.getTipoComision(), instante, null);
+
+                if (secuencia >= 0) {
+                    resultados[i] = true;
+                    ultima = Math.max(ultima, secuencia);
+                }
+            }
+        } finally {
+            desbloquear(grupo.primera, grupo.segunda);
+        }
+
+        return ultima;
+    }
+
+    /**
+     * Busca una cuenta recordando el resultado para el resto del lote.
+     *
+     * @return la cuenta, o null si no existe
+     */
+    private CuentaBancaria buscarEnLote(Map<String, CuentaBancaria> encontradas, String iban) {
+        if (iban == null) {
+            return null;
+        }
+
+        CuentaBancaria cuenta = encontradas.get(iban);
+        if (cuenta == null) {
+            cuenta = cuentas.get(iban);
+            if (cuenta != null) {
+                encontradas.put(iban, cuenta);
+            }
+        }
+        return cuenta;
+    }
+
+    /**
+     * Clave de un grupo de transferencias: las dos cuentas en orden de IBAN.
+     */
+    private record ParejaCuentas(CuentaBancaria menor, CuentaBancaria mayor) {
+    }
+
+    /**
+     * Posiciones en el lote de las operaciones de una cuenta (segunda == null)
+     * o de una pareja de cuentas.
+     */
+    private static final class GrupoLote {
+
+        final CuentaBancaria primera;
+        final CuentaBancaria segunda;
+        int[] indices = new int[4];
+        int numIndices;
+
+        GrupoLote(CuentaBancaria primera, CuentaBancaria segunda) {
+            this.primera = primera;
+            this.segunda = segunda;
+        }
+
+        void anadir(int indice) {
+            if (numIndices == indices.length) {
+                indices = Arrays.copyOf(indices, numIndices * 2);
+            }
+            indices[numIndices++] = indice;
+        }
+    }
+
+
+    // ============================================================================
+    // OPERACIONES CON IDENTIFICADOR DE PETICIÓN (reintentos seguros)
+    // ============================================================================
+    // Cada operación que modifica el banco tiene una versión que recibe primero
+    // el identificador de la petición del cliente. Si llega otra vez el mismo
+    // identificador (un reintento tras un timeout), se devuelve el resultado de
+    // la primera vez sin volver a ejecutarla, aunque las dos lleguen a la vez.
+    // Los resultados se recuerdan un tiempo limitado (SEGUNDOS_IDEMPOTENCIA) y
+    // hasta un número máximo de peticiones (MAX_PETICIONES_RECORDADAS). Con
+    // idPeticion null la operación se ejecuta sin más, como la versión normal.
+
+    /**
+     * crearCuenta con identificador de petición.
+     *
+     * @param idPeticion identificador de la petición del cliente, o null
+     * @throws IllegalArgumentException si el identificador ya se usó para otra operación
+     */
+    public Optional<CuentaBancaria> crearCuenta(String idPeticion, String iban, String titular,
+                                                TipoCuenta tipo) {
+        return conIdPeticion(idPeticion, "crearCuenta", () -> crearCuenta(iban, titular, tipo));
+    }
+
+    /**
+     * activarCuenta con identificador de petición.
+     *
+     * @param idPeticion identificador de la petición del cliente, o null
+     * @throws IllegalArgumentException si el identificador ya se usó para otra operación
+     */
+    public boolean activarCuenta(String idPeticion, String iban) {
+        return conIdPeticion(idPeticion, "activarCuenta", () -> activarCuenta(iban));
+    }
+
+    /**
+     * bloquearCuenta con identificador de petición.
+     *
+     * @param idPeticion identificador de la petición del cliente, o null
+     * @throws IllegalArgumentException si el identificador ya se usó para otra operación
+     */
+    public boolean bloquearCuenta(String idPeticion, String iban) {
+        return conIdPeticion(idPeticion, "bloquearCuenta", () -> bloquearCuenta(iban));
+    }
+
+    /**
+     * realizarIngreso con identificador de petición.
+     *
+     * @param idPeticion identificador de la petición del cliente, o null
+     * @throws IllegalArgumentException si el identificador ya se usó para otra operación
+     */
+    public boolean realizarIngreso(String idPeticion, String iban, long cantidad, Divisa divisa,
+                                   String descripcion) {
+        return conIdPeticion(idPeticion, "realizarIngreso",
+                () -> realizarIngreso(iban, cantidad, divisa, descripcion));
+    }
+
+    /**
+     * realizarRetirada con identificador de petición.
+     *
+     * @param idPeticion identificador de la petición del cliente, o null
+     * @throws IllegalArgumentException si el identificador ya se usó para otra operación
+     */
+    public boolean realizarRetirada(String idPeticion, String iban, long cantidad, Divisa divisa,
+                                    String descripcion, TipoComision tipoComision) {
+        return conIdPeticion(idPeticion, "realizarRetirada",
+                () -> realizarRetirada(iban, cantidad, divisa, descripcion, tipoComision));
+    }
+
+    /**
+     * realizarTransferencia con identificador de petición.
+     *
+     * @param idPeticion identificador de la petición del cliente, o null
+     * @throws IllegalArgumentException si el identificador ya se usó para otra operación
+     */
+    public boolean realizarTransferencia(String idPeticion, String ibanOrigen,
+                                         String ibanDestino, long cantidad, Divisa divisa,
+                                         String concepto, TipoComision tipoComision) {
+        return conIdPeticion(idPeticion, "realizarTransferencia",
+                () -> realizarTransferencia(ibanOrigen, ibanDestino, cantidad, divisa, concepto,
+                                            tipoComision));
+    }
+
+    /**
+     * cambiarDivisa con identificador de petición.
+     *
+     * @param idPeticion identificador de la petición del cliente, o null
+     * @throws IllegalArgumentException si el identificador ya se usó para otra operación
+     */
+    public boolean cambiarDivisa(String idPeticion, String iban, long cantidad,
+                                 Divisa divisaOrigen, Divisa divisaDestino) {
+        return conIdPeticion(idPeticion, "cambiarDivisa",
+                () -> cambiarDivisa(iban, cantidad, divisaOrigen, divisaDestino));
+    }
+
+    /**
+     * realizarLote con identificador de petición (el lote entero es una petición).
+     *
+     * @param idPeticion identificador de la petición del cliente, o null
+     * @return copia de los resultados de la primera ejecución
+     * @throws IllegalArgumentException si el identificador ya se usó para otra operación
+     */
+    public boolean[] realizarLote(String idPeticion, List<OperacionLote> operaciones) {
+        return conIdPeticion(idPeticion, "realizarLote", () -> realizarLote(operaciones)).clone();
+    }
+
+    /**
+     * Ejecuta la operación directamente o, si hay identificador, a través de
+     * la caché de idempotencia.
+     */
+    private <R> R conIdPeticion(String idPeticion, String operacion, Supplier<R> accion) {
+        if (idPeticion == null) {
+            return accion.get();
+        }
+        return idempotencia.ejecutar(idPeticion, operacion, accion);
+    }
+
+
+    // ============================================================================
+    // APLICACIÓN DE OPERACIONES (con los cerrojos ya adquiridos)
+    // ============================================================================
+    // Las usan las operaciones individuales, los lotes y MotorParticiones (que
+    // no usa cerrojos: cada cuenta la modifica un único hilo). Devuelven la
+    // secuencia anotada en el diario (0 si no hay diario) o un valor negativo
+    // RECHAZADA_* que indica el motivo del rechazo. Si reciben un
+    // ResultadoOperacion, anotan en él el movimiento y el saldo resultante.
+
+    /**
+     * Valor devuelto por retirar/transferir/cambiar cuando no hay saldo suficiente.
+     */
+    static final long RECHAZADA = -1;
+
+    /**
+     * Valor devuelto por retirar/transferir cuando se superaría el límite diario.
+     */
+    static final long RECHAZADA_POR_LIMITE = -2;
+
+    /**
+     * Valor devuelto por cambiar cuando no hay cotización o el importe
+     * convertido queda en 0 céntimos.
+     */
+    static final long RECHAZADA_SIN_CAMBIO = -3;
+
+    /**
+     * Importe con el que una operación cuenta para los límites diarios, que
+     * están en céntimos de euro (ver LimitesDiarios, EN EUROS). Una divisa sin
+     * cotización no impide la operación: su importe cuenta por su valor
+     * nominal, como si fueran céntimos de euro.
+     *
+     * @param cantidad importe en céntimos de la divisa
+     * @param divisa divisa del importe
+     * @return importe en céntimos de euro, o cantidad si la divisa no tiene
+     *         cotización en la tabla de cambios
+     */
+    long enEuros(long cantidad, Divisa divisa) {
+        if (divisa == Divisa.EUR) {
+            return cantidad;
+        }
+        return tablaCambios.convertir(cantidad, divisa, Divisa.EUR).orElse(cantidad);
+    }
+
+    /**
+     * Anota en el límite diario de la cuenta un movimiento restaurado de una
+     * instantánea o reproducido del diario (ver LimitesDiarios, TRAS REINICIAR).
+     */
+    void acumularLimiteDiario(CuentaBancaria cuenta, Movimiento mov) {
+        if (mov.getTipo().getLimiteDiario() <= 0) {
+            return;
+        }
+
+        cuenta.acumularLimiteDiario(mov.getTipo(), enEuros(mov.getImporte(), mov.getDivisa()),
+                                    mov.getInstante());
+    }
+
+    /**
+     * @param secuencia valor negativo devuelto por retirar/transferir/cambiar
+     * @return motivo correspondiente
+     */
+    static MotivoRechazo motivoRechazo(long secuencia) {
+        if (secuencia == RECHAZADA_POR_LIMITE) {
+            return MotivoRechazo.LIMITE_DIARIO_SUPERADO;
+        }
+        if (secuencia == RECHAZADA_SIN_CAMBIO) {
+            return MotivoRechazo.CAMBIO_NO_DISPONIBLE;
+        }
+        return MotivoRechazo.SALDO_INSUFICIENTE;
+    }
+
+    /**
+     * Deja el resultado de una operación que empieza en su estado inicial.
+     */
+    private static void iniciarResultado(ResultadoOperacion resultado) {
+        if (resultado != null) {
+            resultado.reiniciar();
+        }
+    }
+
+    /**
+     * Anota el motivo del rechazo (el movimiento y el saldo de una operación
+     * aceptada los anotan ya ingresar/retirar/transferir/cambiar).
+     */
+    private static void terminarResultado(ResultadoOperacion resultado, MotivoRechazo motivo) {
+        if (resultado != null && motivo != null) {
+            resultado.rechazar(motivo);
+        }
+    }
+
+    /**
+     * Anota en el resultado de una operación rechazada el saldo de la cuenta.
+     */
+    private static void anotarSaldo(ResultadoOperacion resultado, CuentaBancaria cuenta,
+                                    Divisa divisa) {
+        if (resultado != null && divisa != null) {
+            resultado.anotarSaldo(cuenta.getSaldo(divisa));
+        }
+    }
+
+    /**
+     * Registra un ingreso (la cuenta ya se ha validado) y lo anota en el diario.
+     */
+    long ingresar(CuentaBancaria cuenta, long cantidad, Divisa divisa,
+                  String descripcion, Instant instante, ResultadoOperacion resultado) {
+        Movimiento m = new Movimiento(instante, TipoMovimiento.INGRESO,
+                                      cantidad, divisa, descripcion, 0L);
+        long saldo = cuenta.aplicarMovimiento(m);
+        if (resultado != null) {
+            resultado.aceptar(m, saldo);
+        }
+
+        return diario != null ? diario.anotarMovimiento(cuenta, m) : 0;
+    }
+
+    /**
+     * Registra una retirada si hay saldo para cantidad + comisión (débito
+     * condicional atómico) y la anota en el diario.
+     */
+    long retirar(CuentaBancaria cuenta, long cantidad, Divisa divisa,
+                 String descripcion, TipoComision tipoComision, Instant instante,
+                 ResultadoOperacion resultado) {
+        // El límite diario (en euros) se reserva antes de descontar el saldo y
+        // se devuelve si la retirada no llega a hacerse
+        long reserva = enEuros(cantidad, divisa);
+        if (!cuenta.reservarLimiteDiario(TipoMovimiento.RETIRADA, reserva, instante)) {
+            return RECHAZADA_POR_LIMITE;
+        }
+
+        long comision = tipoComision.calcularComision(cantidad);
+        Movimiento m = new Movimiento(instante, TipoMovimiento.RETIRADA,
+                                      cantidad, divisa, descripcion, comision,
+                                      tipoComision);
+
+        long saldo = cuenta.aplicarMovimientoSiSaldoSuficiente(m);
+        if (saldo == CuentaBancaria.SIN_SALDO_SUFICIENTE) {
+            cuenta.liberarLimiteDiario(TipoMovimiento.RETIRADA, reserva, instante);
+            return RECHAZADA;
+        }
+        if (resultado != null) {
+            resultado.aceptar(m, saldo);
+        }
+
+        return diario != null ? diario.anotarMovimiento(cuenta, m) : 0;
+    }
+
+    /**
+     * Registra los dos movimientos de una transferencia (ambas cuentas ya
+     * bloqueadas y validadas) y la anota en el diario como un único registro.
+     */
+    long transferir(CuentaBancaria origen, CuentaBancaria destino, long cantidad,
+                    Divisa divisa, TipoComision tipoComision, Instant instante,
+                    ResultadoOperacion resultado) {
+        long reserva = enEuros(cantidad, divisa);
+        if (!origen.reservarLimiteDiario(TipoMovimiento.TRANSFERENCIA_ENVIADA, reserva,
+                                         instante)) {
+            return RECHAZADA_POR_LIMITE;
+        }
+
+        Movimiento movOrigen = debitarReservado(origen, destino, cantidad, divisa,
+                                                tipoComision, reserva, instante, resultado);
+        if (movOrigen == null) {
+            return RECHAZADA;
+        }
+
+        Movimiento movDestino = abonarTransferencia(origen, destino, movOrigen, instante);
+
+        return diario != null
+                ? diario.anotarTransferencia(origen, movOrigen, destino, movDestino)
+                : 0;
+    }
+
+    /**
+     * Primer paso de una transferencia, con el límite diario del origen ya
+     * reservado (ver enEuros y CuentaBancaria.reservarLimiteDiario): registra
+     * el movimiento TRANSFERENCIA_ENVIADA si hay saldo para cantidad + comisión
+     * y, si no, devuelve la reserva. No anota nada en el diario.
+     *
+     * @param reserva importe en euros reservado del límite diario; si la
+     *                transferencia se devuelve después, hay que liberar este
+     *                mismo importe
+     * @return movimiento registrado en el origen, o null si no hay saldo
+     */
+    Movimiento debitarTransferencia(CuentaBancaria origen, CuentaBancaria destino,
+                                    long cantidad, Divisa divisa, TipoComision tipoComision,
+                                    long reserva, Instant instante) {
+        return debitarReservado(origen, destino, cantidad, divisa, tipoComision, reserva,
+                                instante, null);
+    }
+
+    /**
+     * Registra el movimiento TRANSFERENCIA_ENVIADA con el límite diario ya
+     * reservado; si no hay saldo, devuelve la reserva.
+     *
+     * @param resultado donde anotar el movimiento y el saldo del origen, o null
+     * @return movimiento registrado en el origen, o null si no hay saldo
+     */
+    private Movimiento debitarReservado(CuentaBancaria origen, CuentaBancaria destino,
+                                        long cantidad, Divisa divisa,
+                                        TipoComision tipoComision, long reserva,
+                                        Instant instante, ResultadoOperacion resultado) {
+        long comision = tipoComision.calcularComision(cantidad);
+
+        // Crear movimiento TRANSFERENCIA_ENVIADA para origen (con comisión)
+        Movimiento movOrigen = new Movimiento(instante,
+                                              TipoMovimiento.TRANSFERENCIA_ENVIADA,
+                                              cantidad, divisa,
+                                              "Transferencia a " + destino.getTitular(),
+                                              comision, tipoComision);
+
+        // Validar saldo suficiente en origen y descontar en un solo paso
+        // (una retirada concurrente no toma el cerrojo, pero también usa CAS)
+        long saldo = origen.aplicarMovimientoSiSaldoSuficiente(movOrigen, destino.getIban());
+        if (saldo == CuentaBancaria.SIN_SALDO_SUFICIENTE) {
+            origen.liberarLimiteDiario(TipoMovimiento.TRANSFERENCIA_ENVIADA, reserva, instante);
+            return null;
+        }
+        if (resultado != null) {
+            resultado.aceptar(movOrigen, saldo);
+        }
+
+        return movOrigen;
+    }
+
+    /**
+     * Segundo paso de una transferencia: registra en el destino el movimiento
+     * TRANSFERENCIA_RECIBIDA (sin comisión, mismo importe que el enviado).
+     * No anota nada en el diario.
+     *
+     * @param instante instante del abono (en MotorParticiones, posterior al
+     *                 del cargo en el origen)
+     * @return movimiento registrado en el destino
+     */
+    Movimiento abonarTransferencia(CuentaBancaria origen, CuentaBancaria destino,
+                                   Movimiento movOrigen, Instant instante) {
+        Movimiento movDestino = new Movimiento(instante,
+                                               TipoMovimiento.TRANSFERENCIA_RECIBIDA,
+                                               movOrigen.getImporte(), movOrigen.getDivisa(),
+                                               "Transferencia de " + origen.getTitular(),
+                                               0L);
+        destino.aplicarMovimiento(movDestino, origen.getIban());
+        return movDestino;
+    }
+
+    /**
+     * Registra los dos movimientos de un cambio de divisa (cuenta ya bloqueada
+     * y validada) y los anota en el diario como un único registro.
+     */
+    long cambiar(CuentaBancaria cuenta, long cantidad, Divisa divisaOrigen,
+                 Divisa divisaDestino, Instant instante, ResultadoOperacion resultado) {
+        OptionalLong convertido = tablaCambios.convertir(cantidad, divisaOrigen, divisaDestino);
+        if (convertido.isEmpty() || convertido.getAsLong() <= 0) {
+            return RECHAZADA_SIN_CAMBIO;
+        }
+
+        long comision = TipoComision.CAMBIO_DIVISA.calcularComision(cantidad);
+        Movimiento movSalida = new Movimiento(instante, TipoMovimiento.CAMBIO_DIVISA,
+                                              cantidad, divisaOrigen,
+                                              "Cambio a " + divisaDestino, comision,
+                                              TipoComision.CAMBIO_DIVISA, true);
+        Movimiento movEntrada = new Movimiento(instante, TipoMovimiento.CAMBIO_DIVISA,
+                                               convertido.getAsLong(), divisaDestino,
+                                               "Cambio de " + divisaOrigen, 0L,
+                                               TipoComision.NINGUNA, false);
+
+        long saldo = cuenta.aplicarMovimientoSiSaldoSuficiente(movSalida);
+        if (saldo == CuentaBancaria.SIN_SALDO_SUFICIENTE) {
+            return RECHAZADA;
+        }
+        if (resultado != null) {
+            resultado.aceptar(movSalida, saldo);
+        }
+
+        cuenta.registrarMovimiento(movEntrada);
+
+        return diario != null ? diario.anotarCambio(cuenta, movSalida, movEntrada) : 0;
+    }
+
+
+    // ============================================================================
+    // CERROJOS Y DIARIO
+    // ============================================================================
+
+    /**
+     * Con diario, el alta de una cuenta, los ingresos y las retiradas se anotan
+     * con su cerrojo adquirido para que el orden del diario sea el orden real
+     * de aplicación (y ninguna operación llegue al diario antes que el alta).
+     * Sin diario no hace falta.
+     *
+     * @param cuenta cuenta a bloquear
+     * @return true si se ha adquirido el cerrojo (y hay que liberarlo)
+     */
+    private boolean bloquearSiHayDiario(CuentaBancaria cuenta) {
+        if (diario == null) {
+            return false;
+        }
+
+        bloquear(cuenta);
+        return true;
+    }
+
+    /**
+     * Empieza un ingreso o una retirada. Con diario adquiere el cerrojo de la
+     * cuenta, para que el orden del diario sea el orden real de aplicación.
+     * Sin diario no bloquea: anota la operación en curso en la cuenta
+     * (CuentaBancaria.entrarSinCerrojo) y cambiarEstado espera a que termine.
+     *
+     * @param cuenta cuenta de la operación
+     * @return true si se ha adquirido el cerrojo
+     */
+    private boolean entrar(CuentaBancaria cuenta) {
+        if (bloquearSiHayDiario(cuenta)) {
+            return true;
+        }
+
+        cuenta.entrarSinCerrojo();
+        return false;
+    }
+
+    /**
+     * Termina una operación empezada con entrar.
+     *
+     * @param bloqueada valor devuelto por entrar
+     */
+    private static void salir(CuentaBancaria cuenta, boolean bloqueada) {
+        if (bloqueada) {
+            cuenta.getCerrojo().unlock();
+        } else {
+            cuenta.salirSinCerrojo();
+        }
+    }
+
+    /**
+     * Adquiere el cerrojo de una cuenta. Si otro hilo lo tiene, mide la
+     * espera en las métricas (ESPERA_CERROJO) y en los eventos JFR; sin
+     * contención solo cuesta un tryLock.
+     *
+     * @param cuenta cuenta a bloquear
+     */
+    private void bloquear(CuentaBancaria cuenta) {
+        ReentrantLock cerrojo = cuenta.getCerrojo();
+        if (!cerrojo.tryLock()) {
+            EventosBanco.EventoEsperaCerrojo evento = EventosBanco.iniciarEspera();
+            long inicio = System.nanoTime();
+            cerrojo.lock();
+            metricas.registrar(MetricasOperaciones.Operacion.ESPERA_CERROJO, inicio, null);
+            EventosBanco.terminarEspera(evento, cuenta.getIban(), System.nanoTime() - inicio);
+        }
+    }
+
+    /**
+     * Espera (sin cerrojos) a que la anotación con esa secuencia esté en disco.
+     * No hace nada si no hay diario o no se anotó nada (secuencia 0).
+     *
+     * @param secuencia secuencia devuelta por el diario
+     * @throws java.io.UncheckedIOException si falla la escritura: la operación
+     *         ya está aplicada en memoria y no se sabe si llegó a disco
+     */
+    private void hacerDurable(long secuencia) {
+        if (diario != null && secuencia > 0) {
+            long inicio = System.nanoTime();
+            diario.hacerDurable(secuencia);
+            metricas.registrar(MetricasOperaciones.Operacion.ESPERA_DIARIO, inicio, null);
+        }
+    }
+
+    /**
+     * Con diario, rechaza cualquier modificación una vez que ha fallado una
+     * escritura del diario: lo que se aplicara en memoria ya no podría
+     * hacerse durable. Sin diario no hace nada.
+     *
+     * @throws IllegalStateException si el diario ha fallado
+     */
+    private void comprobarDiario() {
+        IOException fallo = diario != null ? diario.getFallo() : null;
+        if (fallo != null) {
+            throw new IllegalStateException(
+                    "El diario no se pudo escribir: el gestor no admite más modificaciones",
+                    fallo);
+        }
+    }
+
+    /**
+     * @return true si el gestor anota sus operaciones en un diario
+     */
+    boolean tieneDiario() {
+        return diario != null;
+    }
+
+    // ============================================================================
+    // INSTANTÁNEAS
+    // ============================================================================
+
+    /**
+     * Guarda una instantánea de todas las cuentas y descarta la parte del diario
+     * que ya recoge. Las operaciones pueden seguir ejecutándose mientras tanto:
+     * cada cuenta solo se bloquea el tiempo de copiar su contenido.
+     *
+     * @throws IllegalStateException si el gestor no tiene diario
+     * @throws IOException si falla la escritura de la instantánea
+     */
+    public void guardarInstantanea() throws IOException {
+        if (diario == null) {
+            throw new IllegalStateException("El gestor no tiene diario");
+        }
+
+        diario.tomarInstantanea(cuentas.values());
+    }
+
+    /**
+     * Añade una cuenta ya restaurada desde una instantánea.
+     *
+     * @param cuenta cuenta restaurada
+     */
+    void anadirCuentaRestaurada(CuentaBancaria cuenta) {
+        cuenta.setIndices(indices);
+        cuenta.setLibroMayor(libroMayor);
+        cuenta.setFlujoMovimientos(flujo);
+        libroMayor.anotarSaldos(cuenta);
+        cuentas.put(cuenta.getIban(), cuenta);
+        indices.anadir(cuenta);
+    }
+
+
+    // ============================================================================
+    // CERROJOS SOBRE VARIAS CUENTAS (transferencias)
+    // ============================================================================
+
+    /**
+     * Adquiere los cerrojos de dos cuentas siempre en el mismo orden global
+     * (orden lexicográfico de IBAN). Si dos hilos transfieren A→B y B→A a la vez,
+     * ambos intentan primero el cerrojo de la menor, así que nunca quedan
+     * esperando el uno al otro.
+     *
+     * Si ambas son la misma cuenta se adquiere una única vez.
+     *
+     * @param a primera cuenta
+     * @param b segunda cuenta
+     */
+    private void bloquearEnOrden(CuentaBancaria a, CuentaBancaria b) {
+        if (a == b) {
+            bloquear(a);
+            return;
+        }
+
+        if (a.getIban().compareTo(b.getIban()) < 0) {
+            bloquear(a);
+            bloquear(b);
+        } else {
+            bloquear(b);
+            bloquear(a);
+        }
+    }
+
+    /**
+     * Libera los cerrojos adquiridos con {@link #bloquearEnOrden}.
+     *
+     * @param a primera cuenta
+     * @param b segunda cuenta
+     */
+    private static void desbloquear(CuentaBancaria a, CuentaBancaria b) {
+        a.getCerrojo().unlock();
+        if (a != b) {
+            b.getCerrojo().unlock();
+        }
     }
 
 
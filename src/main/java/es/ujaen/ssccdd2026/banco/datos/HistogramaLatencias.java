@@ -0,0 +1,180 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias (en nanosegundos) de una operación, para obtener
+ * percentiles como p50, p99 o p99.9 sin guardar cada medida.
+ *
+ * CUBETAS (escala log-lineal):
+ * Cada potencia de 2 se divide en SUBCUBETAS cubetas iguales, de modo que el
+ * error relativo de un percentil es como mucho 1/SUBCUBETAS (12,5 %) tanto en
+ * microsegundos como en segundos. Las latencias por encima de 2^MAX_EXPONENTE
+ * ns (unos 18 minutos) se cuentan en la última cubeta. Registrar una medida es
+ * calcular el índice con desplazamientos de bits e incrementar un contador.
+ *
+ * CONCURRENCIA:
+ * Los contadores son LongAdder, como en LibroMayor: muchos hilos pueden
+ * registrar en la misma cubeta (la latencia típica) sin competir por la misma
+ * línea de caché. Un percentil leído con operaciones en curso puede no incluir
+ * las últimas medidas.
+ *
+ * @author Diego Gómez Sánchez
+ */
+public final class HistogramaLatencias {
+
+    // Cubetas por potencia de 2 (2^BITS_SUBCUBETA)
+    private static final int BITS_SUBCUBETA = 3;
+    private static final int SUBCUBETAS = 1 << BITS_SUBCUBETA;
+
+    // Mayor potencia de 2 con cubetas propias
+    private static final int MAX_EXPONENTE = 40;
+
+    private static final int NUM_CUBETAS =
+            (MAX_EXPONENTE - BITS_SUBCUBETA + 2) * SUBCUBETAS;
+
+    private final LongAdder[] cubetas;
+    private final LongAdder total;
+    private final LongAdder suma;
+    private final LongAccumulator maximo;
+
+    HistogramaLatencias() {
+        this.cubetas = new LongAdder[NUM_CUBETAS];
+        for (int i = 0; i < NUM_CUBETAS; i++) {
+            cubetas[i] = new LongAdder();
+        }
+        this.total = new LongAdder();
+        this.suma = new LongAdder();
+        this.maximo = new LongAccumulator(Math::max, 0);
+    }
+
+
+    // ============================================================================
+    // REGISTRO
+    // ============================================================================
+
+    /**
+     * Registra una medida.
+     *
+     * @param nanos latencia en nanosegundos (las negativas cuentan como 0)
+     */
+    void registrar(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        cubetas[indice(nanos)].increment();
+        total.increment();
+        suma.add(nanos);
+        maximo.accumulate(nanos);
+    }
+
+    /**
+     * Pone a cero el histograma. Las medidas registradas mientras tanto pueden
+     * conservarse o perderse.
+     */
+    void reiniciar() {
+        for (LongAdder cubeta : cubetas) {
+            cubeta.reset();
+        }
+        total.reset();
+        suma.reset();
+        maximo.reset();
+    }
+
+    /**
+     * Índice de la cubeta de una latencia: las SUBCUBETAS primeras son exactas
+     * (0..SUBCUBETAS-1 ns); a partir de ahí, grupo por exponente y dentro del
+     * grupo los BITS_SUBCUBETA bits siguientes al más significativo.
+     */
+    static int indice(long nanos) {
+        if (nanos < SUBCUBETAS) {
+            return (int) nanos;
+        }
+
+        int exponente = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponente > MAX_EXPONENTE) {
+            return NUM_CUBETAS - 1;
+        }
+        int sub = (int) (nanos >>> (exponente - BITS_SUBCUBETA)) & (SUBCUBETAS - 1);
+        return (exponente - BITS_SUBCUBETA + 1) * SUBCUBETAS + sub;
+    }
+
+    /**
+     * @return mayor latencia que cae en la cubeta indicada
+     */
+    static long limiteSuperior(int indice) {
+        if (indice < SUBCUBETAS) {
+            return indice;
+        }
+
+        int exponente = indice / SUBCUBETAS + BITS_SUBCUBETA - 1;
+        long sub = indice % SUBCUBETAS;
+        long ancho = 1L << (exponente - BITS_SUBCUBETA);
+        return ((SUBCUBETAS + sub) << (exponente - BITS_SUBCUBETA)) + ancho - 1;
+    }
+
+
+    // ============================================================================
+    // CONSULTAS
+    // ============================================================================
+
+    /**
+     * @return número de medidas registradas
+     */
+    public long getNumMedidas() {
+        return total.sum();
+    }
+
+    /**
+     * @return latencia media en nanosegundos (0 si no hay medidas)
+     */
+    public long getMedia() {
+        long n = total.sum();
+        return n == 0 ? 0 : suma.sum() / n;
+    }
+
+    /**
+     * @return mayor latencia registrada en nanosegundos
+     */
+    public long getMaximo() {
+        return maximo.get();
+    }
+
+    /**
+     * Latencia por debajo de la cual queda la fracción indicada de las medidas
+     * (p. ej. 0.99 para p99). Se devuelve el límite superior de la cubeta, así
+     * que el valor real es como mucho un 12,5 % menor.
+     *
+     * @param fraccion fracción entre 0 y 1
+     * @return latencia en nanosegundos (0 si no hay medidas)
+     * @throws IllegalArgumentException si la fracción no está entre 0 y 1
+     */
+    public long getPercentil(double fraccion) {
+        if (!(fraccion >= 0 && fraccion <= 1)) {
+            throw new IllegalArgumentException("La fracción debe estar entre 0 y 1");
+        }
+
+        long[] copia = new long[NUM_CUBETAS];
+        long n = 0;
+        for (int i = 0; i < NUM_CUBETAS; i++) {
+            copia[i] = cubetas[i].sum();
+            n += copia[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+
+        long posicion = Math.max(1, (long) Math.ceil(fraccion * n));
+        long acumulado = 0;
+        for (int i = 0; i < NUM_CUBETAS; i++) {
+            acumulado += copia[i];
+            if (acumulado >= posicion) {
+                // El máximo real acota mejor la última cubeta ocupada
+                return Math.min(limiteSuperior(i), maximo.get());
+            }
+        }
+        return maximo.get();
+    }
+}
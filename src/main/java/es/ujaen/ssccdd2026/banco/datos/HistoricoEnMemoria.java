@@ -0,0 +1,308 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Histórico de movimientos de una cuenta guardado en memoria (en el heap),
+ * con capacidad fija e implementado como buffer circular.
+ *
+ * Cuando el histórico está lleno, el nuevo movimiento sobrescribe al más antiguo
+ * en tiempo constante (no hay que desplazar los demás elementos, como ocurría
+ * con ArrayList.remove(0)).
+ *
+ * FUNCIONAMIENTO:
+ * - total cuenta los movimientos añadidos desde la creación del histórico.
+ *   El movimiento número p (empezando en 0) ocupa la posición p % capacidad.
+ * - Los más antiguos que siguen en el histórico son los de número
+ *   total - tamano() ... total - 1.
+ * - Los arrays crecen por duplicación hasta la capacidad máxima, para no reservar
+ *   memoria para 1000 movimientos en cuentas que casi no tienen actividad.
+ *   Mientras crecen todavía no han dado la vuelta, así que los índices no cambian.
+ *
+ * REPRESENTACIÓN COMPACTA:
+ * No se guardan objetos Movimiento, sino sus campos en columnas de tipos
+ * primitivos (la misma disposición que CodecMovimiento): instante en
+ * epoch-nanos, tipo, divisa y tipo de comisión como códigos de un byte,
+ * importe, comisión y el número de la descripción en DiccionarioDescripciones.
+ * Son 31 bytes por movimiento frente a los más de 100 de un Movimiento con su
+ * Instant y su String, y ningún objeto que el recolector tenga que recorrer. Los Movimiento
+ * solo se reconstruyen al leerlos (copiar()).
+ *
+ * CONSULTAS POR INTERVALO:
+ * Como los movimientos están casi ordenados por instante (ver
+ * HistoricoMovimientos), copiarEntre localiza el principio del intervalo con
+ * una búsqueda binaria sobre la columna de instantes y solo recorre y
+ * reconstruye los movimientos de la ventana.
+ *
+ * CONCURRENCIA: todos los métodos se sincronizan sobre el propio histórico.
+ * Las secciones críticas son muy cortas (una escritura en los arrays o una copia).
+ *
+ * @author Diego Gómez Sánchez
+ */
+final class HistoricoEnMemoria implements HistoricoMovimientos {
+
+    // Capacidad con la que se crean los arrays antes de necesitar crecer
+    private static final int CAPACIDAD_INICIAL = 16;
+
+    /**
+     * Número máximo de movimientos que se conservan.
+     */
+    private final int capacidadMaxima;
+
+    /**
+     * Diccionario donde se codifican las descripciones.
+     */
+    private final DiccionarioDescripciones diccionario;
+
+    // Columnas del buffer circular. Su longitud crece hasta capacidadMaxima.
+    private long[] instantes;
+    private byte[] tipos;
+    private byte[] divisas;
+    private byte[] tiposComision;
+    private long[] importes;
+    private long[] comisiones;
+    private int[] descripciones;
+
+    /**
+     * Descripciones que no caben en el diccionario (posición con SIN_ID).
+     * Se crea solo si hace falta.
+     */
+    private String[] descripcionesSueltas;
+
+    /**
+     * Movimientos añadidos desde la creación (incluidos los ya sobrescritos).
+     */
+    private long total;
+
+    /**
+     * Mayor instante añadido y mayor retraso observado, en nanosegundos
+     * (ver HistoricoMovimientos).
+     */
+    private long instanteMaximo = Long.MIN_VALUE;
+    private long retrasoMaximo;
+
+
+    // ============================================================================
+    // CONSTRUCTOR
+    // ============================================================================
+
+    /**
+     * Crea un histórico vacío que usa el diccionario compartido.
+     *
+     * @param capacidadMaxima número máximo de movimientos a conservar (> 0)
+     * @throws IllegalArgumentException si la capacidad no es positiva
+     */
+    HistoricoEnMemoria(int capacidadMaxima) {
+        this(capacidadMaxima, DiccionarioDescripciones.COMPARTIDO);
+    }
+
+    /**
+     * Crea un histórico vacío.
+     *
+     * @param capacidadMaxima número máximo de movimientos a conservar (> 0)
+     * @param diccionario diccionario donde codificar las descripciones
+     * @throws IllegalArgumentException si la capacidad no es positiva
+     */
+    HistoricoEnMemoria(int capacidadMaxima, DiccionarioDescripciones diccionario) {
+        if (capacidadMaxima <= 0) {
+            throw new IllegalArgumentException("La capacidad debe ser mayor que 0");
+        }
+
+        this.capacidadMaxima = capacidadMaxima;
+        this.diccionario = diccionario;
+        reservar(Math.min(CAPACIDAD_INICIAL, capacidadMaxima));
+        this.total = 0;
+    }
+
+
+    // ============================================================================
+    // OPERACIONES
+    // ============================================================================
+
+    /**
+     * Añade un movimiento. Si el histórico está lleno sobrescribe el más antiguo.
+     * Coste O(1) (amortizado mientras los arrays crecen).
+     *
+     * @param mov movimiento a añadir
+     */
+    @Override
+    public void anadir(Movimiento mov) {
+        // La consulta al diccionario se hace fuera del monitor del histórico
+        int descripcion = diccionario.id(mov.getDescripcion());
+
+        synchronized (this) {
+            if (total == instantes.length && instantes.length < capacidadMaxima) {
+                crecer();
+            }
+
+            long nanos = CodecMovimiento.aNanos(mov.getInstante());
+            if (nanos >= instanteMaximo) {
+                instanteMaximo = nanos;
+            } else {
+                long retraso = instanteMaximo - nanos;
+                retrasoMaximo = Math.max(retrasoMaximo, retraso < 0 ? Long.MAX_VALUE : retraso);
+            }
+
+            int i = (int) (total % instantes.length);
+            instantes[i] = nanos;
+            tipos[i] = (byte) mov.getTipo().ordinal();
+            divisas[i] = (byte) mov.getDivisa().ordinal();
+            tiposComision[i] = (byte) CodecMovimiento.codigoComision(mov);
+            importes[i] = mov.getImporte();
+            comisiones[i] = mov.getComision();
+            descripciones[i] = descripcion;
+
+            if (descripcion == DiccionarioDescripciones.SIN_ID) {
+                if (descripcionesSueltas == null) {
+                    descripcionesSueltas = new String[instantes.length];
+                }
+                descripcionesSueltas[i] = mov.getDescripcion();
+            } else if (descripcionesSueltas != null) {
+                descripcionesSueltas[i] = null;
+            }
+
+            total++;
+        }
+    }
+
+    /**
+     * @return número de movimientos conservados (como máximo capacidadMaxima)
+     */
+    @Override
+    public synchronized int tamano() {
+        return (int) Math.min(total, instantes.length);
+    }
+
+    /**
+     * Copia los movimientos conservados, del más antiguo al más reciente.
+     * Es aquí donde se reconstruyen los objetos Movimiento.
+     *
+     * @return nueva lista con los movimientos en orden cronológico
+     */
+    @Override
+    public synchronized List<Movimiento> copiar() {
+        int tamano = tamano();
+        List<Movimiento> copia = new ArrayList<>(tamano);
+
+        long primero = total - tamano;
+        for (long p = primero; p < total; p++) {
+            copia.add(descodificar((int) (p % instantes.length)));
+        }
+
+        return copia;
+    }
+
+    /**
+     * Copia los movimientos con instante en [desde, hasta) que además son del
+     * tipo y la divisa indicados (null = cualquiera).
+     *
+     * Solo se leen los instantes de la búsqueda binaria y los de la ventana;
+     * el resto del histórico no se toca.
+     */
+    @Override
+    public synchronized List<Movimiento> copiarEntre(long desde, long hasta,
+                                                     TipoMovimiento tipo, Divisa divisa) {
+        List<Movimiento> copia = new ArrayList<>();
+        if (desde >= hasta) {
+            return copia;
+        }
+
+        // Todo lo anterior a un movimiento con instante < desde - R queda antes de desde
+        long cotaInferior = CodecMovimiento.sumarAcotado(desde, -retrasoMaximo);
+        long cotaSuperior = CodecMovimiento.sumarAcotado(hasta, retrasoMaximo);
+        int codigoTipo = tipo == null ? -1 : tipo.ordinal();
+        int codigoDivisa = divisa == null ? -1 : divisa.ordinal();
+
+        long inicio = total - tamano();
+        long fin = total;
+        while (inicio < fin) {
+            long medio = (inicio + fin) >>> 1;
+            if (instantes[(int) (medio % instantes.length)] < cotaInferior) {
+                inicio = medio + 1;
+            } else {
+                fin = medio;
+            }
+        }
+
+        for (long p = inicio; p < total; p++) {
+            int i = (int) (p % instantes.length);
+            long instante = instantes[i];
+            if (instante >= cotaSuperior) {
+                break;
+            }
+            if (instante >= desde && instante < hasta
+                    && (codigoTipo < 0 || tipos[i] == codigoTipo)
+                    && (codigoDivisa < 0 || divisas[i] == codigoDivisa)) {
+                copia.add(descodificar(i));
+            }
+        }
+
+        return copia;
+    }
+
+    @Override
+    public synchronized Movimiento leer(long numero) {
+        if (numero < total - tamano() || numero >= total) {
+            return null;
+        }
+        return descodificar((int) (numero % instantes.length));
+    }
+
+    @Override
+    public synchronized VistaMovimientos vista() {
+        int tamano = tamano();
+        return new VistaMovimientos(this, total - tamano, tamano);
+    }
+
+    /**
+     * Reconstruye el movimiento guardado en la posición i de las columnas.
+     */
+    private Movimiento descodificar(int i) {
+        String descripcion = descripciones[i] == DiccionarioDescripciones.SIN_ID
+                ? descripcionesSueltas[i]
+                : diccionario.texto(descripciones[i]);
+
+        return CodecMovimiento.movimiento(instantes[i],
+                                          CodecMovimiento.tipo(tipos[i]),
+                                          importes[i],
+                                          CodecMovimiento.divisa(divisas[i]),
+                                          descripcion,
+                                          comisiones[i],
+                                          tiposComision[i]);
+    }
+
+    /**
+     * Crea las columnas vacías con la capacidad indicada.
+     */
+    private void reservar(int capacidad) {
+        instantes = new long[capacidad];
+        tipos = new byte[capacidad];
+        divisas = new byte[capacidad];
+        tiposComision = new byte[capacidad];
+        importes = new long[capacidad];
+        comisiones = new long[capacidad];
+        descripciones = new int[capacidad];
+    }
+
+    /**
+     * Duplica las columnas (sin pasar de capacidadMaxima). Solo se llama cuando
+     * todavía no ha dado la vuelta, así que basta con copiar tal cual.
+     */
+    private void crecer() {
+        int nuevaCapacidad = (int) Math.min((long) instantes.length * 2, capacidadMaxima);
+        instantes = Arrays.copyOf(instantes, nuevaCapacidad);
+        tipos = Arrays.copyOf(tipos, nuevaCapacidad);
+        divisas = Arrays.copyOf(divisas, nuevaCapacidad);
+        tiposComision = Arrays.copyOf(tiposComision, nuevaCapacidad);
+        importes = Arrays.copyOf(importes, nuevaCapacidad);
+        comisiones = Arrays.copyOf(comisiones, nuevaCapacidad);
+        descripciones = Arrays.copyOf(descripciones, nuevaCapacidad);
+        if (descripcionesSueltas != null) {
+            descripcionesSueltas = Arrays.copyOf(descripcionesSueltas, nuevaCapacidad);
+        }
+    }
+}
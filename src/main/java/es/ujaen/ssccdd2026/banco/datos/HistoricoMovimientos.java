@@ -0,0 +1,79 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import java.util.List;
+
+/**
+ * Histórico de movimientos de una cuenta, de capacidad limitada: al llenarse,
+ * cada movimiento nuevo desplaza al más antiguo.
+ *
+ * IMPLEMENTACIONES:
+ * - HistoricoEnMemoria: buffer circular propio de la cuenta, en el heap.
+ * - AlmacenMovimientos: vista sobre un almacén fuera del heap compartido por
+ *   todas las cuentas del banco.
+ *
+ * Todas las implementaciones deben poder usarse desde varios hilos a la vez.
+ *
+ * CONSULTAS POR INTERVALO DE TIEMPO (copiarEntre):
+ * Los movimientos se añaden casi en orden de instante, pero no exactamente: dos
+ * hilos pueden tomar Instant.now() en un orden y añadir en el contrario (y
+ * registrarMovimiento admite cualquier instante). Por eso cada histórico anota
+ * el mayor instante añadido y el mayor retraso R visto (cuánto anterior a ese
+ * máximo era un movimiento al añadirse). Así, ningún movimiento es posterior en
+ * más de R a otro añadido después, y la búsqueda puede descartar todo lo que
+ * hay antes de un movimiento con instante < desde - R y parar en uno con
+ * instante >= hasta + R sin reordenar nada. R solo crece: un movimiento muy
+ * desordenado vuelve más lentas las consultas, nunca incorrectas.
+ *
+ * @author Diego Gómez Sánchez
+ */
+interface HistoricoMovimientos {
+
+    /**
+     * Añade un movimiento. Si el histórico está lleno desplaza al más antiguo.
+     *
+     * @param mov movimiento a añadir
+     */
+    void anadir(Movimiento mov);
+
+    /**
+     * @return número de movimientos conservados
+     */
+    int tamano();
+
+    /**
+     * Copia los movimientos conservados, del más antiguo al más reciente.
+     *
+     * @return nueva lista con los movimientos en orden cronológico
+     */
+    List<Movimiento> copiar();
+
+    /**
+     * Copia los movimientos conservados con instante en [desde, hasta), en el
+     * mismo orden que copiar(), sin reconstruir los que quedan fuera.
+     *
+     * @param desde inicio del intervalo en epoch-nanos (incluido)
+     * @param hasta fin del intervalo en epoch-nanos (excluido)
+     * @param tipo tipo de movimiento buscado, o null para cualquiera
+     * @param divisa divisa buscada, o null para cualquiera
+     * @return nueva lista con los movimientos del intervalo
+     */
+    List<Movimiento> copiarEntre(long desde, long hasta, TipoMovimiento tipo, Divisa divisa);
+
+    /**
+     * Reconstruye un único movimiento a partir de su número de llegada
+     * (0 = el primero que se añadió al histórico).
+     *
+     * @param numero número del movimiento
+     * @return el movimiento, o null si no existe o ya no se conserva
+     */
+    Movimiento leer(long numero);
+
+    /**
+     * Crea una vista de los movimientos conservados ahora mismo, sin copiarlos.
+     *
+     * @return vista de solo lectura (ver VistaMovimientos)
+     */
+    VistaMovimientos vista();
+}
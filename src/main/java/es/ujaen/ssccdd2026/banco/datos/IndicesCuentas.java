@@ -0,0 +1,136 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índices secundarios de las cuentas de un GestorCuentas: por estado, por tipo
+ * y por titular. Permiten consultas como "todas las cuentas BLOQUEADAS" en un
+ * tiempo proporcional al número de resultados, sin recorrer todas las cuentas.
+ *
+ * Cada índice guarda, para cada valor, el conjunto de cuentas con ese valor
+ * (conjuntos concurrentes, sin cerrojos). El tipo y el titular no cambian
+ * nunca, así que solo se indexan al añadir la cuenta. El estado se reindexa
+ * desde CuentaBancaria.setEstado.
+ *
+ * CONCURRENCIA DEL ÍNDICE DE ESTADO:
+ * reindexarEstado pone la cuenta en el conjunto de su estado actual, la quita
+ * de los demás y repite si entretanto el estado ha vuelto a cambiar. Así, aunque
+ * dos hilos cambien el estado de la misma cuenta a la vez, cuando terminan la
+ * cuenta está solo en el conjunto de su estado final. Mientras dura el cambio
+ * puede estar en dos conjuntos; las consultas filtran por el estado actual,
+ * de modo que nunca devuelven una cuenta con otro estado.
+ *
+ * @author Diego Gómez Sánchez
+ */
+final class IndicesCuentas {
+
+    // Copia cacheada de EstadoCuenta.values()
+    private static final EstadoCuenta[] ESTADOS = EstadoCuenta.values();
+
+    private final Map<EstadoCuenta, Set<CuentaBancaria>> porEstado;
+    private final Map<TipoCuenta, Set<CuentaBancaria>> porTipo;
+    private final ConcurrentHashMap<String, Set<CuentaBancaria>> porTitular;
+
+
+    // ============================================================================
+    // CONSTRUCTOR
+    // ============================================================================
+
+    IndicesCuentas() {
+        // Los EnumMap no se modifican después de construirse: solo sus conjuntos
+        this.porEstado = new EnumMap<>(EstadoCuenta.class);
+        for (EstadoCuenta estado : ESTADOS) {
+            porEstado.put(estado, ConcurrentHashMap.newKeySet());
+        }
+
+        this.porTipo = new EnumMap<>(TipoCuenta.class);
+        for (TipoCuenta tipo : TipoCuenta.values()) {
+            porTipo.put(tipo, ConcurrentHashMap.newKeySet());
+        }
+
+        this.porTitular = new ConcurrentHashMap<>();
+    }
+
+
+    // ============================================================================
+    // MANTENIMIENTO
+    // ============================================================================
+
+    /**
+     * Indexa una cuenta recién añadida al gestor (que ya debe tener asignados
+     * estos índices, ver CuentaBancaria.setIndices).
+     *
+     * @param cuenta cuenta añadida
+     */
+    void anadir(CuentaBancaria cuenta) {
+        porTipo.get(cuenta.getTipo()).add(cuenta);
+        porTitular.computeIfAbsent(cuenta.getTitular(), t -> ConcurrentHashMap.newKeySet())
+                  .add(cuenta);
+        reindexarEstado(cuenta);
+    }
+
+    /**
+     * Deja la cuenta únicamente en el conjunto de su estado actual.
+     *
+     * @param cuenta cuenta cuyo estado ha cambiado
+     */
+    void reindexarEstado(CuentaBancaria cuenta) {
+        EstadoCuenta estado;
+        do {
+            estado = cuenta.getEstado();
+            for (EstadoCuenta otro : ESTADOS) {
+                if (otro == estado) {
+                    porEstado.get(otro).add(cuenta);
+                } else {
+                    porEstado.get(otro).remove(cuenta);
+                }
+            }
+            // Si otro hilo ha cambiado el estado mientras tanto, puede haber
+            // quitado la cuenta del conjunto que ahora le corresponde
+        } while (cuenta.getEstado() != estado);
+    }
+
+
+    // ============================================================================
+    // CONSULTAS (tiempo proporcional al número de resultados)
+    // ============================================================================
+
+    /**
+     * @param estado estado buscado
+     * @return nueva lista con las cuentas que tienen ese estado
+     */
+    List<CuentaBancaria> buscarPorEstado(EstadoCuenta estado) {
+        Set<CuentaBancaria> conjunto = porEstado.get(estado);
+        List<CuentaBancaria> resultado = new ArrayList<>(conjunto.size());
+        for (CuentaBancaria cuenta : conjunto) {
+            if (cuenta.getEstado() == estado) {
+                resultado.add(cuenta);
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * @param tipo tipo buscado
+     * @return nueva lista con las cuentas de ese tipo
+     */
+    List<CuentaBancaria> buscarPorTipo(TipoCuenta tipo) {
+        return new ArrayList<>(porTipo.get(tipo));
+    }
+
+    /**
+     * @param titular titular buscado (comparación exacta)
+     * @return nueva lista con las cuentas de ese titular
+     */
+    List<CuentaBancaria> buscarPorTitular(String titular) {
+        Set<CuentaBancaria> conjunto = porTitular.get(titular);
+        return conjunto == null ? new ArrayList<>() : new ArrayList<>(conjunto);
+    }
+}
@@ -0,0 +1,194 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Lectura y escritura de instantáneas del banco (todas las cuentas con su
+ * estado, saldos, histórico y secuencia del diario).
+ *
+ * La instantánea es "difusa": no se detiene el banco, sino que cada cuenta se
+ * copia con su cerrojo adquirido, de una en una. Cada cuenta queda coherente
+ * consigo misma y guarda la secuencia del último registro del diario que
+ * incluye; al reproducir el diario después de cargarla se saltan esos registros
+ * (ver DiarioMovimientos). Así el conjunto es exacto aunque las cuentas se
+ * hayan copiado en instantes distintos.
+ *
+ * FORMATO:
+ *   int MAGICO | int VERSION | long secuencia
+ *   por cada cuenta: byte 1 | iban | titular | tipo | estado | secuencia cuenta |
+ *                    máscara divisas | saldos | nº movimientos | movimientos
+ *   byte 0 (fin) | int crc32 de todo lo anterior
+ *
+ * @author Diego Gómez Sánchez
+ */
+final class InstantaneaBanco {
+
+    private static final int MAGICO = 0x42414E43; // "BANC"
+    private static final int VERSION = 4; // 4: sentido de los movimientos (CodecMovimiento)
+
+    private static final byte CUENTA = 1;
+    private static final byte FIN = 0;
+
+    private static final int TAMANO_BUFFER = 1 << 16;
+
+    private static final TipoCuenta[] TIPOS_CUENTA = TipoCuenta.values();
+    private static final EstadoCuenta[] ESTADOS = EstadoCuenta.values();
+    private static final Divisa[] DIVISAS = Divisa.values();
+
+    private InstantaneaBanco() {
+    }
+
+
+    // ============================================================================
+    // ESCRITURA
+    // ============================================================================
+
+    /**
+     * Escribe la instantánea de las cuentas en el fichero y hace fsync.
+     *
+     * Cada cuenta se bloquea solo mientras se copia su contenido a memoria;
+     * la escritura en disco se hace ya sin el cerrojo.
+     *
+     * @param fichero fichero destino (se sobrescribe)
+     * @param secuencia secuencia del diario en la que se rotó
+     * @param cuentas cuentas a guardar
+     * @throws IOException si falla la escritura
+     */
+    static void escribir(Path fichero, long secuencia, Collection<CuentaBancaria> cuentas)
+            throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 crc = new CRC32();
+            DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(canal), crc), TAMANO_BUFFER));
+
+            salida.writeInt(MAGICO);
+            salida.writeInt(VERSION);
+            salida.writeLong(secuencia);
+
+            long[] saldos = new long[DIVISAS.length];
+            for (CuentaBancaria cuenta : cuentas) {
+                EstadoCuenta estado;
+                int mascara;
+                long secuenciaCuenta;
+                List<Movimiento> historico;
+
+                ReentrantLock cerrojo = cuenta.getCerrojo();
+                cerrojo.lock();
+                try {
+                    estado = cuenta.getEstado();
+                    mascara = cuenta.getDivisasConMovimientos();
+                    for (Divisa divisa : DIVISAS) {
+                        saldos[divisa.ordinal()] = cuenta.getSaldo(divisa);
+                    }
+                    historico = cuenta.getMovimientos();
+                    secuenciaCuenta = cuenta.getSecuenciaDiario();
+                } finally {
+                    cerrojo.unlock();
+                }
+
+                salida.writeByte(CUENTA);
+                salida.writeUTF(cuenta.getIban());
+                salida.writeUTF(cuenta.getTitular());
+                salida.writeByte(cuenta.getTipo().ordinal());
+                salida.writeByte(estado.ordinal());
+                salida.writeLong(secuenciaCuenta);
+                salida.writeInt(mascara);
+                for (long saldo : saldos) {
+                    salida.writeLong(saldo);
+                }
+                salida.writeInt(historico.size());
+                for (Movimiento mov : historico) {
+                    CodecMovimiento.escribir(salida, mov);
+                }
+            }
+
+            salida.writeByte(FIN);
+            // El CRC se escribe fuera del flujo que lo calcula
+            salida.flush();
+            DataOutputStream cola = new DataOutputStream(Channels.newOutputStream(canal));
+            cola.writeInt((int) crc.getValue());
+            cola.flush();
+
+            canal.force(true);
+        }
+    }
+
+
+    // ============================================================================
+    // LECTURA
+    // ============================================================================
+
+    /**
+     * Carga la instantánea en un gestor vacío.
+     *
+     * @param fichero fichero de la instantánea
+     * @param gestor gestor donde añadir las cuentas
+     * @return secuencia del diario en la que se tomó
+     * @throws IOException si el fichero no se puede leer o está dañado
+     */
+    static long leer(Path fichero, GestorCuentas gestor) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            CRC32 crc = new CRC32();
+            BufferedInputStream buffer =
+                    new BufferedInputStream(Channels.newInputStream(canal), TAMANO_BUFFER);
+            DataInputStream entrada = new DataInputStream(new CheckedInputStream(buffer, crc));
+
+            if (entrada.readInt() != MAGICO || entrada.readInt() != VERSION) {
+                throw new IOException("No es una instantánea válida: " + fichero);
+            }
+            long secuencia = entrada.readLong();
+
+            long[] saldos = new long[DIVISAS.length];
+            while (entrada.readByte() == CUENTA) {
+                String iban = entrada.readUTF();
+                String titular = entrada.readUTF();
+                TipoCuenta tipo = TIPOS_CUENTA[entrada.readByte()];
+                EstadoCuenta estado = ESTADOS[entrada.readByte()];
+                long secuenciaCuenta = entrada.readLong();
+                int mascara = entrada.readInt();
+                for (int i = 0; i < saldos.length; i++) {
+                    saldos[i] = entrada.readLong();
+                }
+
+                int numMovimientos = entrada.readInt();
+                List<Movimiento> historico = new ArrayList<>(numMovimientos);
+                for (int i = 0; i < numMovimientos; i++) {
+                    historico.add(CodecMovimiento.leer(entrada));
+                }
+
+                CuentaBancaria cuenta = gestor.nuevaCuenta(iban, titular, tipo);
+                cuenta.restaurar(estado, saldos, mascara, historico, secuenciaCuenta);
+                for (Movimiento mov : historico) {
+                    gestor.acumularLimiteDiario(cuenta, mov);
+                }
+                gestor.anadirCuentaRestaurada(cuenta);
+            }
+
+            int crcCalculado = (int) crc.getValue();
+            int crcLeido = new DataInputStream(buffer).readInt();
+            if (crcCalculado != crcLeido) {
+                throw new IOException("Instantánea dañada (CRC incorrecto): " + fichero);
+            }
+
+            return secuencia;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Totales del banco por divisa que se mantienen al día con cada movimiento:
+ * suma de todos los saldos, importe ingresado, importe retirado y comisiones
+ * cobradas (también por tipo de comisión), más el número de movimientos de
+ * cada tipo. Permiten conocer la posición del banco en O(1) en lugar de recorrer
+ * todas las cuentas (como hace GestorCuentas.calcularResumen).
+ *
+ * Cada cuenta del gestor anota aquí sus movimientos al registrarlos (ver
+ * CuentaBancaria.registrarMovimiento), así que se cuentan todas las vías:
+ * operaciones individuales, lotes, MotorParticiones y reproducción del diario.
+ *
+ * CONCURRENCIA:
+ * Los totales son LongAdder: cada hilo suma en su propia celda y solo la
+ * lectura (sum) las recorre. Anotar un movimiento no compite con los demás
+ * hilos aunque todos operen a la vez. A cambio, la lectura no es una foto
+ * atómica: con operaciones en curso, un total puede incluir un movimiento y
+ * otro todavía no (p. ej. el cargo de una transferencia sin su abono).
+ *
+ * SALDOS Y FLUJOS:
+ * - El saldo total parte de los saldos restaurados de una instantánea y suma
+ *   la variación de cada movimiento posterior.
+ * - Ingresado, retirado, comisiones y número de movimientos cuentan los
+ *   movimientos registrados en este gestor (incluidos los reproducidos del
+ *   diario), no los anteriores a la instantánea de la que se haya partido.
+ *
+ * @author Diego Gómez Sánchez
+ */
+public final class LibroMayor {
+
+    // Copias cacheadas de values()
+    private static final Divisa[] DIVISAS = Divisa.values();
+    private static final TipoComision[] TIPOS_COMISION = TipoComision.values();
+    private static final TipoMovimiento[] TIPOS_MOVIMIENTO = TipoMovimiento.values();
+
+    // Totales indexados por Divisa.ordinal()
+    private final LongAdder[] saldos = crearTotales();
+    private final LongAdder[] ingresado = crearTotales();
+    private final LongAdder[] retirado = crearTotales();
+    private final LongAdder[] comisiones = crearTotales();
+
+    /**
+     * Comisiones indexadas por [divisa][tipo de comisión].
+     */
+    private final LongAdder[][] comisionesPorTipo = new LongAdder[DIVISAS.length][];
+
+    private final LongAdder[] movimientosPorTipo = crearTotales(TIPOS_MOVIMIENTO.length);
+
+    LibroMayor() {
+        for (int i = 0; i < comisionesPorTipo.length; i++) {
+            comisionesPorTipo[i] = crearTotales(TIPOS_COMISION.length);
+        }
+    }
+
+    private static LongAdder[] crearTotales() {
+        return crearTotales(DIVISAS.length);
+    }
+
+    private static LongAdder[] crearTotales(int tamano) {
+        LongAdder[] totales = new LongAdder[tamano];
+        for (int i = 0; i < totales.length; i++) {
+            totales[i] = new LongAdder();
+        }
+        return totales;
+    }
+
+
+    // ============================================================================
+    // ANOTACIÓN
+    // ============================================================================
+
+    /**
+     * Anota un movimiento ya aplicado al saldo de su cuenta.
+     *
+     * @param mov movimiento registrado
+     */
+    void anotar(Movimiento mov) {
+        int divisa = mov.getDivisa().ordinal();
+
+        // Misma variación que CuentaBancaria.registrarMovimiento
+        if (mov.esDebito()) {
+            saldos[divisa].add(-mov.getImporteTotal());
+            if (mov.getComision() != 0) {
+                comisiones[divisa].add(mov.getComision());
+            }
+        } else {
+            saldos[divisa].add(mov.getImporte());
+        }
+
+        if (mov.getTipo() == TipoMovimiento.INGRESO) {
+            ingresado[divisa].add(mov.getImporte());
+        } else if (mov.getTipo() == TipoMovimiento.RETIRADA) {
+            retirado[divisa].add(mov.getImporte());
+        }
+
+        movimientosPorTipo[mov.getTipo().ordinal()].increment();
+        if (mov.getTipoComision() != null && mov.getComision() != 0) {
+            comisionesPorTipo[divisa][mov.getTipoComision().ordinal()].add(mov.getComision());
+        }
+    }
+
+    /**
+     * Suma los saldos de una cuenta restaurada desde una instantánea.
+     *
+     * @param cuenta cuenta restaurada (todavía no visible para otros hilos)
+     */
+    void anotarSaldos(CuentaBancaria cuenta) {
+        for (Divisa divisa : DIVISAS) {
+            long saldo = cuenta.getSaldo(divisa);
+            if (saldo != 0) {
+                saldos[divisa.ordinal()].add(saldo);
+            }
+        }
+    }
+
+
+    // ============================================================================
+    // CONSULTAS (O(1) en el número de cuentas)
+    // ============================================================================
+
+    /**
+     * @param divisa divisa consultada
+     * @return suma de los saldos de todas las cuentas en esa divisa, en céntimos
+     */
+    public long getSaldoTotal(Divisa divisa) {
+        return saldos[divisa.ordinal()].sum();
+    }
+
+    /**
+     * @param divisa divisa consultada
+     * @return importe total de los ingresos en esa divisa, en céntimos
+     */
+    public long getTotalIngresado(Divisa divisa) {
+        return ingresado[divisa.ordinal()].sum();
+    }
+
+    /**
+     * @param divisa divisa consultada
+     * @return importe total de las retiradas en esa divisa (sin comisiones), en céntimos
+     */
+    public long getTotalRetirado(Divisa divisa) {
+        return retirado[divisa.ordinal()].sum();
+    }
+
+    /**
+     * @param divisa divisa consultada
+     * @return comisiones cobradas en esa divisa, en céntimos
+     */
+    public long getTotalComisiones(Divisa divisa) {
+        return comisiones[divisa.ordinal()].sum();
+    }
+
+    /**
+     * @param divisa divisa de las comisiones
+     * @param tipoComision tipo de comisión
+     * @return comisiones cobradas de ese tipo en esa divisa, en céntimos
+     */
+    public long getComisiones(Divisa divisa, TipoComision tipoComision) {
+        return comisionesPorTipo[divisa.ordinal()][tipoComision.ordinal()].sum();
+    }
+
+    /**
+     * @param tipo tipo de movimiento
+     * @return número de movimientos de ese tipo registrados
+     */
+    public long getNumMovimientos(TipoMovimiento tipo) {
+        return movimientosPorTipo[tipo.ordinal()].sum();
+    }
+}
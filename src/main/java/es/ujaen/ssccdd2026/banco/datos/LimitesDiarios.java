@@ -0,0 +1,203 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Acumulados de las últimas 24 horas de una cuenta, para hacer cumplir los
+ * límites diarios de TipoMovimiento.getLimiteDiario() (retiradas y
+ * transferencias enviadas) sin recorrer el histórico.
+ *
+ * VENTANA DESLIZANTE POR HORAS:
+ * Para cada tipo de movimiento con límite se guardan 24 cubetas, una por hora,
+ * más el total de las 24. Al avanzar la hora se vacían las cubetas
+ * que salen de la ventana y se restan del total. Comprobar y anotar un importe
+ * cuesta O(1) (como mucho 24 pasos al avanzar). La resolución es de una hora:
+ * un importe deja de contar entre 23 y 24 horas después de anotarse.
+ *
+ * EN EUROS:
+ * Los límites de TipoMovimiento están en céntimos de euro, así que se anotan
+ * importes ya convertidos a euros (sin comisión): un único acumulado por tipo
+ * suma las operaciones de todas las divisas. La conversión la hace
+ * GestorCuentas con su TablaCambios; una reserva se libera con el mismo
+ * importe en euros con que se hizo, aunque la cotización haya cambiado.
+ * Una divisa sin cotización no bloquea la operación: su importe se anota por
+ * su valor nominal (p. ej. 100,00 USD cuentan como 100,00 EUR).
+ *
+ * TRAS REINICIAR:
+ * Los acumulados no se guardan en las instantáneas. Se reconstruyen con los
+ * movimientos que se restauran (los MAX_MOVIMIENTOS_HISTORICO del histórico de
+ * cada cuenta más los reproducidos del diario), convertidos con las
+ * cotizaciones que haya en ese momento. Las cotizaciones tampoco se guardan:
+ * el diario se reproduce al crear el gestor, antes de poder cargarlas, así
+ * que los importes en otras divisas se anotan por su valor nominal. Además,
+ * tras un reinicio el acumulado puede quedarse corto: no cuenta las
+ * operaciones de las últimas 24 horas que ya no estén en el histórico.
+ *
+ * RESERVA Y CONFIRMACIÓN:
+ * reservar() comprueba el límite y anota el importe en un solo paso; si la
+ * operación se rechaza después (p. ej. por falta de saldo), liberar() lo
+ * devuelve. Así dos retiradas simultáneas no pueden pasar el límite entre
+ * las dos.
+ *
+ * CONCURRENCIA: todos los métodos se sincronizan sobre el propio objeto
+ * (uno por cuenta). Las cubetas de cada tipo se crean la primera vez que se
+ * usan.
+ *
+ * @author Diego Gómez Sánchez
+ */
+final class LimitesDiarios {
+
+    private static final int HORAS_VENTANA = 24;
+    private static final long SEGUNDOS_POR_HORA = 3600;
+
+    /**
+     * Ventanas indexadas por tipo.ordinal().
+     */
+    private final Ventana[] ventanas = new Ventana[TipoMovimiento.values().length];
+
+
+    // ============================================================================
+    // OPERACIONES
+    // ============================================================================
+
+    /**
+     * Anota el importe si, con él, el acumulado de las últimas 24 horas no
+     * supera el límite diario del tipo.
+     *
+     * @param tipo tipo de movimiento
+     * @param importe importe en céntimos de euro
+     * @param instante instante de la operación
+     * @return true si cabe en el límite (y queda anotado), false si lo supera
+     */
+    synchronized boolean reservar(TipoMovimiento tipo, long importe, Instant instante) {
+        long limite = tipo.getLimiteDiario();
+        if (limite <= 0) {
+            return true; // sin límite
+        }
+
+        Ventana ventana = ventana(tipo);
+        long hora = hora(instante);
+        ventana.avanzar(hora);
+        if (ventana.total + importe > limite) {
+            return false;
+        }
+
+        ventana.sumar(hora, importe);
+        return true;
+    }
+
+    /**
+     * Devuelve un importe reservado (en céntimos de euro) de una operación que
+     * finalmente no se hizo.
+     */
+    synchronized void liberar(TipoMovimiento tipo, long importe, Instant instante) {
+        if (tipo.getLimiteDiario() > 0) {
+            ventana(tipo).sumar(hora(instante), -importe);
+        }
+    }
+
+    /**
+     * Anota un importe (en céntimos de euro) de un movimiento ya aceptado sin
+     * comprobar el límite (al reconstruir la cuenta desde el diario o una
+     * instantánea).
+     */
+    synchronized void acumular(TipoMovimiento tipo, long importe, Instant instante) {
+        if (tipo.getLimiteDiario() > 0) {
+            long hora = hora(instante);
+            Ventana ventana = ventana(tipo);
+            ventana.avanzar(hora);
+            ventana.sumar(hora, importe);
+        }
+    }
+
+    /**
+     * @return importe acumulado, en céntimos de euro, en la ventana que termina
+     *         en el instante indicado
+     */
+    synchronized long getAcumulado(TipoMovimiento tipo, Instant instante) {
+        Ventana ventana = ventanas[tipo.ordinal()];
+        if (ventana == null) {
+            return 0;
+        }
+        ventana.avanzar(hora(instante));
+        return ventana.total;
+    }
+
+    private Ventana ventana(TipoMovimiento tipo) {
+        Ventana ventana = ventanas[tipo.ordinal()];
+        if (ventana == null) {
+            ventana = new Ventana();
+            ventanas[tipo.ordinal()] = ventana;
+        }
+        return ventana;
+    }
+
+    private static long hora(Instant instante) {
+        return Math.floorDiv(instante.getEpochSecond(), SEGUNDOS_POR_HORA);
+    }
+
+
+    // ============================================================================
+    // VENTANA DE 24 CUBETAS
+    // ============================================================================
+
+    private static final class Ventana {
+
+        /**
+         * Importe anotado en cada hora; la hora h ocupa la cubeta h % 24.
+         */
+        private final long[] cubetas = new long[HORAS_VENTANA];
+
+        /**
+         * Hora más reciente de la ventana (las 24 cubetas cubren
+         * ultimaHora - 23 ... ultimaHora).
+         */
+        private long ultimaHora = Long.MIN_VALUE;
+
+        /**
+         * Suma de las 24 cubetas.
+         */
+        private long total;
+
+        /**
+         * Desplaza la ventana hasta la hora indicada, vaciando las cubetas que
+         * salen de ella. Una hora anterior no mueve la ventana.
+         */
+        void avanzar(long hora) {
+            if (hora <= ultimaHora) {
+                return;
+            }
+
+            if (ultimaHora == Long.MIN_VALUE || hora - ultimaHora >= HORAS_VENTANA) {
+                Arrays.fill(cubetas, 0);
+                total = 0;
+            } else {
+                for (long h = ultimaHora + 1; h <= hora; h++) {
+                    int i = (int) Math.floorMod(h, (long) HORAS_VENTANA);
+                    total -= cubetas[i];
+                    cubetas[i] = 0;
+                }
+            }
+            ultimaHora = hora;
+        }
+
+        /**
+         * Suma (o resta) un importe en la cubeta de la hora indicada. Si esa
+         * hora ya ha salido de la ventana no hace nada; si es posterior a la
+         * ventana, la hace avanzar.
+         */
+        void sumar(long hora, long importe) {
+            avanzar(hora);
+            if (hora <= ultimaHora - HORAS_VENTANA) {
+                return;
+            }
+
+            int i = (int) Math.floorMod(hora, (long) HORAS_VENTANA);
+            cubetas[i] += importe;
+            total += importe;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métricas de las operaciones de un GestorCuentas: histograma de latencias de
+ * cada operación y número de rechazos por motivo (ver MotivoRechazo).
+ *
+ * Además de las operaciones públicas se miden dos esperas internas, para
+ * poder explicar un p99 alto:
+ * - ESPERA_CERROJO: tiempo esperando el cerrojo de una cuenta que otro hilo
+ *   tenía adquirido (solo se mide cuando hay que esperar).
+ * - ESPERA_DIARIO: tiempo esperando a que el diario esté en disco (fsync).
+ * El informe incluye también el tiempo de recolección de basura desde el
+ * último reinicio. Si el p99 sube sin que suban las esperas ni la recolección,
+ * el coste está en la propia operación (registro en el histórico, diario...).
+ *
+ * COSTE: medir una operación son dos llamadas a System.nanoTime y unos pocos
+ * incrementos de LongAdder, sin cerrojos ni asignación de memoria.
+ *
+ * @author Diego Gómez Sánchez
+ */
+public final class MetricasOperaciones {
+
+    /**
+     * Operaciones y esperas medidas.
+     */
+    public enum Operacion {
+        BUSQUEDA,
+        INGRESO,
+        RETIRADA,
+        TRANSFERENCIA,
+        CAMBIO_DIVISA,
+        LOTE,
+        ESPERA_CERROJO,
+        ESPERA_DIARIO
+    }
+
+    // Copias cacheadas de values()
+    private static final Operacion[] OPERACIONES = Operacion.values();
+    private static final MotivoRechazo[] MOTIVOS = MotivoRechazo.values();
+
+    // Indexados por Operacion.ordinal()
+    private final HistogramaLatencias[] latencias;
+
+    // Indexados por Operacion.ordinal() y MotivoRechazo.ordinal()
+    private final LongAdder[][] rechazos;
+
+    // Recolecciones y tiempo de recolección (ms) en el último reinicio
+    private volatile long recoleccionesIniciales;
+    private volatile long msRecoleccionIniciales;
+
+    MetricasOperaciones() {
+        this.latencias = new HistogramaLatencias[OPERACIONES.length];
+        this.rechazos = new LongAdder[OPERACIONES.length][MOTIVOS.length];
+        for (int i = 0; i < OPERACIONES.length; i++) {
+            latencias[i] = new HistogramaLatencias();
+            for (int j = 0; j < MOTIVOS.length; j++) {
+                rechazos[i][j] = new LongAdder();
+            }
+        }
+        this.recoleccionesIniciales = recolecciones();
+        this.msRecoleccionIniciales = msRecoleccion();
+    }
+
+
+    // ============================================================================
+    // REGISTRO
+    // ============================================================================
+
+    /**
+     * Registra una operación terminada.
+     *
+     * @param operacion operación medida
+     * @param inicio System.nanoTime() al empezar
+     * @param motivo motivo del rechazo, o null si se realizó
+     */
+    void registrar(Operacion operacion, long inicio, MotivoRechazo motivo) {
+        latencias[operacion.ordinal()].registrar(System.nanoTime() - inicio);
+        if (motivo != null) {
+            rechazos[operacion.ordinal()][motivo.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Pone a cero todas las métricas (p. ej. al empezar una carga de nóminas
+     * para medir solo esa ventana).
+     */
+    public void reiniciar() {
+        for (int i = 0; i < OPERACIONES.length; i++) {
+            latencias[i].reiniciar();
+            for (LongAdder contador : rechazos[i]) {
+                contador.reset();
+            }
+        }
+        recoleccionesIniciales = recolecciones();
+        msRecoleccionIniciales = msRecoleccion();
+    }
+
+
+    // ============================================================================
+    // CONSULTAS
+    // ============================================================================
+
+    /**
+     * @param operacion operación consultada
+     * @return histograma de latencias de la operación
+     */
+    public HistogramaLatencias getLatencias(Operacion operacion) {
+        return latencias[operacion.ordinal()];
+    }
+
+    /**
+     * @param operacion operación consultada
+     * @param motivo motivo del rechazo
+     * @return número de veces que se rechazó la operación por ese motivo
+     */
+    public long getRechazos(Operacion operacion, MotivoRechazo motivo) {
+        return rechazos[operacion.ordinal()][motivo.ordinal()].sum();
+    }
+
+    /**
+     * Informe legible de todas las métricas: por cada operación con medidas,
+     * número, media, p50, p99, p99.9 y máximo (en microsegundos) y los
+     * rechazos por motivo; al final, la recolección de basura.
+     *
+     * @return informe de varias líneas
+     */
+    public String volcar() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-15s %10s %10s %10s %10s %10s %10s%n", "Operación",
+                "n", "media µs", "p50 µs", "p99 µs", "p99.9 µs", "máx µs"));
+
+        for (Operacion operacion : OPERACIONES) {
+            HistogramaLatencias h = latencias[operacion.ordinal()];
+            long n = h.getNumMedidas();
+            if (n == 0) {
+                continue;
+            }
+
+            sb.append(String.format("%-15s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    operacion, n, micros(h.getMedia()), micros(h.getPercentil(0.5)),
+                    micros(h.getPercentil(0.99)), micros(h.getPercentil(0.999)),
+                    micros(h.getMaximo())));
+
+            for (MotivoRechazo motivo : MOTIVOS) {
+                long veces = getRechazos(operacion, motivo);
+                if (veces > 0) {
+                    sb.append(String.format("    rechazos %-22s %10d%n", motivo, veces));
+                }
+            }
+        }
+
+        sb.append(String.format("Recolección de basura: %d recolecciones, %d ms%n",
+                recolecciones() - recoleccionesIniciales,
+                msRecoleccion() - msRecoleccionIniciales));
+        return sb.toString();
+    }
+
+    private static double micros(long nanos) {
+        return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    private static long recolecciones() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : recolectores()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long msRecoleccion() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : recolectores()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static List<GarbageCollectorMXBean> recolectores() {
+        return ManagementFactory.getGarbageCollectorMXBeans();
+    }
+}
@@ -0,0 +1,796 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Motor de ejecución por particiones: alternativa a los cerrojos de
+ * GestorCuentas en la que cada cuenta la modifica siempre el mismo hilo.
+ *
+ * El espacio de IBAN se reparte en N particiones (por el hash del IBAN). Cada
+ * partición tiene un hilo propio que vacía un anillo de órdenes preasignado y
+ * aplica las órdenes sobre sus cuentas sin adquirir ningún cerrojo: como solo
+ * ese hilo escribe en ellas, comprobar el estado y modificar la cuenta no
+ * puede intercalarse con otra operación. En las cuentas muy calientes
+ * desaparece la cola en el cerrojo, que es lo que dispara la latencia de cola.
+ *
+ * ANILLO DE ÓRDENES (estilo disruptor):
+ * - Los huecos del anillo (Orden) se crean una vez y se reutilizan.
+ * - Un cliente reserva una secuencia con getAndIncrement, rellena su hueco y lo
+ *   publica escribiendo la secuencia en publicadas[hueco]. Si el anillo está
+ *   lleno espera a que el hilo de la partición libere huecos.
+ * - El hilo de la partición aplica todas las órdenes publicadas seguidas como
+ *   un lote (con un único Instant.now()) y libera sus huecos de una vez.
+ * - Sin trabajo, el hilo gira un rato y después se duerme; el cliente que
+ *   publica lo despierta.
+ *
+ * TRANSFERENCIAS ENTRE PARTICIONES (dos pasos):
+ * 1. La partición del origen comprueba las cuentas y descuenta cantidad +
+ *    comisión del origen (débito condicional, con su límite diario).
+ * 2. Envía el abono a la partición del destino, que lo registra (con su
+ *    propio instante) si el destino sigue ACTIVO. Si no (se ha bloqueado entre
+ *    medias), devuelve la cantidad al origen en un tercer mensaje y la
+ *    transferencia da false. La comisión no se devuelve: queda cobrada, como
+ *    la anota LibroMayor.
+ * Entre los pasos 1 y 2 el dinero está "en vuelo": la suma de saldos del banco
+ * no cuadra hasta que llega el abono. Los mensajes entre particiones van por
+ * un buzón sin límite, aparte del anillo, para que dos particiones con el
+ * anillo lleno no puedan quedarse esperándose la una a la otra. Si origen y
+ * destino caen en la misma partición la transferencia se hace en un solo paso.
+ *
+ * MISMAS REGLAS QUE GestorCuentas:
+ * Cada orden se valida como el método equivalente del gestor (una
+ * transferencia a la propia cuenta también se admite) y se registra en sus
+ * métricas (getMetricas) con el mismo motivo de rechazo. La latencia se mide
+ * desde que el cliente envía la orden hasta que se completa su resultado, así
+ * que incluye la espera en el anillo y, en las transferencias entre
+ * particiones, el paso del abono. El evento JFR es.ujaen.banco.Operacion
+ * (ver EventosBanco) cubre ese mismo intervalo y lo graba el hilo de la
+ * partición que termina la orden; activar y bloquear, como en el gestor, no
+ * se miden.
+ *
+ * USO:
+ * Mientras el motor está en marcha, todas las operaciones que modifican
+ * cuentas deben enviarse a través de él (crear cuentas y consultar sí puede
+ * hacerse directamente en el gestor). El motor no admite gestores con diario:
+ * el diario anota cada transferencia como un único registro, y con los dos
+ * pasos una caída entre el débito y el abono dejaría el diario a medias.
+ *
+ * @author Diego Gómez Sánchez
+ */
+public class MotorParticiones implements AutoCloseable {
+
+    /**
+     * Huecos del anillo de cada partición si no se indica otro valor.
+     */
+    public static final int CAPACIDAD_ANILLO_POR_DEFECTO = 1024;
+
+    // Vueltas sin trabajo antes de que el hilo de una partición se duerma. Con
+    // un solo procesador girar solo quita tiempo a los clientes: se duerme ya
+    private static final int GIROS_ANTES_DE_DORMIR =
+            Runtime.getRuntime().availableProcessors() > 1 ? 1_000 : 0;
+
+    // Tope de cada siesta (por si se pierde un aviso): 1 ms
+    private static final long SIESTA_MAXIMA_NS = 1_000_000L;
+
+    /**
+     * Tipos de orden. Los tres últimos son los mensajes entre particiones de
+     * una transferencia.
+     */
+    private enum TipoOrden {
+        ACTIVAR,
+        BLOQUEAR,
+        INGRESO,
+        RETIRADA,
+        CAMBIO_DIVISA,
+        TRANSFERENCIA,
+        ABONO,
+        DEVOLUCION
+    }
+
+    // ============================================================================
+    // ATRIBUTOS
+    // ============================================================================
+
+    private final GestorCuentas gestor;
+
+    private final Particion[] particiones;
+
+    /**
+     * Transferencias entre particiones que ya han hecho el débito y todavía no
+     * han terminado (abono o devolución pendiente).
+     */
+    private final AtomicInteger transferenciasEnVuelo;
+
+    /**
+     * No se aceptan órdenes nuevas.
+     */
+    private volatile boolean cerrado;
+
+    /**
+     * Los hilos de las particiones deben terminar en cuanto no les quede trabajo.
+     */
+    private volatile boolean finalizando;
+
+
+    // ============================================================================
+    // CONSTRUCTOR
+    // ============================================================================
+
+    /**
+     * Crea el motor con CAPACIDAD_ANILLO_POR_DEFECTO huecos por partición y
+     * arranca sus hilos.
+     *
+     * @param gestor gestor cuyas cuentas se reparten
+     * @param numParticiones número de particiones (y de hilos)
+     * @throws IllegalArgumentException si algún parámetro no es válido
+     */
+    public MotorParticiones(GestorCuentas gestor, int numParticiones) {
+        this(gestor, numParticiones, CAPACIDAD_ANILLO_POR_DEFECTO);
+    }
+
+    /**
+     * Crea el motor y arranca sus hilos.
+     *
+     * @param gestor gestor cuyas cuentas se reparten (sin diario)
+     * @param numParticiones número de particiones (y de hilos), > 0
+     * @param capacidadAnillo huecos del anillo de cada partición (potencia de 2)
+     * @throws IllegalArgumentException si algún parámetro no es válido
+     */
+    public MotorParticiones(GestorCuentas gestor, int numParticiones, int capacidadAnillo) {
+        if (gestor == null) {
+            throw new IllegalArgumentException("El gestor no puede ser null");
+        }
+
+        if (gestor.tieneDiario()) {
+            throw new IllegalArgumentException("El motor por particiones no admite gestores con diario");
+        }
+
+        if (numParticiones <= 0) {
+            throw new IllegalArgumentException("El número de particiones debe ser mayor que 0");
+        }
+
+        if (capacidadAnillo <= 0 || Integer.bitCount(capacidadAnillo) != 1) {
+            throw new IllegalArgumentException("La capacidad del anillo debe ser una potencia de 2");
+        }
+
+        this.gestor = gestor;
+        this.transferenciasEnVuelo = new AtomicInteger();
+        this.particiones = new Particion[numParticiones];
+        for (int i = 0; i < numParticiones; i++) {
+            particiones[i] = new Particion(i, capacidadAnillo);
+        }
+        for (Particion particion : particiones) {
+            particion.hilo.start();
+        }
+    }
+
+
+    // ============================================================================
+    // ÓRDENES
+    // ============================================================================
+    // Equivalen a los métodos de GestorCuentas con el mismo nombre. Las órdenes
+    // que se pueden rechazar sin tocar ninguna cuenta (cantidad <= 0, cuenta
+    // inexistente) se resuelven en el acto sin pasar por el anillo, aunque se
+    // registran en las métricas igual que las demás.
+
+    public CompletableFuture<Boolean> activarCuenta(String iban) {
+        return enviar(TipoOrden.ACTIVAR, iban, null, 0L, null, null, null, null);
+    }
+
+    public CompletableFuture<Boolean> bloquearCuenta(String iban) {
+        return enviar(TipoOrden.BLOQUEAR, iban, null, 0L, null, null, null, null);
+    }
+
+    public CompletableFuture<Boolean> realizarIngreso(String iban, long cantidad, Divisa divisa,
+                                                      String descripcion) {
+        if (cantidad <= 0) {
+            return rechazar(TipoOrden.INGRESO, iban, divisa, cantidad,
+                            MotivoRechazo.IMPORTE_NO_VALIDO);
+        }
+        return enviar(TipoOrden.INGRESO, iban, null, cantidad, divisa, null, descripcion,
+                      TipoComision.NINGUNA);
+    }
+
+    public CompletableFuture<Boolean> realizarRetirada(String iban, long cantidad, Divisa divisa,
+                                                       String descripcion,
+                                                       TipoComision tipoComision) {
+        if (cantidad <= 0) {
+            return rechazar(TipoOrden.RETIRADA, iban, divisa, cantidad,
+                            MotivoRechazo.IMPORTE_NO_VALIDO);
+        }
+        return enviar(TipoOrden.RETIRADA, iban, null, cantidad, divisa, null, descripcion,
+                      tipoComision);
+    }
+
+    public CompletableFuture<Boolean> realizarTransferencia(String ibanOrigen, String ibanDestino,
+                                                            long cantidad, Divisa divisa,
+                                                            String descripcion,
+                                                            TipoComision tipoComision) {
+        if (cantidad <= 0) {
+            return rechazar(TipoOrden.TRANSFERENCIA, ibanOrigen, divisa, cantidad,
+                            MotivoRechazo.IMPORTE_NO_VALIDO);
+        }
+        return enviar(TipoOrden.TRANSFERENCIA, ibanOrigen, ibanDestino, cantidad, divisa, null,
+                      descripcion, tipoComision);
+    }
+
+    public CompletableFuture<Boolean> cambiarDivisa(String iban, long cantidad,
+                                                    Divisa divisaOrigen, Divisa divisaDestino) {
+        if (cantidad <= 0) {
+            return rechazar(TipoOrden.CAMBIO_DIVISA, iban, divisaOrigen, cantidad,
+                            MotivoRechazo.IMPORTE_NO_VALIDO);
+        }
+        if (divisaOrigen == null || divisaDestino == null || divisaOrigen == divisaDestino) {
+            return rechazar(TipoOrden.CAMBIO_DIVISA, iban, divisaOrigen, cantidad,
+                            MotivoRechazo.CAMBIO_NO_DISPONIBLE);
+        }
+        return enviar(TipoOrden.CAMBIO_DIVISA, iban, null, cantidad, divisaOrigen,
+                      divisaDestino, null, null);
+    }
+
+
+    // ============================================================================
+    // CONSULTAS
+    // ============================================================================
+
+    public GestorCuentas getGestor() {
+        return gestor;
+    }
+
+    public int getNumParticiones() {
+        return particiones.length;
+    }
+
+    /**
+     * @param iban IBAN de una cuenta
+     * @return número de la partición que modifica esa cuenta
+     */
+    public int getParticion(String iban) {
+        int h = iban.hashCode();
+        // Mezclar los bits altos: los IBAN solo se diferencian en los últimos dígitos
+        return Math.floorMod(h ^ (h >>> 16), particiones.length);
+    }
+
+    /**
+     * @return transferencias entre particiones con el débito hecho y el abono
+     *         (o la devolución) todavía pendiente
+     */
+    public int getTransferenciasEnVuelo() {
+        return transferenciasEnVuelo.get();
+    }
+
+
+    // ============================================================================
+    // ENVÍO DE ÓRDENES (hilos clientes)
+    // ============================================================================
+
+    /**
+     * Resuelve las cuentas, reserva un hueco en el anillo de la partición del
+     * IBAN (el origen en las transferencias), lo rellena y lo publica.
+     *
+     * @throws IllegalStateException si el motor está cerrado
+     */
+    private CompletableFuture<Boolean> enviar(TipoOrden tipo, String iban, String ibanDestino,
+                                              long cantidad, Divisa divisa, Divisa divisaDestino,
+                                              String descripcion, TipoComision tipoComision) {
+        long inicio = System.nanoTime();
+        CuentaBancaria cuenta = gestor.obtenerCuenta(iban);
+        if (cuenta == null) {
+            return rechazar(tipo, iban, divisa, cantidad, MotivoRechazo.CUENTA_INEXISTENTE);
+        }
+
+        // Como en GestorCuentas, el destino puede ser la propia cuenta
+        CuentaBancaria destino = null;
+        if (tipo == TipoOrden.TRANSFERENCIA) {
+            destino = gestor.obtenerCuenta(ibanDestino);
+            if (destino == null) {
+                return rechazar(tipo, iban, divisa, cantidad, MotivoRechazo.CUENTA_INEXISTENTE);
+            }
+        }
+
+        CompletableFuture<Boolean> resultado = new CompletableFuture<>();
+        Particion particion = particiones[getParticion(iban)];
+
+        // enviando se incrementa ANTES de mirar cerrado: close() espera a que
+        // vuelva a 0, así que ninguna orden aceptada se queda sin ejecutar
+        particion.enviando.incrementAndGet();
+        try {
+            if (cerrado) {
+                throw new IllegalStateException("El motor está cerrado");
+            }
+
+            long secuencia = particion.reservar();
+            Orden orden = particion.anillo[(int) (secuencia & particion.mascara)];
+            orden.tipo = tipo;
+            orden.cuenta = cuenta;
+            orden.destino = destino;
+            orden.cantidad = cantidad;
+            orden.divisa = divisa;
+            orden.divisaDestino = divisaDestino;
+            orden.descripcion = descripcion;
+            orden.tipoComision = tipoComision;
+            orden.resultado = resultado;
+            orden.inicio = inicio;
+            orden.evento = operacion(tipo) != null ? EventosBanco.iniciarOperacion() : null;
+            particion.publicar(secuencia);
+        } finally {
+            particion.enviando.decrementAndGet();
+        }
+
+        return resultado;
+    }
+
+    /**
+     * Rechaza en el acto una orden que no llega al anillo y la registra como
+     * las demás (ver terminar).
+     */
+    private CompletableFuture<Boolean> rechazar(TipoOrden tipo, String iban, Divisa divisa,
+                                                long cantidad, MotivoRechazo motivo) {
+        MetricasOperaciones.Operacion operacion = operacion(tipo);
+        if (operacion != null) {
+            EventosBanco.EventoOperacion evento = EventosBanco.iniciarOperacion();
+            gestor.getMetricas().registrar(operacion, System.nanoTime(), motivo);
+            EventosBanco.terminarOperacion(evento, operacion.name(), iban, divisa, cantidad,
+                                           motivo);
+        }
+        return CompletableFuture.completedFuture(false);
+    }
+
+
+    // ============================================================================
+    // APLICACIÓN DE ÓRDENES (hilo de la partición, sin cerrojos)
+    // ============================================================================
+
+    /**
+     * Aplica una orden. Solo la llama el hilo de la partición dueña de
+     * orden.cuenta, así que puede comprobar el estado y modificar la cuenta sin
+     * cerrojos.
+     */
+    private void ejecutar(Orden orden, Instant instante) {
+        CompletableFuture<Boolean> resultado = orden.resultado;
+        try {
+            switch (orden.tipo) {
+                case ACTIVAR -> resultado.complete(cambiarEstado(orden.cuenta,
+                        EstadoCuenta.PENDIENTE_ACTIVACION, EstadoCuenta.ACTIVA));
+                case BLOQUEAR -> resultado.complete(cambiarEstado(orden.cuenta,
+                        EstadoCuenta.ACTIVA, EstadoCuenta.BLOQUEADA));
+                case INGRESO -> terminar(orden, !activa(orden.cuenta)
+                        ? MotivoRechazo.CUENTA_NO_ACTIVA
+                        : motivo(gestor.ingresar(orden.cuenta, orden.cantidad, orden.divisa,
+                                                 orden.descripcion, instante, null)));
+                case RETIRADA -> terminar(orden, !activa(orden.cuenta)
+                        ? MotivoRechazo.CUENTA_NO_ACTIVA
+                        : motivo(gestor.retirar(orden.cuenta, orden.cantidad, orden.divisa,
+                                                orden.descripcion, orden.tipoComision,
+                                                instante, null)));
+                case CAMBIO_DIVISA -> terminar(orden, !activa(orden.cuenta)
+                        ? MotivoRechazo.CUENTA_NO_ACTIVA
+                        : motivo(gestor.cambiar(orden.cuenta, orden.cantidad, orden.divisa,
+                                                orden.divisaDestino, instante, null)));
+                // Las transferencias completan el resultado en el paso que termina
+                case TRANSFERENCIA -> iniciarTransferencia(orden, instante);
+                case ABONO -> abonarTransferencia(orden, instante);
+                case DEVOLUCION -> devolverTransferencia(orden, instante);
+            }
+        } catch (RuntimeException e) {
+            if (orden.tipo == TipoOrden.ABONO || orden.tipo == TipoOrden.DEVOLUCION) {
+                transferenciasEnVuelo.decrementAndGet();
+            }
+            resultado.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Completa el resultado de una orden y la registra en las métricas del
+     * gestor y en el evento JFR, como las operaciones de GestorCuentas.
+     *
+     * @param motivo motivo del rechazo, o null si se realizó
+     */
+    private void terminar(Orden orden, MotivoRechazo motivo) {
+        MetricasOperaciones.Operacion operacion = operacion(orden.tipo);
+        gestor.getMetricas().registrar(operacion, orden.inicio, motivo);
+        EventosBanco.terminarOperacion(orden.evento, operacion.name(), orden.cuenta.getIban(),
+                                       orden.divisa, orden.cantidad, motivo);
+        orden.resultado.complete(motivo == null);
+    }
+
+    /**
+     * @param secuencia valor devuelto por GestorCuentas.ingresar/retirar/cambiar/transferir
+     * @return motivo del rechazo, o null si se aplicó
+     */
+    private static MotivoRechazo motivo(long secuencia) {
+        return secuencia >= 0 ? null : GestorCuentas.motivoRechazo(secuencia);
+    }
+
+    /**
+     * @return operación de las métricas con que se mide ese tipo de orden, o
+     *         null si no se mide (activar y bloquear)
+     */
+    private static MetricasOperaciones.Operacion operacion(TipoOrden tipo) {
+        return switch (tipo) {
+            case ACTIVAR, BLOQUEAR -> null;
+            case INGRESO -> MetricasOperaciones.Operacion.INGRESO;
+            case RETIRADA -> MetricasOperaciones.Operacion.RETIRADA;
+            case CAMBIO_DIVISA -> MetricasOperaciones.Operacion.CAMBIO_DIVISA;
+            case TRANSFERENCIA, ABONO, DEVOLUCION -> MetricasOperaciones.Operacion.TRANSFERENCIA;
+        };
+    }
+
+    private static boolean activa(CuentaBancaria cuenta) {
+        return cuenta.getEstado() == EstadoCuenta.ACTIVA;
+    }
+
+    private static boolean cambiarEstado(CuentaBancaria cuenta, EstadoCuenta esperado,
+                                         EstadoCuenta nuevo) {
+        if (cuenta.getEstado() != esperado) {
+            return false;
+        }
+
+        cuenta.setEstado(nuevo);
+        return true;
+    }
+
+    /**
+     * Paso 1 de una transferencia (partición del origen). Si el destino es de
+     * la misma partición la hace completa; si no, descuenta el origen y envía
+     * el abono a la partición del destino, que dará el resultado.
+     */
+    private void iniciarTransferencia(Orden orden, Instant instante) {
+        CuentaBancaria origen = orden.cuenta;
+        CuentaBancaria destino = orden.destino;
+
+        // El estado del destino se lee de otra partición: si ya no está activo
+        // se rechaza sin tocar nada; si cambia después, lo resuelve el paso 2
+        if (!activa(origen) || !activa(destino)) {
+            terminar(orden, MotivoRechazo.CUENTA_NO_ACTIVA);
+            return;
+        }
+
+        // Misma partición (también la transferencia a la propia cuenta): un solo paso
+        Particion particionDestino = particiones[getParticion(destino.getIban())];
+        if (particionDestino == particiones[getParticion(origen.getIban())]) {
+            terminar(orden, motivo(gestor.transferir(origen, destino, orden.cantidad,
+                    orden.divisa, orden.tipoComision, instante, null)));
+            return;
+        }
+
+        long reserva = gestor.enEuros(orden.cantidad, orden.divisa);
+        if (!origen.reservarLimiteDiario(TipoMovimiento.TRANSFERENCIA_ENVIADA, reserva,
+                                         instante)) {
+            terminar(orden, MotivoRechazo.LIMITE_DIARIO_SUPERADO);
+            return;
+        }
+
+        // Sin saldo, debitarTransferencia devuelve la reserva
+        Movimiento movOrigen = gestor.debitarTransferencia(origen, destino, orden.cantidad,
+                orden.divisa, orden.tipoComision, reserva, instante);
+        if (movOrigen == null) {
+            terminar(orden, MotivoRechazo.SALDO_INSUFICIENTE);
+            return;
+        }
+
+        transferenciasEnVuelo.incrementAndGet();
+        Orden abono = orden.copiar(TipoOrden.ABONO);
+        abono.movimiento = movOrigen;
+        abono.reserva = reserva;
+        particionDestino.recibir(abono);
+    }
+
+    /**
+     * Paso 2 (partición del destino): abona la transferencia o, si el destino
+     * ya no está activo, pide a la partición del origen que la devuelva.
+     */
+    private void abonarTransferencia(Orden abono, Instant instante) {
+        if (!activa(abono.destino)) {
+            particiones[getParticion(abono.cuenta.getIban())]
+                    .recibir(abono.copiar(TipoOrden.DEVOLUCION));
+            return;
+        }
+
+        gestor.abonarTransferencia(abono.cuenta, abono.destino, abono.movimiento, instante);
+        transferenciasEnVuelo.decrementAndGet();
+        terminar(abono, null);
+    }
+
+    /**
+     * Paso 3, solo si el abono no fue posible (partición del origen): devuelve
+     * al origen la cantidad enviada y libera su límite diario. La comisión no
+     * se devuelve, para que las comisiones de LibroMayor sigan siendo las
+     * cobradas de verdad.
+     */
+    private void devolverTransferencia(Orden devolucion, Instant instante) {
+        Movimiento movOrigen = devolucion.movimiento;
+        CuentaBancaria origen = devolucion.cuenta;
+
+        origen.registrarMovimiento(new Movimiento(instante,
+                TipoMovimiento.TRANSFERENCIA_RECIBIDA, movOrigen.getImporte(),
+                movOrigen.getDivisa(),
+                "Devolución de transferencia a " + devolucion.destino.getTitular(), 0L));
+        origen.liberarLimiteDiario(TipoMovimiento.TRANSFERENCIA_ENVIADA, devolucion.reserva,
+                                   movOrigen.getInstante());
+        transferenciasEnVuelo.decrementAndGet();
+        terminar(devolucion, MotivoRechazo.CUENTA_NO_ACTIVA);
+    }
+
+
+    // ============================================================================
+    // CIERRE
+    // ============================================================================
+
+    /**
+     * Deja de aceptar órdenes, espera a que se apliquen todas las aceptadas
+     * (incluidos los pasos pendientes de las transferencias) y para los hilos.
+     */
+    @Override
+    public void close() {
+        cerrado = true;
+        for (Particion particion : particiones) {
+            while (particion.enviando.get() > 0) {
+                Thread.onSpinWait();
+            }
+        }
+
+        finalizando = true;
+        for (Particion particion : particiones) {
+            LockSupport.unpark(particion.hilo);
+        }
+
+        boolean interrumpido = false;
+        for (Particion particion : particiones) {
+            while (particion.hilo.isAlive()) {
+                try {
+                    particion.hilo.join();
+                } catch (InterruptedException e) {
+                    interrumpido = true;
+                }
+            }
+        }
+
+        if (interrumpido) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    // ============================================================================
+    // PARTICIÓN (anillo + buzón + hilo)
+    // ============================================================================
+
+    private final class Particion implements Runnable {
+
+        /**
+         * Huecos preasignados del anillo.
+         */
+        final Orden[] anillo;
+        final int mascara;
+
+        /**
+         * Secuencia publicada en cada hueco (-1 si todavía ninguna). Un hueco
+         * está listo para el hilo de la partición cuando contiene su cursor.
+         */
+        final AtomicLongArray publicadas;
+
+        /**
+         * Siguiente secuencia que reservará un cliente.
+         */
+        final AtomicLong siguiente;
+
+        /**
+         * Secuencias ya aplicadas: los huecos por debajo se pueden reutilizar.
+         */
+        volatile long consumidas;
+
+        /**
+         * Clientes entre la comprobación de cerrado y la publicación.
+         */
+        final AtomicInteger enviando;
+
+        /**
+         * Mensajes de otras particiones (pasos 2 y 3 de las transferencias).
+         */
+        final ConcurrentLinkedQueue<Orden> buzon;
+
+        final Thread hilo;
+
+        volatile boolean dormido;
+
+        Particion(int numero, int capacidad) {
+            this.anillo = new Orden[capacidad];
+            for (int i = 0; i < capacidad; i++) {
+                anillo[i] = new Orden();
+            }
+            this.mascara = capacidad - 1;
+            this.publicadas = new AtomicLongArray(capacidad);
+            for (int i = 0; i < capacidad; i++) {
+                publicadas.set(i, -1L);
+            }
+            this.siguiente = new AtomicLong();
+            this.enviando = new AtomicInteger();
+            this.buzon = new ConcurrentLinkedQueue<>();
+            this.hilo = new Thread(this, "particion-" + numero);
+            this.hilo.setDaemon(true);
+        }
+
+        /**
+         * Reserva la siguiente secuencia, esperando si el anillo está lleno.
+         */
+        long reservar() {
+            long secuencia = siguiente.getAndIncrement();
+            while (secuencia - consumidas >= anillo.length) {
+                Thread.yield();
+            }
+            return secuencia;
+        }
+
+        void publicar(long secuencia) {
+            publicadas.set((int) (secuencia & mascara), secuencia);
+            despertar();
+        }
+
+        /**
+         * Deja un mensaje de otra partición en el buzón.
+         */
+        void recibir(Orden mensaje) {
+            buzon.add(mensaje);
+            despertar();
+        }
+
+        private void despertar() {
+            if (dormido) {
+                LockSupport.unpark(hilo);
+            }
+        }
+
+        @Override
+        public void run() {
+            long cursor = 0;
+            int giros = 0;
+
+            while (true) {
+                boolean trabajo = false;
+
+                // Primero los mensajes de otras particiones: terminan
+                // transferencias ya empezadas (con un instante propio, posterior
+                // al del cargo en la partición del origen)
+                Orden mensaje = buzon.poll();
+                if (mensaje != null) {
+                    Instant instante = Instant.now();
+                    do {
+                        ejecutar(mensaje, instante);
+                    } while ((mensaje = buzon.poll()) != null);
+                    trabajo = true;
+                }
+
+                // Después, como un lote, todas las órdenes publicadas seguidas
+                if (publicadas.get((int) (cursor & mascara)) == cursor) {
+                    Instant instante = Instant.now();
+                    do {
+                        Orden orden = anillo[(int) (cursor & mascara)];
+                        ejecutar(orden, instante);
+                        orden.limpiar();
+                        cursor++;
+                    } while (publicadas.get((int) (cursor & mascara)) == cursor);
+                    consumidas = cursor;
+                    trabajo = true;
+                }
+
+                if (trabajo) {
+                    giros = 0;
+                    continue;
+                }
+
+                if (finalizando && siguiente.get() == cursor
+                        && transferenciasEnVuelo.get() == 0 && buzon.isEmpty()) {
+                    return;
+                }
+
+                if (++giros < GIROS_ANTES_DE_DORMIR) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+
+                // Anunciar que se duerme y volver a mirar, para no perder un
+                // aviso que llegue justo entre medias
+                dormido = true;
+                if (publicadas.get((int) (cursor & mascara)) != cursor && buzon.isEmpty()
+                        && !finalizando) {
+                    LockSupport.parkNanos(this, SIESTA_MAXIMA_NS);
+                }
+                dormido = false;
+                giros = 0;
+            }
+        }
+    }
+
+
+    // ============================================================================
+    // ORDEN (hueco del anillo o mensaje entre particiones)
+    // ============================================================================
+
+    private static final class Orden {
+
+        TipoOrden tipo;
+
+        /**
+         * Cuenta de la orden (el origen en las transferencias).
+         */
+        CuentaBancaria cuenta;
+
+        /**
+         * Destino de una transferencia (null en el resto).
+         */
+        CuentaBancaria destino;
+
+        long cantidad;
+        Divisa divisa;
+
+        /**
+         * Divisa a la que se cambia (solo CAMBIO_DIVISA).
+         */
+        Divisa divisaDestino;
+
+        String descripcion;
+        TipoComision tipoComision;
+        CompletableFuture<Boolean> resultado;
+
+        /**
+         * Movimiento ya registrado en el origen (solo en los mensajes ABONO y
+         * DEVOLUCION).
+         */
+        Movimiento movimiento;
+
+        /**
+         * Importe en euros reservado del límite diario del origen (solo en los
+         * mensajes ABONO y DEVOLUCION), para liberarlo si se devuelve.
+         */
+        long reserva;
+
+        /**
+         * System.nanoTime() al enviar la orden y su evento JFR (null en activar
+         * y bloquear), para registrarla al terminar.
+         */
+        long inicio;
+        EventosBanco.EventoOperacion evento;
+
+        /**
+         * Copia la orden como un mensaje para otra partición.
+         */
+        Orden copiar(TipoOrden nuevoTipo) {
+            Orden copia = new Orden();
+            copia.tipo = nuevoTipo;
+            copia.cuenta = cuenta;
+            copia.destino = destino;
+            copia.cantidad = cantidad;
+            copia.divisa = divisa;
+            copia.tipoComision = tipoComision;
+            copia.resultado = resultado;
+            copia.movimiento = movimiento;
+            copia.reserva = reserva;
+            copia.inicio = inicio;
+            copia.evento = evento;
+            return copia;
+        }
+
+        /**
+         * Suelta las referencias de un hueco ya aplicado para no retener objetos.
+         */
+        void limpiar() {
+            cuenta = null;
+            destino = null;
+            divisa = null;
+            divisaDestino = null;
+            descripcion = null;
+            tipoComision = null;
+            resultado = null;
+            evento = null;
+        }
+    }
+}
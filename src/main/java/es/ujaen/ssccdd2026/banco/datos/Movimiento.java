@@ -56,18 +56,36 @@ public class Movimiento {
      */
     private final long comision;
 
+    /**
+     * Tipo de comisión con el que se calculó la comisión, o null si no se
+     * conoce (movimientos creados sin indicarlo). Permite totalizar las
+     * comisiones cobradas por tipo (ver AlmacenMovimientos).
+     */
+    private final TipoComision tipoComision;
+
+    /**
+     * true si el movimiento reduce el saldo. Se deduce del tipo salvo en
+     * CAMBIO_DIVISA, donde hay que indicarlo al crearlo (la salida en la divisa
+     * origen es un débito y la entrada en la divisa destino un crédito).
+     */
+    private final boolean debito;
+
 
     // ============================================================================
     // CONSTRUCTOR
     // ============================================================================
 
     /**
-     * Constructor completo de un movimiento bancario.
+     * Constructor completo de un movimiento bancario. El sentido se deduce del
+     * tipo (ver esDebito); un CAMBIO_DIVISA creado así es un crédito (la
+     * entrada del cambio). La salida se crea con el constructor con el
+     * parámetro debito.
      *
      * TODO: Implementar las siguientes validaciones:
      * 1. Validar que ningún parámetro sea null (lanzar IllegalArgumentException)
      * 2. Validar que el importe sea mayor que 0 (lanzar IllegalArgumentException)
      * 3. Validar que la comisión sea mayor o igual a 0 (lanzar IllegalArgumentException)
+     *    (además, el instante debe poder expresarse en nanosegundos desde 1970)
      * 4. Asignar todos los parámetros a los atributos correspondientes
      *
      * PISTA: Para validar null puedes usar:
@@ -83,11 +101,59 @@ public class Movimiento {
      */
     public Movimiento(Instant instante, TipoMovimiento tipo, long importe,
                       Divisa divisa, String descripcion, long comision) {
+        this(instante, tipo, importe, divisa, descripcion, comision, null);
+    }
+
+    /**
+     * Constructor de un movimiento indicando además el tipo de comisión
+     * aplicado. Como el anterior, un CAMBIO_DIVISA creado así es un crédito.
+     *
+     * @param instante momento de la operación
+     * @param tipo tipo de movimiento
+     * @param importe cantidad en céntimos (debe ser > 0)
+     * @param divisa divisa de la operación
+     * @param descripcion descripción textual
+     * @param comision comisión aplicada en céntimos (>= 0)
+     * @param tipoComision tipo de comisión aplicado (null si no se conoce)
+     * @throws IllegalArgumentException si alguna validación falla
+     */
+    public Movimiento(Instant instante, TipoMovimiento tipo, long importe,
+                      Divisa divisa, String descripcion, long comision,
+                      TipoComision tipoComision) {
+        this(instante, tipo, importe, divisa, descripcion, comision, tipoComision,
+             debitoPorTipo(tipo));
+    }
+
+    /**
+     * Constructor de un movimiento indicando si es un débito. Solo hace falta
+     * para la salida de un cambio de divisa (CAMBIO_DIVISA con debito = true);
+     * en el resto de tipos debito debe coincidir con el del tipo (ver esDebito).
+     *
+     * @param instante momento de la operación
+     * @param tipo tipo de movimiento
+     * @param importe cantidad en céntimos (debe ser > 0)
+     * @param divisa divisa de la operación
+     * @param descripcion descripción textual
+     * @param comision comisión aplicada en céntimos (>= 0)
+     * @param tipoComision tipo de comisión aplicado (null si no se conoce)
+     * @param debito true si reduce el saldo (salida de un cambio de divisa)
+     * @throws IllegalArgumentException si alguna validación falla o el
+     *         sentido no corresponde al tipo
+     */
+    public Movimiento(Instant instante, TipoMovimiento tipo, long importe,
+                      Divisa divisa, String descripcion, long comision,
+                      TipoComision tipoComision, boolean debito) {
 
         if (instante == null) {
             throw new IllegalArgumentException("El instante no puede ser null");
         }
 
+        // El instante se guarda como nanosegundos desde 1970 en un long
+        // (ver CodecMovimiento): solo cubre de 1677 a 2262
+        if (!CodecMovimiento.esRepresentable(instante)) {
+            throw new IllegalArgumentException("El instante está fuera del rango admitido");
+        }
+
         if (tipo == null) {
             throw new IllegalArgumentException("El tipo no puede ser null");
         }
@@ -108,12 +174,34 @@ public class Movimiento {
             throw new IllegalArgumentException("La comisión debe ser mayor o igual a 0");
         }
 
+        if (tipo != TipoMovimiento.CAMBIO_DIVISA && debito != debitoPorTipo(tipo)) {
+            throw new IllegalArgumentException("El sentido no corresponde al tipo " + tipo);
+        }
+
         this.instante = instante;
         this.tipo = tipo;
         this.importe = importe;
         this.divisa = divisa;
         this.descripcion = descripcion;
         this.comision = comision;
+        this.tipoComision = tipoComision;
+        this.debito = debito;
+    }
+
+    /**
+     * Sentido que corresponde a un tipo de movimiento cuando no se indica (ver
+     * esDebito). CAMBIO_DIVISA es un crédito, como la entrada de un cambio.
+     *
+     * @throws IllegalArgumentException si el tipo es null
+     */
+    static boolean debitoPorTipo(TipoMovimiento tipo) {
+        if (tipo == null) {
+            throw new IllegalArgumentException("El tipo no puede ser null");
+        }
+
+        return tipo == TipoMovimiento.RETIRADA ||
+               tipo == TipoMovimiento.TRANSFERENCIA_ENVIADA ||
+               tipo == TipoMovimiento.COMISION;
     }
 
 
@@ -163,6 +251,13 @@ public class Movimiento {
         return comision;
     }
 
+    /**
+     * @return tipo de comisión aplicado, o null si no se conoce
+     */
+    public TipoComision getTipoComision() {
+        return tipoComision;
+    }
+
 
     // ============================================================================
     // MÉTODOS DE NEGOCIO
@@ -195,21 +290,21 @@ public class Movimiento {
      * Los que NO reducen el saldo (crédito) son:
      * - INGRESO: entra dinero
      * - TRANSFERENCIA_RECIBIDA: llega dinero de otra cuenta
-     * - CAMBIO_DIVISA: conversión (se gestiona de forma especial)
      *
-     * TODO: Implementar la lógica usando switch o if-else sobre this.tipo
+     * Un cambio de divisa genera dos movimientos CAMBIO_DIVISA (ver
+     * GestorCuentas.cambiarDivisa): la salida, en la divisa origen, es un
+     * débito y la entrada, en la divisa destino, un crédito. Como el tipo no
+     * basta para distinguirlos, la salida se crea indicando debito = true y el
+     * sentido se guarda con el movimiento; sin indicarlo, un CAMBIO_DIVISA es
+     * un crédito.
      *
-     * PISTA: Puedes usar:
-     *        return tipo == TipoMovimiento.RETIRADA || tipo == ...
+     * La lógica por tipo está en debitoPorTipo; el resultado se calcula al
+     * crear el movimiento.
      *
      * @return true si el movimiento es un débito, false si es un crédito
      */
     public boolean esDebito() {
-        return tipo == TipoMovimiento.RETIRADA ||
-               tipo == TipoMovimiento.TRANSFERENCIA_ENVIADA ||
-               tipo == TipoMovimiento.COMISION;
-
-        //Alguna de las tres opciones es si o si.
+        return debito;
     }
 
 
@@ -0,0 +1,18 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+/**
+ * Movimiento leído de un FlujoMovimientos, con la cuenta en la que se
+ * registró y su posición en el flujo.
+ *
+ * @param secuencia posición en el flujo (0, 1, 2... sin huecos)
+ * @param iban IBAN de la cuenta
+ * @param movimiento movimiento registrado
+ * @param contrapartida IBAN de la otra cuenta si es una transferencia (el
+ *        destino en TRANSFERENCIA_ENVIADA, el origen en TRANSFERENCIA_RECIBIDA),
+ *        o null en el resto de movimientos
+ *
+ * @author Diego Gómez Sánchez
+ */
+public record MovimientoPublicado(long secuencia, String iban, Movimiento movimiento,
+                                  String contrapartida) {
+}
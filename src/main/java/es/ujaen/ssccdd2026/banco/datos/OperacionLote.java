@@ -0,0 +1,160 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+/**
+ * Una operación de un lote para GestorCuentas.realizarLote: un ingreso, una
+ * retirada o una transferencia.
+ *
+ * Se crea con los métodos de fábrica ingreso(), retirada() y transferencia(),
+ * que reciben los mismos parámetros que los métodos individuales del gestor.
+ *
+ * IMPORTANTE: Esta clase es INMUTABLE.
+ *
+ * @author Diego Gómez Sánchez
+ */
+public final class OperacionLote {
+
+    /**
+     * Tipos de operación que admite un lote.
+     */
+    public enum Tipo {
+        INGRESO,
+        RETIRADA,
+        TRANSFERENCIA
+    }
+
+    // ============================================================================
+    // ATRIBUTOS
+    // ============================================================================
+
+    private final Tipo tipo;
+
+    /**
+     * IBAN de la cuenta (la cuenta origen en las transferencias).
+     */
+    private final String iban;
+
+    /**
+     * IBAN de la cuenta destino (solo en transferencias; null en el resto).
+     */
+    private final String ibanDestino;
+
+    private final long cantidad;
+    private final Divisa divisa;
+    private final String descripcion;
+
+    /**
+     * Tipo de comisión (NINGUNA en los ingresos).
+     */
+    private final TipoComision tipoComision;
+
+
+    // ============================================================================
+    // CONSTRUCTOR Y MÉTODOS DE FÁBRICA
+    // ============================================================================
+
+    private OperacionLote(Tipo tipo, String iban, String ibanDestino, long cantidad,
+                          Divisa divisa, String descripcion, TipoComision tipoComision) {
+        if (divisa == null) {
+            throw new IllegalArgumentException("La divisa no puede ser null");
+        }
+
+        if (descripcion == null) {
+            throw new IllegalArgumentException("La descripción no puede ser null");
+        }
+
+        if (tipoComision == null) {
+            throw new IllegalArgumentException("El tipo de comisión no puede ser null");
+        }
+
+        this.tipo = tipo;
+        this.iban = iban;
+        this.ibanDestino = ibanDestino;
+        this.cantidad = cantidad;
+        this.divisa = divisa;
+        this.descripcion = descripcion;
+        this.tipoComision = tipoComision;
+    }
+
+    /**
+     * Ingreso, equivalente a GestorCuentas.realizarIngreso.
+     *
+     * @throws IllegalArgumentException si la divisa o la descripción son null
+     */
+    public static OperacionLote ingreso(String iban, long cantidad, Divisa divisa,
+                                        String descripcion) {
+        return new OperacionLote(Tipo.INGRESO, iban, null, cantidad, divisa, descripcion,
+                                 TipoComision.NINGUNA);
+    }
+
+    /**
+     * Retirada, equivalente a GestorCuentas.realizarRetirada.
+     *
+     * @throws IllegalArgumentException si la divisa, la descripción o el tipo
+     *                                  de comisión son null
+     */
+    public static OperacionLote retirada(String iban, long cantidad, Divisa divisa,
+                                         String descripcion, TipoComision tipoComision) {
+        return new OperacionLote(Tipo.RETIRADA, iban, null, cantidad, divisa, descripcion,
+                                 tipoComision);
+    }
+
+    /**
+     * Transferencia, equivalente a GestorCuentas.realizarTransferencia.
+     *
+     * @throws IllegalArgumentException si la divisa, la descripción o el tipo
+     *                                  de comisión son null
+     */
+    public static OperacionLote transferencia(String ibanOrigen, String ibanDestino,
+                                              long cantidad, Divisa divisa,
+                                              String descripcion,
+                                              TipoComision tipoComision) {
+        return new OperacionLote(Tipo.TRANSFERENCIA, ibanOrigen, ibanDestino, cantidad,
+                                 divisa, descripcion, tipoComision);
+    }
+
+
+    // ============================================================================
+    // GETTERS
+    // ============================================================================
+
+    public Tipo getTipo() {
+        return tipo;
+    }
+
+    public String getIban() {
+        return iban;
+    }
+
+    public String getIbanDestino() {
+        return ibanDestino;
+    }
+
+    public long getCantidad() {
+        return cantidad;
+    }
+
+    public Divisa getDivisa() {
+        return divisa;
+    }
+
+    public String getDescripcion() {
+        return descripcion;
+    }
+
+    public TipoComision getTipoComision() {
+        return tipoComision;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(tipo).append("[").append(iban);
+        if (ibanDestino != null) {
+            sb.append(" -> ").append(ibanDestino);
+        }
+        sb.append(", ").append(cantidad).append(" ").append(divisa.getSimbolo()).append("]");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,116 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+/**
+ * Resultado detallado de una operación de GestorCuentas: si se realizó, el
+ * motivo del rechazo, el saldo resultante y el movimiento generado. Evita
+ * tener que volver a consultar la cuenta tras un rechazo (lo que además
+ * podría ver un estado distinto por operaciones concurrentes).
+ *
+ * USO (sin asignar memoria):
+ * El objeto lo crea quien llama y la operación lo rellena; se puede reutilizar
+ * en todas las operaciones de un mismo hilo:
+ *
+ *   ResultadoOperacion resultado = new ResultadoOperacion();
+ *   if (!gestor.realizarRetirada(iban, 5000, Divisa.EUR, "Cajero",
+ *                                TipoComision.NINGUNA, resultado)) {
+ *       switch (resultado.getMotivo()) { ... }
+ *   }
+ *
+ * Los motivos son constantes de MotivoRechazo y el saldo un long, así que la
+ * operación no crea ningún objeto para informar del resultado.
+ *
+ * CONCURRENCIA: no es thread-safe. Cada hilo debe usar su propio objeto.
+ *
+ * @author Diego Gómez Sánchez
+ */
+public final class ResultadoOperacion {
+
+    /**
+     * Valor de getSaldo() cuando no se conoce (la cuenta no existe o la
+     * operación se rechazó antes de consultarla).
+     */
+    public static final long SALDO_DESCONOCIDO = Long.MIN_VALUE;
+
+    private MotivoRechazo motivo;
+    private long saldo;
+    private Movimiento movimiento;
+
+    public ResultadoOperacion() {
+        reiniciar();
+    }
+
+
+    // ============================================================================
+    // CONSULTAS
+    // ============================================================================
+
+    /**
+     * @return true si la operación se realizó
+     */
+    public boolean isAceptada() {
+        return motivo == null;
+    }
+
+    /**
+     * @return motivo del rechazo, o null si la operación se realizó
+     */
+    public MotivoRechazo getMotivo() {
+        return motivo;
+    }
+
+    /**
+     * Saldo de la cuenta (la de origen en transferencias y cambios de divisa)
+     * en la divisa de la operación: el que quedó justo después de aplicarla o,
+     * si se rechazó, el que tenía al rechazarse.
+     *
+     * @return saldo en céntimos, o SALDO_DESCONOCIDO
+     */
+    public long getSaldo() {
+        return saldo;
+    }
+
+    /**
+     * @return movimiento registrado en la cuenta (el de salida en transferencias
+     *         y cambios de divisa), o null si la operación se rechazó
+     */
+    public Movimiento getMovimiento() {
+        return movimiento;
+    }
+
+
+    // ============================================================================
+    // RELLENO (GestorCuentas)
+    // ============================================================================
+
+    void reiniciar() {
+        this.motivo = null;
+        this.saldo = SALDO_DESCONOCIDO;
+        this.movimiento = null;
+    }
+
+    void aceptar(Movimiento movimiento, long saldo) {
+        this.motivo = null;
+        this.movimiento = movimiento;
+        this.saldo = saldo;
+    }
+
+    /**
+     * Marca la operación como rechazada conservando el saldo ya anotado.
+     */
+    void rechazar(MotivoRechazo motivo) {
+        this.motivo = motivo;
+        this.movimiento = null;
+    }
+
+    void anotarSaldo(long saldo) {
+        this.saldo = saldo;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultadoOperacion[" + (motivo == null ? "ACEPTADA" : motivo)
+                + (saldo == SALDO_DESCONOCIDO ? "" : ", saldo=" + saldo) + "]";
+    }
+}
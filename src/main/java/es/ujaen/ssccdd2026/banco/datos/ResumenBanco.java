@@ -0,0 +1,169 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Totales de todo el banco: saldo total por divisa, comisiones por divisa y
+ * tipo de comisión, número de movimientos por tipo y número de cuentas por
+ * estado y por tipo (ver GestorCuentas.calcularResumen).
+ *
+ * CÁLCULO EN PARALELO:
+ * Todos los totales se obtienen en un único recorrido de las cuentas con un
+ * parallelStream (fork/join sobre el ForkJoinPool común). Cada tarea acumula en
+ * su propio ResumenBanco (arrays de long indexados por ordinal, sin objetos por
+ * cuenta) y al final se suman los resúmenes parciales.
+ *
+ * CONSISTENCIA:
+ * Las operaciones no se detienen mientras se calcula, así que el resumen es un
+ * corte "difuso", como las instantáneas (ver InstantaneaBanco): incluye todas
+ * las operaciones terminadas antes de empezar y ninguna de las que empiecen
+ * después de acabar, y de cada cuenta se leen valores que existieron. Una
+ * operación en curso puede verse a medias (p. ej. el cargo de una transferencia
+ * sin su abono). Con el banco en reposo el resultado es exacto.
+ *
+ * COMISIONES Y MOVIMIENTOS:
+ * No salen de los históricos (que solo conservan los últimos
+ * MAX_MOVIMIENTOS_HISTORICO movimientos de cada cuenta) sino de los contadores
+ * acumulados del LibroMayor, que se leen al terminar el recorrido. Cada
+ * contador es un corte por sí mismo: con operaciones en curso, dos contadores
+ * (o un contador y los saldos) pueden no reflejar exactamente los mismos
+ * movimientos. Cuentan todo lo registrado en el gestor, incluida la
+ * reproducción del diario, pero no lo anterior a la instantánea de partida.
+ *
+ * @author Diego Gómez Sánchez
+ */
+public final class ResumenBanco {
+
+    // Copias cacheadas de values()
+    private static final Divisa[] DIVISAS = Divisa.values();
+    private static final TipoComision[] TIPOS_COMISION = TipoComision.values();
+    private static final TipoMovimiento[] TIPOS_MOVIMIENTO = TipoMovimiento.values();
+
+    private final long[] saldos = new long[DIVISAS.length];
+
+    /**
+     * Comisiones indexadas por [divisa][tipo de comisión].
+     */
+    private final long[][] comisiones = new long[DIVISAS.length][TIPOS_COMISION.length];
+
+    private final long[] movimientosPorTipo = new long[TIPOS_MOVIMIENTO.length];
+    private final long[] cuentasPorEstado = new long[EstadoCuenta.values().length];
+    private final long[] cuentasPorTipo = new long[TipoCuenta.values().length];
+
+
+    // ============================================================================
+    // CÁLCULO
+    // ============================================================================
+
+    /**
+     * Calcula el resumen de un conjunto de cuentas en paralelo.
+     *
+     * @param cuentas cuentas a resumir (p. ej. GestorCuentas.getCuentas())
+     * @param libroMayor libro mayor del gestor de esas cuentas, del que se leen
+     *                   las comisiones y los movimientos por tipo
+     * @return resumen con los totales
+     */
+    static ResumenBanco calcular(Collection<CuentaBancaria> cuentas, LibroMayor libroMayor) {
+        ResumenBanco resumen = cuentas.parallelStream()
+                .collect(ResumenBanco::new, ResumenBanco::acumular, ResumenBanco::combinar);
+
+        for (Divisa divisa : DIVISAS) {
+            for (TipoComision tipo : TIPOS_COMISION) {
+                resumen.comisiones[divisa.ordinal()][tipo.ordinal()] =
+                        libroMayor.getComisiones(divisa, tipo);
+            }
+        }
+        for (TipoMovimiento tipo : TIPOS_MOVIMIENTO) {
+            resumen.movimientosPorTipo[tipo.ordinal()] = libroMayor.getNumMovimientos(tipo);
+        }
+        return resumen;
+    }
+
+    /**
+     * Suma una cuenta al resumen.
+     */
+    private void acumular(CuentaBancaria cuenta) {
+        cuentasPorEstado[cuenta.getEstado().ordinal()]++;
+        cuentasPorTipo[cuenta.getTipo().ordinal()]++;
+        for (Divisa divisa : DIVISAS) {
+            saldos[divisa.ordinal()] += cuenta.getSaldo(divisa);
+        }
+    }
+
+    /**
+     * Suma otro resumen parcial a este.
+     */
+    private void combinar(ResumenBanco otro) {
+        sumar(saldos, otro.saldos);
+        sumar(cuentasPorEstado, otro.cuentasPorEstado);
+        sumar(cuentasPorTipo, otro.cuentasPorTipo);
+    }
+
+    private static void sumar(long[] destino, long[] origen) {
+        for (int i = 0; i < destino.length; i++) {
+            destino[i] += origen[i];
+        }
+    }
+
+
+    // ============================================================================
+    // CONSULTAS
+    // ============================================================================
+
+    /**
+     * @param divisa divisa consultada
+     * @return suma de los saldos de todas las cuentas en esa divisa, en céntimos
+     */
+    public long getSaldoTotal(Divisa divisa) {
+        return saldos[divisa.ordinal()];
+    }
+
+    /**
+     * @param divisa divisa de las comisiones
+     * @param tipoComision tipo de comisión
+     * @return comisiones cobradas de ese tipo en esa divisa, en céntimos
+     */
+    public long getComisiones(Divisa divisa, TipoComision tipoComision) {
+        return comisiones[divisa.ordinal()][tipoComision.ordinal()];
+    }
+
+    /**
+     * @param divisa divisa de las comisiones
+     * @return comisiones cobradas en esa divisa para cada tipo de comisión
+     */
+    public Map<TipoComision, Long> getComisiones(Divisa divisa) {
+        Map<TipoComision, Long> resultado = new EnumMap<>(TipoComision.class);
+        for (TipoComision tipo : TIPOS_COMISION) {
+            resultado.put(tipo, getComisiones(divisa, tipo));
+        }
+        return resultado;
+    }
+
+    /**
+     * @param tipo tipo de movimiento
+     * @return número de movimientos de ese tipo registrados en el gestor
+     */
+    public long getNumMovimientos(TipoMovimiento tipo) {
+        return movimientosPorTipo[tipo.ordinal()];
+    }
+
+    /**
+     * @param estado estado de cuenta
+     * @return número de cuentas con ese estado
+     */
+    public long getNumCuentas(EstadoCuenta estado) {
+        return cuentasPorEstado[estado.ordinal()];
+    }
+
+    /**
+     * @param tipo tipo de cuenta
+     * @return número de cuentas de ese tipo
+     */
+    public long getNumCuentas(TipoCuenta tipo) {
+        return cuentasPorTipo[tipo.ordinal()];
+    }
+}
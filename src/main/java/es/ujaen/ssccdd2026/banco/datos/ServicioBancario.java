@@ -0,0 +1,281 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Fachada asíncrona delante de GestorCuentas: recibe las órdenes de los
+ * clientes (ingreso, retirada, transferencia, cambio de divisa, activar,
+ * bloquear) y ejecuta cada una en su propio hilo virtual.
+ *
+ * Cada orden llama al método equivalente de GestorCuentas, con el mismo
+ * código bloqueante (cerrojos de cuenta, espera al diario), y su resultado
+ * se entrega en un CompletableFuture<Boolean>. Como los hilos virtuales
+ * liberan su hilo de plataforma mientras esperan, un millón de sesiones
+ * concurrentes no necesita un millón de hilos del sistema operativo.
+ *
+ * ÓRDENES EN CURSO POR CUENTA:
+ * Cada cuenta admite como mucho maxEnCursoPorCuenta órdenes ejecutándose a la
+ * vez (un Semaphore justo por IBAN). Las demás esperan su turno, en orden de
+ * llegada, sin ocupar ningún hilo de plataforma. Así una cuenta muy caliente
+ * no acapara el gestor ni forma una cola enorme en su cerrojo.
+ *
+ * Una transferencia ocupa un permiso de cada cuenta, tomados en orden de IBAN
+ * para que dos transferencias cruzadas no se queden esperándose la una a la otra.
+ *
+ * El Semaphore de una cuenta solo existe mientras tiene órdenes en curso o
+ * esperando: cada entrada del mapa cuenta sus usuarios y la última orden en
+ * salir la elimina. La memoria depende de las cuentas activas en cada
+ * momento, no de todas las que han recibido alguna vez una orden.
+ *
+ * Si la orden lanza una excepción (p. ej. descripción null), el futuro se
+ * completa con ella.
+ *
+ * @author Diego Gómez Sánchez
+ */
+public class ServicioBancario implements AutoCloseable {
+
+    /**
+     * Órdenes en curso por cuenta si no se indica otro valor.
+     */
+    public static final int MAX_EN_CURSO_POR_DEFECTO = 4;
+
+    // ============================================================================
+    // ATRIBUTOS
+    // ============================================================================
+
+    private final GestorCuentas gestor;
+
+    /**
+     * Un hilo virtual nuevo por orden.
+     */
+    private final ExecutorService ejecutor;
+
+    private final int maxEnCursoPorCuenta;
+
+    /**
+     * Permisos de las cuentas con órdenes en curso o esperando. Clave: IBAN.
+     */
+    private final ConcurrentHashMap<String, Permisos> permisos;
+
+    /**
+     * Semaphore de una cuenta y número de órdenes que lo usan (en curso o
+     * esperando). El contador solo se modifica dentro de compute y
+     * computeIfPresent del mapa, que son atómicos para cada clave.
+     */
+    private static final class Permisos {
+        final Semaphore semaforo;
+        int usuarios;
+
+        Permisos(int maxEnCurso) {
+            this.semaforo = new Semaphore(maxEnCurso, true);
+        }
+    }
+
+
+    // ============================================================================
+    // CONSTRUCTOR
+    // ============================================================================
+
+    /**
+     * Crea el servicio con MAX_EN_CURSO_POR_DEFECTO órdenes en curso por cuenta.
+     *
+     * @param gestor gestor sobre el que se ejecutan las órdenes
+     * @throws IllegalArgumentException si el gestor es null
+     */
+    public ServicioBancario(GestorCuentas gestor) {
+        this(gestor, MAX_EN_CURSO_POR_DEFECTO);
+    }
+
+    /**
+     * @param gestor gestor sobre el que se ejecutan las órdenes
+     * @param maxEnCursoPorCuenta órdenes que pueden ejecutarse a la vez sobre
+     *                            una misma cuenta (> 0)
+     * @throws IllegalArgumentException si el gestor es null o el máximo no es válido
+     */
+    public ServicioBancario(GestorCuentas gestor, int maxEnCursoPorCuenta) {
+        if (gestor == null) {
+            throw new IllegalArgumentException("El gestor no puede ser null");
+        }
+
+        if (maxEnCursoPorCuenta <= 0) {
+            throw new IllegalArgumentException("El máximo de órdenes en curso debe ser mayor que 0");
+        }
+
+        this.gestor = gestor;
+        this.maxEnCursoPorCuenta = maxEnCursoPorCuenta;
+        this.permisos = new ConcurrentHashMap<>();
+        this.ejecutor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+
+    // ============================================================================
+    // ÓRDENES
+    // ============================================================================
+
+    /**
+     * Orden asíncrona equivalente a GestorCuentas.activarCuenta.
+     */
+    public CompletableFuture<Boolean> activarCuenta(String iban) {
+        return enviar(iban, () -> gestor.activarCuenta(iban));
+    }
+
+    /**
+     * Orden asíncrona equivalente a GestorCuentas.bloquearCuenta.
+     */
+    public CompletableFuture<Boolean> bloquearCuenta(String iban) {
+        return enviar(iban, () -> gestor.bloquearCuenta(iban));
+    }
+
+    /**
+     * Orden asíncrona equivalente a GestorCuentas.realizarIngreso.
+     */
+    public CompletableFuture<Boolean> realizarIngreso(String iban, long cantidad, Divisa divisa,
+                                                      String descripcion) {
+        return enviar(iban, () -> gestor.realizarIngreso(iban, cantidad, divisa, descripcion));
+    }
+
+    /**
+     * Orden asíncrona equivalente a GestorCuentas.realizarRetirada.
+     */
+    public CompletableFuture<Boolean> realizarRetirada(String iban, long cantidad, Divisa divisa,
+                                                       String descripcion,
+                                                       TipoComision tipoComision) {
+        return enviar(iban, () -> gestor.realizarRetirada(iban, cantidad, divisa, descripcion,
+                                                          tipoComision));
+    }
+
+    /**
+     * Orden asíncrona equivalente a GestorCuentas.realizarTransferencia.
+     * Ocupa un permiso de la cuenta origen y otro de la destino.
+     */
+    public CompletableFuture<Boolean> realizarTransferencia(String ibanOrigen, String ibanDestino,
+                                                            long cantidad, Divisa divisa,
+                                                            String descripcion,
+                                                            TipoComision tipoComision) {
+        BooleanSupplier orden = () -> gestor.realizarTransferencia(ibanOrigen, ibanDestino,
+                cantidad, divisa, descripcion, tipoComision);
+
+        // Origen y destino iguales (o algún IBAN null): basta un permiso
+        if (ibanOrigen == null || ibanDestino == null || ibanOrigen.equals(ibanDestino)) {
+            return enviar(ibanOrigen, orden);
+        }
+
+        // Permisos siempre en orden de IBAN (ver comentario de la clase)
+        boolean origenPrimero = ibanOrigen.compareTo(ibanDestino) < 0;
+        String primero = origenPrimero ? ibanOrigen : ibanDestino;
+        String segundo = origenPrimero ? ibanDestino : ibanOrigen;
+        return enviar(primero, () -> ejecutarConPermiso(segundo, orden));
+    }
+
+    /**
+     * Orden asíncrona equivalente a GestorCuentas.cambiarDivisa.
+     */
+    public CompletableFuture<Boolean> cambiarDivisa(String iban, long cantidad,
+                                                    Divisa divisaOrigen, Divisa divisaDestino) {
+        return enviar(iban, () -> gestor.cambiarDivisa(iban, cantidad, divisaOrigen,
+                                                       divisaDestino));
+    }
+
+
+    // ============================================================================
+    // CONSULTAS
+    // ============================================================================
+
+    /**
+     * @return gestor sobre el que se ejecutan las órdenes
+     */
+    public GestorCuentas getGestor() {
+        return gestor;
+    }
+
+    public int getMaxEnCursoPorCuenta() {
+        return maxEnCursoPorCuenta;
+    }
+
+    /**
+     * @param iban IBAN de la cuenta
+     * @return órdenes que se están ejecutando ahora mismo sobre la cuenta
+     *         (no cuenta las que esperan turno)
+     */
+    public int getEnCurso(String iban) {
+        Permisos entrada = permisos.get(iban);
+        return entrada == null ? 0 : maxEnCursoPorCuenta - entrada.semaforo.availablePermits();
+    }
+
+    /**
+     * @return cuentas con órdenes en curso o esperando (entradas del mapa de permisos)
+     */
+    int getNumCuentasConPermisos() {
+        return permisos.size();
+    }
+
+
+    // ============================================================================
+    // EJECUCIÓN
+    // ============================================================================
+
+    /**
+     * Lanza la orden en un hilo virtual, con un permiso de la cuenta indicada.
+     */
+    private CompletableFuture<Boolean> enviar(String iban, BooleanSupplier orden) {
+        return CompletableFuture.supplyAsync(() -> ejecutarConPermiso(iban, orden), ejecutor);
+    }
+
+    /**
+     * Ejecuta la orden en el hilo actual tras obtener un permiso de la cuenta.
+     * Si la cuenta no existe no hay nada que proteger y se ejecuta directamente
+     * (el gestor la rechazará); así los IBAN inventados no llenan el mapa de permisos.
+     */
+    private boolean ejecutarConPermiso(String iban, BooleanSupplier orden) {
+        if (gestor.obtenerCuenta(iban) == null) {
+            return orden.getAsBoolean();
+        }
+
+        // Se apunta como usuario antes de esperar, para que nadie retire la entrada
+        Permisos entrada = permisos.compute(iban, (clave, actual) -> {
+            Permisos p = actual != null ? actual : new Permisos(maxEnCursoPorCuenta);
+            p.usuarios++;
+            return p;
+        });
+
+        try {
+            try {
+                entrada.semaforo.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+
+            try {
+                return orden.getAsBoolean();
+            } finally {
+                entrada.semaforo.release();
+            }
+        } finally {
+            // La última orden de la cuenta retira la entrada del mapa
+            permisos.computeIfPresent(iban,
+                    (clave, actual) -> --actual.usuarios == 0 ? null : actual);
+        }
+    }
+
+
+    // ============================================================================
+    // CIERRE
+    // ============================================================================
+
+    /**
+     * Deja de aceptar órdenes y espera a que terminen las que están en curso.
+     */
+    @Override
+    public void close() {
+        ejecutor.close();
+    }
+}
@@ -0,0 +1,152 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import static es.ujaen.ssccdd2026.banco.Constantes.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tabla de tipos de cambio entre divisas, usada por GestorCuentas.cambiarDivisa.
+ *
+ * Cada divisa se cotiza frente al euro: cuántas unidades de la divisa vale
+ * 1 EUR (p. ej. USD = 1.0850). El euro es la base y siempre vale 1. El cambio
+ * entre dos divisas cualesquiera se obtiene de sus dos cotizaciones.
+ *
+ * REDONDEO:
+ * Los importes siguen en céntimos enteros. El importe convertido se calcula
+ * de forma exacta (BigDecimal) y se redondea una sola vez al céntimo con
+ * RoundingMode.HALF_EVEN (redondeo bancario), de modo que la misma conversión
+ * da siempre el mismo resultado en cualquier hilo o máquina.
+ *
+ * CONCURRENCIA (copia en escritura):
+ * Las cotizaciones se guardan en un array inmutable publicado a través de un
+ * AtomicReference. Convertir es leer esa referencia, sin cerrojos, aunque haya
+ * miles de conversiones por segundo. Actualizar copia el array, cambia la
+ * copia y la publica con compareAndSet; cada conversión ve las cotizaciones
+ * de antes o las de después, nunca una mezcla.
+ *
+ * @author Diego Gómez Sánchez
+ */
+public final class TablaCambios {
+
+    private static final int NUM_DIVISAS = Divisa.values().length;
+
+    // Rango de un importe convertido
+    private static final BigDecimal MAXIMO_LONG = BigDecimal.valueOf(Long.MAX_VALUE);
+    private static final BigDecimal MINIMO_LONG = BigDecimal.valueOf(Long.MIN_VALUE);
+
+    /**
+     * Unidades de cada divisa por 1 EUR, indexadas por ordinal (null si la
+     * divisa todavía no tiene cotización). El array publicado no se modifica nunca.
+     */
+    private final AtomicReference<BigDecimal[]> cotizaciones;
+
+
+    // ============================================================================
+    // CONSTRUCTOR
+    // ============================================================================
+
+    /**
+     * Crea una tabla en la que solo el euro tiene cotización.
+     */
+    public TablaCambios() {
+        BigDecimal[] iniciales = new BigDecimal[NUM_DIVISAS];
+        iniciales[Divisa.EUR.ordinal()] = BigDecimal.ONE;
+        this.cotizaciones = new AtomicReference<>(iniciales);
+    }
+
+
+    // ============================================================================
+    // ACTUALIZACIÓN (copia en escritura)
+    // ============================================================================
+
+    /**
+     * Fija la cotización de una divisa.
+     *
+     * @param divisa divisa a cotizar (distinta del euro)
+     * @param unidadesPorEuro unidades de la divisa que vale 1 EUR (> 0)
+     * @throws IllegalArgumentException si algún parámetro no es válido
+     */
+    public void actualizar(Divisa divisa, BigDecimal unidadesPorEuro) {
+        actualizar(Map.of(divisa, unidadesPorEuro));
+    }
+
+    /**
+     * Fija varias cotizaciones a la vez: ninguna conversión ve solo una parte
+     * de ellas.
+     *
+     * @param nuevas unidades de cada divisa que vale 1 EUR (> 0)
+     * @throws IllegalArgumentException si alguna cotización no es válida
+     */
+    public void actualizar(Map<Divisa, BigDecimal> nuevas) {
+        if (nuevas == null) {
+            throw new IllegalArgumentException("Las cotizaciones no pueden ser null");
+        }
+
+        for (Map.Entry<Divisa, BigDecimal> entrada : nuevas.entrySet()) {
+            if (entrada.getKey() == Divisa.EUR) {
+                throw new IllegalArgumentException("El euro es la divisa base y no se cotiza");
+            }
+
+            if (entrada.getValue() == null || entrada.getValue().signum() <= 0) {
+                throw new IllegalArgumentException("La cotización debe ser mayor que 0");
+            }
+        }
+
+        BigDecimal[] actuales;
+        BigDecimal[] copia;
+        do {
+            actuales = cotizaciones.get();
+            copia = actuales.clone();
+            for (Map.Entry<Divisa, BigDecimal> entrada : nuevas.entrySet()) {
+                copia[entrada.getKey().ordinal()] = entrada.getValue();
+            }
+        } while (!cotizaciones.compareAndSet(actuales, copia));
+    }
+
+
+    // ============================================================================
+    // CONSULTA Y CONVERSIÓN (sin cerrojos)
+    // ============================================================================
+
+    /**
+     * @param divisa divisa a consultar
+     * @return unidades de la divisa que vale 1 EUR, o vacío si no tiene cotización
+     */
+    public Optional<BigDecimal> getCotizacion(Divisa divisa) {
+        return Optional.ofNullable(cotizaciones.get()[divisa.ordinal()]);
+    }
+
+    /**
+     * Convierte un importe de una divisa a otra.
+     *
+     * @param importe importe en céntimos de la divisa de origen
+     * @param origen divisa del importe
+     * @param destino divisa a la que convertir
+     * @return importe en céntimos de la divisa destino (redondeo HALF_EVEN), o
+     *         vacío si alguna de las dos divisas no tiene cotización o el
+     *         resultado no cabe en un long
+     */
+    public OptionalLong convertir(long importe, Divisa origen, Divisa destino) {
+        // Una sola lectura: las dos cotizaciones salen de la misma tabla
+        BigDecimal[] tabla = cotizaciones.get();
+        BigDecimal cotizacionOrigen = tabla[origen.ordinal()];
+        BigDecimal cotizacionDestino = tabla[destino.ordinal()];
+        if (cotizacionOrigen == null || cotizacionDestino == null) {
+            return OptionalLong.empty();
+        }
+
+        // importe * destino / origen, con un único redondeo al final
+        BigDecimal convertido = BigDecimal.valueOf(importe)
+                .multiply(cotizacionDestino)
+                .divide(cotizacionOrigen, 0, RoundingMode.HALF_EVEN);
+        if (convertido.compareTo(MAXIMO_LONG) > 0 || convertido.compareTo(MINIMO_LONG) < 0) {
+            return OptionalLong.empty();
+        }
+        return OptionalLong.of(convertido.longValue());
+    }
+}
@@ -0,0 +1,87 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import java.util.AbstractList;
+import java.util.ConcurrentModificationException;
+
+/**
+ * Vista de solo lectura del histórico de una cuenta, tal como estaba al crearla.
+ *
+ * A diferencia de CuentaBancaria.getMovimientos(), crear la vista no copia
+ * nada: cada get(i) reconstruye solo el movimiento pedido. Para mirar los
+ * últimos 10 movimientos basta con subList(size() - 10, size()), sin pasar
+ * por los otros 990.
+ *
+ * VERSIÓN:
+ * Los movimientos de un histórico se numeran en orden de llegada (0, 1, 2...).
+ * La vista fija al crearse qué números contiene: los que se añadan después no
+ * aparecen, de modo que su tamaño y su contenido no cambian. Si alguno de esos
+ * movimientos se descarta porque el histórico se ha llenado, leerlo lanza
+ * ConcurrentModificationException (estaVigente() permite comprobarlo antes).
+ *
+ * COSTE: con HistoricoEnMemoria cada get(i) es O(1). Con AlmacenMovimientos el
+ * coste crece con la distancia al movimiento más reciente (se recorre la lista
+ * de filas de la cuenta hacia atrás), así que para recorrer el histórico
+ * entero es mejor getMovimientos().
+ *
+ * Como toda AbstractList sin métodos de modificación, add, set y remove lanzan
+ * UnsupportedOperationException.
+ *
+ * @author Diego Gómez Sánchez
+ */
+public final class VistaMovimientos extends AbstractList<Movimiento> {
+
+    private final HistoricoMovimientos historico;
+
+    /**
+     * Número del primer movimiento de la vista.
+     */
+    private final long primero;
+
+    private final int tamano;
+
+    VistaMovimientos(HistoricoMovimientos historico, long primero, int tamano) {
+        this.historico = historico;
+        this.primero = primero;
+        this.tamano = tamano;
+    }
+
+    /**
+     * @param indice posición en la vista (0 = el más antiguo)
+     * @return el movimiento en esa posición
+     * @throws IndexOutOfBoundsException si el índice no está en la vista
+     * @throws ConcurrentModificationException si el movimiento ya se descartó
+     */
+    @Override
+    public Movimiento get(int indice) {
+        if (indice < 0 || indice >= tamano) {
+            throw new IndexOutOfBoundsException("Índice " + indice + " fuera de la vista (tamaño "
+                                                + tamano + ")");
+        }
+
+        Movimiento mov = historico.leer(primero + indice);
+        if (mov == null) {
+            throw new ConcurrentModificationException(
+                    "El movimiento ya se ha descartado del histórico");
+        }
+        return mov;
+    }
+
+    @Override
+    public int size() {
+        return tamano;
+    }
+
+    /**
+     * @return movimientos añadidos al histórico hasta que se creó la vista
+     */
+    public long getVersion() {
+        return primero + tamano;
+    }
+
+    /**
+     * @return true si el histórico conserva todavía todos los movimientos de la vista
+     */
+    public boolean estaVigente() {
+        return tamano == 0 || historico.leer(primero) != null;
+    }
+}
@@ -4,7 +4,18 @@ import es.ujaen.ssccdd2026.banco.Constantes;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.io.TempDir;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import java.nio.file.Path;
+import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -19,9 +30,13 @@ import static org.junit.jupiter.api.Assertions.*;
  *
  * COBERTURA DE TESTS AVANZADOS:
  * - Movimiento: 2 tests (validaciones exhaustivas)
- * - CuentaBancaria: 3 tests (límite histórico, múltiples divisas)
- * - GestorCuentas: 5 tests (transferencias, validaciones complejas)
- * Total: 10 tests avanzados
+ * - CuentaBancaria: 6 tests (límite histórico, orden del histórico, múltiples divisas,
+ *   consulta por intervalo de tiempo, vistas sin copia)
+ * - GestorCuentas: 17 tests (transferencias, validaciones complejas, lotes, límites diarios,
+ *   cambio de divisa, índices secundarios, resumen del banco, reintentos idempotentes,
+ *   métricas, eventos JFR, resultados detallados, flujo de movimientos, detector de fraude)
+ * - AlmacenMovimientos: 2 tests (históricos fuera del heap, recorridos)
+ * Total: 27 tests avanzados
  *
  * ESTOS TESTS DEBEN PASARSE DESPUÉS DE LOS TESTS BÁSICOS.
  * Si estos tests fallan pero los básicos pasan, revisa:
@@ -120,6 +135,15 @@ public class TestAvanzados {
             assertFalse(new Movimiento(Instant.now(), Constantes.TipoMovimiento.CAMBIO_DIVISA,
                             1000L, Constantes.Divisa.EUR, "Test", 0L).esDebito(),
                     "CAMBIO_DIVISA debe ser crédito");
+
+            // La salida de un cambio de divisa indica el sentido al crearla
+            assertTrue(new Movimiento(Instant.now(), Constantes.TipoMovimiento.CAMBIO_DIVISA,
+                            1000L, Constantes.Divisa.EUR, "Test", 0L, null, true).esDebito(),
+                    "La salida de un cambio de divisa debe ser débito");
+
+            assertThrows(IllegalArgumentException.class, () ->
+                    new Movimiento(Instant.now(), Constantes.TipoMovimiento.INGRESO,
+                            1000L, Constantes.Divisa.EUR, "Test", 0L, null, true));
         }
     }
 
@@ -173,6 +197,36 @@ public class TestAvanzados {
                     "El saldo debe incluir todos los movimientos, no solo los del histórico");
         }
 
+        @Test
+        @DisplayName("2.1b. Orden cronológico del histórico tras dar la vuelta")
+        void testOrdenHistoricoCircular() {
+            /*
+             * OBJETIVO: Verificar que, una vez superado el límite, getMovimientos()
+             * sigue devolviendo los movimientos del más antiguo al más reciente
+             * y que los más antiguos son los que se han descartado.
+             */
+
+            CuentaBancaria cuenta = new CuentaBancaria(
+                    "ES1234567890123456789012", "Test", Constantes.TipoCuenta.CORRIENTE
+            );
+
+            int extra = 37;
+            for (int i = 0; i < Constantes.MAX_MOVIMIENTOS_HISTORICO + extra; i++) {
+                cuenta.registrarMovimiento(new Movimiento(
+                        Instant.now(), Constantes.TipoMovimiento.INGRESO,
+                        100L, Constantes.Divisa.EUR, "Movimiento " + i, 0L
+                ));
+            }
+
+            List<Movimiento> movimientos = cuenta.getMovimientos();
+            assertEquals(Constantes.MAX_MOVIMIENTOS_HISTORICO, movimientos.size());
+            assertEquals("Movimiento " + extra, movimientos.get(0).getDescripcion(),
+                    "El más antiguo conservado debe ser el primero no descartado");
+            assertEquals("Movimiento " + (Constantes.MAX_MOVIMIENTOS_HISTORICO + extra - 1),
+                    movimientos.get(movimientos.size() - 1).getDescripcion(),
+                    "El último debe ser el más reciente");
+        }
+
         @Test
         @DisplayName("2.2. Gestión de múltiples divisas")
         void testMultiplesDivisas() {
@@ -241,6 +295,125 @@ public class TestAvanzados {
                 new CuentaBancaria("ES1234567890123456789012", "Test", null);
             }, "Tipo null debe lanzar excepción");
         }
+
+        @Test
+        @DisplayName("2.4. Consulta del histórico por intervalo de tiempo")
+        void testMovimientosEntre() {
+            /*
+             * OBJETIVO: Verificar que getMovimientos(desde, hasta, ...) devuelve
+             * solo los movimientos de [desde, hasta) con el tipo y la divisa
+             * pedidos, también si alguno llegó fuera de orden, tanto con el
+             * histórico en memoria como con el almacén fuera del heap.
+             */
+            GestorCuentas gestorAlmacen = new GestorCuentas(new AlmacenMovimientos(1000, 1, 8, 50,
+                    new DiccionarioDescripciones(100)));
+            gestorAlmacen.crearCuenta("ES2222222222222222222222", "Test",
+                    Constantes.TipoCuenta.CORRIENTE);
+            List<CuentaBancaria> cuentas = List.of(
+                    new CuentaBancaria("ES1111111111111111111111", "Test",
+                            Constantes.TipoCuenta.CORRIENTE),
+                    gestorAlmacen.buscarCuenta("ES2222222222222222222222").get());
+
+            Instant t0 = Instant.parse("2026-03-01T10:00:00Z");
+            for (CuentaBancaria cuenta : cuentas) {
+                // Un movimiento por minuto: pares ingresos, impares retiradas
+                for (int i = 0; i < 10; i++) {
+                    cuenta.registrarMovimiento(new Movimiento(t0.plusSeconds(60L * i),
+                            i % 2 == 0 ? Constantes.TipoMovimiento.INGRESO
+                                       : Constantes.TipoMovimiento.RETIRADA,
+                            100L, Constantes.Divisa.EUR, "M" + i, 0L));
+                }
+                // Llega el último, pero con un instante anterior (como con varios hilos)
+                cuenta.registrarMovimiento(new Movimiento(t0.plusSeconds(150),
+                        Constantes.TipoMovimiento.INGRESO, 100L, Constantes.Divisa.USD,
+                        "Tardío", 0L));
+
+                assertEquals(List.of("M2", "M3", "M4", "Tardío"),
+                        descripciones(cuenta.getMovimientos(t0.plusSeconds(120),
+                                t0.plusSeconds(300))));
+                assertEquals(List.of("M2", "M4", "Tardío"),
+                        descripciones(cuenta.getMovimientos(t0.plusSeconds(120),
+                                t0.plusSeconds(300), Constantes.TipoMovimiento.INGRESO, null)));
+                assertEquals(List.of("Tardío"),
+                        descripciones(cuenta.getMovimientos(t0, t0.plusSeconds(600),
+                                Constantes.TipoMovimiento.INGRESO, Constantes.Divisa.USD)));
+                assertEquals(List.of("M9"),
+                        descripciones(cuenta.getMovimientos(t0.plusSeconds(540),
+                                t0.plusSeconds(600))));
+
+                assertTrue(cuenta.getMovimientos(t0.minusSeconds(3600), t0).isEmpty(),
+                        "El final del intervalo está excluido");
+                assertTrue(cuenta.getMovimientos(t0.plusSeconds(300), t0).isEmpty());
+                assertEquals(11, cuenta.getMovimientos(Instant.MIN, Instant.MAX).size());
+                assertThrows(IllegalArgumentException.class, () ->
+                        cuenta.getMovimientos(null, t0));
+            }
+        }
+
+        @Test
+        @DisplayName("2.5. Vistas de solo lectura del histórico y saldos sin copias")
+        void testVistasSinCopia() {
+            /*
+             * OBJETIVO: Verificar que getVistaMovimientos() fija el histórico al
+             * crearse, no permite modificarlo y detecta los movimientos descartados,
+             * y que copiarSaldos rellena el array del llamante.
+             */
+            CuentaBancaria cuenta = new CuentaBancaria("ES1111111111111111111111", "Test",
+                    Constantes.TipoCuenta.CORRIENTE);
+            for (int i = 0; i < 3; i++) {
+                cuenta.registrarMovimiento(new Movimiento(Instant.now(),
+                        Constantes.TipoMovimiento.INGRESO, 100L, Constantes.Divisa.EUR, "M" + i, 0L));
+            }
+
+            VistaMovimientos vista = cuenta.getVistaMovimientos();
+            cuenta.registrarMovimiento(new Movimiento(Instant.now(),
+                    Constantes.TipoMovimiento.INGRESO, 50L, Constantes.Divisa.USD, "M3", 0L));
+            assertEquals(3, vista.size(), "La vista no ve los movimientos posteriores");
+            assertEquals(3L, vista.getVersion());
+            assertEquals("M2", vista.get(2).getDescripcion());
+            assertEquals(List.of("M1", "M2"), descripciones(vista.subList(1, 3)));
+            assertThrows(IndexOutOfBoundsException.class, () -> vista.get(3));
+            assertThrows(UnsupportedOperationException.class, () -> vista.add(vista.get(0)));
+            assertEquals(4, cuenta.getVistaMovimientos().size());
+
+            long[] saldos = new long[Constantes.Divisa.values().length];
+            int mascara = cuenta.copiarSaldos(saldos);
+            assertEquals(300L, saldos[Constantes.Divisa.EUR.ordinal()]);
+            assertEquals(50L, saldos[Constantes.Divisa.USD.ordinal()]);
+            assertEquals((1 << Constantes.Divisa.EUR.ordinal()) | (1 << Constantes.Divisa.USD.ordinal()),
+                    mascara);
+            assertThrows(IllegalArgumentException.class, () -> cuenta.copiarSaldos(new long[1]));
+
+            // Al llenarse el histórico, la vista antigua deja de estar vigente
+            for (int i = 0; i < Constantes.MAX_MOVIMIENTOS_HISTORICO; i++) {
+                cuenta.registrarMovimiento(new Movimiento(Instant.now(),
+                        Constantes.TipoMovimiento.INGRESO, 1L, Constantes.Divisa.EUR, "Relleno", 0L));
+            }
+            assertFalse(vista.estaVigente());
+            assertThrows(ConcurrentModificationException.class, () -> vista.get(0));
+
+            // Vista sobre el almacén fuera del heap (5 movimientos por cuenta)
+            GestorCuentas gestor = new GestorCuentas(new AlmacenMovimientos(1000, 1, 8, 5,
+                    new DiccionarioDescripciones(100)));
+            String iban = "ES2222222222222222222222";
+            gestor.crearCuenta(iban, "Test", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(iban);
+            for (int i = 1; i <= 7; i++) {
+                gestor.realizarIngreso(iban, i, Constantes.Divisa.EUR, "A" + i);
+            }
+            VistaMovimientos vistaAlmacen = gestor.buscarCuenta(iban).get().getVistaMovimientos();
+            assertEquals(5, vistaAlmacen.size());
+            assertEquals(List.of("A3", "A4", "A5", "A6", "A7"), descripciones(vistaAlmacen));
+            assertTrue(vistaAlmacen.estaVigente());
+        }
+
+        private List<String> descripciones(List<Movimiento> movimientos) {
+            List<String> resultado = new ArrayList<>();
+            for (Movimiento mov : movimientos) {
+                resultado.add(mov.getDescripcion());
+            }
+            return resultado;
+        }
     }
 
 
@@ -449,5 +622,834 @@ public class TestAvanzados {
             assertEquals(5000L, cuenta.getSaldo(Constantes.Divisa.EUR),
                     "El saldo no debe haber cambiado");
         }
+
+        @Test
+        @DisplayName("3.6. Lote de operaciones con resultado por operación")
+        void testLoteOperaciones() {
+            GestorCuentas gestor = new GestorCuentas();
+            String ibanA = "ES1111111111111111111111";
+            String ibanB = "ES2222222222222222222222";
+            String ibanC = "ES3333333333333333333333";
+            gestor.crearCuenta(ibanA, "Ana", Constantes.TipoCuenta.CORRIENTE);
+            gestor.crearCuenta(ibanB, "Bruno", Constantes.TipoCuenta.CORRIENTE);
+            gestor.crearCuenta(ibanC, "Carla", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(ibanA);
+            gestor.activarCuenta(ibanB);
+            // C queda pendiente de activación
+
+            boolean[] resultados = gestor.realizarLote(List.of(
+                    OperacionLote.ingreso(ibanA, 10000L, Constantes.Divisa.EUR, "Nómina"),
+                    OperacionLote.transferencia(ibanB, ibanA, 500L, Constantes.Divisa.EUR,
+                            "Sin saldo", Constantes.TipoComision.NINGUNA),
+                    OperacionLote.transferencia(ibanA, ibanB, 3000L, Constantes.Divisa.EUR,
+                            "Pago", Constantes.TipoComision.TRANSFERENCIA_OTRA_ENTIDAD),
+                    OperacionLote.retirada(ibanA, 2000L, Constantes.Divisa.EUR, "Cajero",
+                            Constantes.TipoComision.NINGUNA),
+                    OperacionLote.ingreso(ibanC, 100L, Constantes.Divisa.EUR, "Inactiva"),
+                    OperacionLote.ingreso("ES0000000000000000000000", 100L,
+                            Constantes.Divisa.EUR, "No existe"),
+                    OperacionLote.ingreso(ibanB, 0L, Constantes.Divisa.EUR, "Cantidad 0")));
+
+            assertArrayEquals(new boolean[]{true, false, true, true, false, false, false},
+                    resultados);
+
+            // A: 10000 - 2000 (retirada) - 3000 - 15 (transferencia con comisión)
+            assertEquals(4985L, gestor.buscarCuenta(ibanA).get().getSaldo(Constantes.Divisa.EUR));
+            assertEquals(3000L, gestor.buscarCuenta(ibanB).get().getSaldo(Constantes.Divisa.EUR));
+            assertEquals(0, gestor.buscarCuenta(ibanC).get().getNumeroMovimientos());
+        }
+
+        @Test
+        @DisplayName("3.6b. Lote que respeta el orden de las operaciones de cada cuenta")
+        void testLoteOrdenPorCuenta() {
+            GestorCuentas gestor = new GestorCuentas();
+            String ibanA = "ES1111111111111111111111";
+            String ibanB = "ES2222222222222222222222";
+            gestor.crearCuenta(ibanA, "Ana", Constantes.TipoCuenta.CORRIENTE);
+            gestor.crearCuenta(ibanB, "Bruno", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(ibanA);
+            gestor.activarCuenta(ibanB);
+
+            // Las retiradas de A dependen de la transferencia que la precede
+            boolean[] resultados = gestor.realizarLote(List.of(
+                    OperacionLote.retirada(ibanA, 100L, Constantes.Divisa.EUR, "Antes",
+                            Constantes.TipoComision.NINGUNA),
+                    OperacionLote.ingreso(ibanB, 5000L, Constantes.Divisa.EUR, "Nómina"),
+                    OperacionLote.transferencia(ibanB, ibanA, 3000L, Constantes.Divisa.EUR,
+                            "Pago", Constantes.TipoComision.NINGUNA),
+                    OperacionLote.retirada(ibanA, 2000L, Constantes.Divisa.EUR, "Cajero",
+                            Constantes.TipoComision.NINGUNA),
+                    OperacionLote.transferencia(ibanA, ibanB, 1000L, Constantes.Divisa.EUR,
+                            "Devolución", Constantes.TipoComision.NINGUNA),
+                    OperacionLote.retirada(ibanA, 1L, Constantes.Divisa.EUR, "Sin saldo",
+                            Constantes.TipoComision.NINGUNA)));
+
+            assertArrayEquals(new boolean[]{false, true, true, true, true, false}, resultados);
+            CuentaBancaria cuentaA = gestor.buscarCuenta(ibanA).get();
+            assertEquals(0L, cuentaA.getSaldo(Constantes.Divisa.EUR));
+            assertEquals(3000L, gestor.buscarCuenta(ibanB).get().getSaldo(Constantes.Divisa.EUR));
+
+            // El histórico de A sigue el orden del lote, con instantes no decrecientes
+            List<Movimiento> historico = cuentaA.getMovimientos();
+            assertEquals(List.of(Constantes.TipoMovimiento.TRANSFERENCIA_RECIBIDA,
+                            Constantes.TipoMovimiento.RETIRADA,
+                            Constantes.TipoMovimiento.TRANSFERENCIA_ENVIADA),
+                    historico.stream().map(Movimiento::getTipo).toList());
+            for (int i = 1; i < historico.size(); i++) {
+                assertFalse(historico.get(i).getInstante()
+                        .isBefore(historico.get(i - 1).getInstante()));
+            }
+        }
+
+        @Test
+        @DisplayName("3.7. Límite diario de transferencias enviadas con ventana de 24 horas")
+        void testLimiteDiario() {
+            /*
+             * OBJETIVO: Verificar que las transferencias enviadas no superan el
+             * límite diario, que una operación rechazada por saldo no consume
+             * límite, que el límite se aplica en euros a todas las divisas y que
+             * los importes salen de la ventana pasadas 24 horas.
+             */
+            GestorCuentas gestor = new GestorCuentas();
+            String ibanA = "ES1111111111111111111111";
+            String ibanB = "ES2222222222222222222222";
+            gestor.crearCuenta(ibanA, "Ana", Constantes.TipoCuenta.CORRIENTE);
+            gestor.crearCuenta(ibanB, "Bruno", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(ibanA);
+            gestor.activarCuenta(ibanB);
+
+            long limite = Constantes.TipoMovimiento.TRANSFERENCIA_ENVIADA.getLimiteDiario();
+            gestor.realizarIngreso(ibanA, limite - 1000L, Constantes.Divisa.EUR, "Inicial");
+
+            // Sin saldo suficiente: se rechaza y no cuenta para el límite
+            assertFalse(gestor.realizarTransferencia(ibanA, ibanB, limite, Constantes.Divisa.EUR,
+                    "Pago", Constantes.TipoComision.NINGUNA));
+            CuentaBancaria cuentaA = gestor.buscarCuenta(ibanA).get();
+            assertEquals(0L, cuentaA.getAcumuladoDiario(
+                    Constantes.TipoMovimiento.TRANSFERENCIA_ENVIADA));
+
+            gestor.realizarIngreso(ibanA, 10000L, Constantes.Divisa.EUR, "Más saldo");
+            assertTrue(gestor.realizarTransferencia(ibanA, ibanB, limite - 100L,
+                    Constantes.Divisa.EUR, "Pago", Constantes.TipoComision.NINGUNA));
+            assertFalse(gestor.realizarTransferencia(ibanA, ibanB, 101L, Constantes.Divisa.EUR,
+                    "Pago", Constantes.TipoComision.NINGUNA), "Superaría el límite diario");
+            assertTrue(gestor.realizarTransferencia(ibanA, ibanB, 100L, Constantes.Divisa.EUR,
+                    "Pago", Constantes.TipoComision.NINGUNA), "Justo en el límite");
+            // El límite es en euros: los dólares cuentan en el mismo acumulado que
+            // los euros, por su valor nominal mientras no tengan cotización
+            gestor.realizarIngreso(ibanA, 500L, Constantes.Divisa.USD, "Dólares");
+            ResultadoOperacion resultado = new ResultadoOperacion();
+            assertFalse(gestor.realizarTransferencia(ibanA, ibanB, 500L, Constantes.Divisa.USD,
+                    "Pago", Constantes.TipoComision.NINGUNA, resultado));
+            assertEquals(Constantes.MotivoRechazo.LIMITE_DIARIO_SUPERADO, resultado.getMotivo());
+
+            gestor.realizarIngreso(ibanB, 2270L, Constantes.Divisa.USD, "Dólares");
+            assertTrue(gestor.realizarRetirada(ibanB, 100L, Constantes.Divisa.USD, "Cajero",
+                    Constantes.TipoComision.NINGUNA), "Sin cotización no se bloquea");
+            assertTrue(gestor.realizarTransferencia(ibanB, ibanA, 1085L, Constantes.Divisa.USD,
+                    "Pago", Constantes.TipoComision.NINGUNA));
+            CuentaBancaria cuentaB = gestor.buscarCuenta(ibanB).get();
+            assertEquals(100L, cuentaB.getAcumuladoDiario(Constantes.TipoMovimiento.RETIRADA));
+            assertEquals(1085L, cuentaB.getAcumuladoDiario(
+                    Constantes.TipoMovimiento.TRANSFERENCIA_ENVIADA), "Valor nominal");
+            gestor.getTablaCambios().actualizar(Constantes.Divisa.USD, new BigDecimal("1.0850"));
+            assertTrue(gestor.realizarTransferencia(ibanB, ibanA, 1085L, Constantes.Divisa.USD,
+                    "Pago", Constantes.TipoComision.NINGUNA));
+            assertEquals(1085L + 1000L, cuentaB.getAcumuladoDiario(
+                    Constantes.TipoMovimiento.TRANSFERENCIA_ENVIADA), "Acumulado en euros");
+
+            // La ventana desliza por horas
+            LimitesDiarios limites = new LimitesDiarios();
+            Instant t0 = Instant.parse("2026-01-01T10:15:00Z");
+            Constantes.TipoMovimiento retirada = Constantes.TipoMovimiento.RETIRADA;
+            long limiteRetirada = retirada.getLimiteDiario();
+            assertTrue(limites.reservar(retirada, limiteRetirada, t0));
+            assertFalse(limites.reservar(retirada, 1L,
+                    t0.plusSeconds(23 * 3600)));
+            assertTrue(limites.reservar(retirada, 1L,
+                    t0.plusSeconds(24 * 3600)), "Pasadas 24 horas el importe sale de la ventana");
+            assertEquals(1L, limites.getAcumulado(retirada, t0.plusSeconds(24 * 3600)));
+        }
+
+        @Test
+        @DisplayName("3.8. Cambio de divisa con comisión y redondeo al céntimo")
+        void testCambioDivisa() {
+            /*
+             * OBJETIVO: Verificar que cambiarDivisa debita la divisa origen
+             * (cantidad + comisión de cambio), abona el importe convertido en la
+             * divisa destino y rechaza los cambios sin cotización o sin saldo.
+             */
+            GestorCuentas gestor = new GestorCuentas();
+            String iban = "ES1111111111111111111111";
+            gestor.crearCuenta(iban, "Ana", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(iban);
+            gestor.realizarIngreso(iban, 100000L, Constantes.Divisa.EUR, "Inicial");
+
+            // Sin cotización para USD todavía
+            assertFalse(gestor.cambiarDivisa(iban, 10000L, Constantes.Divisa.EUR,
+                    Constantes.Divisa.USD));
+            assertFalse(gestor.cambiarDivisa(iban, 10000L, Constantes.Divisa.EUR,
+                    Constantes.Divisa.EUR), "Las divisas deben ser distintas");
+
+            gestor.getTablaCambios().actualizar(Constantes.Divisa.USD, new BigDecimal("1.0850"));
+            assertTrue(gestor.cambiarDivisa(iban, 10000L, Constantes.Divisa.EUR,
+                    Constantes.Divisa.USD));
+
+            // 10000 * 0,75% = 75 céntimos de comisión; 10000 * 1,0850 = 10850
+            CuentaBancaria cuenta = gestor.buscarCuenta(iban).get();
+            assertEquals(100000L - 10000L - 75L, cuenta.getSaldo(Constantes.Divisa.EUR));
+            assertEquals(10850L, cuenta.getSaldo(Constantes.Divisa.USD));
+            assertEquals(3, cuenta.getNumeroMovimientos());
+
+            // Vuelta a euros: 333 / 1,0850 = 306,91... -> 307 (HALF_EVEN)
+            assertEquals(307L, gestor.getTablaCambios().convertir(333L, Constantes.Divisa.USD,
+                    Constantes.Divisa.EUR).getAsLong());
+
+            // Sin saldo suficiente en la divisa origen para cantidad + comisión
+            assertFalse(gestor.cambiarDivisa(iban, 10850L, Constantes.Divisa.USD,
+                    Constantes.Divisa.EUR));
+            assertEquals(10850L, cuenta.getSaldo(Constantes.Divisa.USD));
+
+            // Un importe convertido que no cabe en un long se rechaza sin excepción
+            gestor.getTablaCambios().actualizar(Constantes.Divisa.JPY, new BigDecimal("160.25"));
+            assertTrue(gestor.getTablaCambios().convertir(Long.MAX_VALUE / 2,
+                    Constantes.Divisa.EUR, Constantes.Divisa.JPY).isEmpty());
+            ResultadoOperacion resultado = new ResultadoOperacion();
+            assertFalse(gestor.cambiarDivisa(iban, Long.MAX_VALUE / 2, Constantes.Divisa.EUR,
+                    Constantes.Divisa.JPY, resultado));
+            assertEquals(Constantes.MotivoRechazo.CAMBIO_NO_DISPONIBLE, resultado.getMotivo());
+            assertEquals(100000L - 10000L - 75L, cuenta.getSaldo(Constantes.Divisa.EUR));
+
+            assertThrows(IllegalArgumentException.class, () ->
+                    gestor.getTablaCambios().actualizar(Constantes.Divisa.EUR, BigDecimal.TEN));
+        }
+
+        @Test
+        @DisplayName("3.9. Índices secundarios por estado, tipo y titular")
+        void testIndicesSecundarios() {
+            /*
+             * OBJETIVO: Verificar que las consultas por estado, tipo y titular
+             * devuelven exactamente las cuentas correspondientes y se
+             * mantienen al día con los cambios de estado.
+             */
+            GestorCuentas gestor = new GestorCuentas();
+            String ibanA = "ES1111111111111111111111";
+            String ibanB = "ES2222222222222222222222";
+            String ibanC = "ES3333333333333333333333";
+            gestor.crearCuenta(ibanA, "Ana", Constantes.TipoCuenta.EMPRESA);
+            gestor.crearCuenta(ibanB, "Ana", Constantes.TipoCuenta.AHORRO);
+            gestor.crearCuenta(ibanC, "Bruno", Constantes.TipoCuenta.EMPRESA);
+
+            assertEquals(3, gestor.buscarPorEstado(
+                    Constantes.EstadoCuenta.PENDIENTE_ACTIVACION).size());
+            assertTrue(gestor.buscarPorEstado(Constantes.EstadoCuenta.ACTIVA).isEmpty());
+
+            gestor.activarCuenta(ibanA);
+            gestor.activarCuenta(ibanB);
+            gestor.bloquearCuenta(ibanB);
+            CuentaBancaria cuentaC = gestor.buscarCuenta(ibanC).get();
+            cuentaC.setEstado(Constantes.EstadoCuenta.CANCELADA);
+
+            assertEquals(List.of(gestor.buscarCuenta(ibanA).get()),
+                    gestor.buscarPorEstado(Constantes.EstadoCuenta.ACTIVA));
+            assertEquals(List.of(gestor.buscarCuenta(ibanB).get()),
+                    gestor.buscarPorEstado(Constantes.EstadoCuenta.BLOQUEADA));
+            assertEquals(List.of(cuentaC),
+                    gestor.buscarPorEstado(Constantes.EstadoCuenta.CANCELADA));
+            assertTrue(gestor.buscarPorEstado(
+                    Constantes.EstadoCuenta.PENDIENTE_ACTIVACION).isEmpty());
+
+            assertEquals(2, gestor.buscarPorTipo(Constantes.TipoCuenta.EMPRESA).size());
+            assertTrue(gestor.buscarPorTipo(Constantes.TipoCuenta.NOMINA).isEmpty());
+            assertEquals(2, gestor.buscarPorTitular("Ana").size());
+            assertEquals(List.of(cuentaC), gestor.buscarPorTitular("Bruno"));
+            assertTrue(gestor.buscarPorTitular("Nadie").isEmpty());
+
+            // Una cuenta que no pertenece a ningún gestor no aparece en sus índices
+            new CuentaBancaria("ES4444444444444444444444", "Ana",
+                    Constantes.TipoCuenta.EMPRESA).setEstado(Constantes.EstadoCuenta.ACTIVA);
+            assertEquals(1, gestor.buscarPorEstado(Constantes.EstadoCuenta.ACTIVA).size());
+        }
+
+        @Test
+        @DisplayName("3.10. Resumen de todo el banco calculado en paralelo")
+        void testResumenBanco() {
+            /*
+             * OBJETIVO: Verificar que calcularResumen obtiene los mismos totales
+             * que un recorrido secuencial de las cuentas y sus históricos.
+             */
+            GestorCuentas gestor = new GestorCuentas();
+            for (int i = 0; i < 2000; i++) {
+                String iban = String.format("ES%022d", i);
+                gestor.crearCuenta(iban, "Titular " + i, i % 2 == 0
+                        ? Constantes.TipoCuenta.AHORRO : Constantes.TipoCuenta.CORRIENTE);
+                if (i % 10 == 0) {
+                    continue;
+                }
+                gestor.activarCuenta(iban);
+                gestor.realizarIngreso(iban, 1000L, Constantes.Divisa.EUR, "Ingreso");
+                if (i % 4 == 1) {
+                    gestor.realizarRetirada(iban, 100L, Constantes.Divisa.EUR, "Cajero",
+                            Constantes.TipoComision.RETIRADA_CAJERO_EXTERNO);
+                }
+                if (i % 7 == 0) {
+                    gestor.realizarIngreso(iban, 5L, Constantes.Divisa.USD, "Dólares");
+                }
+            }
+
+            // Totales esperados con un recorrido secuencial
+            long saldoEur = 0;
+            long comisionesCajero = 0;
+            long retiradas = 0;
+            for (CuentaBancaria cuenta : gestor.getCuentas()) {
+                saldoEur += cuenta.getSaldo(Constantes.Divisa.EUR);
+                for (Movimiento mov : cuenta.getMovimientos()) {
+                    if (mov.getTipo() == Constantes.TipoMovimiento.RETIRADA) {
+                        retiradas++;
+                        comisionesCajero += mov.getComision();
+                    }
+                }
+            }
+
+            ResumenBanco resumen = gestor.calcularResumen();
+            assertEquals(saldoEur, resumen.getSaldoTotal(Constantes.Divisa.EUR));
+            assertEquals(5L * 257, resumen.getSaldoTotal(Constantes.Divisa.USD));
+            assertEquals(comisionesCajero, resumen.getComisiones(Constantes.Divisa.EUR,
+                    Constantes.TipoComision.RETIRADA_CAJERO_EXTERNO));
+            assertTrue(comisionesCajero > 0);
+            assertEquals(0L, resumen.getComisiones(Constantes.Divisa.USD)
+                    .get(Constantes.TipoComision.RETIRADA_CAJERO_EXTERNO));
+            assertEquals(retiradas, resumen.getNumMovimientos(Constantes.TipoMovimiento.RETIRADA));
+            assertEquals(1800L + 257, resumen.getNumMovimientos(Constantes.TipoMovimiento.INGRESO));
+            assertEquals(1800L, resumen.getNumCuentas(Constantes.EstadoCuenta.ACTIVA));
+            assertEquals(200L, resumen.getNumCuentas(Constantes.EstadoCuenta.PENDIENTE_ACTIVACION));
+            assertEquals(1000L, resumen.getNumCuentas(Constantes.TipoCuenta.AHORRO));
+            assertEquals(0L, resumen.getNumCuentas(Constantes.TipoCuenta.EMPRESA));
+        }
+
+        @Test
+        @DisplayName("3.11. Reintentos con el mismo identificador de petición")
+        void testIdempotencia() {
+            /*
+             * OBJETIVO: Verificar que un reintento con el mismo identificador
+             * devuelve el resultado original sin repetir la operación.
+             */
+            GestorCuentas gestor = new GestorCuentas();
+            String origen = "ES1111111111111111111111";
+            String destino = "ES2222222222222222222222";
+            Optional<CuentaBancaria> creada = gestor.crearCuenta("alta-1", origen, "Ana",
+                    Constantes.TipoCuenta.CORRIENTE);
+            assertTrue(creada.isPresent());
+            assertSame(creada.get(), gestor.crearCuenta("alta-1", origen, "Ana",
+                    Constantes.TipoCuenta.CORRIENTE).get());
+            gestor.crearCuenta(destino, "Luis", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(origen);
+            gestor.activarCuenta(destino);
+            gestor.realizarIngreso("ing-1", origen, 10000L, Constantes.Divisa.EUR, "Nómina");
+            gestor.realizarIngreso("ing-1", origen, 10000L, Constantes.Divisa.EUR, "Nómina");
+            assertEquals(10000L, gestor.buscarCuenta(origen).get().getSaldo(Constantes.Divisa.EUR));
+
+            // La transferencia reintentada mueve el dinero una sola vez
+            for (int i = 0; i < 3; i++) {
+                assertTrue(gestor.realizarTransferencia("tr-1", origen, destino, 4000L,
+                        Constantes.Divisa.EUR, "Alquiler", Constantes.TipoComision.NINGUNA));
+            }
+            assertEquals(6000L, gestor.buscarCuenta(origen).get().getSaldo(Constantes.Divisa.EUR));
+            assertEquals(4000L, gestor.buscarCuenta(destino).get().getSaldo(Constantes.Divisa.EUR));
+
+            // Un rechazo también se recuerda: el reintento no se reevalúa
+            assertFalse(gestor.realizarRetirada("ret-1", destino, 5000L, Constantes.Divisa.EUR,
+                    "Cajero", Constantes.TipoComision.NINGUNA));
+            gestor.realizarIngreso(destino, 5000L, Constantes.Divisa.EUR, "Ingreso");
+            assertFalse(gestor.realizarRetirada("ret-1", destino, 5000L, Constantes.Divisa.EUR,
+                    "Cajero", Constantes.TipoComision.NINGUNA));
+            assertEquals(9000L, gestor.buscarCuenta(destino).get().getSaldo(Constantes.Divisa.EUR));
+
+            // El lote entero es una petición
+            List<OperacionLote> lote = List.of(
+                    OperacionLote.ingreso(origen, 100L, Constantes.Divisa.EUR, "Lote"),
+                    OperacionLote.retirada(origen, 1_000_000L, Constantes.Divisa.EUR, "Lote",
+                            Constantes.TipoComision.NINGUNA));
+            boolean[] resultados = gestor.realizarLote("lote-1", lote);
+            resultados[0] = false;
+            assertArrayEquals(new boolean[]{true, false}, gestor.realizarLote("lote-1", lote));
+            assertEquals(6100L, gestor.buscarCuenta(origen).get().getSaldo(Constantes.Divisa.EUR));
+
+            // Reutilizar un identificador para otra operación es un error
+            assertThrows(IllegalArgumentException.class, () -> gestor.realizarIngreso("tr-1",
+                    origen, 1L, Constantes.Divisa.EUR, "Otro"));
+
+            // Sin identificador no hay deduplicación
+            gestor.realizarIngreso(null, origen, 100L, Constantes.Divisa.EUR, "Sin id");
+            gestor.realizarIngreso(null, origen, 100L, Constantes.Divisa.EUR, "Sin id");
+            assertEquals(6300L, gestor.buscarCuenta(origen).get().getSaldo(Constantes.Divisa.EUR));
+        }
+
+        @Test
+        @DisplayName("3.12. Métricas de latencia y rechazos por motivo")
+        void testMetricas() {
+            /*
+             * OBJETIVO: Verificar que cada rechazo se cuenta con su motivo y
+             * que los histogramas dan percentiles con el error esperado.
+             */
+            GestorCuentas gestor = new GestorCuentas();
+            String iban = "ES1111111111111111111111";
+            String otra = "ES2222222222222222222222";
+            gestor.crearCuenta(iban, "Ana", Constantes.TipoCuenta.CORRIENTE);
+            gestor.crearCuenta(otra, "Luis", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(iban);
+
+            assertFalse(gestor.realizarIngreso(iban, 0L, Constantes.Divisa.EUR, "Cero"));
+            assertFalse(gestor.realizarIngreso("ES0000000000000000000000", 100L,
+                    Constantes.Divisa.EUR, "Desconocida"));
+            assertFalse(gestor.realizarIngreso(otra, 100L, Constantes.Divisa.EUR, "Inactiva"));
+            assertTrue(gestor.realizarIngreso(iban, 100L, Constantes.Divisa.EUR, "Ingreso"));
+            assertFalse(gestor.realizarRetirada(iban, 500L, Constantes.Divisa.EUR, "Sin saldo",
+                    Constantes.TipoComision.NINGUNA));
+            long limite = Constantes.TipoMovimiento.RETIRADA.getLimiteDiario();
+            assertFalse(gestor.realizarRetirada(iban, limite + 1, Constantes.Divisa.EUR,
+                    "Límite", Constantes.TipoComision.NINGUNA));
+            assertFalse(gestor.realizarTransferencia(iban, otra, 10L, Constantes.Divisa.EUR,
+                    "Inactiva", Constantes.TipoComision.NINGUNA));
+            assertFalse(gestor.cambiarDivisa(iban, 100L, Constantes.Divisa.EUR,
+                    Constantes.Divisa.EUR));
+
+            MetricasOperaciones metricas = gestor.getMetricas();
+            MetricasOperaciones.Operacion ingreso = MetricasOperaciones.Operacion.INGRESO;
+            MetricasOperaciones.Operacion retirada = MetricasOperaciones.Operacion.RETIRADA;
+            assertEquals(4, metricas.getLatencias(ingreso).getNumMedidas());
+            assertEquals(1, metricas.getRechazos(ingreso,
+                    Constantes.MotivoRechazo.IMPORTE_NO_VALIDO));
+            assertEquals(1, metricas.getRechazos(ingreso,
+                    Constantes.MotivoRechazo.CUENTA_INEXISTENTE));
+            assertEquals(1, metricas.getRechazos(ingreso,
+                    Constantes.MotivoRechazo.CUENTA_NO_ACTIVA));
+            assertEquals(1, metricas.getRechazos(retirada,
+                    Constantes.MotivoRechazo.SALDO_INSUFICIENTE));
+            assertEquals(1, metricas.getRechazos(retirada,
+                    Constantes.MotivoRechazo.LIMITE_DIARIO_SUPERADO));
+            assertEquals(1, metricas.getRechazos(MetricasOperaciones.Operacion.TRANSFERENCIA,
+                    Constantes.MotivoRechazo.CUENTA_NO_ACTIVA));
+            assertEquals(1, metricas.getRechazos(MetricasOperaciones.Operacion.CAMBIO_DIVISA,
+                    Constantes.MotivoRechazo.CAMBIO_NO_DISPONIBLE));
+            // Las operaciones no cuentan como búsquedas: solo buscarCuenta
+            MetricasOperaciones.Operacion busqueda = MetricasOperaciones.Operacion.BUSQUEDA;
+            assertEquals(0, metricas.getLatencias(busqueda).getNumMedidas());
+            assertTrue(gestor.buscarCuenta(iban).isPresent());
+            assertFalse(gestor.buscarCuenta("ES0000000000000000000000").isPresent());
+            assertEquals(2, metricas.getLatencias(busqueda).getNumMedidas());
+            assertEquals(1, metricas.getRechazos(busqueda,
+                    Constantes.MotivoRechazo.CUENTA_INEXISTENTE));
+            String informe = metricas.volcar();
+            assertTrue(informe.contains("LIMITE_DIARIO_SUPERADO"));
+            assertTrue(informe.contains("Recolección de basura"));
+
+            metricas.reiniciar();
+            assertEquals(0, metricas.getLatencias(ingreso).getNumMedidas());
+            assertEquals(0, metricas.getRechazos(retirada,
+                    Constantes.MotivoRechazo.SALDO_INSUFICIENTE));
+
+            // Percentiles de 1..100000 ns con un error relativo de como mucho 1/8
+            HistogramaLatencias histograma = new HistogramaLatencias();
+            for (long nanos = 1; nanos <= 100_000; nanos++) {
+                histograma.registrar(nanos);
+            }
+            assertEquals(100_000, histograma.getNumMedidas());
+            assertEquals(100_000, histograma.getMaximo());
+            for (double fraccion : new double[]{0.5, 0.99, 0.999}) {
+                double exacto = fraccion * 100_000;
+                long percentil = histograma.getPercentil(fraccion);
+                assertTrue(percentil >= exacto && percentil <= exacto * 1.125,
+                        "p" + fraccion + " = " + percentil);
+            }
+            assertThrows(IllegalArgumentException.class, () -> histograma.getPercentil(1.5));
+        }
+
+        @Test
+        @DisplayName("3.13. Eventos JFR de operaciones y movimientos")
+        void testEventosJfr(@TempDir Path directorio) throws Exception {
+            /*
+             * OBJETIVO: Verificar que, activados en una grabación, se emiten los
+             * eventos con el resultado, el tramo de importe y el hash del IBAN.
+             */
+            GestorCuentas gestor = new GestorCuentas();
+            String iban = "ES1111111111111111111111";
+            gestor.crearCuenta(iban, "Ana", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(iban);
+
+            // Sin grabación no se emite nada (y no falla)
+            gestor.realizarIngreso(iban, 100L, Constantes.Divisa.EUR, "Sin grabar");
+
+            Path fichero = directorio.resolve("banco.jfr");
+            try (Recording grabacion = new Recording()) {
+                grabacion.enable("es.ujaen.banco.Operacion");
+                grabacion.enable("es.ujaen.banco.Movimiento");
+                grabacion.start();
+                gestor.realizarIngreso(iban, 2500L, Constantes.Divisa.EUR, "Nómina");
+                gestor.realizarRetirada(iban, 1_000_000L, Constantes.Divisa.EUR, "Sin saldo",
+                        Constantes.TipoComision.NINGUNA);
+                grabacion.stop();
+                grabacion.dump(fichero);
+            }
+
+            List<RecordedEvent> operaciones = new ArrayList<>();
+            List<RecordedEvent> movimientos = new ArrayList<>();
+            for (RecordedEvent evento : RecordingFile.readAllEvents(fichero)) {
+                String nombre = evento.getEventType().getName();
+                if (nombre.equals("es.ujaen.banco.Operacion")) {
+                    operaciones.add(evento);
+                } else if (nombre.equals("es.ujaen.banco.Movimiento")) {
+                    movimientos.add(evento);
+                }
+            }
+
+            assertEquals(2, operaciones.size());
+            RecordedEvent ingreso = operaciones.get(0).getString("operacion").equals("INGRESO")
+                    ? operaciones.get(0) : operaciones.get(1);
+            RecordedEvent retirada = ingreso == operaciones.get(0)
+                    ? operaciones.get(1) : operaciones.get(0);
+            assertEquals("ACEPTADA", ingreso.getString("resultado"));
+            assertEquals(iban.hashCode(), ingreso.getInt("ibanHash"));
+            assertEquals("EUR", ingreso.getString("divisa"));
+            assertEquals(10_000L, ingreso.getLong("tramoImporte"));
+            assertEquals("SALDO_INSUFICIENTE", retirada.getString("resultado"));
+            assertEquals(1_000_000L, retirada.getLong("tramoImporte"));
+
+            // Solo el ingreso llega a registrar un movimiento
+            assertEquals(1, movimientos.size());
+            assertEquals("INGRESO", movimientos.get(0).getString("tipo"));
+            assertEquals(0, EventosBanco.tramoImporte(0));
+            assertEquals(1, EventosBanco.tramoImporte(1));
+            assertEquals(1000, EventosBanco.tramoImporte(1000));
+            assertEquals(10_000, EventosBanco.tramoImporte(1001));
+        }
+
+        @Test
+        @DisplayName("3.14. Resultado detallado de las operaciones")
+        void testResultadoOperacion() {
+            /*
+             * OBJETIVO: Verificar que el resultado indica el motivo del rechazo,
+             * el saldo resultante y el movimiento generado, y que se puede
+             * reutilizar entre operaciones.
+             */
+            GestorCuentas gestor = new GestorCuentas();
+            String origen = "ES1111111111111111111111";
+            String destino = "ES2222222222222222222222";
+            gestor.crearCuenta(origen, "Ana", Constantes.TipoCuenta.CORRIENTE);
+            gestor.crearCuenta(destino, "Luis", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(origen);
+            ResultadoOperacion resultado = new ResultadoOperacion();
+
+            assertTrue(gestor.realizarIngreso(origen, 10000L, Constantes.Divisa.EUR, "Nómina",
+                    resultado));
+            assertTrue(resultado.isAceptada());
+            assertNull(resultado.getMotivo());
+            assertEquals(10000L, resultado.getSaldo());
+            assertEquals(Constantes.TipoMovimiento.INGRESO, resultado.getMovimiento().getTipo());
+
+            assertTrue(gestor.realizarRetirada(origen, 1000L, Constantes.Divisa.EUR, "Cajero",
+                    Constantes.TipoComision.RETIRADA_CAJERO_EXTERNO, resultado));
+            assertEquals(8990L, resultado.getSaldo());
+            assertEquals(10L, resultado.getMovimiento().getComision());
+
+            // Rechazo por saldo: se informa del saldo que había, sin movimiento
+            assertFalse(gestor.realizarRetirada(origen, 9000L, Constantes.Divisa.EUR, "Cajero",
+                    Constantes.TipoComision.NINGUNA, resultado));
+            assertFalse(resultado.isAceptada());
+            assertEquals(Constantes.MotivoRechazo.SALDO_INSUFICIENTE, resultado.getMotivo());
+            assertEquals(8990L, resultado.getSaldo());
+            assertNull(resultado.getMovimiento());
+
+            // Cuenta destino sin activar: saldo del origen
+            assertFalse(gestor.realizarTransferencia(origen, destino, 100L,
+                    Constantes.Divisa.EUR, "Pago", Constantes.TipoComision.NINGUNA, resultado));
+            assertEquals(Constantes.MotivoRechazo.CUENTA_NO_ACTIVA, resultado.getMotivo());
+            assertEquals(8990L, resultado.getSaldo());
+
+            gestor.activarCuenta(destino);
+            assertTrue(gestor.realizarTransferencia(origen, destino, 990L,
+                    Constantes.Divisa.EUR, "Pago", Constantes.TipoComision.NINGUNA, resultado));
+            assertEquals(8000L, resultado.getSaldo());
+            assertEquals(Constantes.TipoMovimiento.TRANSFERENCIA_ENVIADA,
+                    resultado.getMovimiento().getTipo());
+
+            // IBAN desconocido e importe no válido: saldo desconocido
+            assertFalse(gestor.realizarIngreso("ES0000000000000000000000", 100L,
+                    Constantes.Divisa.EUR, "Nadie", resultado));
+            assertEquals(Constantes.MotivoRechazo.CUENTA_INEXISTENTE, resultado.getMotivo());
+            assertEquals(ResultadoOperacion.SALDO_DESCONOCIDO, resultado.getSaldo());
+            assertFalse(gestor.cambiarDivisa(origen, -5L, Constantes.Divisa.EUR,
+                    Constantes.Divisa.USD, resultado));
+            assertEquals(Constantes.MotivoRechazo.IMPORTE_NO_VALIDO, resultado.getMotivo());
+            assertFalse(gestor.cambiarDivisa(origen, 1000L, Constantes.Divisa.EUR,
+                    Constantes.Divisa.USD, resultado));
+            assertEquals(Constantes.MotivoRechazo.CAMBIO_NO_DISPONIBLE, resultado.getMotivo());
+
+            gestor.getTablaCambios().actualizar(Constantes.Divisa.USD, new BigDecimal("1.0850"));
+            assertTrue(gestor.cambiarDivisa(origen, 1000L, Constantes.Divisa.EUR,
+                    Constantes.Divisa.USD, resultado));
+            assertTrue(resultado.isAceptada());
+            assertEquals(gestor.buscarCuenta(origen).get().getSaldo(Constantes.Divisa.EUR),
+                    resultado.getSaldo());
+            assertEquals(Constantes.Divisa.EUR, resultado.getMovimiento().getDivisa());
+        }
+
+        @Test
+        @DisplayName("3.15. Flujo de movimientos con suscriptores independientes")
+        void testFlujoMovimientos() {
+            /*
+             * OBJETIVO: Verificar que cada suscriptor lee por lotes desde su
+             * propia posición y que un suscriptor que se queda atrás pierde
+             * los movimientos más antiguos sin frenar la publicación.
+             */
+            GestorCuentas gestor = new GestorCuentas();
+            String origen = "ES1111111111111111111111";
+            String destino = "ES2222222222222222222222";
+            gestor.crearCuenta(origen, "Ana", Constantes.TipoCuenta.CORRIENTE);
+            gestor.crearCuenta(destino, "Luis", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(origen);
+            gestor.activarCuenta(destino);
+
+            FlujoMovimientos flujo = gestor.getFlujoMovimientos();
+            FlujoMovimientos.Suscripcion fraude = flujo.suscribir();
+            gestor.realizarIngreso(origen, 5000L, Constantes.Divisa.EUR, "Nómina");
+            FlujoMovimientos.Suscripcion avisos = flujo.suscribir();
+            gestor.realizarTransferencia(origen, destino, 1000L, Constantes.Divisa.EUR, "Pago",
+                    Constantes.TipoComision.NINGUNA);
+            assertEquals(3, flujo.getNumPublicados());
+
+            // Lectura por lotes respetando el máximo
+            List<MovimientoPublicado> leidos = new ArrayList<>();
+            assertEquals(2, fraude.leer(leidos, 2));
+            assertEquals(1, fraude.getRetraso());
+            assertEquals(1, fraude.leer(leidos, 10));
+            assertEquals(0, fraude.leer(leidos, 10));
+            assertEquals(List.of(0L, 1L, 2L), leidos.stream()
+                    .map(MovimientoPublicado::secuencia).toList());
+            assertEquals(origen, leidos.get(0).iban());
+            assertEquals(Constantes.TipoMovimiento.INGRESO, leidos.get(0).movimiento().getTipo());
+            assertEquals(destino, leidos.get(2).iban());
+            assertEquals(Constantes.TipoMovimiento.TRANSFERENCIA_RECIBIDA,
+                    leidos.get(2).movimiento().getTipo());
+
+            // Cada suscriptor tiene su propia posición
+            List<MovimientoPublicado> otros = new ArrayList<>();
+            assertEquals(2, avisos.leer(otros, 10));
+            assertEquals(1L, otros.get(0).secuencia());
+            assertEquals(3, flujo.suscribirDesde(0).leer(otros, 10));
+
+            // Un suscriptor que se queda atrás salta al más antiguo conservado
+            FlujoMovimientos pequeno = new FlujoMovimientos(4);
+            FlujoMovimientos.Suscripcion lenta = pequeno.suscribir();
+            Movimiento mov = new Movimiento(Instant.now(), Constantes.TipoMovimiento.INGRESO,
+                    100L, Constantes.Divisa.EUR, "Ingreso", 0L);
+            for (int i = 0; i < 10; i++) {
+                pequeno.publicar(origen, mov, null);
+            }
+            assertEquals(10, lenta.getRetraso());
+            List<MovimientoPublicado> ultimos = new ArrayList<>();
+            assertEquals(4, lenta.leer(ultimos, 100));
+            assertEquals(6, lenta.getPerdidos());
+            assertEquals(6L, ultimos.get(0).secuencia());
+            assertEquals(10L, lenta.getPosicion());
+
+            assertThrows(IllegalArgumentException.class, () -> new FlujoMovimientos(6));
+            assertThrows(IllegalArgumentException.class, () -> flujo.suscribirDesde(-1));
+            assertThrows(IllegalArgumentException.class, () -> fraude.leer(leidos, 0));
+        }
+
+        @Test
+        @DisplayName("3.16. Detector de fraude por velocidad de salidas")
+        void testDetectorFraude() {
+            /*
+             * OBJETIVO: Verificar las tres reglas del detector (número de
+             * salidas, importe y destinos distintos en la ventana), que las
+             * salidas fuera de la ventana dejan de contar y el bloqueo
+             * automático de la cuenta señalada.
+             */
+            GestorCuentas gestor = new GestorCuentas();
+            String[] ibans = new String[6];
+            for (int i = 0; i < ibans.length; i++) {
+                ibans[i] = String.format("ES%022d", i + 1);
+                gestor.crearCuenta(ibans[i], "Titular " + i, Constantes.TipoCuenta.CORRIENTE);
+                gestor.activarCuenta(ibans[i]);
+                gestor.realizarIngreso(ibans[i], 10000_00L, Constantes.Divisa.EUR, "Nómina");
+            }
+
+            DetectorFraude detector = new DetectorFraude(gestor, Duration.ofMinutes(10), 3,
+                    1000_00L, 100, true);
+            List<AlertaFraude> alertas = new ArrayList<>();
+            detector.setOyente(alertas::add);
+
+            // SALIDAS: la cuarta retirada en la ventana bloquea la cuenta
+            for (int i = 0; i < 3; i++) {
+                assertTrue(gestor.realizarRetirada(ibans[0], 10_00L, Constantes.Divisa.EUR,
+                        "Cajero", Constantes.TipoComision.NINGUNA));
+            }
+            assertEquals(3, detector.procesar());
+            assertTrue(alertas.isEmpty());
+            gestor.realizarRetirada(ibans[0], 10_00L, Constantes.Divisa.EUR, "Cajero",
+                    Constantes.TipoComision.NINGUNA);
+            detector.procesar();
+            assertEquals(1, alertas.size());
+            assertEquals(ibans[0], alertas.get(0).iban());
+            assertEquals(AlertaFraude.Motivo.SALIDAS, alertas.get(0).motivo());
+            assertEquals(Constantes.Divisa.EUR, alertas.get(0).divisa());
+            assertTrue(alertas.get(0).bloqueada());
+            assertEquals(Constantes.EstadoCuenta.BLOQUEADA,
+                    gestor.buscarCuenta(ibans[0]).get().getEstado());
+            assertFalse(gestor.realizarRetirada(ibans[0], 10_00L, Constantes.Divisa.EUR,
+                    "Cajero", Constantes.TipoComision.NINGUNA));
+
+            // Las salidas que quedan fuera de la ventana no cuentan
+            CuentaBancaria cuenta = gestor.buscarCuenta(ibans[1]).get();
+            Instant inicio = Instant.now();
+            for (int i = 0; i < 3; i++) {
+                cuenta.registrarMovimiento(new Movimiento(inicio,
+                        Constantes.TipoMovimiento.RETIRADA, 10_00L, Constantes.Divisa.EUR,
+                        "Cajero", 0L));
+            }
+            cuenta.registrarMovimiento(new Movimiento(inicio.plusSeconds(11 * 60),
+                    Constantes.TipoMovimiento.RETIRADA, 10_00L, Constantes.Divisa.EUR,
+                    "Cajero", 0L));
+            detector.procesar();
+            assertEquals(1, alertas.size());
+
+            // IMPORTE: cada divisa por separado
+            gestor.getTablaCambios().actualizar(Constantes.Divisa.USD, new BigDecimal("1.0850"));
+            assertTrue(gestor.cambiarDivisa(ibans[2], 2000_00L, Constantes.Divisa.EUR,
+                    Constantes.Divisa.USD));
+            gestor.realizarRetirada(ibans[2], 900_00L, Constantes.Divisa.EUR, "Cajero",
+                    Constantes.TipoComision.NINGUNA);
+            gestor.realizarRetirada(ibans[2], 900_00L, Constantes.Divisa.USD, "Cajero",
+                    Constantes.TipoComision.NINGUNA);
+            detector.procesar();
+            assertEquals(1, alertas.size());
+            gestor.realizarRetirada(ibans[2], 200_00L, Constantes.Divisa.USD, "Cajero",
+                    Constantes.TipoComision.NINGUNA);
+            detector.procesar();
+            assertEquals(2, alertas.size());
+            assertEquals(AlertaFraude.Motivo.IMPORTE, alertas.get(1).motivo());
+            assertEquals(Constantes.Divisa.USD, alertas.get(1).divisa());
+            assertEquals(2, detector.getNumBloqueadas());
+
+            // DESTINOS, sin bloqueo automático: repetir destino no suma
+            DetectorFraude sinBloqueo = new DetectorFraude(gestor, Duration.ofMinutes(10), 100,
+                    1_000_000_00L, 2, false);
+            List<AlertaFraude> destinos = new ArrayList<>();
+            sinBloqueo.setOyente(destinos::add);
+            for (String destino : new String[] {ibans[4], ibans[5], ibans[4]}) {
+                assertTrue(gestor.realizarTransferencia(ibans[3], destino, 10_00L,
+                        Constantes.Divisa.EUR, "Pago", Constantes.TipoComision.NINGUNA));
+            }
+            sinBloqueo.procesar();
+            assertTrue(destinos.isEmpty());
+            gestor.realizarTransferencia(ibans[3], ibans[1], 10_00L, Constantes.Divisa.EUR,
+                    "Pago", Constantes.TipoComision.NINGUNA);
+            sinBloqueo.procesar();
+            assertEquals(1, destinos.size());
+            assertEquals(AlertaFraude.Motivo.DESTINOS, destinos.get(0).motivo());
+            assertNull(destinos.get(0).divisa());
+            assertFalse(destinos.get(0).bloqueada());
+            assertEquals(Constantes.EstadoCuenta.ACTIVA,
+                    gestor.buscarCuenta(ibans[3]).get().getEstado());
+
+            // Los ingresos no crean estado
+            assertEquals(1, sinBloqueo.getNumCuentasVigiladas());
+
+            assertThrows(IllegalArgumentException.class,
+                    () -> new DetectorFraude(null, true));
+            assertThrows(IllegalArgumentException.class,
+                    () -> new DetectorFraude(gestor, Duration.ofSeconds(1), 3, 100L, 2, true));
+            assertThrows(IllegalArgumentException.class,
+                    () -> new DetectorFraude(gestor, Duration.ofMinutes(10), 0, 100L, 2, true));
+        }
+    }
+
+
+    // ========================================================================
+    // TESTS DEL ALMACÉN DE MOVIMIENTOS FUERA DEL HEAP
+    // ========================================================================
+
+    @Nested
+    @DisplayName("4. AlmacenMovimientos - Históricos fuera del heap")
+    class AlmacenMovimientosTests {
+
+        @Test
+        @DisplayName("4.1. El histórico de cada cuenta es una vista del almacén")
+        void testHistoricoComoVista() {
+            // 2 franjas, segmentos de 8 filas, 5 movimientos por cuenta
+            AlmacenMovimientos almacen = new AlmacenMovimientos(1000, 2, 8, 5,
+                    new DiccionarioDescripciones(100));
+            GestorCuentas gestor = new GestorCuentas(almacen);
+            String ibanA = "ES1111111111111111111111";
+            String ibanB = "ES2222222222222222222222";
+            gestor.crearCuenta(ibanA, "Ana", Constantes.TipoCuenta.CORRIENTE);
+            gestor.crearCuenta(ibanB, "Bruno", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(ibanA);
+            gestor.activarCuenta(ibanB);
+
+            for (int i = 1; i <= 12; i++) {
+                gestor.realizarIngreso(ibanA, i, Constantes.Divisa.EUR, "A" + i);
+                gestor.realizarIngreso(ibanB, 100L + i, Constantes.Divisa.USD, "B" + i);
+            }
+            gestor.realizarRetirada(ibanA, 10L, Constantes.Divisa.EUR, "Cajero",
+                    Constantes.TipoComision.RETIRADA_CAJERO_EXTERNO);
+
+            List<Movimiento> historicoA = gestor.buscarCuenta(ibanA).get().getMovimientos();
+            assertEquals(5, historicoA.size(), "Solo se conservan los 5 más recientes");
+            assertEquals("A9", historicoA.get(0).getDescripcion());
+            assertEquals("A12", historicoA.get(3).getDescripcion());
+            assertEquals(Constantes.TipoMovimiento.RETIRADA, historicoA.get(4).getTipo());
+            assertEquals(Constantes.TipoComision.RETIRADA_CAJERO_EXTERNO,
+                    historicoA.get(4).getTipoComision());
+
+            List<Movimiento> historicoB = gestor.buscarCuenta(ibanB).get().getMovimientos();
+            assertEquals(112L, historicoB.get(4).getImporte());
+            assertEquals(Constantes.Divisa.USD, historicoB.get(4).getDivisa());
+        }
+
+        @Test
+        @DisplayName("4.2. Totales de comisiones y descarte de los segmentos antiguos")
+        void testComisionesYDescarte() {
+            // 1 franja con 2 segmentos de 4 filas: conserva entre 4 y 8 movimientos
+            AlmacenMovimientos almacen = new AlmacenMovimientos(8, 1, 4, 100,
+                    new DiccionarioDescripciones(100));
+            GestorCuentas gestor = new GestorCuentas(almacen);
+            String iban = "ES1234567890123456789012";
+            gestor.crearCuenta(iban, "Test", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(iban);
+
+            gestor.realizarIngreso(iban, 1000000L, Constantes.Divisa.EUR, "Inicial");
+            gestor.realizarRetirada(iban, 10000L, Constantes.Divisa.EUR, "Cajero",
+                    Constantes.TipoComision.RETIRADA_CAJERO_EXTERNO);
+            gestor.realizarRetirada(iban, 20000L, Constantes.Divisa.EUR, "Cajero",
+                    Constantes.TipoComision.RETIRADA_CAJERO_EXTERNO);
+
+            Map<Constantes.TipoComision, Long> totales =
+                    almacen.totalComisiones(Constantes.Divisa.EUR);
+            assertEquals(300L, totales.get(Constantes.TipoComision.RETIRADA_CAJERO_EXTERNO));
+            assertEquals(0L, totales.get(Constantes.TipoComision.CAMBIO_DIVISA));
+
+            // 6 ingresos más: se llena un tercer segmento y se descarta el primero
+            for (int i = 0; i < 6; i++) {
+                gestor.realizarIngreso(iban, 1L, Constantes.Divisa.EUR, "Ingreso");
+            }
+
+            CuentaBancaria cuenta = gestor.buscarCuenta(iban).get();
+            assertEquals(5, almacen.getNumMovimientos());
+            assertEquals(5, cuenta.getNumeroMovimientos());
+            assertEquals(5, cuenta.getMovimientos().size());
+            assertEquals(0L, almacen.totalComisiones(Constantes.Divisa.EUR)
+                    .get(Constantes.TipoComision.RETIRADA_CAJERO_EXTERNO),
+                    "Las comisiones descartadas ya no se cuentan");
+
+            // El resumen no depende de lo que conserven los históricos
+            ResumenBanco resumen = gestor.calcularResumen();
+            assertEquals(7L, resumen.getNumMovimientos(Constantes.TipoMovimiento.INGRESO),
+                    "El resumen cuenta también los ingresos descartados");
+            assertEquals(300L, resumen.getComisiones(Constantes.Divisa.EUR,
+                    Constantes.TipoComision.RETIRADA_CAJERO_EXTERNO));
+        }
     }
-}
\ No newline at end of file
+}
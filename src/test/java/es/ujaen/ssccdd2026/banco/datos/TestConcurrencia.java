@@ -0,0 +1,737 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import es.ujaen.ssccdd2026.banco.Constantes;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Batería de tests de CONCURRENCIA del sistema bancario.
+ *
+ * Estos tests lanzan varios hilos que operan a la vez sobre las mismas
+ * cuentas y comprueban que no se pierden actualizaciones, que no se
+ * producen descubiertos y que no hay interbloqueos.
+ *
+ * @author Profesor
+ */
+@DisplayName("Tests Concurrencia - Sistema Bancario")
+public class TestConcurrencia {
+
+    private static final int NUM_HILOS = 8;
+    private static final int OPERACIONES_POR_HILO = 2000;
+
+    /**
+     * Lanza NUM_HILOS hilos que ejecutan la tarea indicada a la vez y espera
+     * a que terminen todos.
+     */
+    private static void ejecutarEnParalelo(Runnable tarea) throws InterruptedException {
+        CountDownLatch salida = new CountDownLatch(1);
+        List<Thread> hilos = new ArrayList<>();
+
+        for (int i = 0; i < NUM_HILOS; i++) {
+            Thread hilo = new Thread(() -> {
+                try {
+                    salida.await();
+                    tarea.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            hilos.add(hilo);
+            hilo.start();
+        }
+
+        salida.countDown();
+        for (Thread hilo : hilos) {
+            hilo.join();
+        }
+    }
+
+    // ========================================================================
+    // TESTS DE CONCURRENCIA DE GESTORCUENTAS
+    // ========================================================================
+
+    @Nested
+    @DisplayName("1. GestorCuentas con varios hilos")
+    class GestorCuentasConcurrente {
+
+        @Test
+        @DisplayName("1.1. Ingresos concurrentes sin pérdida de actualizaciones")
+        void testIngresosConcurrentes() throws InterruptedException {
+            GestorCuentas gestor = new GestorCuentas();
+            String iban = "ES1234567890123456789012";
+            gestor.crearCuenta(iban, "Test", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(iban);
+
+            ejecutarEnParalelo(() -> {
+                for (int i = 0; i < OPERACIONES_POR_HILO; i++) {
+                    gestor.realizarIngreso(iban, 10L, Constantes.Divisa.EUR, "Ingreso");
+                }
+            });
+
+            assertEquals(10L * NUM_HILOS * OPERACIONES_POR_HILO,
+                    gestor.buscarCuenta(iban).get().getSaldo(Constantes.Divisa.EUR),
+                    "Ningún ingreso debe perderse");
+        }
+
+        @Test
+        @DisplayName("1.2. Retiradas concurrentes sin descubierto")
+        void testRetiradasSinDescubierto() throws InterruptedException {
+            GestorCuentas gestor = new GestorCuentas();
+            String iban = "ES1234567890123456789012";
+            gestor.crearCuenta(iban, "Test", Constantes.TipoCuenta.NOMINA);
+            gestor.activarCuenta(iban);
+            gestor.realizarIngreso(iban, 1000L, Constantes.Divisa.EUR, "Nómina");
+
+            ejecutarEnParalelo(() -> {
+                for (int i = 0; i < OPERACIONES_POR_HILO; i++) {
+                    gestor.realizarRetirada(iban, 7L, Constantes.Divisa.EUR, "Cajero",
+                            Constantes.TipoComision.NINGUNA);
+                }
+            });
+
+            CuentaBancaria cuenta = gestor.buscarCuenta(iban).get();
+            assertEquals(1000L % 7L, cuenta.getSaldo(Constantes.Divisa.EUR),
+                    "Solo deben aceptarse las retiradas que caben en el saldo");
+            assertEquals(1 + 1000 / 7, cuenta.getNumeroMovimientos());
+        }
+
+        @Test
+        @Timeout(value = 30, unit = TimeUnit.SECONDS)
+        @DisplayName("1.3. Transferencias cruzadas sin interbloqueo y con conservación del dinero")
+        void testTransferenciasCruzadas() throws InterruptedException {
+            GestorCuentas gestor = new GestorCuentas();
+            String ibanA = "ES1111111111111111111111";
+            String ibanB = "ES2222222222222222222222";
+            gestor.crearCuenta(ibanA, "A", Constantes.TipoCuenta.CORRIENTE);
+            gestor.crearCuenta(ibanB, "B", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(ibanA);
+            gestor.activarCuenta(ibanB);
+            gestor.realizarIngreso(ibanA, 100000L, Constantes.Divisa.EUR, "Inicial");
+            gestor.realizarIngreso(ibanB, 100000L, Constantes.Divisa.EUR, "Inicial");
+
+            ejecutarEnParalelo(() -> {
+                for (int i = 0; i < OPERACIONES_POR_HILO; i++) {
+                    // La mitad de las veces en cada sentido
+                    if (i % 2 == 0) {
+                        gestor.realizarTransferencia(ibanA, ibanB, 5L, Constantes.Divisa.EUR,
+                                "A→B", Constantes.TipoComision.NINGUNA);
+                    } else {
+                        gestor.realizarTransferencia(ibanB, ibanA, 5L, Constantes.Divisa.EUR,
+                                "B→A", Constantes.TipoComision.NINGUNA);
+                    }
+                }
+            });
+
+            long total = gestor.buscarCuenta(ibanA).get().getSaldo(Constantes.Divisa.EUR)
+                    + gestor.buscarCuenta(ibanB).get().getSaldo(Constantes.Divisa.EUR);
+            assertEquals(200000L, total, "Sin comisiones el dinero total se conserva");
+        }
+
+        @Test
+        @DisplayName("1.4. Retiradas concurrentes sin superar el límite diario")
+        void testLimiteDiarioConcurrente() throws InterruptedException {
+            GestorCuentas gestor = new GestorCuentas();
+            String iban = "ES1234567890123456789012";
+            gestor.crearCuenta(iban, "Test", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(iban);
+            long limite = Constantes.TipoMovimiento.RETIRADA.getLimiteDiario();
+            // Saldo de sobra: lo que frena las retiradas es el límite diario
+            gestor.realizarIngreso(iban, 2 * limite, Constantes.Divisa.EUR, "Inicial");
+
+            AtomicInteger aceptadas = new AtomicInteger();
+            ejecutarEnParalelo(() -> {
+                for (int i = 0; i < OPERACIONES_POR_HILO; i++) {
+                    if (gestor.realizarRetirada(iban, 500L, Constantes.Divisa.EUR, "Cajero",
+                            Constantes.TipoComision.NINGUNA)) {
+                        aceptadas.incrementAndGet();
+                    }
+                }
+            });
+
+            CuentaBancaria cuenta = gestor.buscarCuenta(iban).get();
+            assertEquals(limite / 500L, aceptadas.get(),
+                    "Deben aceptarse exactamente las retiradas que caben en el límite");
+            assertEquals(limite, cuenta.getAcumuladoDiario(Constantes.TipoMovimiento.RETIRADA));
+            assertEquals(limite, cuenta.getSaldo(Constantes.Divisa.EUR));
+        }
+
+        @Test
+        @DisplayName("1.5. Índice por estado consistente con cambios de estado concurrentes")
+        void testIndiceEstadoConcurrente() throws InterruptedException {
+            GestorCuentas gestor = new GestorCuentas();
+            String iban = "ES1234567890123456789012";
+            gestor.crearCuenta(iban, "Test", Constantes.TipoCuenta.CORRIENTE);
+            CuentaBancaria cuenta = gestor.buscarCuenta(iban).get();
+            Constantes.EstadoCuenta[] estados = Constantes.EstadoCuenta.values();
+
+            AtomicInteger turno = new AtomicInteger();
+            ejecutarEnParalelo(() -> {
+                for (int i = 0; i < OPERACIONES_POR_HILO; i++) {
+                    cuenta.setEstado(estados[turno.getAndIncrement() % estados.length]);
+                }
+            });
+
+            // Al terminar, la cuenta solo aparece en el índice de su estado final
+            for (Constantes.EstadoCuenta estado : estados) {
+                assertEquals(estado == cuenta.getEstado() ? 1 : 0,
+                        gestor.buscarPorEstado(estado).size(), "Estado " + estado);
+            }
+        }
+
+        @Test
+        @DisplayName("1.6. Libro mayor al día con operaciones concurrentes")
+        void testLibroMayorConcurrente() throws InterruptedException {
+            GestorCuentas gestor = new GestorCuentas();
+            // Cuentas suficientes para que ningún histórico descarte movimientos
+            String[] ibans = new String[64];
+            for (int i = 0; i < ibans.length; i++) {
+                ibans[i] = String.format("ES%022d", i);
+                gestor.crearCuenta(ibans[i], "Titular " + i, Constantes.TipoCuenta.CORRIENTE);
+                gestor.activarCuenta(ibans[i]);
+            }
+
+            AtomicInteger turno = new AtomicInteger();
+            ejecutarEnParalelo(() -> {
+                for (int i = 0; i < OPERACIONES_POR_HILO; i++) {
+                    int n = turno.getAndIncrement();
+                    String iban = ibans[n % ibans.length];
+                    switch (n % 3) {
+                        case 0 -> gestor.realizarIngreso(iban, 1000L, Constantes.Divisa.EUR,
+                                "Ingreso");
+                        case 1 -> gestor.realizarRetirada(iban, 300L, Constantes.Divisa.EUR,
+                                "Cajero", Constantes.TipoComision.RETIRADA_CAJERO_EXTERNO);
+                        default -> gestor.realizarTransferencia(iban,
+                                ibans[(n + 1) % ibans.length], 200L, Constantes.Divisa.EUR,
+                                "Pago", Constantes.TipoComision.TRANSFERENCIA_OTRA_ENTIDAD);
+                    }
+                }
+            });
+
+            // Con el banco en reposo, los totales coinciden con un recorrido completo
+            LibroMayor libro = gestor.getLibroMayor();
+            ResumenBanco resumen = gestor.calcularResumen();
+            assertEquals(resumen.getSaldoTotal(Constantes.Divisa.EUR),
+                    libro.getSaldoTotal(Constantes.Divisa.EUR));
+            long comisiones = 0;
+            for (Constantes.TipoComision tipo : Constantes.TipoComision.values()) {
+                comisiones += resumen.getComisiones(Constantes.Divisa.EUR, tipo);
+            }
+            assertEquals(comisiones, libro.getTotalComisiones(Constantes.Divisa.EUR));
+            assertEquals(1000L * resumen.getNumMovimientos(Constantes.TipoMovimiento.INGRESO),
+                    libro.getTotalIngresado(Constantes.Divisa.EUR));
+            assertEquals(300L * resumen.getNumMovimientos(Constantes.TipoMovimiento.RETIRADA),
+                    libro.getTotalRetirado(Constantes.Divisa.EUR));
+            assertEquals(libro.getTotalIngresado(Constantes.Divisa.EUR)
+                            - libro.getTotalRetirado(Constantes.Divisa.EUR) - comisiones,
+                    libro.getSaldoTotal(Constantes.Divisa.EUR), "El dinero solo entra y sale por "
+                            + "ingresos, retiradas y comisiones");
+        }
+
+        @Test
+        @DisplayName("1.7. Reintentos simultáneos de la misma petición ejecutados una vez")
+        void testIdempotenciaConcurrente() throws InterruptedException {
+            GestorCuentas gestor = new GestorCuentas();
+            String origen = "ES1111111111111111111111";
+            String destino = "ES2222222222222222222222";
+            gestor.crearCuenta(origen, "Ana", Constantes.TipoCuenta.CORRIENTE);
+            gestor.crearCuenta(destino, "Luis", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(origen);
+            gestor.activarCuenta(destino);
+            gestor.realizarIngreso(origen, 1_000_000L, Constantes.Divisa.EUR, "Inicial");
+
+            // Todos los hilos reintentan las mismas 200 transferencias a la vez
+            ejecutarEnParalelo(() -> {
+                for (int i = 0; i < 200; i++) {
+                    assertTrue(gestor.realizarTransferencia("tr-" + i, origen, destino, 100L,
+                            Constantes.Divisa.EUR, "Pago", Constantes.TipoComision.NINGUNA));
+                }
+            });
+
+            assertEquals(20_000L, gestor.buscarCuenta(destino).get().getSaldo(Constantes.Divisa.EUR));
+            assertEquals(980_000L, gestor.buscarCuenta(origen).get().getSaldo(Constantes.Divisa.EUR));
+            assertEquals(200, gestor.buscarCuenta(destino).get().getNumeroMovimientos());
+        }
+
+        @Test
+        @DisplayName("1.7b. Una petición en curso no deja crecer la caché de reintentos")
+        @Timeout(value = 30, unit = TimeUnit.SECONDS)
+        void testIdempotenciaCapacidadConPeticionEnCurso() throws Exception {
+            CacheIdempotencia cache = new CacheIdempotencia(4, 60);
+            CountDownLatch empezada = new CountDownLatch(1);
+            CountDownLatch liberar = new CountDownLatch(1);
+            AtomicInteger ejecuciones = new AtomicInteger();
+
+            // La petición más antigua se queda en curso en otro hilo
+            CompletableFuture<Integer> lenta = CompletableFuture.supplyAsync(
+                    () -> cache.ejecutar("lenta", "transferencia", () -> {
+                        ejecuciones.incrementAndGet();
+                        empezada.countDown();
+                        try {
+                            liberar.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return 42;
+                    }));
+            assertTrue(empezada.await(5, TimeUnit.SECONDS));
+
+            for (int i = 0; i < 100; i++) {
+                int n = i;
+                assertEquals(n, cache.ejecutar("rapida-" + i, "ingreso", () -> n));
+                assertTrue(cache.tamano() <= 4, "La caché supera su capacidad con "
+                        + cache.tamano() + " entradas");
+            }
+
+            // La petición en curso no se ha descartado: su reintento no la repite
+            liberar.countDown();
+            assertEquals(42, lenta.get(5, TimeUnit.SECONDS));
+            assertEquals(42, cache.ejecutar("lenta", "transferencia", () -> -1));
+            assertEquals(1, ejecuciones.get());
+            assertTrue(cache.tamano() <= 4);
+        }
+
+        @Test
+        @DisplayName("1.8. Flujo de movimientos leído mientras se publica")
+        @Timeout(value = 60, unit = TimeUnit.SECONDS)
+        void testFlujoMovimientosConcurrente() throws Exception {
+            GestorCuentas gestor = new GestorCuentas();
+            String[] ibans = new String[16];
+            for (int i = 0; i < ibans.length; i++) {
+                ibans[i] = String.format("ES%022d", i);
+                gestor.crearCuenta(ibans[i], "Titular " + i, Constantes.TipoCuenta.CORRIENTE);
+                gestor.activarCuenta(ibans[i]);
+            }
+            long total = (long) NUM_HILOS * OPERACIONES_POR_HILO;
+            FlujoMovimientos.Suscripcion suscripcion = gestor.getFlujoMovimientos().suscribir();
+
+            // El consumidor lee a la vez que los hilos publican
+            CompletableFuture<List<MovimientoPublicado>> consumidor = CompletableFuture.supplyAsync(
+                    () -> {
+                        List<MovimientoPublicado> leidos = new ArrayList<>();
+                        try {
+                            while (leidos.size() < total) {
+                                suscripcion.leer(leidos, 256, 10, TimeUnit.MILLISECONDS);
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return leidos;
+                    });
+
+            AtomicInteger turno = new AtomicInteger();
+            ejecutarEnParalelo(() -> {
+                for (int i = 0; i < OPERACIONES_POR_HILO; i++) {
+                    int n = turno.getAndIncrement();
+                    gestor.realizarIngreso(ibans[n % ibans.length], n + 1L,
+                            Constantes.Divisa.EUR, "Ingreso");
+                }
+            });
+
+            // Todos los movimientos, en orden de secuencia y sin pérdidas
+            List<MovimientoPublicado> leidos = consumidor.get(30, TimeUnit.SECONDS);
+            assertEquals(total, leidos.size());
+            assertEquals(0, suscripcion.getPerdidos());
+            long suma = 0;
+            for (int i = 0; i < leidos.size(); i++) {
+                assertEquals(i, leidos.get(i).secuencia());
+                suma += leidos.get(i).movimiento().getImporte();
+            }
+            assertEquals(total * (total + 1) / 2, suma);
+        }
+
+        @Test
+        @DisplayName("1.9. Detector de fraude en su propio hilo")
+        @Timeout(value = 60, unit = TimeUnit.SECONDS)
+        void testDetectorFraudeConcurrente() throws Exception {
+            GestorCuentas gestor = new GestorCuentas();
+            String[] ibans = new String[NUM_HILOS];
+            for (int i = 0; i < ibans.length; i++) {
+                ibans[i] = String.format("ES%022d", i);
+                gestor.crearCuenta(ibans[i], "Titular " + i, Constantes.TipoCuenta.CORRIENTE);
+                gestor.activarCuenta(ibans[i]);
+                gestor.realizarIngreso(ibans[i], 1000_00L, Constantes.Divisa.EUR, "Nómina");
+            }
+
+            // Cada hilo hace 8 retiradas en su cuenta: la sexta dispara la alerta
+            // y, pase lo que pase con las dos últimas, no llegan a otra
+            try (DetectorFraude detector = new DetectorFraude(gestor, Duration.ofMinutes(10), 5,
+                    1_000_000_00L, 5, true)) {
+                detector.iniciar();
+                AtomicInteger turno = new AtomicInteger();
+                ejecutarEnParalelo(() -> {
+                    String iban = ibans[turno.getAndIncrement()];
+                    for (int i = 0; i < 8; i++) {
+                        gestor.realizarRetirada(iban, 1_00L, Constantes.Divisa.EUR, "Cajero",
+                                Constantes.TipoComision.NINGUNA);
+                    }
+                });
+
+                while (detector.getRetraso() > 0 || detector.getNumAlertas() < NUM_HILOS) {
+                    Thread.sleep(1);
+                }
+                assertEquals(NUM_HILOS, detector.getNumAlertas());
+                assertEquals(NUM_HILOS, detector.getNumBloqueadas());
+            }
+
+            for (String iban : ibans) {
+                assertEquals(Constantes.EstadoCuenta.BLOQUEADA,
+                        gestor.buscarCuenta(iban).get().getEstado());
+            }
+        }
+
+        @Test
+        @DisplayName("1.10. Ningún ingreso ni retirada se aplica tras bloquear la cuenta")
+        void testBloqueoInmediato() throws InterruptedException {
+            GestorCuentas gestor = new GestorCuentas();
+            String iban = "ES1234567890123456789012";
+            gestor.crearCuenta(iban, "Test", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(iban);
+            gestor.realizarIngreso(iban, 1000000L, Constantes.Divisa.EUR, "Inicial");
+            CuentaBancaria cuenta = gestor.buscarCuenta(iban).get();
+
+            // Un hilo bloquea la cuenta mientras los demás ingresan y retiran
+            AtomicInteger turno = new AtomicInteger();
+            AtomicLong saldoAlBloquear = new AtomicLong(-1);
+            ejecutarEnParalelo(() -> {
+                if (turno.getAndIncrement() == 0) {
+                    while (cuenta.getNumeroMovimientos() < 100) {
+                        Thread.onSpinWait();
+                    }
+                    assertTrue(gestor.bloquearCuenta(iban));
+                    saldoAlBloquear.set(cuenta.getSaldo(Constantes.Divisa.EUR));
+                    return;
+                }
+                for (int i = 0; i < OPERACIONES_POR_HILO; i++) {
+                    gestor.realizarIngreso(iban, 10L, Constantes.Divisa.EUR, "Ingreso");
+                    gestor.realizarRetirada(iban, 3L, Constantes.Divisa.EUR, "Cajero",
+                            Constantes.TipoComision.NINGUNA);
+                }
+            });
+
+            assertEquals(saldoAlBloquear.get(), cuenta.getSaldo(Constantes.Divisa.EUR),
+                    "El saldo no debe cambiar después de que bloquearCuenta devuelva true");
+        }
+
+        @Test
+        @Timeout(value = 10, unit = TimeUnit.SECONDS)
+        @DisplayName("1.11. Ingresos y retiradas no esperan al cerrojo de la cuenta")
+        void testRetiradaSinCerrojo() throws Exception {
+            GestorCuentas gestor = new GestorCuentas();
+            String iban = "ES1234567890123456789012";
+            gestor.crearCuenta(iban, "Test", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(iban);
+            CuentaBancaria cuenta = gestor.buscarCuenta(iban).get();
+
+            // Con el cerrojo en manos de este hilo, otro hilo ingresa y retira
+            cuenta.getCerrojo().lock();
+            try {
+                assertTrue(CompletableFuture.supplyAsync(() ->
+                        gestor.realizarIngreso(iban, 1000L, Constantes.Divisa.EUR, "Ingreso")
+                        && gestor.realizarRetirada(iban, 400L, Constantes.Divisa.EUR,
+                                "Cajero", Constantes.TipoComision.NINGUNA))
+                        .get(5, TimeUnit.SECONDS));
+            } finally {
+                cuenta.getCerrojo().unlock();
+            }
+            assertEquals(600L, cuenta.getSaldo(Constantes.Divisa.EUR));
+        }
+    }
+
+
+    // ========================================================================
+    // TESTS DE CONCURRENCIA DE CUENTABANCARIA
+    // ========================================================================
+
+    @Nested
+    @DisplayName("2. CuentaBancaria con varios hilos")
+    class CuentaBancariaConcurrente {
+
+        @Test
+        @DisplayName("2.1. Débito condicional atómico sin descubierto")
+        void testDebitoCondicional() throws InterruptedException {
+            CuentaBancaria cuenta = new CuentaBancaria(
+                    "ES1234567890123456789012", "Test", Constantes.TipoCuenta.NOMINA);
+            cuenta.registrarMovimiento(new Movimiento(Instant.now(),
+                    Constantes.TipoMovimiento.INGRESO, 10000L, Constantes.Divisa.USD, "Nómina", 0L));
+
+            AtomicInteger aceptadas = new AtomicInteger();
+            ejecutarEnParalelo(() -> {
+                for (int i = 0; i < OPERACIONES_POR_HILO; i++) {
+                    Movimiento retirada = new Movimiento(Instant.now(),
+                            Constantes.TipoMovimiento.RETIRADA, 9L, Constantes.Divisa.USD, "Cajero", 1L);
+                    if (cuenta.registrarMovimientoSiSaldoSuficiente(retirada)) {
+                        aceptadas.incrementAndGet();
+                    }
+                }
+            });
+
+            assertEquals(10000 / 10, aceptadas.get(),
+                    "Deben aceptarse exactamente las retiradas que caben en el saldo");
+            assertEquals(0L, cuenta.getSaldo(Constantes.Divisa.USD));
+        }
+    }
+
+
+    // ========================================================================
+    // TESTS DE SERVICIOBANCARIO (hilos virtuales)
+    // ========================================================================
+
+    @Nested
+    @DisplayName("3. ServicioBancario con hilos virtuales")
+    class ServicioBancarioConcurrente {
+
+        @Test
+        @Timeout(value = 30, unit = TimeUnit.SECONDS)
+        @DisplayName("3.1. Muchas órdenes concurrentes sin superar el máximo en curso por cuenta")
+        void testOrdenesConcurrentes() {
+            String ibanA = "ES1111111111111111111111";
+            String ibanB = "ES2222222222222222222222";
+            int maxEnCurso = 2;
+
+            // Gestor que anota cuántos ingresos se ejecutan a la vez
+            AtomicInteger enCurso = new AtomicInteger();
+            AtomicInteger maximoVisto = new AtomicInteger();
+            GestorCuentas gestor = new GestorCuentas() {
+                @Override
+                public boolean realizarIngreso(String iban, long cantidad,
+                                               Constantes.Divisa divisa, String descripcion) {
+                    maximoVisto.accumulateAndGet(enCurso.incrementAndGet(), Math::max);
+                    try {
+                        Thread.yield();
+                        return super.realizarIngreso(iban, cantidad, divisa, descripcion);
+                    } finally {
+                        enCurso.decrementAndGet();
+                    }
+                }
+            };
+            gestor.crearCuenta(ibanA, "A", Constantes.TipoCuenta.CORRIENTE);
+            gestor.crearCuenta(ibanB, "B", Constantes.TipoCuenta.CORRIENTE);
+
+            int numOrdenes = NUM_HILOS * OPERACIONES_POR_HILO;
+            List<CompletableFuture<Boolean>> resultados = new ArrayList<>();
+            try (ServicioBancario servicio = new ServicioBancario(gestor, maxEnCurso)) {
+                assertTrue(servicio.activarCuenta(ibanA).join());
+                assertTrue(servicio.activarCuenta(ibanB).join());
+
+                for (int i = 0; i < numOrdenes; i++) {
+                    resultados.add(servicio.realizarIngreso(ibanA, 10L, Constantes.Divisa.EUR,
+                            "Ingreso"));
+                }
+                CompletableFuture.allOf(resultados.toArray(new CompletableFuture[0])).join();
+                assertEquals(0, servicio.getEnCurso(ibanA));
+
+                // Transferencias cruzadas: los permisos se toman en orden de IBAN
+                resultados.clear();
+                for (int i = 0; i < numOrdenes; i++) {
+                    resultados.add(i % 2 == 0
+                            ? servicio.realizarTransferencia(ibanA, ibanB, 5L,
+                                    Constantes.Divisa.EUR, "A→B", Constantes.TipoComision.NINGUNA)
+                            : servicio.realizarTransferencia(ibanB, ibanA, 5L,
+                                    Constantes.Divisa.EUR, "B→A", Constantes.TipoComision.NINGUNA));
+                }
+                CompletableFuture.allOf(resultados.toArray(new CompletableFuture[0])).join();
+                assertEquals(0, servicio.getNumCuentasConPermisos(),
+                        "Sin órdenes pendientes no debe quedar ningún semáforo");
+
+                assertFalse(servicio.realizarIngreso("ES0000000000000000000000", 10L,
+                        Constantes.Divisa.EUR, "No existe").join());
+            }
+
+            assertTrue(maximoVisto.get() <= maxEnCurso,
+                    "No puede haber más de " + maxEnCurso + " órdenes en curso por cuenta");
+            long total = gestor.buscarCuenta(ibanA).get().getSaldo(Constantes.Divisa.EUR)
+                    + gestor.buscarCuenta(ibanB).get().getSaldo(Constantes.Divisa.EUR);
+            assertEquals(10L * numOrdenes, total, "Sin comisiones el dinero total se conserva");
+        }
+    }
+
+
+    // ========================================================================
+    // TESTS DEL MOTOR POR PARTICIONES
+    // ========================================================================
+
+    @Nested
+    @DisplayName("4. MotorParticiones (un hilo por partición)")
+    class MotorParticionesConcurrente {
+
+        @Test
+        @Timeout(value = 30, unit = TimeUnit.SECONDS)
+        @DisplayName("4.1. Transferencias entre particiones con conservación del dinero")
+        void testTransferenciasEntreParticiones() throws InterruptedException {
+            GestorCuentas gestor = new GestorCuentas();
+            int numCuentas = 8;
+            String[] ibans = new String[numCuentas];
+            for (int i = 0; i < numCuentas; i++) {
+                ibans[i] = String.format("ES%022d", i);
+                gestor.crearCuenta(ibans[i], "Titular " + i, Constantes.TipoCuenta.CORRIENTE);
+            }
+
+            try (MotorParticiones motor = new MotorParticiones(gestor, 4, 64)) {
+                for (String iban : ibans) {
+                    assertTrue(motor.activarCuenta(iban).join());
+                    assertTrue(motor.realizarIngreso(iban, 100000L, Constantes.Divisa.EUR,
+                            "Inicial").join());
+                }
+
+                ejecutarEnParalelo(() -> {
+                    List<CompletableFuture<Boolean>> resultados = new ArrayList<>();
+                    for (int i = 0; i < OPERACIONES_POR_HILO; i++) {
+                        int origen = i % numCuentas;
+                        int destino = (i * 3 + 1) % numCuentas;
+                        resultados.add(motor.realizarTransferencia(ibans[origen], ibans[destino],
+                                5L, Constantes.Divisa.EUR, "Pago",
+                                Constantes.TipoComision.NINGUNA));
+                        // A mitad de camino se bloquea una cuenta: las transferencias
+                        // hacia ella se rechazan o se devuelven al origen
+                        if (i == OPERACIONES_POR_HILO / 2) {
+                            motor.bloquearCuenta(ibans[numCuentas - 1]);
+                        }
+                    }
+                    resultados.forEach(CompletableFuture::join);
+                });
+            }
+
+            long total = 0;
+            for (String iban : ibans) {
+                total += gestor.buscarCuenta(iban).get().getSaldo(Constantes.Divisa.EUR);
+            }
+            assertEquals(100000L * numCuentas, total,
+                    "Sin comisiones el dinero total se conserva, también con devoluciones");
+            assertEquals(total, gestor.getLibroMayor().getSaldoTotal(Constantes.Divisa.EUR));
+            assertEquals(Constantes.EstadoCuenta.BLOQUEADA,
+                    gestor.buscarCuenta(ibans[numCuentas - 1]).get().getEstado());
+        }
+
+        @Test
+        @Timeout(value = 30, unit = TimeUnit.SECONDS)
+        @DisplayName("4.1b. Con comisiones y devoluciones, solo faltan las comisiones cobradas")
+        void testComisionesEntreParticiones() throws InterruptedException {
+            GestorCuentas gestor = new GestorCuentas();
+            int numCuentas = 8;
+            String[] ibans = new String[numCuentas];
+            for (int i = 0; i < numCuentas; i++) {
+                ibans[i] = String.format("ES%022d", i);
+                gestor.crearCuenta(ibans[i], "Titular " + i, Constantes.TipoCuenta.CORRIENTE);
+            }
+
+            try (MotorParticiones motor = new MotorParticiones(gestor, 4, 64)) {
+                for (String iban : ibans) {
+                    assertTrue(motor.activarCuenta(iban).join());
+                    assertTrue(motor.realizarIngreso(iban, 100000L, Constantes.Divisa.EUR,
+                            "Inicial").join());
+                }
+
+                ejecutarEnParalelo(() -> {
+                    List<CompletableFuture<Boolean>> resultados = new ArrayList<>();
+                    for (int i = 0; i < OPERACIONES_POR_HILO; i++) {
+                        int origen = i % numCuentas;
+                        int destino = (i * 3 + 1) % numCuentas;
+                        // 200 al 0,5%: 1 céntimo de comisión por transferencia
+                        resultados.add(motor.realizarTransferencia(ibans[origen], ibans[destino],
+                                200L, Constantes.Divisa.EUR, "Pago",
+                                Constantes.TipoComision.TRANSFERENCIA_OTRA_ENTIDAD));
+                        if (i == OPERACIONES_POR_HILO / 2) {
+                            motor.bloquearCuenta(ibans[numCuentas - 1]);
+                        }
+                    }
+                    resultados.forEach(CompletableFuture::join);
+                });
+            }
+
+            long total = 0;
+            for (String iban : ibans) {
+                total += gestor.buscarCuenta(iban).get().getSaldo(Constantes.Divisa.EUR);
+            }
+            LibroMayor libro = gestor.getLibroMayor();
+            assertEquals(100000L * numCuentas - libro.getTotalComisiones(Constantes.Divisa.EUR),
+                    total, "Una devolución no devuelve la comisión que anota el libro");
+            assertEquals(libro.getTotalComisiones(Constantes.Divisa.EUR),
+                    libro.getComisiones(Constantes.Divisa.EUR,
+                            Constantes.TipoComision.TRANSFERENCIA_OTRA_ENTIDAD));
+            assertEquals(total, libro.getSaldoTotal(Constantes.Divisa.EUR));
+        }
+
+        @Test
+        @DisplayName("4.2. Validaciones y rechazo de gestores con diario")
+        void testValidaciones(@TempDir Path directorio) throws Exception {
+            GestorCuentas gestor = new GestorCuentas();
+            String iban = "ES1111111111111111111111";
+            gestor.crearCuenta(iban, "Ana", Constantes.TipoCuenta.CORRIENTE);
+
+            MotorParticiones motor = new MotorParticiones(gestor, 2);
+            assertFalse(motor.realizarIngreso(iban, 100L, Constantes.Divisa.EUR, "Inactiva").join());
+            assertTrue(motor.activarCuenta(iban).join());
+            assertFalse(motor.realizarIngreso(iban, 0L, Constantes.Divisa.EUR, "Cantidad 0").join());
+            assertFalse(motor.realizarIngreso("ES0000000000000000000000", 100L,
+                    Constantes.Divisa.EUR, "No existe").join());
+            assertTrue(motor.realizarIngreso(iban, 100L, Constantes.Divisa.EUR, "Ingreso").join());
+            assertFalse(motor.realizarRetirada(iban, 200L, Constantes.Divisa.EUR, "Sin saldo",
+                    Constantes.TipoComision.NINGUNA).join());
+            motor.close();
+
+            assertEquals(100L, gestor.buscarCuenta(iban).get().getSaldo(Constantes.Divisa.EUR));
+            assertThrows(IllegalStateException.class, () ->
+                    motor.realizarIngreso(iban, 100L, Constantes.Divisa.EUR, "Cerrado"));
+            assertThrows(IllegalArgumentException.class, () -> new MotorParticiones(gestor, 2, 100));
+
+            try (DiarioMovimientos diario = new DiarioMovimientos(directorio)) {
+                GestorCuentas persistente = GestorCuentas.abrir(diario);
+                assertThrows(IllegalArgumentException.class,
+                        () -> new MotorParticiones(persistente, 2));
+            }
+        }
+
+        @Test
+        @DisplayName("4.3. Mismas reglas y métricas que GestorCuentas")
+        void testMismasReglasQueGestor() {
+            GestorCuentas gestor = new GestorCuentas();
+            String iban = "ES1111111111111111111111";
+            gestor.crearCuenta(iban, "Ana", Constantes.TipoCuenta.CORRIENTE);
+
+            try (MotorParticiones motor = new MotorParticiones(gestor, 2)) {
+                assertTrue(motor.activarCuenta(iban).join());
+                assertTrue(motor.realizarIngreso(iban, 1000L, Constantes.Divisa.EUR,
+                        "Ingreso").join());
+                assertFalse(motor.realizarIngreso(iban, 0L, Constantes.Divisa.EUR,
+                        "Cantidad 0").join());
+                assertFalse(motor.realizarRetirada(iban, 2000L, Constantes.Divisa.EUR,
+                        "Sin saldo", Constantes.TipoComision.NINGUNA).join());
+                // Transferencia a la propia cuenta: se admite, como en el gestor
+                assertTrue(motor.realizarTransferencia(iban, iban, 300L, Constantes.Divisa.EUR,
+                        "A mí mismo", Constantes.TipoComision.NINGUNA).join());
+                assertFalse(motor.cambiarDivisa(iban, 100L, Constantes.Divisa.EUR,
+                        Constantes.Divisa.EUR).join());
+            }
+
+            assertEquals(1000L, gestor.buscarCuenta(iban).get().getSaldo(Constantes.Divisa.EUR));
+
+            MetricasOperaciones metricas = gestor.getMetricas();
+            assertEquals(2, metricas.getLatencias(MetricasOperaciones.Operacion.INGRESO)
+                    .getNumMedidas());
+            assertEquals(1, metricas.getRechazos(MetricasOperaciones.Operacion.INGRESO,
+                    Constantes.MotivoRechazo.IMPORTE_NO_VALIDO));
+            assertEquals(1, metricas.getRechazos(MetricasOperaciones.Operacion.RETIRADA,
+                    Constantes.MotivoRechazo.SALDO_INSUFICIENTE));
+            assertEquals(1, metricas.getLatencias(MetricasOperaciones.Operacion.TRANSFERENCIA)
+                    .getNumMedidas());
+            assertEquals(1, metricas.getRechazos(MetricasOperaciones.Operacion.CAMBIO_DIVISA,
+                    Constantes.MotivoRechazo.CAMBIO_NO_DISPONIBLE));
+        }
+    }
+}
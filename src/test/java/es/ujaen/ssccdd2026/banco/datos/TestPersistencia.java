@@ -0,0 +1,440 @@
+package es.ujaen.ssccdd2026.banco.datos;
+
+import es.ujaen.ssccdd2026.banco.Constantes;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Batería de tests de PERSISTENCIA del sistema bancario.
+ *
+ * Comprueban que, tras cerrar y volver a abrir el gestor, las cuentas
+ * (estado, saldos e histórico) se reconstruyen exactamente.
+ *
+ * @author Profesor
+ */
+@DisplayName("Tests Persistencia - Sistema Bancario")
+public class TestPersistencia {
+
+    private static final String IBAN_A = "ES1111111111111111111111";
+    private static final String IBAN_B = "ES2222222222222222222222";
+
+    /**
+     * Comprueba que dos cuentas tienen los mismos datos, saldos e histórico.
+     */
+    private static void assertCuentasIguales(CuentaBancaria esperada, CuentaBancaria actual) {
+        assertEquals(esperada.getIban(), actual.getIban());
+        assertEquals(esperada.getTitular(), actual.getTitular());
+        assertEquals(esperada.getTipo(), actual.getTipo());
+        assertEquals(esperada.getEstado(), actual.getEstado());
+        assertEquals(esperada.getSaldos(), actual.getSaldos());
+
+        List<String> movEsperados = new ArrayList<>();
+        for (Movimiento mov : esperada.getMovimientos()) {
+            movEsperados.add(mov.toString() + " " + mov.getDescripcion());
+        }
+        List<String> movActuales = new ArrayList<>();
+        for (Movimiento mov : actual.getMovimientos()) {
+            movActuales.add(mov.toString() + " " + mov.getDescripcion());
+        }
+        assertEquals(movEsperados, movActuales);
+    }
+
+    /**
+     * Comprueba que el libro mayor de dos gestores tiene los mismos saldos totales.
+     */
+    private static void assertSaldosTotalesIguales(GestorCuentas esperado, GestorCuentas actual) {
+        for (Constantes.Divisa divisa : Constantes.Divisa.values()) {
+            assertEquals(esperado.getLibroMayor().getSaldoTotal(divisa),
+                    actual.getLibroMayor().getSaldoTotal(divisa), "Saldo total en " + divisa);
+        }
+    }
+
+    /**
+     * Realiza unas cuantas operaciones de todo tipo sobre el gestor.
+     */
+    private static void operar(GestorCuentas gestor) {
+        gestor.crearCuenta(IBAN_A, "Ana", Constantes.TipoCuenta.NOMINA);
+        gestor.crearCuenta(IBAN_B, "Bruno", Constantes.TipoCuenta.EMPRESA);
+        gestor.activarCuenta(IBAN_A);
+        gestor.activarCuenta(IBAN_B);
+        gestor.realizarIngreso(IBAN_A, 100000L, Constantes.Divisa.EUR, "Nómina");
+        gestor.realizarIngreso(IBAN_A, 5000L, Constantes.Divisa.USD, "Dólares");
+        gestor.realizarRetirada(IBAN_A, 2000L, Constantes.Divisa.EUR, "Cajero",
+                Constantes.TipoComision.RETIRADA_CAJERO_EXTERNO);
+        gestor.realizarTransferencia(IBAN_A, IBAN_B, 30000L, Constantes.Divisa.EUR, "Pago",
+                Constantes.TipoComision.TRANSFERENCIA_OTRA_ENTIDAD);
+        gestor.getTablaCambios().actualizar(Constantes.Divisa.USD, new BigDecimal("1.0850"));
+        gestor.cambiarDivisa(IBAN_A, 10000L, Constantes.Divisa.EUR, Constantes.Divisa.USD);
+        gestor.bloquearCuenta(IBAN_B);
+    }
+
+    /**
+     * Ficheros del directorio cuyo nombre empieza por el prefijo, ordenados.
+     */
+    private static List<Path> ficheros(Path directorio, String prefijo) throws IOException {
+        try (Stream<Path> lista = Files.list(directorio)) {
+            return lista.filter(f -> f.getFileName().toString().startsWith(prefijo))
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+    }
+
+    // ========================================================================
+    // TESTS DEL DIARIO DE MOVIMIENTOS
+    // ========================================================================
+
+    @Nested
+    @DisplayName("1. Diario de movimientos")
+    class DiarioTests {
+
+        @Test
+        @DisplayName("1.1. Reproducir el diario reconstruye las cuentas")
+        void testReproducirDiario(@TempDir Path directorio) throws IOException {
+
+            GestorCuentas original;
+            try (DiarioMovimientos diario = new DiarioMovimientos(directorio)) {
+                original = GestorCuentas.abrir(diario);
+                operar(original);
+            }
+
+            try (DiarioMovimientos diario = new DiarioMovimientos(directorio)) {
+                GestorCuentas recuperado = GestorCuentas.abrir(diario);
+
+                assertEquals(2, recuperado.getNumCuentas());
+                assertCuentasIguales(original.buscarCuenta(IBAN_A).get(),
+                        recuperado.buscarCuenta(IBAN_A).get());
+                assertCuentasIguales(original.buscarCuenta(IBAN_B).get(),
+                        recuperado.buscarCuenta(IBAN_B).get());
+                // Los índices secundarios se reconstruyen al recuperar las cuentas
+                assertEquals(List.of(recuperado.buscarCuenta(IBAN_B).get()),
+                        recuperado.buscarPorEstado(Constantes.EstadoCuenta.BLOQUEADA));
+                assertEquals(1, recuperado.buscarPorTitular("Ana").size());
+                assertSaldosTotalesIguales(original, recuperado);
+
+                // Tras recuperar se sigue anotando al final del diario
+                recuperado.realizarIngreso(IBAN_A, 1L, Constantes.Divisa.EUR, "Tras reinicio");
+            }
+
+            try (DiarioMovimientos diario = new DiarioMovimientos(directorio)) {
+                GestorCuentas recuperado = GestorCuentas.abrir(diario);
+                assertEquals(original.buscarCuenta(IBAN_A).get().getSaldo(Constantes.Divisa.EUR) + 1L,
+                        recuperado.buscarCuenta(IBAN_A).get().getSaldo(Constantes.Divisa.EUR));
+            }
+        }
+
+        @Test
+        @DisplayName("1.2. Un registro final incompleto se descarta")
+        void testColaIncompleta(@TempDir Path directorio) throws IOException {
+
+            try (DiarioMovimientos diario = new DiarioMovimientos(directorio)) {
+                GestorCuentas gestor = GestorCuentas.abrir(diario);
+                gestor.crearCuenta(IBAN_A, "Ana", Constantes.TipoCuenta.CORRIENTE);
+                gestor.activarCuenta(IBAN_A);
+                gestor.realizarIngreso(IBAN_A, 700L, Constantes.Divisa.EUR, "Primero");
+                gestor.realizarIngreso(IBAN_A, 300L, Constantes.Divisa.EUR, "Segundo");
+            }
+
+            // Simular una caída a mitad de escribir el último registro
+            Path segmento = ficheros(directorio, "diario-").get(0);
+            try (FileChannel canal = FileChannel.open(segmento, StandardOpenOption.WRITE)) {
+                canal.truncate(canal.size() - 5);
+            }
+
+            try (DiarioMovimientos diario = new DiarioMovimientos(directorio)) {
+                GestorCuentas recuperado = GestorCuentas.abrir(diario);
+                CuentaBancaria cuenta = recuperado.buscarCuenta(IBAN_A).get();
+                assertEquals(700L, cuenta.getSaldo(Constantes.Divisa.EUR),
+                        "Solo debe recuperarse el ingreso completo");
+                assertEquals(1, cuenta.getNumeroMovimientos());
+            }
+        }
+
+        @Test
+        @DisplayName("1.3. Operaciones concurrentes con commit en grupo")
+        void testCommitEnGrupo(@TempDir Path directorio) throws Exception {
+            int hilos = 8;
+            int ingresosPorHilo = 200;
+
+            try (DiarioMovimientos diario = new DiarioMovimientos(directorio)) {
+                GestorCuentas gestor = GestorCuentas.abrir(diario);
+                gestor.crearCuenta(IBAN_A, "Ana", Constantes.TipoCuenta.CORRIENTE);
+                gestor.activarCuenta(IBAN_A);
+
+                List<Thread> lista = new ArrayList<>();
+                for (int h = 0; h < hilos; h++) {
+                    Thread hilo = new Thread(() -> {
+                        for (int i = 0; i < ingresosPorHilo; i++) {
+                            assertTrue(gestor.realizarIngreso(IBAN_A, 1L,
+                                    Constantes.Divisa.EUR, "Ingreso"));
+                        }
+                    });
+                    lista.add(hilo);
+                    hilo.start();
+                }
+                for (Thread hilo : lista) {
+                    hilo.join();
+                }
+            }
+
+            try (DiarioMovimientos diario = new DiarioMovimientos(directorio)) {
+                GestorCuentas recuperado = GestorCuentas.abrir(diario);
+                assertEquals((long) hilos * ingresosPorHilo,
+                        recuperado.buscarCuenta(IBAN_A).get().getSaldo(Constantes.Divisa.EUR));
+            }
+        }
+
+        @Test
+        @DisplayName("1.4. Tras un fallo del diario el gestor no admite más modificaciones")
+        void testFalloDiario(@TempDir Path directorio) throws IOException {
+            DiarioMovimientos diario = new DiarioMovimientos(directorio);
+            GestorCuentas gestor = GestorCuentas.abrir(diario);
+            gestor.crearCuenta(IBAN_A, "Ana", Constantes.TipoCuenta.CORRIENTE);
+            gestor.activarCuenta(IBAN_A);
+            gestor.realizarIngreso(IBAN_A, 1000L, Constantes.Divisa.EUR, "Nómina");
+            CuentaBancaria cuenta = gestor.buscarCuenta(IBAN_A).get();
+
+            // Con el fichero cerrado, la siguiente escritura del diario falla
+            diario.close();
+            assertThrows(UncheckedIOException.class, () -> gestor.realizarIngreso(IBAN_A, 500L,
+                    Constantes.Divisa.EUR, "Sin durabilidad"));
+            assertEquals(1500L, cuenta.getSaldo(Constantes.Divisa.EUR),
+                    "La operación que falla queda aplicada en memoria");
+
+            assertThrows(IllegalStateException.class, () -> gestor.realizarIngreso(IBAN_A, 1L,
+                    Constantes.Divisa.EUR, "Rechazado"));
+            assertThrows(IllegalStateException.class, () -> gestor.bloquearCuenta(IBAN_A));
+            assertThrows(IllegalStateException.class, () -> gestor.crearCuenta(IBAN_B, "Bruno",
+                    Constantes.TipoCuenta.CORRIENTE));
+            assertEquals(1500L, cuenta.getSaldo(Constantes.Divisa.EUR));
+            assertEquals(Constantes.EstadoCuenta.ACTIVA, cuenta.getEstado());
+
+            // Al reiniciar se recupera lo que llegó a disco
+            try (DiarioMovimientos otro = new DiarioMovimientos(directorio)) {
+                GestorCuentas recuperado = GestorCuentas.abrir(otro);
+                assertEquals(1000L, recuperado.buscarCuenta(IBAN_A).get()
+                        .getSaldo(Constantes.Divisa.EUR));
+            }
+        }
+    }
+
+
+    // ========================================================================
+    // TESTS DE INSTANTÁNEAS
+    // ========================================================================
+
+    @Nested
+    @DisplayName("2. Instantáneas")
+    class InstantaneaTests {
+
+        @Test
+        @DisplayName("2.1. Instantánea más cola del diario reconstruye las cuentas")
+        void testInstantaneaYCola(@TempDir Path directorio) throws IOException {
+            GestorCuentas original;
+            try (DiarioMovimientos diario = new DiarioMovimientos(directorio)) {
+                original = GestorCuentas.abrir(diario);
+                operar(original);
+                original.guardarInstantanea();
+
+                // Operaciones posteriores: solo quedan en el segmento nuevo
+                original.realizarIngreso(IBAN_A, 123L, Constantes.Divisa.GBP, "Libras");
+                original.realizarRetirada(IBAN_A, 100L, Constantes.Divisa.EUR, "Cajero",
+                        Constantes.TipoComision.NINGUNA);
+                // Sin cotización para GBP la retirada se hace igual
+                assertTrue(original.realizarRetirada(IBAN_A, 50L, Constantes.Divisa.GBP,
+                        "Cajero", Constantes.TipoComision.NINGUNA));
+            }
+
+            assertEquals(1, ficheros(directorio, "instantanea-").size());
+            assertEquals(1, ficheros(directorio, "diario-").size(),
+                    "Los segmentos anteriores a la instantánea deben borrarse");
+
+            try (DiarioMovimientos diario = new DiarioMovimientos(directorio)) {
+                GestorCuentas recuperado = GestorCuentas.abrir(diario);
+
+                assertEquals(2, recuperado.getNumCuentas());
+                assertCuentasIguales(original.buscarCuenta(IBAN_A).get(),
+                        recuperado.buscarCuenta(IBAN_A).get());
+                assertCuentasIguales(original.buscarCuenta(IBAN_B).get(),
+                        recuperado.buscarCuenta(IBAN_B).get());
+                // Los índices secundarios se reconstruyen al recuperar las cuentas
+                assertEquals(List.of(recuperado.buscarCuenta(IBAN_B).get()),
+                        recuperado.buscarPorEstado(Constantes.EstadoCuenta.BLOQUEADA));
+                assertEquals(1, recuperado.buscarPorTitular("Ana").size());
+                assertSaldosTotalesIguales(original, recuperado);
+
+                // Límites diarios (en euros) de la instantánea y de la cola del
+                // diario; las libras, sin cotización, por su valor nominal
+                CuentaBancaria cuentaA = recuperado.buscarCuenta(IBAN_A).get();
+                assertEquals(2150L, cuentaA.getAcumuladoDiario(Constantes.TipoMovimiento.RETIRADA));
+                assertEquals(30000L, cuentaA.getAcumuladoDiario(
+                        Constantes.TipoMovimiento.TRANSFERENCIA_ENVIADA));
+            }
+        }
+
+        @Test
+        @DisplayName("2.2. Instantánea tomada con operaciones en curso")
+        void testInstantaneaConTrafico(@TempDir Path directorio) throws Exception {
+            AtomicBoolean parar = new AtomicBoolean();
+            long[] ingresados = new long[1];
+
+            try (DiarioMovimientos diario = new DiarioMovimientos(directorio)) {
+                GestorCuentas gestor = GestorCuentas.abrir(diario);
+                gestor.crearCuenta(IBAN_A, "Ana", Constantes.TipoCuenta.CORRIENTE);
+                gestor.crearCuenta(IBAN_B, "Bruno", Constantes.TipoCuenta.CORRIENTE);
+                gestor.activarCuenta(IBAN_A);
+                gestor.activarCuenta(IBAN_B);
+                gestor.realizarIngreso(IBAN_A, 1000000L, Constantes.Divisa.EUR, "Inicial");
+
+                Thread trafico = new Thread(() -> {
+                    while (!parar.get()) {
+                        gestor.realizarIngreso(IBAN_B, 1L, Constantes.Divisa.EUR, "Ingreso");
+                        gestor.realizarTransferencia(IBAN_A, IBAN_B, 1L, Constantes.Divisa.EUR,
+                                "Pago", Constantes.TipoComision.NINGUNA);
+                        ingresados[0]++;
+                    }
+                });
+                trafico.start();
+                for (int i = 0; i < 5; i++) {
+                    gestor.guardarInstantanea();
+                }
+                parar.set(true);
+                trafico.join();
+            }
+
+            try (DiarioMovimientos diario = new DiarioMovimientos(directorio)) {
+                GestorCuentas recuperado = GestorCuentas.abrir(diario);
+                long saldoA = recuperado.buscarCuenta(IBAN_A).get().getSaldo(Constantes.Divisa.EUR);
+                long saldoB = recuperado.buscarCuenta(IBAN_B).get().getSaldo(Constantes.Divisa.EUR);
+
+                assertEquals(1000000L - ingresados[0], saldoA);
+                assertEquals(2 * ingresados[0], saldoB,
+                        "Ningún registro debe perderse ni aplicarse dos veces");
+            }
+        }
+    }
+
+
+    // ========================================================================
+    // TESTS DE LA CODIFICACIÓN DE MOVIMIENTOS
+    // ========================================================================
+
+    @Nested
+    @DisplayName("3. Codificación de movimientos")
+    class CodecTests {
+
+        @Test
+        @DisplayName("3.1. Codificar y decodificar conserva todos los campos")
+        void testIdaYVuelta() throws IOException {
+            Movimiento mov = new Movimiento(Instant.parse("2026-03-01T10:15:30.123456789Z"),
+                    Constantes.TipoMovimiento.RETIRADA, 12345L, Constantes.Divisa.GBP, "Cajero", 200L);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            CodecMovimiento.escribir(new DataOutputStream(bytes), mov);
+            Movimiento leido = CodecMovimiento.leer(
+                    new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+            assertEquals(mov.getInstante(), leido.getInstante());
+            assertEquals(mov.getTipo(), leido.getTipo());
+            assertEquals(mov.getImporte(), leido.getImporte());
+            assertEquals(mov.getDivisa(), leido.getDivisa());
+            assertEquals(mov.getDescripcion(), leido.getDescripcion());
+            assertEquals(mov.getComision(), leido.getComision());
+            assertTrue(bytes.size() <= 8 + 2 + 3 + 2 + 2 + "Cajero".length(),
+                    "Los importes pequeños deben ocupar pocos bytes");
+        }
+
+        @Test
+        @DisplayName("3.2. El histórico conserva las descripciones con el diccionario lleno")
+        void testDiccionarioLleno() {
+            HistoricoEnMemoria historico =
+                    new HistoricoEnMemoria(4, new DiccionarioDescripciones(1));
+            for (int i = 0; i < 6; i++) {
+                historico.anadir(new Movimiento(Instant.now(), Constantes.TipoMovimiento.INGRESO,
+                        1L + i, Constantes.Divisa.EUR, "Concepto " + (i % 3), 0L));
+            }
+
+            List<String> descripciones = new ArrayList<>();
+            for (Movimiento mov : historico.copiar()) {
+                descripciones.add(mov.getDescripcion());
+            }
+            assertEquals(List.of("Concepto 2", "Concepto 0", "Concepto 1", "Concepto 2"),
+                    descripciones);
+        }
+
+        @Test
+        @DisplayName("3.3. Un instante fuera del rango codificable se rechaza")
+        void testInstanteFueraDeRango() {
+            assertThrows(IllegalArgumentException.class, () ->
+                    new Movimiento(Instant.parse("2300-01-01T00:00:00Z"),
+                            Constantes.TipoMovimiento.INGRESO, 1L, Constantes.Divisa.EUR, "Futuro", 0L));
+        }
+
+        @Test
+        @DisplayName("3.4. El sentido de un cambio de divisa se conserva")
+        void testSentidoCambioDivisa() throws IOException {
+            Movimiento salida = new Movimiento(Instant.now(), Constantes.TipoMovimiento.CAMBIO_DIVISA,
+                    1000L, Constantes.Divisa.EUR, "Cambio a USD", 0L, null, true);
+            Movimiento entrada = new Movimiento(Instant.now(), Constantes.TipoMovimiento.CAMBIO_DIVISA,
+                    1085L, Constantes.Divisa.USD, "Cambio de EUR", 8L,
+                    Constantes.TipoComision.CAMBIO_DIVISA, false);
+
+            // Codificación e histórico en memoria
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            CodecMovimiento.escribir(new DataOutputStream(bytes), salida);
+            CodecMovimiento.escribir(new DataOutputStream(bytes), entrada);
+            DataInputStream lectura =
+                    new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            assertTrue(CodecMovimiento.leer(lectura).esDebito());
+            assertFalse(CodecMovimiento.leer(lectura).esDebito());
+
+            HistoricoEnMemoria historico =
+                    new HistoricoEnMemoria(4, new DiccionarioDescripciones(16));
+            historico.anadir(salida);
+            historico.anadir(entrada);
+            List<Movimiento> copia = historico.copiar();
+            assertTrue(copia.get(0).esDebito());
+            assertFalse(copia.get(1).esDebito());
+            assertEquals(Constantes.TipoComision.CAMBIO_DIVISA, copia.get(1).getTipoComision());
+
+            // Un registro sin sentido toma el del tipo (CAMBIO_DIVISA: crédito)
+            ByteArrayOutputStream antiguo = new ByteArrayOutputStream();
+            DataOutputStream salidaAntigua = new DataOutputStream(antiguo);
+            for (Constantes.TipoMovimiento tipo : List.of(Constantes.TipoMovimiento.RETIRADA,
+                    Constantes.TipoMovimiento.CAMBIO_DIVISA)) {
+                salidaAntigua.writeLong(0L);
+                salidaAntigua.writeByte(tipo.ordinal());
+                salidaAntigua.writeByte(Constantes.Divisa.EUR.ordinal());
+                salidaAntigua.writeByte(0);
+                salidaAntigua.writeByte(100);
+                salidaAntigua.writeByte(0);
+                salidaAntigua.writeUTF("Antiguo");
+            }
+            DataInputStream lecturaAntigua =
+                    new DataInputStream(new ByteArrayInputStream(antiguo.toByteArray()));
+            assertTrue(CodecMovimiento.leer(lecturaAntigua).esDebito());
+            assertFalse(CodecMovimiento.leer(lecturaAntigua).esDebito());
+        }
+    }
+}